@@ -0,0 +1,107 @@
+package br.com.recrutamento.eds.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.com.recrutamento.eds.CarrinhoCompras;
+import br.com.recrutamento.eds.Produto;
+import br.com.recrutamento.eds.VisaoItem;
+
+/**
+ * Benchmarks das operações de um carrinho de compras com uma quantidade de itens.
+ *
+ * Cada thread usa o seu próprio carrinho. As operações de remoção incluem novamente o item removido,
+ * mantendo o tamanho do carrinho constante durante a medição.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CarrinhoComprasBenchmark {
+
+	@Param({ "10", "100", "1000", "10000" })
+	private int quantidadeItens;
+
+	private CarrinhoCompras carrinho;
+	private Produto[] produtos;
+	private BigDecimal valorUnitario;
+	private int proximo;
+	private long proximoCodigo;
+
+	@Setup(Level.Iteration)
+	public void setup() {
+		carrinho = new CarrinhoCompras("BENCHMARK");
+		produtos = new Produto[quantidadeItens];
+		valorUnitario = new BigDecimal("19.90");
+		for (int i = 0; i < quantidadeItens; i++) {
+			produtos[i] = new Produto(Long.valueOf(i + 1), "Descricao_Produto_" + (i + 1));
+			carrinho.adicionarItem(produtos[i], valorUnitario, 1);
+		}
+		proximoCodigo = quantidadeItens + 1;
+	}
+
+	/**
+	 * Inclui um produto que já está no carrinho, somando a quantidade.
+	 */
+	@Benchmark
+	public void adicionarItemExistente() {
+		carrinho.adicionarItem(proximoProduto(), valorUnitario, 1);
+	}
+
+	@Benchmark
+	public boolean removerItemPorProduto() {
+		Produto produto = proximoProduto();
+		boolean removido = carrinho.removerItem(produto);
+		carrinho.adicionarItem(produto, valorUnitario, 1);
+		return removido;
+	}
+
+	/**
+	 * Remove o item do meio do carrinho, o pior caso para uma lista encadeada, e inclui um produto novo
+	 * no final para manter a quantidade de itens.
+	 */
+	@Benchmark
+	public boolean removerItemPorPosicao() {
+		boolean removido = carrinho.removerItem(quantidadeItens / 2);
+		carrinho.adicionarItem(new Produto(Long.valueOf(proximoCodigo++), "Descricao_Produto"), valorUnitario, 1);
+		return removido;
+	}
+
+	@Benchmark
+	public BigDecimal getValorTotal() {
+		return carrinho.getValorTotal();
+	}
+
+	/**
+	 * Percorre a visão publicada do carrinho, como uma thread de exibição que não bloqueia as alterações.
+	 */
+	@Benchmark
+	public int percorrerVisao() {
+		int quantidade = 0;
+		for (VisaoItem item : carrinho.getVisao().getItens()) {
+			quantidade += item.getQuantidade();
+		}
+		return quantidade;
+	}
+
+	private Produto proximoProduto() {
+		Produto produto = produtos[proximo];
+		proximo = (proximo + 1) % quantidadeItens;
+		return produto;
+	}
+}
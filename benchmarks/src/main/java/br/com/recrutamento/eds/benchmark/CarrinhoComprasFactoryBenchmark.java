@@ -0,0 +1,112 @@
+package br.com.recrutamento.eds.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.com.recrutamento.eds.CarrinhoCompras;
+import br.com.recrutamento.eds.CarrinhoComprasFactory;
+import br.com.recrutamento.eds.EstatisticasCarrinhos;
+import br.com.recrutamento.eds.Produto;
+
+/**
+ * Benchmarks da CarrinhoComprasFactory no modo concorrente, com uma quantidade de carrinhos
+ * compartilhada por todas as threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CarrinhoComprasFactoryBenchmark {
+
+	@Param({ "1000", "100000", "1000000" })
+	private int quantidadeCarrinhos;
+
+	@Param({ "5" })
+	private int itensPorCarrinho;
+
+	@Param({ "false", "true" })
+	private boolean metricas;
+
+	private CarrinhoComprasFactory factory;
+	private String[] clientes;
+	private Produto produto;
+	private BigDecimal valorUnitario;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		factory = new CarrinhoComprasFactory(true);
+		clientes = new String[quantidadeCarrinhos];
+		valorUnitario = new BigDecimal("19.90");
+		produto = new Produto(1L, "Descricao_Produto");
+
+		for (int i = 0; i < quantidadeCarrinhos; i++) {
+			clientes[i] = "CLIENTE-" + i;
+			CarrinhoCompras carrinho = factory.criar(clientes[i]);
+			for (int j = 0; j < itensPorCarrinho; j++) {
+				carrinho.adicionarItem(new Produto(Long.valueOf(j + 1), "Descricao_Produto"), valorUnitario, 1);
+			}
+		}
+		if (metricas) {
+			factory.habilitarMetricas();
+		}
+	}
+
+	/**
+	 * Recupera o carrinho de um cliente existente.
+	 */
+	@Benchmark
+	public CarrinhoCompras criar() {
+		return factory.criar(clienteAleatorio());
+	}
+
+	/**
+	 * Invalida o carrinho de um cliente e o cria novamente, mantendo a quantidade de carrinhos.
+	 */
+	@Benchmark
+	public CarrinhoCompras invalidarECriar() {
+		String cliente = clienteAleatorio();
+		factory.invalidar(cliente);
+		return factory.criar(cliente);
+	}
+
+	/**
+	 * Soma a quantidade de um produto que já está no carrinho de um cliente.
+	 */
+	@Benchmark
+	public void adicionarItem() {
+		factory.criar(clienteAleatorio()).adicionarItem(produto, valorUnitario, 1);
+	}
+
+	@Benchmark
+	public BigDecimal getValorTicketMedio() {
+		return factory.getValorTicketMedio();
+	}
+
+	/**
+	 * Calcula as estatísticas percorrendo todos os carrinhos em paralelo.
+	 */
+	@Benchmark
+	public EstatisticasCarrinhos calcularEstatisticas() {
+		return factory.calcularEstatisticas();
+	}
+
+	private String clienteAleatorio() {
+		return clientes[ThreadLocalRandom.current().nextInt(quantidadeCarrinhos)];
+	}
+}
@@ -0,0 +1,97 @@
+package br.com.recrutamento.eds.benchmark;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import br.com.recrutamento.eds.CarrinhoCompras;
+import br.com.recrutamento.eds.CarrinhoComprasFactory;
+import br.com.recrutamento.eds.CarrinhoComprasListener;
+import br.com.recrutamento.eds.Item;
+import br.com.recrutamento.eds.Produto;
+
+/**
+ * Compara a adição dos itens de uma compra anterior item a item com a adição em lote.
+ *
+ * Cada invocação cria o carrinho na factory, adiciona todos os itens e invalida o carrinho. Um décimo
+ * dos itens repete um produto anterior com outro valor unitário. Com listenerRegistrado a factory possui
+ * um listener, como quando os carrinhos são gravados pelo CarrinhoComprasDao, e cada aviso de
+ * alteração tem custo.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CarrinhoComprasLoteBenchmark {
+
+	@Param({ "100", "1000", "10000" })
+	private int quantidadeItens;
+
+	@Param({ "false", "true" })
+	private boolean listenerRegistrado;
+
+	private CarrinhoComprasFactory factory;
+	private List<Item> lote;
+	private String identificacaoCliente;
+
+	@Setup(Level.Trial)
+	public void setup(BenchmarkParams parametros, ThreadParams thread) {
+		factory = new CarrinhoComprasFactory(parametros.getThreads() > 1);
+		if (listenerRegistrado) {
+			factory.adicionarListener(new CarrinhoComprasListener() {
+				@Override
+				public void carrinhoAlterado(CarrinhoCompras carrinho) {
+					carrinho.getValorTotal();
+				}
+			});
+		}
+		identificacaoCliente = "BENCHMARK-" + thread.getThreadIndex();
+
+		lote = new ArrayList<Item>(quantidadeItens);
+		BigDecimal valorUnitario = new BigDecimal("19.90");
+		BigDecimal valorPromocional = new BigDecimal("17.90");
+		for (int i = 0; i < quantidadeItens; i++) {
+			if (i % 10 == 9) {
+				lote.add(new Item(lote.get(i / 2).getProduto(), valorPromocional, 1));
+			} else {
+				lote.add(new Item(new Produto(Long.valueOf(i + 1), "Descricao_Produto_" + (i + 1)), valorUnitario, 1));
+			}
+		}
+	}
+
+	@Benchmark
+	public BigDecimal adicionarItemAItem() {
+		CarrinhoCompras carrinho = factory.criar(identificacaoCliente);
+		for (Item item : lote) {
+			carrinho.adicionarItem(item.getProduto(), item.getValorUnitario(), item.getQuantidade());
+		}
+		factory.invalidar(identificacaoCliente);
+		return carrinho.getValorTotal();
+	}
+
+	@Benchmark
+	public BigDecimal adicionarItensEmLote() {
+		CarrinhoCompras carrinho = factory.criar(identificacaoCliente);
+		carrinho.adicionarItens(lote);
+		factory.invalidar(identificacaoCliente);
+		return carrinho.getValorTotal();
+	}
+}
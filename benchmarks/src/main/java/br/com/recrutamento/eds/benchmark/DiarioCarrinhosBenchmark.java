@@ -0,0 +1,100 @@
+package br.com.recrutamento.eds.benchmark;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.com.recrutamento.eds.CarrinhoCompras;
+import br.com.recrutamento.eds.CarrinhoComprasFactory;
+import br.com.recrutamento.eds.DiarioCarrinhos;
+import br.com.recrutamento.eds.Produto;
+
+/**
+ * Mede a quantidade de alterações de itens por segundo com e sem o diário associado à factory.
+ *
+ * Cada alteração adiciona uma unidade de um dos 1000 produtos em um dos 10000 carrinhos e gera um evento
+ * no diário, gravado no diretório temporário do sistema. A última medição do diário aguarda a gravação
+ * de todos os eventos, de modo que a vazão medida é a do disco.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DiarioCarrinhosBenchmark {
+
+	private static final int QUANTIDADE_CARRINHOS = 10000;
+	private static final int QUANTIDADE_PRODUTOS = 1000;
+
+	@Param({ "false", "true" })
+	private boolean diarioAssociado;
+
+	private CarrinhoComprasFactory factory;
+	private DiarioCarrinhos diario;
+	private Path diretorio;
+	private CarrinhoCompras[] carrinhos;
+	private Produto[] produtos;
+	private BigDecimal valorUnitario;
+	private int contador;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		factory = new CarrinhoComprasFactory(true);
+		if (diarioAssociado) {
+			diretorio = Files.createTempDirectory("diario-benchmark");
+			diario = new DiarioCarrinhos(diretorio);
+			factory.setDiario(diario);
+		}
+		carrinhos = new CarrinhoCompras[QUANTIDADE_CARRINHOS];
+		for (int i = 0; i < carrinhos.length; i++) {
+			carrinhos[i] = factory.criar("BENCHMARK-" + i);
+		}
+		produtos = new Produto[QUANTIDADE_PRODUTOS];
+		for (int i = 0; i < produtos.length; i++) {
+			produtos[i] = new Produto(Long.valueOf(i + 1), "Descricao_Produto_" + (i + 1));
+		}
+		valorUnitario = new BigDecimal("19.90");
+	}
+
+	@TearDown(Level.Iteration)
+	public void sincronizar() throws IOException {
+		if (diario != null) {
+			diario.sincronizar();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		if (diario != null) {
+			diario.close();
+			try (Stream<Path> arquivos = Files.walk(diretorio)) {
+				arquivos.sorted(Comparator.reverseOrder()).forEach(arquivo -> arquivo.toFile().delete());
+			}
+		}
+	}
+
+	@Benchmark
+	public void adicionarItem() {
+		int indice = contador++;
+		carrinhos[indice % QUANTIDADE_CARRINHOS].adicionarItem(produtos[(indice / 7) % QUANTIDADE_PRODUTOS], valorUnitario, 1);
+	}
+}
@@ -0,0 +1,36 @@
+package br.com.recrutamento.eds.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Executa os benchmarks do carrinho de compras.
+ *
+ * Os argumentos são as opções de linha de comando do JMH. Quando a quantidade de threads não é
+ * informada (-t), os benchmarks são executados com 1, 2, 4 e 8 threads; o profiler de alocação (gc)
+ * é sempre incluído.
+ */
+public class ExecutarBenchmarks {
+
+	private static final int[] THREADS = { 1, 2, 4, 8 };
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions linhaComando = new CommandLineOptions(args);
+
+		if (linhaComando.getThreads().hasValue()) {
+			new Runner(new OptionsBuilder().parent(linhaComando).addProfiler(GCProfiler.class).build()).run();
+			return;
+		}
+		for (int threads : THREADS) {
+			Options opcoes = new OptionsBuilder()
+					.parent(linhaComando)
+					.threads(threads)
+					.addProfiler(GCProfiler.class)
+					.build();
+			new Runner(opcoes).run();
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package br.com.recrutamento.eds.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Mede a quantidade de leituras por segundo de linhas de uma tabela CACHED do HSQLDB que não estão no
+ * cache, com uma conexão por thread.
+ *
+ * A tabela tem 100000 linhas e o cache do banco guarda 1000, de modo que quase toda leitura busca a
+ * linha no arquivo .data, que fica no cache de páginas do sistema operacional. Sem nioDataFile o
+ * arquivo não é mapeado em memória e as linhas são lidas pela sua posição no arquivo; com nioDataFile
+ * são decodificadas do mapeamento. Exige o jar do HSQLDB no classpath (lib/hsqldb-2.5.0.jar).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LeituraCacheHsqldbBenchmark {
+
+	private static final int QUANTIDADE_LINHAS = 100000;
+	private static final String DESCRICAO = "Descricao_Produto_......................................................";
+
+	@Param({ "false", "true" })
+	private boolean nioDataFile;
+
+	private Path diretorio;
+	private String url;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, SQLException, ClassNotFoundException {
+		Class.forName("org.hsqldb.jdbc.JDBCDriver");
+		diretorio = Files.createTempDirectory("cache-hsqldb-benchmark");
+		url = "jdbc:hsqldb:file:" + diretorio.resolve("banco") + ";hsqldb.cache_rows=1000;hsqldb.cache_size=1000"
+				+ ";hsqldb.nio_data_file=" + nioDataFile;
+		try (Connection conexao = DriverManager.getConnection(url, "SA", "");
+				Statement statement = conexao.createStatement()) {
+			statement.execute("CREATE CACHED TABLE PRODUTO(CODIGO BIGINT PRIMARY KEY, DESCRICAO VARCHAR(200))");
+			conexao.setAutoCommit(false);
+			try (PreparedStatement insert = conexao.prepareStatement("INSERT INTO PRODUTO VALUES(?, ?)")) {
+				for (int i = 1; i <= QUANTIDADE_LINHAS; i++) {
+					insert.setLong(1, i);
+					insert.setString(2, DESCRICAO + i);
+					insert.addBatch();
+					if (i % 1000 == 0) {
+						insert.executeBatch();
+					}
+				}
+			}
+			conexao.commit();
+			statement.execute("CHECKPOINT");
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException, SQLException {
+		try (Connection conexao = DriverManager.getConnection(url, "SA", "");
+				Statement statement = conexao.createStatement()) {
+			statement.execute("SHUTDOWN");
+		}
+		try (Stream<Path> arquivos = Files.walk(diretorio)) {
+			arquivos.sorted(Comparator.reverseOrder()).forEach(arquivo -> arquivo.toFile().delete());
+		}
+	}
+
+	/**
+	 * Conexão e consulta de cada thread.
+	 */
+	@State(Scope.Thread)
+	public static class Sessao {
+
+		private Connection conexao;
+		private PreparedStatement select;
+		private Random random;
+
+		@Setup(Level.Trial)
+		public void setup(LeituraCacheHsqldbBenchmark benchmark, ThreadParams thread) throws SQLException {
+			conexao = DriverManager.getConnection(benchmark.url, "SA", "");
+			select = conexao.prepareStatement("SELECT DESCRICAO FROM PRODUTO WHERE CODIGO = ?");
+			random = new Random(thread.getThreadIndex());
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws SQLException {
+			conexao.close();
+		}
+	}
+
+	@Benchmark
+	public String lerLinha(Sessao sessao) throws SQLException {
+		sessao.select.setLong(1, sessao.random.nextInt(QUANTIDADE_LINHAS) + 1);
+		try (ResultSet resultado = sessao.select.executeQuery()) {
+			resultado.next();
+			return resultado.getString(1);
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package br.com.recrutamento.eds.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.com.recrutamento.eds.ValorMonetario;
+
+/**
+ * Compara o cálculo do valor total de itens em BigDecimal, como era feito em Item e CarrinhoCompras,
+ * com o mesmo cálculo em ValorMonetario e com o cálculo em long sem escala, como Item e CarrinhoCompras
+ * mantêm hoje os valores totais, criando ValorMonetario apenas ao publicar o valor total.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ValorMonetarioBenchmark {
+
+	private static final int ITENS = 100;
+
+	private BigDecimal[] valoresDecimais;
+	private ValorMonetario[] valoresMonetarios;
+	private long[] valoresSemEscala;
+	private int[] quantidades;
+
+	@Setup
+	public void setup() {
+		valoresDecimais = new BigDecimal[ITENS];
+		valoresMonetarios = new ValorMonetario[ITENS];
+		valoresSemEscala = new long[ITENS];
+		quantidades = new int[ITENS];
+		for (int i = 0; i < ITENS; i++) {
+			valoresDecimais[i] = new BigDecimal((i + 1) + ".99");
+			valoresMonetarios[i] = ValorMonetario.de(valoresDecimais[i]);
+			valoresSemEscala[i] = valoresDecimais[i].unscaledValue().longValue();
+			quantidades[i] = 1 + i % 7;
+		}
+	}
+
+	@Benchmark
+	public BigDecimal somarItensBigDecimal() {
+		BigDecimal valorTotal = BigDecimal.ZERO;
+
+		for (int i = 0; i < ITENS; i++) {
+			valorTotal = valorTotal.add(valoresDecimais[i].multiply(new BigDecimal(quantidades[i])));
+		}
+		return valorTotal;
+	}
+
+	@Benchmark
+	public ValorMonetario somarItensValorMonetario() {
+		ValorMonetario valorTotal = ValorMonetario.ZERO;
+
+		for (int i = 0; i < ITENS; i++) {
+			valorTotal = valorTotal.somar(valoresMonetarios[i].multiplicar(quantidades[i]));
+		}
+		return valorTotal;
+	}
+
+	@Benchmark
+	public long somarItensSemEscala() {
+		long valorTotal = 0L;
+
+		for (int i = 0; i < ITENS; i++) {
+			valorTotal = Math.addExact(valorTotal, Math.multiplyExact(valoresSemEscala[i], (long) quantidades[i]));
+		}
+		return valorTotal;
+	}
+}
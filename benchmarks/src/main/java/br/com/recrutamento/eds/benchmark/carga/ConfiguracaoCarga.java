@@ -0,0 +1,211 @@
+package br.com.recrutamento.eds.benchmark.carga;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configuração de uma execução do gerador de carga, lida das opções de linha de comando no formato
+ * --nome=valor:
+ *
+ * <pre>
+ * --clientes=10000        quantidade de clientes simulados (identificações distintas)
+ * --threads=4             threads que executam as operações dos clientes
+ * --modo=fechado          fechado (cada thread aguarda a resposta antes da próxima operação)
+ *                         ou aberto (as operações são iniciadas na taxa alvo, independente das respostas)
+ * --taxa=0                operações por segundo somando todas as threads; zero(0) no modo fechado
+ *                         executa sem limite, no modo aberto é obrigatória
+ * --duracao=60s           tempo de medição (ms, s, m ou h)
+ * --aquecimento=10s       tempo de execução antes da medição, sem registro de latências
+ * --relatorio=10s         intervalo dos relatórios parciais; zero(0) apenas o relatório final
+ * --mistura=criar=15,...  pesos das operações; as omitidas ficam com peso zero(0)
+ * --produtos=50           quantidade de produtos distintos do catálogo
+ * --expiracao=0           tempo máximo ocioso dos carrinhos; zero(0) sem expiração
+ * </pre>
+ */
+class ConfiguracaoCarga {
+
+	private int clientes = 10000;
+	private int threads = 4;
+	private boolean aberto;
+	private long taxa;
+	private long duracao = TimeUnit.SECONDS.toNanos(60);
+	private long aquecimento = TimeUnit.SECONDS.toNanos(10);
+	private long intervaloRelatorio = TimeUnit.SECONDS.toNanos(10);
+	private int[] pesos = new int[OperacaoCarga.values().length];
+	private int produtos = 50;
+	private long expiracao;
+
+	ConfiguracaoCarga() {
+		for (OperacaoCarga operacao : OperacaoCarga.values()) {
+			pesos[operacao.ordinal()] = operacao.getPesoPadrao();
+		}
+	}
+
+	static ConfiguracaoCarga ler(String... args) {
+		ConfiguracaoCarga configuracao = new ConfiguracaoCarga();
+
+		for (String arg : args) {
+			int separador = arg.indexOf('=');
+			if (!arg.startsWith("--") || separador < 0) {
+				throw new IllegalArgumentException("Falha na carga: Opção inválida: " + arg + ".");
+			}
+			String nome = arg.substring(2, separador);
+			String valor = arg.substring(separador + 1);
+
+			switch (nome) {
+			case "clientes":
+				configuracao.clientes = Integer.parseInt(valor);
+				break;
+			case "threads":
+				configuracao.threads = Integer.parseInt(valor);
+				break;
+			case "modo":
+				if (!"aberto".equals(valor) && !"fechado".equals(valor)) {
+					throw new IllegalArgumentException("Falha na carga: O modo deve ser aberto ou fechado.");
+				}
+				configuracao.aberto = "aberto".equals(valor);
+				break;
+			case "taxa":
+				configuracao.taxa = Long.parseLong(valor);
+				break;
+			case "duracao":
+				configuracao.duracao = lerTempo(valor);
+				break;
+			case "aquecimento":
+				configuracao.aquecimento = lerTempo(valor);
+				break;
+			case "relatorio":
+				configuracao.intervaloRelatorio = lerTempo(valor);
+				break;
+			case "mistura":
+				configuracao.pesos = lerMistura(valor);
+				break;
+			case "produtos":
+				configuracao.produtos = Integer.parseInt(valor);
+				break;
+			case "expiracao":
+				configuracao.expiracao = lerTempo(valor);
+				break;
+			default:
+				throw new IllegalArgumentException("Falha na carga: Opção desconhecida: " + nome + ".");
+			}
+		}
+		configuracao.validar();
+		return configuracao;
+	}
+
+	private void validar() {
+		if (clientes <= 0 || threads <= 0 || produtos <= 0) {
+			throw new IllegalArgumentException("Falha na carga: As quantidades de clientes, threads e produtos devem ser maiores que zero(0).");
+		}
+		if (duracao <= 0) {
+			throw new IllegalArgumentException("Falha na carga: A duração deve ser maior que zero(0).");
+		}
+		if (taxa < 0 || (aberto && taxa == 0)) {
+			throw new IllegalArgumentException("Falha na carga: O modo aberto exige uma taxa maior que zero(0).");
+		}
+		if (getSomaPesos() <= 0) {
+			throw new IllegalArgumentException("Falha na carga: A mistura deve ter ao menos uma operação com peso.");
+		}
+	}
+
+	private static int[] lerMistura(String valor) {
+		int[] pesos = new int[OperacaoCarga.values().length];
+
+		for (String parte : valor.split(",")) {
+			int separador = parte.indexOf('=');
+			if (separador < 0) {
+				throw new IllegalArgumentException("Falha na carga: Mistura inválida: " + parte + ".");
+			}
+			int peso = Integer.parseInt(parte.substring(separador + 1));
+			if (peso < 0) {
+				throw new IllegalArgumentException("Falha na carga: O peso das operações não pode ser negativo.");
+			}
+			pesos[OperacaoCarga.porNome(parte.substring(0, separador)).ordinal()] = peso;
+		}
+		return pesos;
+	}
+
+	private static long lerTempo(String valor) {
+		if ("0".equals(valor)) {
+			return 0;
+		}
+		if (valor.endsWith("ms")) {
+			return TimeUnit.MILLISECONDS.toNanos(Long.parseLong(valor.substring(0, valor.length() - 2)));
+		}
+		long quantidade = Long.parseLong(valor.substring(0, valor.length() - 1));
+		switch (valor.charAt(valor.length() - 1)) {
+		case 's':
+			return TimeUnit.SECONDS.toNanos(quantidade);
+		case 'm':
+			return TimeUnit.MINUTES.toNanos(quantidade);
+		case 'h':
+			return TimeUnit.HOURS.toNanos(quantidade);
+		default:
+			throw new IllegalArgumentException("Falha na carga: Tempo inválido: " + valor + ".");
+		}
+	}
+
+	/**
+	 * Sorteia uma operação conforme os pesos da mistura.
+	 *
+	 * @param sorteio Valor entre zero(0) e a soma dos pesos (exclusive).
+	 * @return
+	 */
+	OperacaoCarga operacao(int sorteio) {
+		for (OperacaoCarga operacao : OperacaoCarga.values()) {
+			sorteio -= pesos[operacao.ordinal()];
+			if (sorteio < 0) {
+				return operacao;
+			}
+		}
+		throw new IllegalStateException();
+	}
+
+	int getSomaPesos() {
+		int soma = 0;
+		for (int peso : pesos) {
+			soma += peso;
+		}
+		return soma;
+	}
+
+	int getPeso(OperacaoCarga operacao) {
+		return pesos[operacao.ordinal()];
+	}
+
+	int getClientes() {
+		return clientes;
+	}
+
+	int getThreads() {
+		return threads;
+	}
+
+	boolean isAberto() {
+		return aberto;
+	}
+
+	long getTaxa() {
+		return taxa;
+	}
+
+	long getDuracao() {
+		return duracao;
+	}
+
+	long getAquecimento() {
+		return aquecimento;
+	}
+
+	long getIntervaloRelatorio() {
+		return intervaloRelatorio;
+	}
+
+	int getProdutos() {
+		return produtos;
+	}
+
+	long getExpiracao() {
+		return expiracao;
+	}
+}
@@ -0,0 +1,19 @@
+package br.com.recrutamento.eds.benchmark.carga;
+
+/**
+ * Executa o gerador de carga com as opções descritas em ConfiguracaoCarga, por exemplo:
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar br.com.recrutamento.eds.benchmark.carga.ExecutarCarga \
+ *     --modo=aberto --taxa=50000 --clientes=100000 --duracao=30m --relatorio=1m
+ * </pre>
+ *
+ * Execuções longas (soak) acompanham nos relatórios parciais a evolução do heap após as coletas, que
+ * revela carrinhos ou estruturas retidos indevidamente.
+ */
+public class ExecutarCarga {
+
+	public static void main(String[] args) throws Exception {
+		new GeradorCarga(ConfiguracaoCarga.ler(args), System.out).executar();
+	}
+}
@@ -0,0 +1,357 @@
+package br.com.recrutamento.eds.benchmark.carga;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import br.com.recrutamento.eds.CarrinhoComprasFactory;
+import br.com.recrutamento.eds.Produto;
+
+/**
+ * Gera carga sobre uma CarrinhoComprasFactory no modo concorrente, simulando os clientes conforme a
+ * ConfiguracaoCarga, e imprime a vazão, os percentis de latência, o crescimento do heap e o tempo de GC.
+ *
+ * No modo fechado a latência é medida do início ao fim de cada operação; com uma taxa, cada thread
+ * espera o seu intervalo antes da próxima operação, sem compensar os atrasos. No modo aberto cada
+ * operação tem um horário de início planejado pela taxa, e a latência (resposta) é medida a partir desse
+ * horário: uma pausa do carrinho ou do GC atrasa as operações seguintes e o atraso entra nas latências
+ * delas, em vez de ser omitido (coordinated omission). O tempo de serviço, medido do início real, também
+ * é informado.
+ */
+class GeradorCarga {
+
+	private static final double[] PERCENTIS = { 50, 90, 99, 99.9, 100 };
+	private static final String[] ROTULOS_PERCENTIS = { "p50", "p90", "p99", "p99.9", "máx" };
+
+	private final ConfiguracaoCarga configuracao;
+	private final PrintStream saida;
+	private final CarrinhoComprasFactory factory = new CarrinhoComprasFactory(true);
+	private final String[] clientes;
+	private final Produto[] produtos;
+	private final BigDecimal[] valoresUnitarios;
+	private final ClienteSimulado[] simulados;
+	private final AtomicLong erros = new AtomicLong();
+	private volatile RuntimeException primeiroErro;
+	private long inicioMedicao;
+	private long maximoHeapAposGc;
+
+	GeradorCarga(ConfiguracaoCarga configuracao, PrintStream saida) {
+		this.configuracao = configuracao;
+		this.saida = saida;
+
+		clientes = new String[configuracao.getClientes()];
+		for (int i = 0; i < clientes.length; i++) {
+			clientes[i] = "CLIENTE-" + i;
+		}
+		produtos = new Produto[configuracao.getProdutos()];
+		valoresUnitarios = new BigDecimal[produtos.length];
+		for (int i = 0; i < produtos.length; i++) {
+			produtos[i] = new Produto(Long.valueOf(i + 1), "Produto " + (i + 1));
+			valoresUnitarios[i] = BigDecimal.valueOf(100 + i * 37 % 9900, 2);
+		}
+		simulados = new ClienteSimulado[configuracao.getThreads()];
+	}
+
+	/**
+	 * Executa o aquecimento e a medição, imprimindo os relatórios parciais e o final.
+	 *
+	 * @throws InterruptedException
+	 */
+	void executar() throws InterruptedException {
+		if (configuracao.getExpiracao() > 0) {
+			factory.configurarExpiracao(configuracao.getExpiracao(), TimeUnit.NANOSECONDS, clientes.length);
+			factory.iniciarExpiracao();
+		}
+		System.gc();
+		AmostraJvm base = new AmostraJvm(factory);
+
+		long inicio = System.nanoTime();
+		inicioMedicao = inicio + configuracao.getAquecimento();
+		long fim = inicioMedicao + configuracao.getDuracao();
+		Thread[] threads = new Thread[simulados.length];
+		for (int i = 0; i < simulados.length; i++) {
+			simulados[i] = new ClienteSimulado(i, inicio, fim);
+			threads[i] = new Thread(simulados[i], "carga-" + i);
+			threads[i].start();
+		}
+		imprimirCabecalho(base);
+
+		AmostraJvm inicioAmostra = null;
+		AmostraJvm anterior = null;
+		long[][] contagensAnteriores = new long[OperacaoCarga.values().length][HistogramaCarga.QUANTIDADE_FAIXAS];
+		long intervalo = configuracao.getIntervaloRelatorio();
+		long proximoRelatorio = inicioMedicao;
+
+		while (true) {
+			long agora = System.nanoTime();
+			long espera = Math.min(proximoRelatorio, fim) - agora;
+			if (espera > 0) {
+				TimeUnit.NANOSECONDS.sleep(espera);
+				continue;
+			}
+			if (anterior == null) {
+				anterior = inicioAmostra = new AmostraJvm(factory);
+				proximoRelatorio = intervalo > 0 ? agora + intervalo : fim;
+				continue;
+			}
+			if (agora >= fim) {
+				break;
+			}
+			AmostraJvm atual = new AmostraJvm(factory);
+			long[][] contagens = contagens(true);
+			imprimirIntervalo(anterior, atual, contagens, contagensAnteriores);
+			anterior = atual;
+			contagensAnteriores = contagens;
+			proximoRelatorio += intervalo;
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		if (anterior != null && intervalo > 0) {
+			AmostraJvm atual = new AmostraJvm(factory);
+			imprimirIntervalo(anterior, atual, contagens(true), contagensAnteriores);
+		}
+		factory.encerrar();
+
+		AmostraJvm finalMedicao = new AmostraJvm(factory);
+		System.gc();
+		imprimirResumo(base, inicioAmostra, finalMedicao, new AmostraJvm(factory));
+	}
+
+	/**
+	 * Soma as contagens acumuladas dos histogramas de todas as threads, por operação.
+	 *
+	 * @param resposta Latências de resposta ou, se false, de serviço.
+	 * @return
+	 */
+	private long[][] contagens(boolean resposta) {
+		long[][] contagens = new long[OperacaoCarga.values().length][HistogramaCarga.QUANTIDADE_FAIXAS];
+		for (ClienteSimulado simulado : simulados) {
+			HistogramaCarga[] histogramas = resposta ? simulado.resposta : simulado.servico;
+			for (int i = 0; i < histogramas.length; i++) {
+				histogramas[i].acumular(contagens[i]);
+			}
+		}
+		return contagens;
+	}
+
+	private void imprimirCabecalho(AmostraJvm base) {
+		saida.printf("Modo %s, taxa %s, %d clientes, %d threads, %d produtos, aquecimento %ds, duração %ds%n",
+				configuracao.isAberto() ? "aberto" : "fechado",
+				configuracao.getTaxa() > 0 ? configuracao.getTaxa() + " op/s" : "sem limite",
+				configuracao.getClientes(), configuracao.getThreads(), configuracao.getProdutos(),
+				TimeUnit.NANOSECONDS.toSeconds(configuracao.getAquecimento()),
+				TimeUnit.NANOSECONDS.toSeconds(configuracao.getDuracao()));
+		StringBuilder mistura = new StringBuilder("Mistura:");
+		for (OperacaoCarga operacao : OperacaoCarga.values()) {
+			mistura.append(' ').append(operacao.getNome()).append('=').append(configuracao.getPeso(operacao));
+		}
+		saida.println(mistura);
+		saida.printf("Heap inicial após GC: %s%n%n", megabytes(base.heapUsado));
+		saida.printf("%8s %12s %10s %10s %10s %10s %12s %6s %8s %10s%n", "tempo", "op/s", "p50", "p99", "máx",
+				"heap", "heap pós-GC", "GCs", "GC ms", "carrinhos");
+	}
+
+	private void imprimirIntervalo(AmostraJvm anterior, AmostraJvm atual, long[][] contagens, long[][] contagensAnteriores) {
+		long[] todas = new long[HistogramaCarga.QUANTIDADE_FAIXAS];
+		for (int i = 0; i < contagens.length; i++) {
+			for (int j = 0; j < todas.length; j++) {
+				todas[j] += contagens[i][j] - contagensAnteriores[i][j];
+			}
+		}
+		double segundos = (atual.instante - anterior.instante) / 1e9;
+		maximoHeapAposGc = Math.max(maximoHeapAposGc, atual.heapAposGc);
+		saida.printf("%7ds %12.0f %10s %10s %10s %10s %12s %6d %8d %10d%n",
+				TimeUnit.NANOSECONDS.toSeconds(atual.instante - inicioMedicao),
+				HistogramaCarga.total(todas) / segundos,
+				micros(HistogramaCarga.percentil(todas, 50)),
+				micros(HistogramaCarga.percentil(todas, 99)),
+				micros(HistogramaCarga.percentil(todas, 100)),
+				megabytes(atual.heapUsado), megabytes(atual.heapAposGc),
+				atual.quantidadeGc - anterior.quantidadeGc, atual.tempoGc - anterior.tempoGc, atual.carrinhos);
+	}
+
+	private void imprimirResumo(AmostraJvm base, AmostraJvm inicioAmostra, AmostraJvm finalMedicao, AmostraJvm finalAposGc) {
+		double segundos = configuracao.getDuracao() / 1e9;
+		long total = 0;
+		long atrasadas = 0;
+		for (ClienteSimulado simulado : simulados) {
+			atrasadas += simulado.atrasadas;
+		}
+
+		long[][] resposta = contagens(true);
+		saida.println();
+		imprimirTabela(configuracao.isAberto() ? "Latência de resposta (desde o início planejado)" : "Latência", resposta, segundos);
+		if (configuracao.isAberto()) {
+			imprimirTabela("Latência de serviço (desde o início real)", contagens(false), segundos);
+		}
+		for (long[] contagens : resposta) {
+			total += HistogramaCarga.total(contagens);
+		}
+
+		long tempoGc = finalMedicao.tempoGc - inicioAmostra.tempoGc;
+		saida.println();
+		saida.printf("Vazão: %.0f op/s (%d operações em %.1fs)%n", total / segundos, total, segundos);
+		if (configuracao.isAberto()) {
+			saida.printf("Operações planejadas e não iniciadas até o fim da medição: %d%n", atrasadas);
+		}
+		saida.printf("Erros: %d%s%n", erros.get(), primeiroErro == null ? "" : " (primeiro: " + primeiroErro + ")");
+		saida.printf("Heap após GC: inicial %s, final %s, crescimento %s, maior pós-GC durante a medição %s%n",
+				megabytes(base.heapUsado), megabytes(finalAposGc.heapUsado),
+				megabytes(finalAposGc.heapUsado - base.heapUsado),
+				megabytes(Math.max(maximoHeapAposGc, finalMedicao.heapAposGc)));
+		saida.printf("GC durante a medição: %d coletas, %d ms (%.2f%% do tempo)%n",
+				finalMedicao.quantidadeGc - inicioAmostra.quantidadeGc, tempoGc,
+				tempoGc * 100 / ((finalMedicao.instante - inicioAmostra.instante) / 1e6));
+		saida.printf("Carrinhos ao final: %d%n", finalMedicao.carrinhos);
+	}
+
+	private void imprimirTabela(String titulo, long[][] contagens, double segundos) {
+		saida.println(titulo + ", em microssegundos:");
+		saida.printf("%-20s %12s %12s", "operação", "total", "op/s");
+		for (String rotulo : ROTULOS_PERCENTIS) {
+			saida.printf(" %10s", rotulo);
+		}
+		saida.println();
+		for (OperacaoCarga operacao : OperacaoCarga.values()) {
+			long[] operacaoContagens = contagens[operacao.ordinal()];
+			long total = HistogramaCarga.total(operacaoContagens);
+			if (total == 0) {
+				continue;
+			}
+			saida.printf("%-20s %12d %12.0f", operacao.getNome(), total, total / segundos);
+			for (double percentil : PERCENTIS) {
+				saida.printf(" %10s", micros(HistogramaCarga.percentil(operacaoContagens, percentil)));
+			}
+			saida.println();
+		}
+	}
+
+	private static String micros(long nanos) {
+		return String.format("%.1f", nanos / 1e3);
+	}
+
+	private static String megabytes(long bytes) {
+		return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+	}
+
+	/**
+	 * Thread que executa as operações de clientes sorteados, registrando as latências medidas entre o
+	 * início e o fim da medição.
+	 */
+	private class ClienteSimulado implements Runnable {
+
+		final HistogramaCarga[] resposta = novosHistogramas();
+		final HistogramaCarga[] servico = novosHistogramas();
+		private final long inicio;
+		private final long fim;
+		private final Random random;
+		private final double periodo;
+		private long atrasadas;
+
+		ClienteSimulado(int indice, long inicio, long fim) {
+			this.inicio = inicio;
+			this.fim = fim;
+			this.random = new Random(indice * 7919L + 17);
+			this.periodo = configuracao.getTaxa() > 0 ? 1e9 * configuracao.getThreads() / configuracao.getTaxa() : 0;
+		}
+
+		@Override
+		public void run() {
+			boolean aberto = configuracao.isAberto();
+			int somaPesos = configuracao.getSomaPesos();
+			long planejadas = 0;
+			long proximo = inicio;
+
+			while (true) {
+				long agora = System.nanoTime();
+				if (agora >= fim) {
+					if (aberto && proximo < fim) {
+						atrasadas = (long) ((fim - proximo) / periodo) + 1;
+					}
+					return;
+				}
+				if (periodo > 0 && agora < proximo) {
+					LockSupport.parkNanos(proximo - agora);
+					continue;
+				}
+				long inicioPlanejado = aberto ? proximo : agora;
+
+				OperacaoCarga operacao = configuracao.operacao(random.nextInt(somaPesos));
+				int produto = random.nextInt(produtos.length);
+				try {
+					operacao.executar(factory, clientes[random.nextInt(clientes.length)], produtos[produto],
+							valoresUnitarios[produto], random);
+				} catch (RuntimeException e) {
+					if (erros.getAndIncrement() == 0) {
+						primeiroErro = e;
+					}
+				}
+				long termino = System.nanoTime();
+
+				if (inicioPlanejado >= inicioMedicao) {
+					resposta[operacao.ordinal()].registrar(termino - inicioPlanejado);
+					servico[operacao.ordinal()].registrar(termino - agora);
+				}
+				if (aberto) {
+					proximo = inicio + (long) (++planejadas * periodo);
+				} else if (periodo > 0) {
+					proximo = Math.max(proximo + (long) periodo, termino);
+				}
+			}
+		}
+	}
+
+	private static HistogramaCarga[] novosHistogramas() {
+		HistogramaCarga[] histogramas = new HistogramaCarga[OperacaoCarga.values().length];
+		for (int i = 0; i < histogramas.length; i++) {
+			histogramas[i] = new HistogramaCarga();
+		}
+		return histogramas;
+	}
+
+	/**
+	 * Amostra do heap, das coletas de lixo e da quantidade de carrinhos em um instante.
+	 */
+	private static class AmostraJvm {
+
+		final long instante = System.nanoTime();
+		final long heapUsado;
+		final long heapAposGc;
+		final long quantidadeGc;
+		final long tempoGc;
+		final int carrinhos;
+
+		AmostraJvm(CarrinhoComprasFactory factory) {
+			heapUsado = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+			// Uso de cada área do heap ao final da última coleta dela: aproxima os objetos ainda vivos.
+			long aposGc = 0;
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				MemoryUsage uso = pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null;
+				if (uso != null) {
+					aposGc += uso.getUsed();
+				}
+			}
+			heapAposGc = aposGc;
+
+			long quantidade = 0;
+			long tempo = 0;
+			for (GarbageCollectorMXBean coletor : ManagementFactory.getGarbageCollectorMXBeans()) {
+				quantidade += Math.max(0L, coletor.getCollectionCount());
+				tempo += Math.max(0L, coletor.getCollectionTime());
+			}
+			quantidadeGc = quantidade;
+			tempoGc = tempo;
+			carrinhos = factory.getQuantidadeCarrinhos();
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package br.com.recrutamento.eds.benchmark.carga;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de latências em nanossegundos com faixas log-lineares: valores até 63 ns têm faixas
+ * exatas e, a partir daí, cada potência de dois é dividida em 32 faixas, o que limita o erro relativo
+ * a cerca de 3%.
+ *
+ * Cada histograma tem um único escritor (a thread do cliente simulado), que registra sem bloqueio;
+ * a thread do relatório apenas lê as contagens acumuladas.
+ */
+class HistogramaCarga {
+
+	private static final int BITS_SUBFAIXA = 5;
+	private static final int SUBFAIXAS = 1 << BITS_SUBFAIXA;
+	static final int QUANTIDADE_FAIXAS = (64 - BITS_SUBFAIXA) * SUBFAIXAS;
+
+	private final AtomicLongArray contagens = new AtomicLongArray(QUANTIDADE_FAIXAS);
+
+	/**
+	 * Registra uma latência. Deve ser chamado sempre pela mesma thread.
+	 *
+	 * @param nanos
+	 */
+	void registrar(long nanos) {
+		int faixa = faixa(Math.max(0L, nanos));
+		contagens.lazySet(faixa, contagens.get(faixa) + 1);
+	}
+
+	/**
+	 * Soma as contagens acumuladas deste histograma às contagens informadas.
+	 *
+	 * @param destino
+	 */
+	void acumular(long[] destino) {
+		for (int i = 0; i < QUANTIDADE_FAIXAS; i++) {
+			destino[i] += contagens.get(i);
+		}
+	}
+
+	static int faixa(long nanos) {
+		if (nanos < SUBFAIXAS * 2) {
+			return (int) nanos;
+		}
+		int deslocamento = 63 - Long.numberOfLeadingZeros(nanos) - BITS_SUBFAIXA;
+		return (deslocamento + 1) * SUBFAIXAS + (int) (nanos >>> deslocamento) - SUBFAIXAS;
+	}
+
+	/**
+	 * @param faixa
+	 * @return Retorna o maior valor, em nanossegundos, registrado na faixa.
+	 */
+	static long limiteSuperior(int faixa) {
+		if (faixa < SUBFAIXAS * 2) {
+			return faixa;
+		}
+		int deslocamento = faixa / SUBFAIXAS - 1;
+		return ((long) (faixa % SUBFAIXAS + SUBFAIXAS) << deslocamento) + (1L << deslocamento) - 1;
+	}
+
+	static long total(long[] contagens) {
+		long total = 0;
+		for (long contagem : contagens) {
+			total += contagem;
+		}
+		return total;
+	}
+
+	/**
+	 * @param contagens
+	 * @param percentil Entre 0 e 100.
+	 * @return Retorna o limite superior da faixa que contém o percentil, ou zero(0) se não houver registros.
+	 */
+	static long percentil(long[] contagens, double percentil) {
+		long total = total(contagens);
+		if (total == 0) {
+			return 0;
+		}
+		long posicao = Math.max(1L, (long) Math.ceil(total * percentil / 100));
+		long acumulado = 0;
+		for (int i = 0; i < contagens.length; i++) {
+			acumulado += contagens[i];
+			if (acumulado >= posicao) {
+				return limiteSuperior(i);
+			}
+		}
+		return limiteSuperior(contagens.length - 1);
+	}
+}
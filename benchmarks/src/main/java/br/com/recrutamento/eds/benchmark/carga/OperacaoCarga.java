@@ -0,0 +1,86 @@
+package br.com.recrutamento.eds.benchmark.carga;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import br.com.recrutamento.eds.CarrinhoComprasFactory;
+import br.com.recrutamento.eds.Produto;
+
+/**
+ * Operações executadas pelos clientes simulados. O nome de cada operação é o nome do método exercitado
+ * e é usado na opção --mistura. As operações sobre os itens recuperam o carrinho do cliente com criar,
+ * como faria a aplicação a cada requisição da sessão.
+ */
+enum OperacaoCarga {
+
+	CRIAR("criar", 15) {
+		@Override
+		Object executar(CarrinhoComprasFactory factory, String cliente, Produto produto, BigDecimal valorUnitario, Random random) {
+			return factory.criar(cliente);
+		}
+	},
+	ADICIONAR_ITEM("adicionarItem", 35) {
+		@Override
+		Object executar(CarrinhoComprasFactory factory, String cliente, Produto produto, BigDecimal valorUnitario, Random random) {
+			factory.criar(cliente).adicionarItem(produto, valorUnitario, 1 + random.nextInt(3));
+			return null;
+		}
+	},
+	REMOVER_ITEM("removerItem", 10) {
+		@Override
+		Object executar(CarrinhoComprasFactory factory, String cliente, Produto produto, BigDecimal valorUnitario, Random random) {
+			return factory.criar(cliente).removerItem(produto);
+		}
+	},
+	GET_VALOR_TOTAL("getValorTotal", 25) {
+		@Override
+		Object executar(CarrinhoComprasFactory factory, String cliente, Produto produto, BigDecimal valorUnitario, Random random) {
+			return factory.criar(cliente).getValorTotal();
+		}
+	},
+	GET_VALOR_TICKET_MEDIO("getValorTicketMedio", 5) {
+		@Override
+		Object executar(CarrinhoComprasFactory factory, String cliente, Produto produto, BigDecimal valorUnitario, Random random) {
+			return factory.getValorTicketMedio();
+		}
+	},
+	INVALIDAR("invalidar", 10) {
+		@Override
+		Object executar(CarrinhoComprasFactory factory, String cliente, Produto produto, BigDecimal valorUnitario, Random random) {
+			return factory.invalidar(cliente);
+		}
+	};
+
+	private final String nome;
+	private final int pesoPadrao;
+
+	private OperacaoCarga(String nome, int pesoPadrao) {
+		this.nome = nome;
+		this.pesoPadrao = pesoPadrao;
+	}
+
+	/**
+	 * Executa a operação para o cliente informado.
+	 *
+	 * @return Retorna o resultado da operação, para que não seja eliminado pelo compilador.
+	 */
+	abstract Object executar(CarrinhoComprasFactory factory, String cliente, Produto produto, BigDecimal valorUnitario,
+			Random random);
+
+	String getNome() {
+		return nome;
+	}
+
+	int getPesoPadrao() {
+		return pesoPadrao;
+	}
+
+	static OperacaoCarga porNome(String nome) {
+		for (OperacaoCarga operacao : values()) {
+			if (operacao.nome.equals(nome)) {
+				return operacao;
+			}
+		}
+		throw new IllegalArgumentException("Falha na carga: Operação desconhecida: " + nome + ".");
+	}
+}
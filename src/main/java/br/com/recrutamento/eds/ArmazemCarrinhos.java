@@ -0,0 +1,313 @@
+package br.com.recrutamento.eds;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Armazém fora do heap dos itens dos carrinhos hibernados. Veja CarrinhoComprasFactory.configurarArmazem.
+ *
+ * Os itens de um carrinho são gravados em um registro contínuo de memória direta: a quantidade de itens
+ * seguida, para cada item, do índice do produto, da quantidade e do valor unitário em ponto fixo (escala e
+ * valor sem escala), em 20 bytes por item. Os produtos ficam em uma tabela no heap, com uma entrada por
+ * produto distinto, de modo que o heap usado pelo armazém não cresce com a quantidade de carrinhos.
+ *
+ * A memória é reservada em slabs de tamanho fixo e dividida em classes de registros com capacidade para
+ * potências de dois de itens. Cada classe possui uma lista de registros livres, encadeada nos próprios
+ * registros; um registro liberado é reutilizado pelo próximo carrinho da mesma classe, e um novo registro
+ * é retirado do final do último slab apenas quando a lista está vazia.
+ *
+ * A alocação e a liberação são sincronizadas no armazém. A gravação e a leitura de um registro são feitas
+ * sob o lock do carrinho dono do registro.
+ */
+public final class ArmazemCarrinhos {
+
+	/**
+	 * Tamanho padrão dos slabs, em bytes.
+	 */
+	public static final int TAMANHO_SLAB_PADRAO = 1 << 20;
+
+	private static final int CABECALHO = 4;
+	private static final int TAMANHO_ITEM = 20;
+	private static final long NENHUM = -1L;
+
+	private final int tamanhoSlab;
+
+	/**
+	 * Cabeça da lista de registros livres de cada classe, ou NENHUM.
+	 */
+	private final long[] livres;
+
+	/**
+	 * Slabs reservados. O array é substituído a cada novo slab, para que as leituras não precisem do lock
+	 * do armazém.
+	 */
+	private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+
+	/**
+	 * Posição do próximo registro no último slab.
+	 */
+	private int topo;
+	private long quantidadeRegistros;
+	private long bytesUtilizados;
+
+	private final Map<ChaveProduto, Integer> indicesProdutos = new ConcurrentHashMap<ChaveProduto, Integer>();
+	private volatile Produto[] produtos = new Produto[16];
+	private int quantidadeProdutos;
+
+	public ArmazemCarrinhos() {
+		this(TAMANHO_SLAB_PADRAO);
+	}
+
+	/**
+	 * Construtor da classe ArmazemCarrinhos.
+	 *
+	 * @param tamanhoSlab - tamanho em bytes de cada bloco de memória direta reservado pelo armazém, que
+	 * limita a quantidade de itens de um carrinho hibernado.
+	 */
+	public ArmazemCarrinhos(int tamanhoSlab) {
+		if (tamanhoSlab < CABECALHO + TAMANHO_ITEM) {
+			throw new IllegalArgumentException("Falha no armazém: O tamanho do slab deve ser de ao menos "
+					+ (CABECALHO + TAMANHO_ITEM) + " bytes.");
+		}
+		this.tamanhoSlab = tamanhoSlab;
+		int classes = 1;
+		while (classes < 31 && tamanhoRegistro(classes) <= tamanhoSlab) {
+			classes++;
+		}
+		this.livres = new long[classes];
+		for (int i = 0; i < classes; i++) {
+			livres[i] = NENHUM;
+		}
+	}
+
+	/**
+	 * Retorna a quantidade de registros de carrinhos gravados.
+	 *
+	 * @return long
+	 */
+	public synchronized long getQuantidadeRegistros() {
+		return quantidadeRegistros;
+	}
+
+	/**
+	 * Retorna a quantidade de bytes de memória direta reservada nos slabs.
+	 *
+	 * @return long
+	 */
+	public long getBytesReservados() {
+		return (long) slabs.length * tamanhoSlab;
+	}
+
+	/**
+	 * Retorna a quantidade de bytes ocupada pelos registros gravados, incluindo a capacidade não usada
+	 * de cada registro.
+	 *
+	 * @return long
+	 */
+	public synchronized long getBytesUtilizados() {
+		return bytesUtilizados;
+	}
+
+	/**
+	 * Indica se os itens podem ser gravados no armazém: a quantidade de itens deve caber em um slab e os
+	 * valores unitários devem caber em um long sem escala.
+	 *
+	 * @param itens
+	 * @return boolean
+	 */
+	boolean podeGravar(Collection<Item> itens) {
+		if (itens.size() > capacidade(livres.length - 1)) {
+			return false;
+		}
+		for (Item item : itens) {
+			if (!item.isValorUnitarioEmLong()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Grava os itens em um novo registro, na ordem da coleção. Os itens devem ter sido verificados por podeGravar.
+	 *
+	 * @param itens
+	 * @return Retorna o endereço do registro.
+	 */
+	long gravar(Collection<Item> itens) {
+		int quantidade = itens.size();
+		if (quantidade == 0) {
+			return NENHUM;
+		}
+		long endereco = alocar(quantidade);
+		ByteBuffer slab = slabs[slab(endereco)];
+		int posicao = deslocamento(endereco);
+
+		slab.putInt(posicao, quantidade);
+		posicao += CABECALHO;
+		for (Item item : itens) {
+			slab.putInt(posicao, indiceProduto(item.getProduto()));
+			slab.putInt(posicao + 4, item.getQuantidade());
+			slab.putInt(posicao + 8, item.getEscala());
+			slab.putLong(posicao + 12, item.getValorUnitarioSemEscala());
+			posicao += TAMANHO_ITEM;
+		}
+		return endereco;
+	}
+
+	/**
+	 * Lê os itens do registro, criando um objeto por item com a fábrica informada.
+	 *
+	 * @param endereco
+	 * @param fabrica
+	 * @return List
+	 */
+	<T> List<T> ler(long endereco, FabricaItem<T> fabrica) {
+		if (endereco == NENHUM) {
+			return new ArrayList<T>(0);
+		}
+		ByteBuffer slab = slabs[slab(endereco)];
+		Produto[] produtosAtuais = produtos;
+		int posicao = deslocamento(endereco);
+		int quantidade = slab.getInt(posicao);
+		List<T> itens = new ArrayList<T>(quantidade);
+
+		posicao += CABECALHO;
+		for (int i = 0; i < quantidade; i++) {
+			itens.add(fabrica.criar(produtosAtuais[slab.getInt(posicao)], slab.getLong(posicao + 12), slab.getInt(posicao + 8),
+					slab.getInt(posicao + 4)));
+			posicao += TAMANHO_ITEM;
+		}
+		return itens;
+	}
+
+	/**
+	 * Libera o registro, que passa a ser o primeiro da lista de livres da sua classe.
+	 *
+	 * @param endereco
+	 */
+	synchronized void liberar(long endereco) {
+		if (endereco == NENHUM) {
+			return;
+		}
+		ByteBuffer slab = slabs[slab(endereco)];
+		int classe = classe(slab.getInt(deslocamento(endereco)));
+
+		slab.putLong(deslocamento(endereco), livres[classe]);
+		livres[classe] = endereco;
+		quantidadeRegistros--;
+		bytesUtilizados -= tamanhoRegistro(classe);
+	}
+
+	private synchronized long alocar(int quantidade) {
+		int classe = classe(quantidade);
+		long endereco = livres[classe];
+
+		if (endereco != NENHUM) {
+			livres[classe] = slabs[slab(endereco)].getLong(deslocamento(endereco));
+		} else {
+			int tamanho = (int) tamanhoRegistro(classe);
+			ByteBuffer[] slabsAtuais = slabs;
+			if (slabsAtuais.length == 0 || topo + tamanho > tamanhoSlab) {
+				ByteBuffer[] novosSlabs = new ByteBuffer[slabsAtuais.length + 1];
+				System.arraycopy(slabsAtuais, 0, novosSlabs, 0, slabsAtuais.length);
+				novosSlabs[slabsAtuais.length] = ByteBuffer.allocateDirect(tamanhoSlab).order(ByteOrder.nativeOrder());
+				slabs = novosSlabs;
+				topo = 0;
+			}
+			endereco = ((long) (slabs.length - 1) << 32) | topo;
+			topo += tamanho;
+		}
+		quantidadeRegistros++;
+		bytesUtilizados += tamanhoRegistro(classe);
+		return endereco;
+	}
+
+	/**
+	 * Retorna o índice do produto na tabela de produtos, incluindo-o caso ainda não exista.
+	 */
+	private int indiceProduto(Produto produto) {
+		ChaveProduto chave = new ChaveProduto(produto);
+		Integer indice = indicesProdutos.get(chave);
+		return indice != null ? indice : incluirProduto(chave, produto);
+	}
+
+	private synchronized int incluirProduto(ChaveProduto chave, Produto produto) {
+		Integer indice = indicesProdutos.get(chave);
+		if (indice != null) {
+			return indice;
+		}
+		Produto[] produtosAtuais = produtos;
+		if (quantidadeProdutos == produtosAtuais.length) {
+			Produto[] novosProdutos = new Produto[produtosAtuais.length * 2];
+			System.arraycopy(produtosAtuais, 0, novosProdutos, 0, produtosAtuais.length);
+			produtosAtuais = novosProdutos;
+		}
+		produtosAtuais[quantidadeProdutos] = produto;
+		produtos = produtosAtuais;
+		indicesProdutos.put(chave, quantidadeProdutos);
+		return quantidadeProdutos++;
+	}
+
+	private static int classe(int quantidade) {
+		return Integer.SIZE - Integer.numberOfLeadingZeros(quantidade - 1);
+	}
+
+	private static int capacidade(int classe) {
+		return 1 << classe;
+	}
+
+	private static long tamanhoRegistro(int classe) {
+		return CABECALHO + (long) TAMANHO_ITEM * capacidade(classe);
+	}
+
+	private static int slab(long endereco) {
+		return (int) (endereco >>> 32);
+	}
+
+	private static int deslocamento(long endereco) {
+		return (int) endereco;
+	}
+
+	/**
+	 * Cria os objetos que representam os itens lidos de um registro.
+	 */
+	interface FabricaItem<T> {
+
+		T criar(Produto produto, long valorUnitarioSemEscala, int escala, int quantidade);
+	}
+
+	/**
+	 * Chave da tabela de produtos. Como dois produtos com o mesmo código são iguais mesmo com descrições
+	 * diferentes, a chave considera também a descrição, para que o item lido tenha o produto gravado.
+	 */
+	private static final class ChaveProduto {
+
+		private final Long codigo;
+		private final String descricao;
+
+		ChaveProduto(Produto produto) {
+			this.codigo = produto.getCodigo();
+			this.descricao = produto.getDescricao();
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (codigo == null ? 0 : codigo.hashCode()) + (descricao == null ? 0 : descricao.hashCode());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ChaveProduto)) {
+				return false;
+			}
+			ChaveProduto other = (ChaveProduto) obj;
+			return (codigo == null ? other.codigo == null : codigo.equals(other.codigo))
+					&& (descricao == null ? other.descricao == null : descricao.equals(other.descricao));
+		}
+	}
+}
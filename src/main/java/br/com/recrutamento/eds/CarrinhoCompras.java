@@ -1,8 +1,12 @@
 package br.com.recrutamento.eds;
 
 import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.AbstractCollection;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -10,177 +14,831 @@ import java.util.List;
  */
 public class CarrinhoCompras {
 	
-	private List<Item> itens = new LinkedList<Item>();
+	private ItensCarrinho itens = new ItensCarrinho();
 	private String identificacaoCliente;
+	
+	/**
+	 * Soma acumulada dos valores totais dos itens sem escala, na escala escalaSoma, mantida a cada alteração
+	 * do carrinho sem criar objetos. Quando a soma não cabe em um long ela é mantida em somaExcedente.
+	 */
+	private long somaSemEscala;
+	private BigDecimal somaExcedente;
+	
+	/**
+	 * Escala da soma, que é a maior escala entre zero e as escalas dos itens, como na soma item a item, e
+	 * a quantidade de itens nessa escala (ou com escala até zero, quando ela é zero). Quando o último item
+	 * da maior escala é retirado a escala é recalculada a partir dos itens.
+	 */
+	private int escalaSoma;
+	private int itensNaEscala;
+	
+	private volatile ValorMonetario valorTotal = ValorMonetario.ZERO;
+	
+	/**
+	 * Factory que mantém o somatório global dos carrinhos, avisada quando o valor total é alterado.
+	 */
+	private volatile CarrinhoComprasFactory factory;
+	
+	/**
+	 * Instante do último acesso ao carrinho, segundo o relógio da factory.
+	 */
+	private volatile long ultimoAcesso;
+	
+	/**
+	 * Visão imutável publicada ao final de cada alteração.
+	 */
+	private volatile VisaoCarrinho visao;
+	
+	/**
+	 * Armazém com os itens do carrinho hibernado, ou null caso os itens estejam no heap. Enquanto o
+	 * carrinho está hibernado a coleção de itens não existe.
+	 */
+	private ArmazemCarrinhos armazem;
+	private long registroArmazem;
 
     public CarrinhoCompras(String identificacaoCliente) {
 		this.identificacaoCliente = identificacaoCliente;
+		this.visao = VisaoCarrinho.vazia(identificacaoCliente);
 	}
     
+    /**
+     * Retorna a identificação do cliente dono do carrinho.
+     *
+     * @return String
+     */
+    public String getIdentificacaoCliente() {
+    	return identificacaoCliente;
+    }
+    
 	/**
-     * Permite a adio de um novo item no carrinho de compras.
+     * Permite a adição de um novo item no carrinho de compras.
      *
-     * Caso o item j exista no carrinho para este mesmo produto, as seguintes regras devero ser seguidas:
-     * - A quantidade do item dever ser a soma da quantidade atual com a quantidade passada como parmetro.
-     * - Se o valor unitrio informado for diferente do valor unitrio atual do item, o novo valor unitrio do item dever ser
-     * o passado como parmetro.
+     * Caso o item já exista no carrinho para este mesmo produto, as seguintes regras deverão ser seguidas:
+     * - A quantidade do item deverá ser a soma da quantidade atual com a quantidade passada como parâmetro.
+     * - Se o valor unitário informado for diferente do valor unitário atual do item, o novo valor unitário do item deverá ser
+     * o passado como parâmetro.
      *
-     * Devem ser lanadas subclasses de RuntimeException caso no seja possvel adicionar o item ao carrinho de compras.
+     * Devem ser lançadas subclasses de RuntimeException caso não seja possível adicionar o item ao carrinho de compras.
      *
      * @param produto
      * @param valorUnitario
      * @param quantidade
      */
-    public void adicionarItem(Produto produto, BigDecimal valorUnitario, int quantidade) {
+    public synchronized void adicionarItem(Produto produto, BigDecimal valorUnitario, int quantidade) {
+    	MetricasCarrinhos metricas = getMetricas();
+    	long inicio = MetricasCarrinhos.iniciar(metricas);
     	validarProduto(produto);
 		validarValorUnitario(valorUnitario);
 		validarQuantidade(quantidade);
+		registrarAcesso();
+		despertar();
 
 		Item item = pesquisaItem(produto);
+		boolean novo = item == null;
 
-		if (item != null) {
+		if (!novo) {
 			atualizarItem(item, valorUnitario, quantidade);
 		} 
 		else {
-			item = new Item(produto, valorUnitario, quantidade);
-			itens.add(item);
+			item = incluirItem(produto, valorUnitario, quantidade);
 		}
+		atualizarValorTotal();
+		avisarAlteracao();
+		
+		DiarioCarrinhos diario = getDiario();
+		if (diario != null) {
+			diario.registrarItem(novo ? DiarioCarrinhos.ITEM_ADICIONADO : DiarioCarrinhos.ITEM_ALTERADO, identificacaoCliente, item);
+		}
+		MetricasCarrinhos.registrar(metricas, MetricasCarrinhos.Operacao.ADICIONAR_ITEM, inicio);
     }
 
     /**
-     * Permite a remoo do item que representa este produto do carrinho de compras.
+     * Permite a remoção do item que representa este produto do carrinho de compras.
      *
      * @param produto
      * @return Retorna um boolean, tendo o valor true caso o produto exista no carrinho de compras e false
-     * caso o produto no exista no carrinho.
+     * caso o produto não exista no carrinho.
      */
-    public boolean removerItem(Produto produto) {
-    	Item item = pesquisaItem(produto);
+    public synchronized boolean removerItem(Produto produto) {
+    	MetricasCarrinhos metricas = getMetricas();
+    	long inicio = MetricasCarrinhos.iniciar(metricas);
+    	try {
+    		registrarAcesso();
+    		despertar();
+    		Item item = null == produto ? null : itens.remover(produto);
 
-		if (item == null) {
-			return false;
-		} else {
-			itens.remove(item);
-			return true;
-		}
+    		if (item == null) {
+    			return false;
+    		} else {
+    			desvincularItem(item);
+    			avisarAlteracao();
+    			registrarRemocao(item);
+    			return true;
+    		}
+    	} finally {
+    		MetricasCarrinhos.registrar(metricas, MetricasCarrinhos.Operacao.REMOVER_ITEM, inicio);
+    	}
     }
     
     /**
-     * Permite a remoo do item de acordo com a posio.
-     * Essa posio deve ser determinada pela ordem de incluso do produto na 
-     * coleo, em que zero representa o primeiro item.
+     * Permite a remoção do item de acordo com a posição.
+     * Essa posição deve ser determinada pela ordem de inclusão do produto na 
+     * coleção, em que zero representa o primeiro item.
      *
      * @param posicaoItem
      * @return Retorna um boolean, tendo o valor true caso o produto exista no carrinho de compras e false
-     * caso o produto no exista no carrinho.
+     * caso o produto não exista no carrinho.
      */
-	public boolean removerItem(int posicaoItem) {
-		// Se o ndice for maior ou igual que o tamanho do ArrayList, ele no existe.
-		if (posicaoItem >= itens.size()) {
-			return false;
-		} else {
-			itens.remove(posicaoItem);
-			return true;
+	public synchronized boolean removerItem(int posicaoItem) {
+		MetricasCarrinhos metricas = getMetricas();
+		long inicio = MetricasCarrinhos.iniciar(metricas);
+		try {
+			registrarAcesso();
+			despertar();
+			// Se o índice for maior ou igual que o tamanho da coleção, ele não existe.
+			if (posicaoItem >= itens.size()) {
+				return false;
+			} else {
+				Item item = itens.removerIndice(posicaoItem);
+				desvincularItem(item);
+				avisarAlteracao();
+				registrarRemocao(item);
+				return true;
+			}
+		} finally {
+			MetricasCarrinhos.registrar(metricas, MetricasCarrinhos.Operacao.REMOVER_ITEM, inicio);
 		}
 	}
 
+    /**
+     * Permite a adição de vários itens no carrinho de compras em uma única operação.
+     *
+     * Os itens são adicionados na ordem da coleção com as mesmas regras de adicionarItem: itens do mesmo
+     * produto, já existentes no carrinho ou repetidos na coleção, têm as quantidades somadas e prevalece
+     * o último valor unitário informado. Todos os itens são validados antes de qualquer alteração, de modo
+     * que caso algum seja inválido nenhum item é adicionado. O valor total é recalculado e a factory é
+     * avisada uma única vez.
+     *
+     * @param novosItens - itens com o produto, o valor unitário e a quantidade a adicionar.
+     */
+    public synchronized void adicionarItens(Collection<Item> novosItens) {
+    	Item[] lote = novosItens.toArray(new Item[novosItens.size()]);
+
+    	for (Item novoItem : lote) {
+    		if (null == novoItem) {
+    			throw falhaValidacao("Falha no carrinho: O item não foi informado.");
+    		}
+    		validarProduto(novoItem.getProduto());
+    		validarValorUnitario(novoItem.getValorUnitario());
+    		validarQuantidade(novoItem.getQuantidade());
+    	}
+    	registrarAcesso();
+    	if (lote.length == 0) {
+    		return;
+    	}
+    	despertar();
+    	itens.reservar(lote.length);
+    	DiarioCarrinhos diario = getDiario();
+    	Item[] alterados = diario == null ? null : new Item[lote.length];
+    	boolean[] novos = diario == null ? null : new boolean[lote.length];
+
+    	for (int i = 0; i < lote.length; i++) {
+    		Item novoItem = lote[i];
+    		Item item = itens.pesquisar(novoItem.getProduto());
+
+    		if (item != null) {
+    			atualizarItem(item, novoItem.getValorUnitario(), novoItem.getQuantidade());
+    		}
+    		else {
+    			item = incluirItem(novoItem.getProduto(), novoItem.getValorUnitario(), novoItem.getQuantidade());
+    			if (novos != null) {
+    				novos[i] = true;
+    			}
+    		}
+    		if (alterados != null) {
+    			alterados[i] = item;
+    		}
+    	}
+    	atualizarValorTotal();
+    	avisarAlteracao();
+
+    	if (diario != null) {
+    		// Cada evento registra o estado final do item, repetido para os produtos repetidos no lote.
+    		for (int i = 0; i < lote.length; i++) {
+    			diario.registrarItem(novos[i] ? DiarioCarrinhos.ITEM_ADICIONADO : DiarioCarrinhos.ITEM_ALTERADO,
+    					identificacaoCliente, alterados[i]);
+    		}
+    	}
+    }
+
+    /**
+     * Permite a remoção dos itens que representam os produtos informados em uma única operação.
+     * O valor total é recalculado e a factory é avisada uma única vez.
+     *
+     * @param produtos
+     * @return Retorna a quantidade de itens removidos do carrinho.
+     */
+    public synchronized int removerItens(Collection<Produto> produtos) {
+    	registrarAcesso();
+    	despertar();
+    	DiarioCarrinhos diario = getDiario();
+    	Item[] lote = diario == null ? null : new Item[produtos.size()];
+    	int removidos = 0;
+
+    	for (Produto produto : produtos) {
+    		Item item = null == produto ? null : itens.remover(produto);
+    		if (item != null) {
+    			item.desvincular();
+    			retirarValorItem(item);
+    			registrarVariacao(item, -item.getQuantidade(), -item.getValorTotalCentavos());
+    			contarItens(-1);
+    			if (lote != null) {
+    				lote[removidos] = item;
+    			}
+    			removidos++;
+    		}
+    	}
+    	if (removidos > 0) {
+    		atualizarValorTotal();
+    		avisarAlteracao();
+    		for (int i = 0; lote != null && i < removidos; i++) {
+    			diario.registrarRemocao(identificacaoCliente, lote[i].getProduto());
+    		}
+    	}
+    	return removidos;
+    }
+
     /**
      * Retorna o valor total do carrinho de compras, que deve ser a soma dos valores totais
-     * de todos os itens que compem o carrinho.
+     * de todos os itens que compõem o carrinho.
      *
      * @return BigDecimal
      */
 	public BigDecimal getValorTotal() {
-		BigDecimal valorTotal = BigDecimal.ZERO;
-		
-		for (Item item : itens) {
-			valorTotal = valorTotal.add(item.getValorTotal());
+		MetricasCarrinhos metricas = getMetricas();
+		if (metricas == null) {
+			return valorTotal.paraBigDecimal();
 		}
-		return valorTotal;
+		long inicio = System.nanoTime();
+		BigDecimal valor = valorTotal.paraBigDecimal();
+		MetricasCarrinhos.registrar(metricas, MetricasCarrinhos.Operacao.GET_VALOR_TOTAL, inicio);
+		return valor;
 	}
 
     /**
      * Retorna a lista de itens do carrinho de compras.
      *
+     * A coleção reflete o carrinho e não deve ser percorrida enquanto outra thread altera o carrinho;
+     * nesse caso deve ser usada a getVisao. O acesso à coleção desperta o carrinho hibernado. Os itens
+     * removidos do carrinho ou descartados na hibernação não podem mais ser alterados.
+     *
      * @return itens
      */
     public Collection<Item> getItens() {
-    	return itens;
+    	return new AbstractCollection<Item>() {
+
+    		@Override
+    		public int size() {
+    			synchronized (CarrinhoCompras.this) {
+    				despertar();
+    				return itens.size();
+    			}
+    		}
+
+    		@Override
+    		public Iterator<Item> iterator() {
+    			synchronized (CarrinhoCompras.this) {
+    				despertar();
+    				return Collections.unmodifiableCollection(itens).iterator();
+    			}
+    		}
+    	};
+    }
+
+    /**
+     * Retorna a visão imutável do carrinho publicada após a última alteração, com os itens e o valor
+     * total da mesma versão. A visão pode ser lida sem lock enquanto o carrinho é alterado.
+     *
+     * @return VisaoCarrinho
+     */
+    public VisaoCarrinho getVisao() {
+    	return visao;
     }
     
 	/**
-	 * Atualiza os dados do Item no carrinho.
+	 * Altera o valor unitário de um item do carrinho e atualiza o valor total, validando antes o valor.
+	 * 
+	 * @param item - item alterado.
+	 * @param valorUnitario - novo valor unitário do item.
+	 * @return Retorna false, sem alterar o item, caso o item não pertença mais ao carrinho.
+	 */
+	synchronized boolean alterarValorUnitario(Item item, BigDecimal valorUnitario) {
+		validarValorUnitario(valorUnitario);
+		if (item.getCarrinho() != this) {
+			return false;
+		}
+		atualizarValorItem(item, valorUnitario, item.getQuantidade());
+		return true;
+	}
+	
+	/**
+	 * Altera a quantidade de um item do carrinho e atualiza o valor total, validando antes a quantidade.
+	 * 
+	 * @param item - item alterado.
+	 * @param quantidade - nova quantidade do item.
+	 * @return Retorna false, sem alterar o item, caso o item não pertença mais ao carrinho.
+	 */
+	synchronized boolean alterarQuantidade(Item item, int quantidade) {
+		validarQuantidade(quantidade);
+		if (item.getCarrinho() != this) {
+			return false;
+		}
+		atualizarValorItem(item, item.getValorUnitario(), quantidade);
+		return true;
+	}
+	
+	/**
+	 * Altera o valor unitário e a quantidade de um item do carrinho e atualiza o valor total.
+	 * 
+	 * @param item - item alterado.
+	 * @param valorUnitario - novo valor unitário do item.
+	 * @param quantidade - nova quantidade do item.
+	 */
+	private void atualizarValorItem(Item item, BigDecimal valorUnitario, int quantidade) {
+		alterarItem(item, valorUnitario, quantidade);
+		atualizarValorTotal();
+		avisarAlteracao();
+		
+		DiarioCarrinhos diario = getDiario();
+		if (diario != null) {
+			diario.registrarItem(DiarioCarrinhos.ITEM_ALTERADO, identificacaoCliente, item);
+		}
+	}
+	
+	/**
+	 * Define o valor unitário e a quantidade do item do produto, incluindo o item caso não exista. Usado
+	 * na restauração do diário, em que os eventos registram o estado final do item, e não é registrado no
+	 * diário.
+	 * 
+	 * @param produto
+	 * @param valorUnitario
+	 * @param quantidade
+	 */
+	synchronized void definirItem(Produto produto, BigDecimal valorUnitario, int quantidade) {
+		validarProduto(produto);
+		validarValorUnitario(valorUnitario);
+		validarQuantidade(quantidade);
+		registrarAcesso();
+		despertar();
+
+		Item item = itens.pesquisar(produto);
+
+		if (item != null) {
+			alterarItem(item, valorUnitario, quantidade);
+		} else {
+			incluirItem(produto, valorUnitario, quantidade);
+		}
+		atualizarValorTotal();
+		avisarAlteracao();
+	}
+	
+	/**
+	 * Grava os itens no armazém fora do heap e descarta a coleção de itens, caso o carrinho pertença a uma
+	 * factory e não tenha sido acessado após o instante informado. O carrinho é despertado na próxima
+	 * alteração ou acesso à getItens; até lá a visão lê os itens do armazém. Os objetos Item obtidos antes
+	 * da hibernação deixam de pertencer ao carrinho, que ao despertar cria novos objetos, e as alterações
+	 * feitas por eles lançam IllegalStateException.
+	 *
+	 * Carrinhos com valores unitários que não cabem em um long, ou com mais itens do que cabem em um slab,
+	 * não são hibernados.
+	 *
+	 * @param armazemItens
+	 * @param acessoMaximo - instante do último acesso a partir do qual o carrinho não é hibernado.
+	 * @return Retorna true caso o carrinho tenha sido hibernado.
+	 */
+	synchronized boolean hibernar(ArmazemCarrinhos armazemItens, long acessoMaximo) {
+		if (armazem != null || factory == null || ultimoAcesso - acessoMaximo > 0 || !armazemItens.podeGravar(itens)) {
+			return false;
+		}
+		registroArmazem = armazemItens.gravar(itens);
+		armazem = armazemItens;
+		for (Item item : itens) {
+			item.desvincular();
+		}
+		itens = null;
+		visao = VisaoCarrinho.hibernada(this, visao);
+		return true;
+	}
+	
+	/**
+	 * Indica se os itens do carrinho estão no armazém fora do heap.
+	 * 
+	 * @return boolean
+	 */
+	synchronized boolean isHibernado() {
+		return armazem != null;
+	}
+	
+	/**
+	 * Lê os itens da visão do carrinho hibernado: do armazém, caso o carrinho continue hibernado, ou da
+	 * visão publicada quando foi despertado.
+	 * 
+	 * @param visaoHibernada
+	 * @return Collection
+	 */
+	synchronized Collection<VisaoItem> lerItensHibernados(VisaoCarrinho visaoHibernada) {
+		VisaoCarrinho substituta = visaoHibernada.getSubstituta();
+		if (substituta != null) {
+			return substituta.getItens();
+		}
+		return armazem.ler(registroArmazem, VisaoItem::new);
+	}
+	
+	/**
+	 * Recria a coleção de itens do carrinho hibernado a partir do armazém e libera o registro. A visão
+	 * publicada mantém a versão, pois os itens não foram alterados.
+	 */
+	synchronized void despertar() {
+		if (armazem == null) {
+			return;
+		}
+		ItensCarrinho novosItens = new ItensCarrinho();
+		List<Item> lidos = armazem.ler(registroArmazem, Item::new);
+		
+		novosItens.reservar(lidos.size());
+		for (Item item : lidos) {
+			novosItens.incluir(item);
+			item.setCarrinho(this);
+		}
+		armazem.liberar(registroArmazem);
+		armazem = null;
+		itens = novosItens;
+		
+		VisaoCarrinho visaoHibernada = visao;
+		visao = new VisaoCarrinho(identificacaoCliente, visaoHibernada.getVersao(), itens.publicarBlocos(), itens.getLimite(),
+				itens.size(), valorTotal);
+		visaoHibernada.setSubstituta(visao);
+	}
+	
+	/**
+	 * Associa o carrinho à factory que mantém o somatório global dos carrinhos.
+	 * 
+	 * @param factory
+	 */
+	void setFactory(CarrinhoComprasFactory factory) {
+		this.factory = factory;
+	}
+	
+	/**
+	 * Retorna a factory à qual o carrinho está associado, ou null caso tenha sido invalidado.
+	 * 
+	 * @return CarrinhoComprasFactory
+	 */
+	CarrinhoComprasFactory getFactory() {
+		return factory;
+	}
+	
+	/**
+	 * Registra o acesso ao carrinho, adiando a sua expiração.
+	 */
+	void registrarAcesso() {
+		CarrinhoComprasFactory factoryAtual = factory;
+		if (factoryAtual != null) {
+			ultimoAcesso = factoryAtual.agora();
+		}
+	}
+	
+	/**
+	 * Retorna o instante do último acesso ao carrinho.
+	 * 
+	 * @return long
+	 */
+	long getUltimoAcesso() {
+		return ultimoAcesso;
+	}
+	
+	/**
+	 * Altera o instante do último acesso ao carrinho, usado na restauração de um snapshot.
+	 * 
+	 * @param ultimoAcesso
+	 */
+	void setUltimoAcesso(long ultimoAcesso) {
+		this.ultimoAcesso = ultimoAcesso;
+	}
+	
+	/**
+	 * Remove o item do carrinho e retira o seu valor do valor total.
+	 * 
+	 * @param item
+	 */
+	private void desvincularItem(Item item) {
+		item.desvincular();
+		retirarValorItem(item);
+		registrarVariacao(item, -item.getQuantidade(), -item.getValorTotalCentavos());
+		contarItens(-1);
+		atualizarValorTotal();
+	}
+	
+	/**
+	 * Retorna o valor total do carrinho em ponto fixo.
+	 * 
+	 * @return ValorMonetario
+	 */
+	ValorMonetario getValorTotalMonetario() {
+		return valorTotal;
+	}
+	
+	/**
+	 * Retorna as métricas da factory do carrinho, ou null caso estejam desabilitadas.
+	 */
+	private MetricasCarrinhos getMetricas() {
+		CarrinhoComprasFactory factoryAtual = factory;
+		return factoryAtual == null ? null : factoryAtual.getMetricas();
+	}
+	
+	/**
+	 * Retorna o diário da factory do carrinho, ou null caso o carrinho não esteja em uma factory com diário.
+	 * Os eventos são registrados após a publicação da visão, de modo que um snapshot iniciado após o
+	 * registro sempre contém a alteração.
+	 */
+	private DiarioCarrinhos getDiario() {
+		CarrinhoComprasFactory factoryAtual = factory;
+		return factoryAtual == null ? null : factoryAtual.getDiario();
+	}
+	
+	private void registrarRemocao(Item item) {
+		DiarioCarrinhos diario = getDiario();
+		if (diario != null) {
+			diario.registrarRemocao(identificacaoCliente, item.getProduto());
+		}
+	}
+	
+	/**
+	 * Publica a visão do carrinho e avisa a factory da alteração.
+	 */
+	private void avisarAlteracao() {
+		visao = new VisaoCarrinho(identificacaoCliente, visao.getVersao() + 1, itens.publicarBlocos(), itens.getLimite(),
+				itens.size(), valorTotal);
+		
+		CarrinhoComprasFactory factoryAtual = factory;
+		if (factoryAtual != null) {
+			factoryAtual.carrinhoAlterado(this);
+		}
+	}
+	
+	/**
+	 * Soma o valor total do item à soma dos itens, aumentando antes a escala da soma caso a escala do item
+	 * seja maior.
+	 */
+	private void incluirValorItem(Item item) {
+		int escala = Math.max(0, item.getEscala());
+		if (escala > escalaSoma) {
+			alterarEscalaSoma(escala);
+			itensNaEscala = 0;
+		}
+		if (escala == escalaSoma) {
+			itensNaEscala++;
+		}
+		acumularValorItem(item, false);
+	}
+	
+	/**
+	 * Subtrai o valor total do item da soma dos itens. A escala da soma é reduzida em atualizarValorTotal.
+	 */
+	private void retirarValorItem(Item item) {
+		acumularValorItem(item, true);
+		if (Math.max(0, item.getEscala()) == escalaSoma) {
+			itensNaEscala--;
+		}
+	}
+	
+	/**
+	 * Soma ou subtrai o valor total do item, cuja escala não é maior que a da soma, com aritmética de long;
+	 * apenas quando a soma ou o valor do item não cabem em um long a soma é calculada com BigDecimal.
+	 */
+	private void acumularValorItem(Item item, boolean subtrair) {
+		if (somaExcedente == null && item.getValorTotalExcedente() == null) {
+			try {
+				long valor = ValorMonetario.reescalar(item.getValorTotalSemEscala(), escalaSoma - item.getEscala());
+				somaSemEscala = subtrair ? Math.subtractExact(somaSemEscala, valor) : Math.addExact(somaSemEscala, valor);
+				return;
+			} catch (ArithmeticException e) {
+				// O resultado não cabe em um long e será calculado com BigDecimal.
+			}
+		}
+		BigDecimal soma = getSomaDecimal();
+		definirSoma(subtrair ? soma.subtract(item.getValorTotal()) : soma.add(item.getValorTotal()));
+	}
+	
+	/**
+	 * Altera a escala da soma. A redução da escala é sempre exata, pois nenhum item tem escala maior que a
+	 * nova escala.
+	 */
+	private void alterarEscalaSoma(int novaEscala) {
+		if (somaExcedente == null) {
+			try {
+				somaSemEscala = novaEscala > escalaSoma ? ValorMonetario.reescalar(somaSemEscala, novaEscala - escalaSoma)
+						: ValorMonetario.reduzirEscala(somaSemEscala, escalaSoma - novaEscala);
+				escalaSoma = novaEscala;
+				return;
+			} catch (ArithmeticException e) {
+				// O resultado não cabe em um long e será calculado com BigDecimal.
+			}
+		}
+		BigDecimal soma = getSomaDecimal().setScale(novaEscala, RoundingMode.UNNECESSARY);
+		escalaSoma = novaEscala;
+		definirSoma(soma);
+	}
+	
+	private BigDecimal getSomaDecimal() {
+		return somaExcedente == null ? BigDecimal.valueOf(somaSemEscala, escalaSoma) : somaExcedente;
+	}
+	
+	/**
+	 * Define a soma calculada com BigDecimal, voltando à aritmética de long quando ela cabe em um long.
+	 */
+	private void definirSoma(BigDecimal soma) {
+		BigDecimal somaNaEscala = soma.setScale(escalaSoma, RoundingMode.UNNECESSARY);
+		BigInteger semEscala = somaNaEscala.unscaledValue();
+		
+		if (semEscala.bitLength() < Long.SIZE) {
+			somaSemEscala = semEscala.longValue();
+			somaExcedente = null;
+		} else {
+			somaExcedente = somaNaEscala;
+		}
+	}
+	
+	/**
+	 * A soma item a item partindo de BigDecimal.ZERO resulta na maior escala entre zero e as escalas
+	 * dos itens. Quando não restam itens na escala da soma ela é reduzida à maior escala dos itens; como
+	 * os valores dos itens removidos foram subtraídos de forma exata, a redução nunca precisa de
+	 * arredondamento. O ValorMonetario publicado é criado apenas quando o valor total é alterado.
+	 */
+	private void atualizarValorTotal() {
+		if (itensNaEscala == 0 && escalaSoma > 0) {
+			int maiorEscala = 0;
+			int quantidade = 0;
+			for (Item item : itens) {
+				int escala = Math.max(0, item.getEscala());
+				if (escala > maiorEscala) {
+					maiorEscala = escala;
+					quantidade = 1;
+				} else if (escala == maiorEscala) {
+					quantidade++;
+				}
+			}
+			alterarEscalaSoma(maiorEscala);
+			itensNaEscala = quantidade;
+		}
+		
+		ValorMonetario valorAnterior = valorTotal;
+		if (somaExcedente == null && valorAnterior.cabeEmLong() && valorAnterior.getEscala() == escalaSoma
+				&& valorAnterior.getValorSemEscala() == somaSemEscala) {
+			return;
+		}
+		ValorMonetario novoValorTotal = somaExcedente == null ? ValorMonetario.deSemEscala(somaSemEscala, escalaSoma)
+				: ValorMonetario.de(somaExcedente);
+		
+		if (factory != null && novoValorTotal.compareTo(valorAnterior) != 0) {
+			factory.somarValorCarrinhos(novoValorTotal.subtrair(valorAnterior));
+		}
+		valorTotal = novoValorTotal;
+	}
+    
+	/**
+	 * Atualiza os dados do Item no carrinho, somando a quantidade e substituindo o valor unitário.
+	 * O valor total do carrinho deve ser atualizado em seguida.
 	 * 
 	 * @param item
 	 * @param valorUnitario
 	 * @param quantidade
 	 */
 	private void atualizarItem(Item item, BigDecimal valorUnitario, int quantidade) {
+		alterarItem(item, valorUnitario, item.getQuantidade() + quantidade);
+	}
+	
+	/**
+	 * Altera o valor unitário e a quantidade do Item no carrinho, substituindo o seu valor total na soma.
+	 * O valor total do carrinho deve ser atualizado em seguida.
+	 * 
+	 * @param item
+	 * @param valorUnitario
+	 * @param quantidade
+	 */
+	private void alterarItem(Item item, BigDecimal valorUnitario, int quantidade) {
+		int quantidadeAnterior = item.getQuantidade();
+		long centavosAnterior = item.getValorTotalCentavos();
 
-		if (!item.getValorUnitario().equals(valorUnitario)) {
-			item.setValorUnitario(valorUnitario);
+		retirarValorItem(item);
+		item.alterar(valorUnitario, quantidade);
+		incluirValorItem(item);
+		itens.atualizar(item);
+		registrarVariacao(item, quantidade - quantidadeAnterior, item.getValorTotalCentavos() - centavosAnterior);
+	}
+	
+	/**
+	 * Inclui um novo item no carrinho e soma o seu valor total. O valor total do carrinho deve ser
+	 * atualizado em seguida.
+	 * 
+	 * @param produto
+	 * @param valorUnitario
+	 * @param quantidade
+	 * @return Item
+	 */
+	private Item incluirItem(Produto produto, BigDecimal valorUnitario, int quantidade) {
+		Item item = new Item(produto, valorUnitario, quantidade);
+		itens.incluir(item);
+		item.setCarrinho(this);
+		incluirValorItem(item);
+		registrarVariacao(item, quantidade, item.getValorTotalCentavos());
+		contarItens(1);
+		return item;
+	}
+	
+	/**
+	 * Soma a variação da quantidade de itens às métricas da factory, caso estejam habilitadas.
+	 */
+	private void contarItens(int variacao) {
+		MetricasCarrinhos metricas = getMetricas();
+		if (metricas != null) {
+			metricas.somarItens(variacao);
 		}
-		
-		int novaQuantidade = item.getQuantidade() + quantidade;
-		item.setQuantidade(novaQuantidade);
 	}
 	
 	/**
-	 * Pesquisa se o produto j existe na lista de items do carrinho.
+	 * Conta a falha de validação nas métricas da factory e retorna a exceção a ser lançada.
+	 */
+	private IllegalArgumentException falhaValidacao(String mensagem) {
+		MetricasCarrinhos metricas = getMetricas();
+		if (metricas != null) {
+			metricas.falhaValidacao();
+		}
+		return new IllegalArgumentException(mensagem);
+	}
+	
+	/**
+	 * Soma a variação do item ao ranking de produtos da factory, caso exista.
+	 */
+	private void registrarVariacao(Item item, int variacaoQuantidade, long variacaoCentavos) {
+		CarrinhoComprasFactory factoryAtual = factory;
+		RankingProdutos ranking = factoryAtual == null ? null : factoryAtual.getRanking();
+		if (ranking != null) {
+			ranking.somar(item.getProduto(), variacaoQuantidade, variacaoCentavos);
+		}
+	}
+	
+	/**
+	 * Pesquisa se o produto já existe na lista de items do carrinho.
 	 * 
 	 * @param produto
-	 * @return Retorna o item associado ao produto, se no existir o produto retorna null.
+	 * @return Retorna o item associado ao produto, se não existir o produto retorna null.
 	 */
 	private Item pesquisaItem(Produto produto) {
 		if (null == produto) {
 			return null;
 		}
-		for (Item item : itens) {
-			if (item.getProduto().equals(produto)) {
-				return item;
-			}
-		}
-		return null;
+		return itens.pesquisar(produto);
 	}
 	
 	/**
-	 * Verifica se a quantidade de produto  vlida.
+	 * Verifica se a quantidade de produto é válida.
 	 * 
 	 * @param quantidade
 	 */
 	private void validarQuantidade(int quantidade) {
 		if (quantidade < 1) {
-			throw new IllegalArgumentException("Falha no carrinho: A quantidade deve ser maior que zero(0).");
+			throw falhaValidacao("Falha no carrinho: A quantidade deve ser maior que zero(0).");
 		}
 	}
 	
 	/**
-	 * Verifica se o valorUnitario do produto  vlido.
+	 * Verifica se o valorUnitario do produto é válido.
 	 * 
 	 * @param valorUnitario
 	 */
 	private void validarValorUnitario(BigDecimal valorUnitario) {
 		if(null == valorUnitario) {
-			throw new IllegalArgumentException("Falha na adio de Item: O valor unitrio est invlido.");
+			throw falhaValidacao("Falha na adição de Item: O valor unitário está inválido.");
 		}
 		
-		if (valorUnitario.compareTo(BigDecimal.ZERO) <= 0) {
-			throw new IllegalArgumentException("Falha na adio de Item: O valor unitrio no pode ser negativo.");
+		if (valorUnitario.signum() <= 0) {
+			throw falhaValidacao("Falha na adição de Item: O valor unitário não pode ser negativo.");
 		}
 	}
 	
 	/**
-	 * Verifica se o Produto que est sendo adicionado ao carrinho no est vazio ou invlido.
+	 * Verifica se o Produto que está sendo adicionado ao carrinho não está vazio ou inválido.
 	 * 
 	 * @param produto
 	 */
 	private void validarProduto(Produto produto) {
 		if (null == produto) {
-			throw new IllegalArgumentException("Falha no carrinho: O produto no foi informado.");
+			throw falhaValidacao("Falha no carrinho: O produto não foi informado.");
 		}
 		
 		if(null != produto.getCodigo() && produto.getCodigo() < 1L) {
-			throw new IllegalArgumentException("Falha no carrinho: O Id do produto no foi informado.");
+			throw falhaValidacao("Falha no carrinho: O Id do produto não foi informado.");
 		}
 	}
 
@@ -1,87 +1,748 @@
 package br.com.recrutamento.eds;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
 
 /**
- * Classe responsvel pela criao e recuperao dos carrinhos de compras.
+ * Classe responsável pela criação e recuperação dos carrinhos de compras.
+ *
+ * Por padrão os carrinhos são mantidos em um LinkedHashMap e a factory não deve ser compartilhada
+ * entre threads. No modo concorrente a sessão é mantida em um ConcurrentHashMap, particionado pelo
+ * hash da identificação do cliente: as leituras não bloqueiam e a criação do carrinho é atômica.
+ *
+ * Opcionalmente os carrinhos podem expirar após um tempo máximo sem acesso, e a quantidade de
+ * carrinhos pode ser limitada; veja configurarExpiracao. Os itens dos carrinhos ociosos também podem
+ * ser mantidos fora do heap; veja configurarArmazem.
  */
 public class CarrinhoComprasFactory {
+
+	/**
+	 * Quantidade de partições sugerida para a sessão no modo concorrente.
+	 */
+	private static final int PARTICOES_SESSAO = 64;
+	
+	/**
+	 * Quantidade de ticks da roda de temporização por tempo máximo ocioso. A roda possui o dobro de
+	 * baldes, de modo que uma volta sempre cobre o tempo máximo ocioso.
+	 */
+	private static final int TICKS_POR_PERIODO = 64;
+	
+	/**
+	 * Limites das faixas do histograma de valores usados por padrão em calcularEstatisticas.
+	 */
+	private static final BigDecimal[] LIMITES_FAIXAS_PADRAO = { new BigDecimal("50"), new BigDecimal("100"),
+			new BigDecimal("250"), new BigDecimal("500"), new BigDecimal("1000"), new BigDecimal("2500"), new BigDecimal("5000") };
+	
+	private final Map<String, CarrinhoCompras> session;
+	
+	/**
+	 * Somatório do valor total e quantidade de carrinhos, mantidos a cada alteração para que o
+	 * ticket médio não precise percorrer os carrinhos.
+	 */
+	private final SomatorioConcorrente somatorioCarrinhos = new SomatorioConcorrente();
+	private final LongAdder quantidadeCarrinhos = new LongAdder();
+	
+	private final boolean concorrente;
+	private final List<CarrinhoComprasListener> listeners = new CopyOnWriteArrayList<CarrinhoComprasListener>();
+	
+	private LongSupplier relogio = System::nanoTime;
+	private volatile RodaTemporizacao roda;
+	private long tempoMaximoOcioso;
+	private int quantidadeMaximaCarrinhos = Integer.MAX_VALUE;
+	private final ReentrantLock lockExpiracao = new ReentrantLock();
+	private ScheduledExecutorService expiracao;
+	
+	/**
+	 * Diário em que são registradas as alterações dos carrinhos, ou null caso não sejam registradas.
+	 */
+	private volatile DiarioCarrinhos diario;
 	
-	private Map<String, CarrinhoCompras> session = new LinkedHashMap<String, CarrinhoCompras>();
+	/**
+	 * Ranking dos produtos nos carrinhos, ou null caso não seja mantido.
+	 */
+	private volatile RankingProdutos ranking;
+	
+	/**
+	 * Métricas das operações, ou null caso estejam desabilitadas.
+	 */
+	private volatile MetricasCarrinhos metricas;
+	
+	/**
+	 * Armazém fora do heap dos itens dos carrinhos ociosos, ou null caso não sejam hibernados.
+	 */
+	private volatile ArmazemCarrinhos armazem;
+	private volatile long tempoHibernacao;
 
 	public CarrinhoComprasFactory() {
+		this(false);
+	}
+
+	/**
+	 * Construtor da classe CarrinhoComprasFactory.
+	 *
+	 * @param concorrente - true para permitir o uso da factory por várias threads simultaneamente.
+	 */
+	public CarrinhoComprasFactory(boolean concorrente) {
+		this.concorrente = concorrente;
+		if (concorrente) {
+			session = new ConcurrentHashMap<String, CarrinhoCompras>(PARTICOES_SESSAO, 0.75f,
+					Runtime.getRuntime().availableProcessors());
+		} else {
+			session = new LinkedHashMap<String, CarrinhoCompras>();
+		}
 	}
 
     /**
-     * Cria e retorna um novo carrinho de compras para o cliente passado como parmetro.
+     * Cria e retorna um novo carrinho de compras para o cliente passado como parâmetro.
      *
-     * Caso j exista um carrinho de compras para o cliente passado como parmetro, este carrinho dever ser retornado.
+     * Caso já exista um carrinho de compras para o cliente passado como parâmetro, este carrinho deverá ser retornado.
      *
      * @param identificacaoCliente
      * @return CarrinhoCompras
      */
 	public CarrinhoCompras criar(String identificacaoCliente) {
+		MetricasCarrinhos metricasAtuais = metricas;
+		long inicio = MetricasCarrinhos.iniciar(metricasAtuais);
 
 		if (null == identificacaoCliente || identificacaoCliente.isEmpty()) {
+			if (metricasAtuais != null) {
+				metricasAtuais.falhaValidacao();
+			}
 			return null;
 		}
 
 		CarrinhoCompras carrinho = session.get(identificacaoCliente);
 
 		if (null == carrinho) {
-			carrinho = new CarrinhoCompras(identificacaoCliente);
-			session.put(identificacaoCliente, carrinho);
+			// No modo concorrente o computeIfAbsent garante um único carrinho por cliente.
+			CarrinhoCompras[] criado = new CarrinhoCompras[1];
+			carrinho = session.computeIfAbsent(identificacaoCliente, id -> criado[0] = novoCarrinho(id));
+			
+			if (criado[0] == carrinho) {
+				registrarCriacao(carrinho);
+			}
+			if (criado[0] == carrinho && metricasAtuais != null) {
+				metricasAtuais.carrinhoCriado();
+			}
+			
+			if (quantidadeCarrinhos.sum() > quantidadeMaximaCarrinhos) {
+				expirarExcedentes();
+			}
+		} else {
+			carrinho.registrarAcesso();
 		}
 
+		MetricasCarrinhos.registrar(metricasAtuais, MetricasCarrinhos.Operacao.CRIAR, inicio);
 		return carrinho;
 	}
 
     /**
-     * Retorna o valor do ticket mdio no momento da chamada ao mtodo.
-     * O valor do ticket mdio  a soma do valor total de todos os carrinhos de compra dividido
+     * Retorna o valor do ticket médio no momento da chamada ao método.
+     * O valor do ticket médio é a soma do valor total de todos os carrinhos de compra dividido
      * pela quantidade de carrinhos de compra.
-     * O valor retornado dever ser arredondado com duas casas decimais, seguindo a regra:
+     * O valor retornado deverá ser arredondado com duas casas decimais, seguindo a regra:
      * 0-4 deve ser arredondado para baixo e 5-9 deve ser arredondado para cima.
+     * Caso não exista nenhum carrinho de compras o valor retornado é zero.
      *
      * @return BigDecimal
      */
 	public BigDecimal getValorTicketMedio() {
+		MetricasCarrinhos metricasAtuais = metricas;
+		long inicio = MetricasCarrinhos.iniciar(metricasAtuais);
+		
+		long quantidade = quantidadeCarrinhos.sum();
+		BigDecimal valorTicketMedio;
 		
-		BigDecimal somatorioVlCarrinho = session.values().stream().map(carrinho -> carrinho.getValorTotal())
-				.reduce((k, w) -> k.add(w)).get();
-		BigDecimal valorTicketMedio =
-				somatorioVlCarrinho.divide(new BigDecimal(session.size()), 2, RoundingMode.HALF_UP);
-		if (valorTicketMedio != null) {
-			return valorTicketMedio;
+		if (quantidade <= 0) {
+			valorTicketMedio = BigDecimal.ZERO.setScale(2);
+		} else {
+			valorTicketMedio = somatorioCarrinhos.getValor().paraBigDecimal().divide(BigDecimal.valueOf(quantidade), 2, RoundingMode.HALF_UP);
 		}
-		return BigDecimal.ZERO;
+		MetricasCarrinhos.registrar(metricasAtuais, MetricasCarrinhos.Operacao.GET_VALOR_TICKET_MEDIO, inicio);
+		return valorTicketMedio;
 	}
 
     /**
-     * Invalida um carrinho de compras quando o cliente faz um checkout ou sua sesso expirar.
-     * Deve ser efetuada a remoo do carrinho do cliente passado como parmetro da listagem de carrinhos de compras.
+     * Calcula as estatísticas dos carrinhos com as faixas de valor padrão do histograma: até 50, 100,
+     * 250, 500, 1000, 2500, 5000 e acima.
+     *
+     * @return EstatisticasCarrinhos
+     */
+    public EstatisticasCarrinhos calcularEstatisticas() {
+    	return calcularEstatisticas(LIMITES_FAIXAS_PADRAO);
+    }
+
+    /**
+     * Calcula em paralelo o ticket médio, a mediana, os percentis 90 e 99, o histograma do valor total e a
+     * distribuição da quantidade de itens dos carrinhos. Veja EstatisticasCarrinhos.
+     *
+     * @param limitesFaixas - limites inferiores das faixas do histograma após a primeira, que começa em
+     * zero, em ordem crescente e arredondados para duas casas decimais.
+     * @return EstatisticasCarrinhos
+     */
+    public EstatisticasCarrinhos calcularEstatisticas(BigDecimal... limitesFaixas) {
+    	long[] limites = new long[limitesFaixas.length];
+    	
+    	for (int i = 0; i < limitesFaixas.length; i++) {
+    		limites[i] = null == limitesFaixas[i] ? 0L : ValorMonetario.de(limitesFaixas[i]).paraCentavos();
+    		if (limites[i] <= 0L) {
+    			throw new IllegalArgumentException("Falha nas estatísticas: Os limites das faixas devem ser maiores que zero(0).");
+    		}
+    		if (i > 0 && limites[i] <= limites[i - 1]) {
+    			throw new IllegalArgumentException("Falha nas estatísticas: Os limites das faixas devem estar em ordem crescente.");
+    		}
+    	}
+    	return EstatisticasCarrinhos.calcular(session.values().toArray(new CarrinhoCompras[0]), limites);
+    }
+
+    /**
+     * Invalida um carrinho de compras quando o cliente faz um checkout ou sua sessão expirar.
+     * Deve ser efetuada a remoção do carrinho do cliente passado como parâmetro da listagem de carrinhos de compras.
      *
      * @param identificacaoCliente
-     * @return Retorna um boolean, tendo o valor true caso o cliente passado como parmetro tenha um carrinho de compras e
-     * e false caso o cliente no possua um carrinho.
+     * @return Retorna um boolean, tendo o valor true caso o cliente passado como parämetro tenha um carrinho de compras e
+     * e false caso o cliente não possua um carrinho.
      */
     public boolean invalidar(String identificacaoCliente) {
+    	return finalizarCompra(identificacaoCliente) != null;
+    }
+
+    /**
+     * Invalida o carrinho do cliente no checkout, da mesma forma que invalidar, e retorna a visão dos
+     * itens no momento da remoção. Nenhuma alteração feita após a remoção é refletida na visão, que pode
+     * ser gravada como pedido sem bloquear o carrinho.
+     *
+     * @param identificacaoCliente
+     * @return Retorna a visão final do carrinho, ou null caso o cliente não possua carrinho.
+     */
+    public VisaoCarrinho finalizarCompra(String identificacaoCliente) {
     	
     	if(null == identificacaoCliente || identificacaoCliente.isEmpty()) {
+    		return null;
+    	}
+    	
+    	CarrinhoCompras carrinho;
+    	VisaoCarrinho visao;
+    	
+    	// Repete caso o carrinho lido tenha sido substituído por outro antes de ser bloqueado.
+    	do {
+    		carrinho = session.get(identificacaoCliente);
+    		if (carrinho == null) {
+    			return null;
+    		}
+    		visao = removerDaSessao(carrinho, DiarioCarrinhos.CARRINHO_INVALIDADO);
+    	} while (visao == null);
+    	
+		MetricasCarrinhos metricasAtuais = metricas;
+		if (metricasAtuais != null) {
+			metricasAtuais.carrinhoInvalidado();
+		}
+		for (CarrinhoComprasListener listener : listeners) {
+			listener.carrinhoInvalidado(carrinho);
+		}
+		return visao;
+    }
+
+    /**
+     * Configura a expiração dos carrinhos. Os carrinhos sem acesso (criar ou alteração dos itens) há mais
+     * tempo que o tempo máximo ocioso são removidos, assim como os carrinhos com acesso mais antigo quando
+     * a quantidade de carrinhos excede a quantidade máxima. Os carrinhos removidos são informados aos
+     * listeners através de carrinhoExpirado.
+     *
+     * A verificação do tempo ocioso é feita por expirarCarrinhosOciosos, chamado periodicamente após
+     * iniciarExpiracao.
+     *
+     * @param tempoMaximoOcioso
+     * @param unidade
+     * @param quantidadeMaximaCarrinhos
+     */
+    public void configurarExpiracao(long tempoMaximoOcioso, TimeUnit unidade, int quantidadeMaximaCarrinhos) {
+    	if (tempoMaximoOcioso <= 0 || quantidadeMaximaCarrinhos <= 0) {
+    		throw new IllegalArgumentException("Falha na expiração: O tempo máximo ocioso e a quantidade máxima de carrinhos devem ser maiores que zero(0).");
+    	}
+    	this.tempoMaximoOcioso = unidade.toNanos(tempoMaximoOcioso);
+    	this.quantidadeMaximaCarrinhos = quantidadeMaximaCarrinhos;
+    	
+    	RodaTemporizacao novaRoda = new RodaTemporizacao(Math.max(1L, this.tempoMaximoOcioso / TICKS_POR_PERIODO),
+    			TICKS_POR_PERIODO * 2, relogio.getAsLong(), carrinho -> carrinho.getUltimoAcesso() + this.tempoMaximoOcioso,
+    			carrinho -> carrinho.getFactory() == this, this::expirar);
+    	for (CarrinhoCompras carrinho : session.values()) {
+    		novaRoda.agendar(carrinho);
+    	}
+    	roda = novaRoda;
+    }
+
+    /**
+     * Inicia uma thread que verifica periodicamente os carrinhos ociosos. Disponível apenas no modo
+     * concorrente.
+     */
+    public synchronized void iniciarExpiracao() {
+    	if (!concorrente) {
+    		throw new IllegalStateException("Falha na expiração: A expiração automática exige a factory no modo concorrente.");
+    	}
+    	if (roda == null) {
+    		throw new IllegalStateException("Falha na expiração: A expiração não foi configurada.");
+    	}
+    	if (expiracao == null) {
+    		long intervalo = Math.max(TimeUnit.MILLISECONDS.toNanos(1), tempoMaximoOcioso / TICKS_POR_PERIODO);
+    		expiracao = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+    			Thread thread = new Thread(tarefa, "carrinho-expiracao");
+    			thread.setDaemon(true);
+    			return thread;
+    		});
+    		expiracao.scheduleWithFixedDelay(this::expirarCarrinhosOciosos, intervalo, intervalo, TimeUnit.NANOSECONDS);
+    	}
+    }
+
+    /**
+     * Encerra a thread de expiração dos carrinhos.
+     */
+    public synchronized void encerrar() {
+    	if (expiracao != null) {
+    		expiracao.shutdownNow();
+    		expiracao = null;
+    	}
+    }
+
+    /**
+     * Remove os carrinhos que estão sem acesso há mais tempo que o tempo máximo ocioso. Caso outra
+     * thread esteja expirando carrinhos, retorna sem fazer nada.
+     */
+    public void expirarCarrinhosOciosos() {
+    	RodaTemporizacao rodaAtual = roda;
+    	
+    	if (rodaAtual != null && lockExpiracao.tryLock()) {
+    		try {
+    			rodaAtual.avancar(relogio.getAsLong());
+    		} finally {
+    			lockExpiracao.unlock();
+    		}
+    	}
+    }
+
+    /**
+     * Configura a hibernação dos carrinhos ociosos: os itens dos carrinhos sem acesso há mais tempo que o
+     * tempo de hibernação são gravados no armazém fora do heap, e o carrinho mantém no heap apenas a
+     * identificação, o valor total e a visão sem itens. O carrinho é despertado na próxima alteração dos
+     * itens ou acesso a CarrinhoCompras.getItens; o valor total, o ticket médio e a visão não despertam o
+     * carrinho.
+     *
+     * A hibernação é feita por hibernarCarrinhosOciosos, que deve ser chamado periodicamente.
+     *
+     * @param armazem - armazém dos itens, ou null para deixar de hibernar carrinhos. Os carrinhos já
+     * hibernados continuam no armazém anterior até serem despertados.
+     * @param tempoHibernacao
+     * @param unidade
+     */
+    public void configurarArmazem(ArmazemCarrinhos armazem, long tempoHibernacao, TimeUnit unidade) {
+    	if (armazem != null && tempoHibernacao <= 0) {
+    		throw new IllegalArgumentException("Falha no armazém: O tempo de hibernação deve ser maior que zero(0).");
+    	}
+    	this.tempoHibernacao = unidade.toNanos(tempoHibernacao);
+    	this.armazem = armazem;
+    }
+
+    /**
+     * Retorna o armazém dos carrinhos hibernados, ou null caso a hibernação não esteja configurada.
+     *
+     * @return ArmazemCarrinhos
+     */
+    public ArmazemCarrinhos getArmazem() {
+    	return armazem;
+    }
+
+    /**
+     * Hiberna os carrinhos que estão sem acesso há mais tempo que o tempo de hibernação. Cada carrinho é
+     * bloqueado apenas durante a gravação dos seus itens.
+     *
+     * @return Retorna a quantidade de carrinhos hibernados.
+     */
+    public int hibernarCarrinhosOciosos() {
+    	ArmazemCarrinhos armazemAtual = armazem;
+    	if (armazemAtual == null) {
+    		return 0;
+    	}
+    	long acessoMaximo = relogio.getAsLong() - tempoHibernacao;
+    	int hibernados = 0;
+    	
+    	for (CarrinhoCompras carrinho : session.values()) {
+    		if (carrinho.hibernar(armazemAtual, acessoMaximo)) {
+    			hibernados++;
+    		}
+    	}
+    	return hibernados;
+    }
+
+    /**
+     * Grava todos os carrinhos da factory no arquivo informado, substituindo o snapshot anterior apenas
+     * quando a gravação termina. Cada carrinho é bloqueado apenas durante a cópia dos seus itens, de modo
+     * que a gravação pode ser feita periodicamente sem interromper o uso da factory.
+     *
+     * @param arquivo
+     * @return Retorna a quantidade de carrinhos gravados.
+     * @throws IOException
+     */
+    public int gravarSnapshot(Path arquivo) throws IOException {
+    	return SnapshotCarrinhos.gravar(getCarrinhos(), relogio.getAsLong(), arquivo, SnapshotCarrinhos.TAMANHO_REGIAO);
+    }
+
+    /**
+     * Restaura os carrinhos gravados por gravarSnapshot. Os carrinhos mantêm o tempo sem acesso que
+     * tinham na gravação, e os clientes que já possuem carrinho na factory mantêm o carrinho atual. Os
+     * listeners não são avisados dos carrinhos restaurados.
+     *
+     * @param arquivo
+     * @return Retorna a quantidade de carrinhos restaurados.
+     * @throws IOException
+     */
+    public int restaurarSnapshot(Path arquivo) throws IOException {
+    	return SnapshotCarrinhos.restaurar(arquivo, this, SnapshotCarrinhos.TAMANHO_REGIAO);
+    }
+
+    /**
+     * Associa o diário em que passam a ser registradas as alterações dos carrinhos: criação, invalidação,
+     * expiração e alteração dos itens. O estado anterior deve ser restaurado com DiarioCarrinhos.restaurar
+     * antes da associação.
+     *
+     * @param diario - diário, ou null para deixar de registrar as alterações.
+     */
+    public void setDiario(DiarioCarrinhos diario) {
+    	this.diario = diario;
+    }
+
+    /**
+     * Associa o ranking de produtos, mantido a cada alteração dos itens dos carrinhos. Os itens dos
+     * carrinhos existentes são somados ao ranking, e a associação não deve ser feita durante alterações
+     * dos carrinhos.
+     *
+     * @param ranking - ranking, ou null para deixar de mantê-lo.
+     */
+    public void setRanking(RankingProdutos ranking) {
+    	this.ranking = ranking;
+    	if (ranking != null) {
+    		for (CarrinhoCompras carrinho : session.values()) {
+    			synchronized (carrinho) {
+    				somarItens(ranking, carrinho, 1);
+    			}
+    		}
+    	}
+    }
+
+    /**
+     * Habilita as métricas das operações dos carrinhos e da factory, retornando as métricas já
+     * habilitadas caso existam. Os itens dos carrinhos existentes são contados na habilitação, que não
+     * deve ser feita durante alterações dos carrinhos.
+     *
+     * @return MetricasCarrinhos
+     */
+    public synchronized MetricasCarrinhos habilitarMetricas() {
+    	if (metricas == null) {
+    		MetricasCarrinhos novasMetricas = new MetricasCarrinhos(this);
+    		for (CarrinhoCompras carrinho : session.values()) {
+    			synchronized (carrinho) {
+    				novasMetricas.somarItens(carrinho.getVisao().getItens().size());
+    			}
+    		}
+    		metricas = novasMetricas;
+    	}
+    	return metricas;
+    }
+
+    /**
+     * Desabilita as métricas, removendo-as do JMX caso tenham sido registradas.
+     */
+    public synchronized void desabilitarMetricas() {
+    	if (metricas != null) {
+    		metricas.removerJmx();
+    		metricas = null;
+    	}
+    }
+
+    /**
+     * Retorna as métricas da factory, ou null caso estejam desabilitadas.
+     *
+     * @return MetricasCarrinhos
+     */
+    public MetricasCarrinhos getMetricas() {
+    	return metricas;
+    }
+
+    /**
+     * Adiciona um listener para os eventos dos carrinhos.
+     *
+     * @param listener
+     */
+    public void adicionarListener(CarrinhoComprasListener listener) {
+    	listeners.add(listener);
+    }
+
+    /**
+     * Remove o listener informado.
+     *
+     * @param listener
+     */
+    public void removerListener(CarrinhoComprasListener listener) {
+    	listeners.remove(listener);
+    }
+
+    /**
+     * Retorna a quantidade de carrinhos de compras ativos.
+     *
+     * @return int
+     */
+    public int getQuantidadeCarrinhos() {
+    	return session.size();
+    }
+
+    /**
+     * Retorna os carrinhos da sessão. No modo concorrente a coleção reflete as alterações feitas durante
+     * a iteração sem lançar ConcurrentModificationException.
+     *
+     * @return Collection
+     */
+    Collection<CarrinhoCompras> getCarrinhos() {
+    	return Collections.unmodifiableCollection(session.values());
+    }
+
+    /**
+     * Soma a variação do valor total de um dos carrinhos ao somatório global.
+     *
+     * @param variacao
+     */
+    void somarValorCarrinhos(ValorMonetario variacao) {
+    	somatorioCarrinhos.somar(variacao);
+    }
+
+    /**
+     * Avisa os listeners da alteração dos itens do carrinho.
+     *
+     * @param carrinho
+     */
+    void carrinhoAlterado(CarrinhoCompras carrinho) {
+    	for (CarrinhoComprasListener listener : listeners) {
+    		listener.carrinhoAlterado(carrinho);
+    	}
+    }
+
+    /**
+     * Inclui na sessão um carrinho restaurado, caso o cliente ainda não possua carrinho.
+     *
+     * @param carrinho
+     * @param tempoOcioso - tempo sem acesso do carrinho, em nanossegundos.
+     * @return Retorna true caso o carrinho tenha sido incluído.
+     */
+    boolean restaurar(CarrinhoCompras carrinho, long tempoOcioso) {
+    	synchronized (carrinho) {
+    		carrinho.setFactory(this);
+    		carrinho.setUltimoAcesso(relogio.getAsLong() - tempoOcioso);
+    		somatorioCarrinhos.somar(carrinho.getValorTotalMonetario());
+    		quantidadeCarrinhos.increment();
+    		somarItens(ranking, carrinho, 1);
+    		contarItens(carrinho, 1);
+    	}
+    	if (session.putIfAbsent(carrinho.getIdentificacaoCliente(), carrinho) != null) {
+    		desvincular(carrinho);
     		return false;
     	}
     	
-    	CarrinhoCompras carrinho = session.get(identificacaoCliente);
+    	RodaTemporizacao rodaAtual = roda;
+    	if (rodaAtual != null) {
+    		rodaAtual.agendar(carrinho);
+    	}
+    	return true;
+    }
 
-		if (carrinho == null) {
-			return false;
-		}
-		else {
-			session.remove(identificacaoCliente);
-			return true;
+    /**
+     * Remove o carrinho do cliente sem avisar os listeners nem registrar no diário, usado na restauração
+     * do diário.
+     *
+     * @param identificacaoCliente
+     * @return Retorna true caso o cliente possuísse carrinho.
+     */
+    boolean remover(String identificacaoCliente) {
+    	CarrinhoCompras carrinho = session.remove(identificacaoCliente);
+    	
+    	if (carrinho == null) {
+    		return false;
+    	}
+    	desvincular(carrinho);
+    	return true;
+    }
+
+    /**
+     * Retorna o ranking de produtos associado à factory, ou null caso não exista.
+     *
+     * @return RankingProdutos
+     */
+    RankingProdutos getRanking() {
+    	return ranking;
+    }
+
+    /**
+     * Retorna o diário associado à factory, ou null caso não exista.
+     *
+     * @return DiarioCarrinhos
+     */
+    DiarioCarrinhos getDiario() {
+    	return diario;
+    }
+
+    /**
+     * Retorna o instante atual usado no controle de acesso dos carrinhos, em nanossegundos.
+     *
+     * @return long
+     */
+    long agora() {
+    	return relogio.getAsLong();
+    }
+
+    /**
+     * Altera o relógio usado no controle de acesso dos carrinhos. Deve ser chamado antes de configurarExpiracao.
+     *
+     * @param relogio
+     */
+    void setRelogio(LongSupplier relogio) {
+    	this.relogio = relogio;
+    }
+
+    private CarrinhoCompras novoCarrinho(String identificacaoCliente) {
+    	CarrinhoCompras carrinho = new CarrinhoCompras(identificacaoCliente);
+    	carrinho.setFactory(this);
+    	carrinho.registrarAcesso();
+    	quantidadeCarrinhos.increment();
+    	
+    	RodaTemporizacao rodaAtual = roda;
+    	if (rodaAtual != null) {
+    		rodaAtual.agendar(carrinho);
+    	}
+    	return carrinho;
+    }
+
+    private void expirarExcedentes() {
+    	RodaTemporizacao rodaAtual = roda;
+    	
+    	if (rodaAtual != null && lockExpiracao.tryLock()) {
+    		try {
+    			long excedentes = quantidadeCarrinhos.sum() - quantidadeMaximaCarrinhos;
+    			if (excedentes > 0) {
+    				rodaAtual.expirarProximos((int) Math.min(excedentes, Integer.MAX_VALUE));
+    			}
+    		} finally {
+    			lockExpiracao.unlock();
+    		}
+    	}
+    }
+
+    private void expirar(CarrinhoCompras carrinho) {
+    	if (removerDaSessao(carrinho, DiarioCarrinhos.CARRINHO_EXPIRADO) != null) {
+    		MetricasCarrinhos metricasAtuais = metricas;
+    		if (metricasAtuais != null) {
+    			metricasAtuais.carrinhoExpirado();
+    		}
+    		for (CarrinhoComprasListener listener : listeners) {
+    			listener.carrinhoExpirado(carrinho);
+    		}
+    	}
+    }
+
+    /**
+     * Registra no diário a criação do carrinho, após a sua inclusão na sessão, para que um snapshot
+     * iniciado após o registro contenha o carrinho. O registro é feito sob o lock do carrinho: caso outra
+     * thread já o tenha removido, a remoção foi registrada e a criação não é mais registrada, de modo que
+     * a restauração não recria o carrinho.
+     */
+    private void registrarCriacao(CarrinhoCompras carrinho) {
+    	DiarioCarrinhos diarioAtual = diario;
+    	if (diarioAtual == null) {
+    		return;
+    	}
+    	synchronized (carrinho) {
+    		if (carrinho.getFactory() == this) {
+    			diarioAtual.registrarCarrinho(DiarioCarrinhos.CARRINHO_CRIADO, carrinho.getIdentificacaoCliente());
+    		}
+    	}
+    }
+
+    /**
+     * Remove o carrinho da sessão, caso o cliente ainda esteja associado a este mesmo carrinho, e registra
+     * a remoção no diário antes de retirá-lo da sessão: um novo carrinho do mesmo cliente só pode ser
+     * criado após a remoção, e a sua criação é registrada com uma sequência posterior. Fora da restauração,
+     * o carrinho só é retirado da sessão por este método, sob o lock do carrinho, de modo que ele continua
+     * na sessão durante o registro, que pode aguardar a gravação do diário sem bloquear outros clientes.
+     * Como o lock do carrinho é mantido até o desvincular, nenhuma alteração dos itens é registrada após a
+     * remoção.
+     *
+     * @return Retorna a visão do carrinho no momento da remoção, ou null caso ele não esteja na sessão.
+     */
+    private VisaoCarrinho removerDaSessao(CarrinhoCompras carrinho, byte tipo) {
+    	String identificacaoCliente = carrinho.getIdentificacaoCliente();
+    	synchronized (carrinho) {
+    		if (session.get(identificacaoCliente) != carrinho) {
+    			return null;
+    		}
+    		DiarioCarrinhos diarioAtual = diario;
+    		if (diarioAtual != null) {
+    			diarioAtual.registrarCarrinho(tipo, identificacaoCliente);
+    		}
+    		session.remove(identificacaoCliente, carrinho);
+    		return desvincular(carrinho);
+    	}
+    }
+
+    /**
+     * Retira o carrinho removido da sessão do somatório global.
+     *
+     * @return Retorna a visão do carrinho no momento da remoção.
+     */
+    private VisaoCarrinho desvincular(CarrinhoCompras carrinho) {
+		// O lock do carrinho garante que nenhuma alteração em andamento seja somada após a remoção.
+		synchronized (carrinho) {
+			// O carrinho removido pode continuar em uso fora da factory, e o seu registro no armazém é liberado.
+			carrinho.despertar();
+			carrinho.setFactory(null);
+			somatorioCarrinhos.somar(carrinho.getValorTotalMonetario().negar());
+			quantidadeCarrinhos.decrement();
+			somarItens(ranking, carrinho, -1);
+			contarItens(carrinho, -1);
+			return carrinho.getVisao();
 		}
     }
+
+    /**
+     * Soma ou subtrai das métricas a quantidade de itens do carrinho, que deve estar bloqueado. Como a
+     * visão é publicada sob o lock do carrinho, ela corresponde aos itens atuais sem despertar o carrinho.
+     */
+    private void contarItens(CarrinhoCompras carrinho, int sinal) {
+    	MetricasCarrinhos metricasAtuais = metricas;
+    	if (metricasAtuais != null) {
+    		metricasAtuais.somarItens(sinal * carrinho.getVisao().getItens().size());
+    	}
+    }
+
+    /**
+     * Soma ou subtrai do ranking todos os itens do carrinho, que deve estar bloqueado.
+     */
+    private static void somarItens(RankingProdutos ranking, CarrinhoCompras carrinho, int sinal) {
+    	if (ranking == null) {
+    		return;
+    	}
+    	for (VisaoItem item : carrinho.getVisao().getItens()) {
+    		ranking.somar(item.getProduto(), sinal * item.getQuantidade(), sinal * item.getValorTotalCentavos());
+    	}
+    }
 }
\ No newline at end of file
@@ -0,0 +1,36 @@
+package br.com.recrutamento.eds;
+
+/**
+ * Interface para receber os eventos dos carrinhos de compras mantidos pela CarrinhoComprasFactory.
+ *
+ * Os métodos são chamados pela thread que gerou o evento e devem retornar rapidamente.
+ */
+public interface CarrinhoComprasListener {
+
+	/**
+	 * Chamado após cada alteração dos itens de um carrinho, enquanto a thread que fez a alteração
+	 * ainda possui o lock do carrinho.
+	 *
+	 * @param carrinho
+	 */
+	default void carrinhoAlterado(CarrinhoCompras carrinho) {
+	}
+
+	/**
+	 * Chamado quando um carrinho é invalidado através de CarrinhoComprasFactory.invalidar.
+	 *
+	 * @param carrinho
+	 */
+	default void carrinhoInvalidado(CarrinhoCompras carrinho) {
+	}
+
+	/**
+	 * Chamado quando um carrinho é removido da factory por ter ficado ocioso além do tempo máximo
+	 * ou por exceder a quantidade máxima de carrinhos. Ao ser chamado, o valor do carrinho já foi
+	 * retirado do ticket médio.
+	 *
+	 * @param carrinho
+	 */
+	default void carrinhoExpirado(CarrinhoCompras carrinho) {
+	}
+}
@@ -0,0 +1,628 @@
+package br.com.recrutamento.eds;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Diário das alterações dos carrinhos de uma factory, gravado em segmentos de arquivo apenas com inclusões.
+ *
+ * Cada evento (carrinho criado, invalidado ou expirado; item adicionado, alterado ou removido) é
+ * registrado em formato binário com uma sequência, o instante e um CRC32, depois que a alteração foi
+ * feita e a VisaoCarrinho publicada. Os eventos de item registram o estado final do item, e não a
+ * variação, de modo que aplicar novamente um evento não altera o resultado.
+ *
+ * Os eventos são acumulados em memória e gravados por uma única thread, que grava todos os eventos
+ * acumulados e executa um único force por gravação (group commit): enquanto uma gravação é feita os
+ * novos eventos se acumulam para a próxima. O registro não aguarda a gravação; sincronizar aguarda
+ * até que os eventos registrados estejam gravados no disco.
+ *
+ * Os eventos são registrados com o lock do carrinho alterado. Quando os eventos acumulados excedem
+ * CAPACIDADE_BUFFER, o registro aguarda a gravação por até ESPERA_MAXIMA_BUFFER; esgotada a espera, a
+ * gravação é considerada falha, o evento não é registrado e o diário passa a rejeitar novos eventos, em vez
+ * de manter o carrinho bloqueado enquanto o disco não responde.
+ *
+ * A restauração carrega o snapshot mais recente, gravado por gravarSnapshot, e aplica os eventos a
+ * partir da sequência do snapshot. O evento incompleto no final de um segmento, deixado por uma queda,
+ * é ignorado, e cada execução grava em novos segmentos.
+ */
+public class DiarioCarrinhos implements AutoCloseable {
+
+	static final byte CARRINHO_CRIADO = 1;
+	static final byte CARRINHO_INVALIDADO = 2;
+	static final byte CARRINHO_EXPIRADO = 3;
+	static final byte ITEM_ADICIONADO = 4;
+	static final byte ITEM_ALTERADO = 5;
+	static final byte ITEM_REMOVIDO = 6;
+
+	private static final long TAMANHO_SEGMENTO_PADRAO = 64L * 1024 * 1024;
+	private static final long TAMANHO_SEGMENTO_MAXIMO = 1024L * 1024 * 1024;
+
+	/**
+	 * Quantidade de bytes acumulados a partir da qual o registro de eventos aguarda a gravação.
+	 */
+	private static final int CAPACIDADE_BUFFER = 8 * 1024 * 1024;
+
+	/**
+	 * Tempo máximo, em nanossegundos, que o registro de um evento aguarda a gravação com o buffer cheio.
+	 */
+	private static final long ESPERA_MAXIMA_BUFFER = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * Tamanho e CRC32 que antecedem cada evento.
+	 */
+	private static final int TAMANHO_CABECALHO = 8;
+
+	private static final String PREFIXO_SEGMENTO = "diario-";
+	private static final String SUFIXO_SEGMENTO = ".log";
+	private static final String PREFIXO_SNAPSHOT = "snapshot-";
+	private static final String SUFIXO_SNAPSHOT = ".bin";
+
+	private static final byte VALOR_LONG = 0;
+	private static final byte VALOR_BYTES = 1;
+
+	private final Path diretorio;
+	private final long tamanhoSegmento;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition gravacaoSolicitada = lock.newCondition();
+	private final Condition gravacaoConcluida = lock.newCondition();
+	private final CRC32 crc = new CRC32();
+
+	/**
+	 * Eventos registrados e ainda não gravados; a thread de gravação troca este buffer pela reserva.
+	 */
+	private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+	private ByteBuffer reserva = ByteBuffer.allocate(64 * 1024);
+	private long proximaSequencia;
+	private long primeiraSequenciaBuffer;
+	private volatile long sequenciaGravada;
+	private IOException erro;
+	private boolean encerrado;
+
+	private final Thread gravador;
+
+	/**
+	 * Segmento em gravação, usado apenas pela thread de gravação.
+	 */
+	private FileChannel segmento;
+	private long tamanhoSegmentoAtual;
+
+	public DiarioCarrinhos(Path diretorio) throws IOException {
+		this(diretorio, TAMANHO_SEGMENTO_PADRAO);
+	}
+
+	/**
+	 * Construtor da classe DiarioCarrinhos. Continua a sequência dos eventos e snapshots existentes no
+	 * diretório e inicia a thread de gravação.
+	 *
+	 * @param diretorio - diretório dos segmentos e snapshots.
+	 * @param tamanhoSegmento - tamanho a partir do qual um novo segmento é iniciado, em bytes.
+	 * @throws IOException
+	 */
+	public DiarioCarrinhos(Path diretorio, long tamanhoSegmento) throws IOException {
+		if (tamanhoSegmento <= 0 || tamanhoSegmento > TAMANHO_SEGMENTO_MAXIMO) {
+			throw new IllegalArgumentException("Falha no diário: O tamanho do segmento deve estar entre 1 e "
+					+ TAMANHO_SEGMENTO_MAXIMO + " bytes.");
+		}
+		this.diretorio = Files.createDirectories(diretorio);
+		this.tamanhoSegmento = tamanhoSegmento;
+
+		long ultimaSequencia = 0L;
+		List<Long> segmentos = listar(PREFIXO_SEGMENTO, SUFIXO_SEGMENTO);
+		for (int i = segmentos.size() - 1; i >= 0 && ultimaSequencia == 0L; i--) {
+			ultimaSequencia = ler(arquivoSegmento(segmentos.get(i)), 0L, null);
+		}
+		List<Long> snapshots = listar(PREFIXO_SNAPSHOT, SUFIXO_SNAPSHOT);
+		long marca = snapshots.isEmpty() ? 1L : snapshots.get(snapshots.size() - 1);
+
+		proximaSequencia = Math.max(ultimaSequencia + 1, marca);
+		primeiraSequenciaBuffer = proximaSequencia;
+		sequenciaGravada = proximaSequencia - 1;
+
+		gravador = new Thread(this::executarGravacao, "carrinho-diario");
+		gravador.setDaemon(true);
+		gravador.start();
+	}
+
+	/**
+	 * Restaura na factory o snapshot mais recente e aplica os eventos registrados após o snapshot. Deve
+	 * ser chamado antes de associar o diário à factory, com CarrinhoComprasFactory.setDiario.
+	 *
+	 * @param factory
+	 * @return Retorna a quantidade de eventos aplicados.
+	 * @throws IOException
+	 */
+	public long restaurar(CarrinhoComprasFactory factory) throws IOException {
+		if (factory.getDiario() != null) {
+			throw new IllegalStateException("Falha no diário: A factory não pode registrar eventos durante a restauração.");
+		}
+		List<Long> snapshots = listar(PREFIXO_SNAPSHOT, SUFIXO_SNAPSHOT);
+		long marca = 0L;
+
+		if (!snapshots.isEmpty()) {
+			marca = snapshots.get(snapshots.size() - 1);
+			factory.restaurarSnapshot(arquivoSnapshot(marca));
+		}
+
+		Aplicador aplicador = new Aplicador(factory);
+		List<Long> segmentos = listar(PREFIXO_SEGMENTO, SUFIXO_SEGMENTO);
+		for (int i = 0; i < segmentos.size(); i++) {
+			// O segmento seguinte iniciado antes da marca indica que todos os eventos deste são anteriores.
+			if (i + 1 < segmentos.size() && segmentos.get(i + 1) <= marca) {
+				continue;
+			}
+			ler(arquivoSegmento(segmentos.get(i)), marca, aplicador);
+		}
+		return aplicador.quantidade;
+	}
+
+	/**
+	 * Grava o snapshot dos carrinhos da factory com a sequência do próximo evento, e remove os snapshots
+	 * e segmentos anteriores que não são mais necessários para a restauração. A factory continua sendo
+	 * usada durante a gravação.
+	 *
+	 * @param factory
+	 * @throws IOException
+	 */
+	public void gravarSnapshot(CarrinhoComprasFactory factory) throws IOException {
+		long marca;
+
+		lock.lock();
+		try {
+			marca = proximaSequencia;
+		} finally {
+			lock.unlock();
+		}
+		// Os eventos anteriores à marca já estão publicados nas visões lidas pelo snapshot; os posteriores
+		// podem estar ou não, e serão aplicados novamente na restauração.
+		factory.gravarSnapshot(arquivoSnapshot(marca));
+
+		for (long anterior : listar(PREFIXO_SNAPSHOT, SUFIXO_SNAPSHOT)) {
+			if (anterior < marca) {
+				Files.deleteIfExists(arquivoSnapshot(anterior));
+			}
+		}
+		List<Long> segmentos = listar(PREFIXO_SEGMENTO, SUFIXO_SEGMENTO);
+		for (int i = 0; i + 1 < segmentos.size() && segmentos.get(i + 1) <= marca; i++) {
+			Files.deleteIfExists(arquivoSegmento(segmentos.get(i)));
+		}
+	}
+
+	/**
+	 * Aguarda até que todos os eventos registrados até o momento estejam gravados no disco.
+	 *
+	 * @throws IOException - caso a gravação dos eventos tenha falhado.
+	 */
+	public void sincronizar() throws IOException {
+		lock.lock();
+		try {
+			long sequencia = proximaSequencia - 1;
+			gravacaoSolicitada.signal();
+			while (sequenciaGravada < sequencia && erro == null) {
+				gravacaoConcluida.awaitUninterruptibly();
+			}
+			if (erro != null) {
+				throw new IOException("Falha no diário: A gravação dos eventos falhou.", erro);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Retorna a sequência do último evento registrado.
+	 *
+	 * @return long
+	 */
+	public long getSequencia() {
+		lock.lock();
+		try {
+			return proximaSequencia - 1;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Grava os eventos pendentes e encerra a thread de gravação.
+	 */
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			encerrado = true;
+			gravacaoSolicitada.signal();
+		} finally {
+			lock.unlock();
+		}
+		try {
+			gravador.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (erro != null) {
+			throw new IOException("Falha no diário: A gravação dos eventos falhou.", erro);
+		}
+	}
+
+	/**
+	 * Registra a criação, invalidação ou expiração de um carrinho.
+	 *
+	 * @param tipo
+	 * @param identificacaoCliente
+	 */
+	void registrarCarrinho(byte tipo, String identificacaoCliente) {
+		lock.lock();
+		try {
+			int inicio = iniciarEvento(tipo, identificacaoCliente);
+			concluirEvento(inicio);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Registra o estado do item após ser adicionado ou alterado.
+	 *
+	 * @param tipo
+	 * @param identificacaoCliente
+	 * @param item
+	 */
+	void registrarItem(byte tipo, String identificacaoCliente, Item item) {
+		lock.lock();
+		try {
+			int inicio = iniciarEvento(tipo, identificacaoCliente);
+			putProduto(item.getProduto());
+			putValor(item.getValorUnitario());
+			garantir(4).putInt(item.getQuantidade());
+			concluirEvento(inicio);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Registra a remoção do item do produto.
+	 *
+	 * @param identificacaoCliente
+	 * @param produto
+	 */
+	void registrarRemocao(String identificacaoCliente, Produto produto) {
+		lock.lock();
+		try {
+			int inicio = iniciarEvento(ITEM_REMOVIDO, identificacaoCliente);
+			putProduto(produto);
+			concluirEvento(inicio);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private int iniciarEvento(byte tipo, String identificacaoCliente) {
+		if (encerrado) {
+			throw new IllegalStateException("Falha no diário: O diário foi encerrado.");
+		}
+		long espera = ESPERA_MAXIMA_BUFFER;
+		while (buffer.position() > CAPACIDADE_BUFFER && erro == null) {
+			if (espera <= 0) {
+				erro = new IOException("Falha no diário: A gravação dos eventos não foi concluída em "
+						+ TimeUnit.NANOSECONDS.toMillis(ESPERA_MAXIMA_BUFFER) + " ms com o buffer cheio.");
+				gravacaoConcluida.signalAll();
+				break;
+			}
+			gravacaoSolicitada.signal();
+			try {
+				espera = gravacaoConcluida.awaitNanos(espera);
+			} catch (InterruptedException e) {
+				// O evento é registrado acima da capacidade, e a interrupção é mantida para quem a solicitou.
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		if (erro != null) {
+			throw new IllegalStateException("Falha no diário: A gravação dos eventos falhou.", erro);
+		}
+		int inicio = buffer.position();
+		garantir(TAMANHO_CABECALHO + 17).position(inicio + TAMANHO_CABECALHO);
+		buffer.putLong(proximaSequencia).putLong(System.currentTimeMillis()).put(tipo);
+		putString(identificacaoCliente);
+		return inicio;
+	}
+
+	private void concluirEvento(int inicio) {
+		int tamanho = buffer.position() - inicio - TAMANHO_CABECALHO;
+		crc.reset();
+		crc.update(buffer.array(), inicio + TAMANHO_CABECALHO, tamanho);
+		buffer.putInt(inicio, tamanho).putInt(inicio + 4, (int) crc.getValue());
+
+		if (inicio == 0) {
+			gravacaoSolicitada.signal();
+		}
+		proximaSequencia++;
+	}
+
+	private ByteBuffer garantir(int tamanho) {
+		if (buffer.remaining() < tamanho) {
+			ByteBuffer maior = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + tamanho));
+			buffer.flip();
+			maior.put(buffer);
+			buffer = maior;
+		}
+		return buffer;
+	}
+
+	private void putString(String valor) {
+		if (valor == null) {
+			garantir(4).putInt(-1);
+			return;
+		}
+		byte[] bytes = valor.getBytes(StandardCharsets.UTF_8);
+		garantir(4 + bytes.length).putInt(bytes.length).put(bytes);
+	}
+
+	private void putProduto(Produto produto) {
+		Long codigo = produto.getCodigo();
+		garantir(9).put(codigo == null ? (byte) 0 : (byte) 1).putLong(codigo == null ? 0L : codigo);
+		putString(produto.getDescricao());
+	}
+
+	private void putValor(BigDecimal valor) {
+		BigInteger valorSemEscala = valor.unscaledValue();
+
+		garantir(4).putInt(valor.scale());
+		if (valorSemEscala.bitLength() < Long.SIZE) {
+			garantir(9).put(VALOR_LONG).putLong(valorSemEscala.longValue());
+		} else {
+			byte[] bytes = valorSemEscala.toByteArray();
+			garantir(5 + bytes.length).put(VALOR_BYTES).putInt(bytes.length).put(bytes);
+		}
+	}
+
+	private void executarGravacao() {
+		try {
+			while (true) {
+				ByteBuffer eventos;
+				long primeiraSequencia;
+				long ultimaSequencia;
+
+				lock.lock();
+				try {
+					while (buffer.position() == 0 && !encerrado) {
+						gravacaoSolicitada.awaitUninterruptibly();
+					}
+					if (buffer.position() == 0) {
+						return;
+					}
+					eventos = buffer;
+					buffer = reserva;
+					reserva = eventos;
+					primeiraSequencia = primeiraSequenciaBuffer;
+					ultimaSequencia = proximaSequencia - 1;
+					primeiraSequenciaBuffer = proximaSequencia;
+				} finally {
+					lock.unlock();
+				}
+
+				eventos.flip();
+				gravar(eventos, primeiraSequencia);
+				eventos.clear();
+
+				lock.lock();
+				try {
+					sequenciaGravada = ultimaSequencia;
+					gravacaoConcluida.signalAll();
+				} finally {
+					lock.unlock();
+				}
+			}
+		} catch (IOException e) {
+			lock.lock();
+			try {
+				erro = e;
+				gravacaoConcluida.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		} finally {
+			fecharSegmento();
+		}
+	}
+
+	private void gravar(ByteBuffer eventos, long primeiraSequencia) throws IOException {
+		if (segmento == null || (tamanhoSegmentoAtual > 0 && tamanhoSegmentoAtual + eventos.remaining() > tamanhoSegmento)) {
+			fecharSegmento();
+			// Um segmento com o mesmo nome só pode existir sem eventos válidos, deixado por uma queda.
+			segmento = FileChannel.open(arquivoSegmento(primeiraSequencia), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			tamanhoSegmentoAtual = 0L;
+		}
+		tamanhoSegmentoAtual += eventos.remaining();
+		while (eventos.hasRemaining()) {
+			segmento.write(eventos);
+		}
+		segmento.force(false);
+	}
+
+	private void fecharSegmento() {
+		if (segmento == null) {
+			return;
+		}
+		try {
+			segmento.close();
+		} catch (IOException e) {
+			e.printStackTrace(System.out);
+		}
+		segmento = null;
+	}
+
+	/**
+	 * Lê os eventos válidos do segmento, aplicando os eventos a partir da sequência informada.
+	 *
+	 * @return Retorna a sequência do último evento válido, ou zero caso não exista.
+	 */
+	private static long ler(Path arquivo, long sequenciaInicial, Aplicador aplicador) throws IOException {
+		long ultimaSequencia = 0L;
+
+		try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+			MappedByteBuffer dados = canal.map(MapMode.READ_ONLY, 0L, canal.size());
+			CRC32 crc = new CRC32();
+
+			while (dados.remaining() >= TAMANHO_CABECALHO) {
+				int inicio = dados.position();
+				int tamanho = dados.getInt();
+				int valorCrc = dados.getInt();
+				if (tamanho <= 0 || tamanho > dados.remaining()) {
+					break;
+				}
+				ByteBuffer evento = dados.slice();
+				evento.limit(tamanho);
+				crc.reset();
+				for (int i = 0; i < tamanho; i++) {
+					crc.update(evento.get(i));
+				}
+				if ((int) crc.getValue() != valorCrc) {
+					break;
+				}
+				dados.position(inicio + TAMANHO_CABECALHO + tamanho);
+
+				long sequencia = evento.getLong();
+				ultimaSequencia = sequencia;
+				if (aplicador != null && sequencia >= sequenciaInicial) {
+					try {
+						aplicador.aplicar(evento);
+					} catch (BufferUnderflowException e) {
+						throw new IOException("Falha no diário: O evento " + sequencia + " de " + arquivo + " está corrompido.", e);
+					}
+				}
+			}
+		}
+		return ultimaSequencia;
+	}
+
+	private List<Long> listar(String prefixo, String sufixo) throws IOException {
+		List<Long> sequencias = new ArrayList<Long>();
+
+		try (DirectoryStream<Path> arquivos = Files.newDirectoryStream(diretorio, prefixo + "*" + sufixo)) {
+			for (Path arquivo : arquivos) {
+				String nome = arquivo.getFileName().toString();
+				try {
+					sequencias.add(Long.parseLong(nome.substring(prefixo.length(), nome.length() - sufixo.length())));
+				} catch (NumberFormatException e) {
+					// Arquivo que não pertence ao diário.
+				}
+			}
+		}
+		Collections.sort(sequencias);
+		return sequencias;
+	}
+
+	private Path arquivoSegmento(long primeiraSequencia) {
+		return diretorio.resolve(String.format("%s%020d%s", PREFIXO_SEGMENTO, primeiraSequencia, SUFIXO_SEGMENTO));
+	}
+
+	private Path arquivoSnapshot(long marca) {
+		return diretorio.resolve(String.format("%s%020d%s", PREFIXO_SNAPSHOT, marca, SUFIXO_SNAPSHOT));
+	}
+
+	/**
+	 * Aplica os eventos lidos dos segmentos na factory.
+	 */
+	private static class Aplicador {
+
+		private final CarrinhoComprasFactory factory;
+		private final Map<Long, Produto> produtos = new HashMap<Long, Produto>();
+		private long quantidade;
+
+		Aplicador(CarrinhoComprasFactory factory) {
+			this.factory = factory;
+		}
+
+		void aplicar(ByteBuffer evento) {
+			evento.getLong();
+			byte tipo = evento.get();
+			String identificacaoCliente = getString(evento);
+
+			switch (tipo) {
+			case CARRINHO_CRIADO:
+				factory.criar(identificacaoCliente);
+				break;
+			case CARRINHO_INVALIDADO:
+			case CARRINHO_EXPIRADO:
+				factory.remover(identificacaoCliente);
+				break;
+			case ITEM_ADICIONADO:
+			case ITEM_ALTERADO:
+				Produto produto = getProduto(evento);
+				BigDecimal valorUnitario = getValor(evento);
+				factory.criar(identificacaoCliente).definirItem(produto, valorUnitario, evento.getInt());
+				break;
+			case ITEM_REMOVIDO:
+				factory.criar(identificacaoCliente).removerItem(getProduto(evento));
+				break;
+			default:
+				throw new IllegalStateException("Falha no diário: Tipo de evento desconhecido: " + tipo + ".");
+			}
+			quantidade++;
+		}
+
+		/**
+		 * Retorna o produto do evento, compartilhando a instância entre os eventos do mesmo produto.
+		 */
+		private Produto getProduto(ByteBuffer evento) {
+			boolean possuiCodigo = evento.get() != 0;
+			long codigo = evento.getLong();
+			String descricao = getString(evento);
+
+			if (!possuiCodigo) {
+				return new Produto(null, descricao);
+			}
+			Produto produto = produtos.get(codigo);
+			if (produto == null || !Objects.equals(produto.getDescricao(), descricao)) {
+				produto = new Produto(codigo, descricao);
+				produtos.put(codigo, produto);
+			}
+			return produto;
+		}
+
+		private static String getString(ByteBuffer evento) {
+			int tamanho = evento.getInt();
+			if (tamanho < 0) {
+				return null;
+			}
+			byte[] bytes = new byte[tamanho];
+			evento.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		private static BigDecimal getValor(ByteBuffer evento) {
+			int escala = evento.getInt();
+			if (evento.get() == VALOR_LONG) {
+				return BigDecimal.valueOf(evento.getLong(), escala);
+			}
+			byte[] bytes = new byte[evento.getInt()];
+			evento.get(bytes);
+			return new BigDecimal(new BigInteger(bytes), escala);
+		}
+	}
+}
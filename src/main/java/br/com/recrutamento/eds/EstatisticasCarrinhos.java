@@ -0,0 +1,244 @@
+package br.com.recrutamento.eds;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Classe imutável com as estatísticas do valor total e da quantidade de itens dos carrinhos de uma
+ * factory, calculadas por CarrinhoComprasFactory.calcularEstatisticas.
+ *
+ * O cálculo divide os carrinhos em partes processadas em paralelo no ForkJoinPool comum, lendo a
+ * VisaoCarrinho de cada carrinho sem lock: cada carrinho é considerado em uma única versão, mas os
+ * carrinhos alterados durante o cálculo podem estar em versões de instantes diferentes.
+ *
+ * O ticket médio é calculado sobre a soma exata dos valores totais e arredondado para duas casas
+ * decimais com RoundingMode.HALF_UP, assim como getValorTicketMedio. Os percentis e as faixas do
+ * histograma usam os valores totais arredondados da mesma forma; como o arredondamento preserva a
+ * ordem dos valores, os percentis são os valores arredondados dos percentis exatos. Os percentis são
+ * calculados pelo método do posto mais próximo, e a mediana é o percentil 50.
+ */
+public final class EstatisticasCarrinhos {
+
+	/**
+	 * Quantidade de carrinhos a partir da qual uma parte do cálculo é dividida.
+	 */
+	private static final int LIMIAR_DIVISAO = 8192;
+
+	private static final BigDecimal ZERO = BigDecimal.ZERO.setScale(2);
+
+	private final long quantidadeCarrinhos;
+	private final BigDecimal valorTicketMedio;
+	private final BigDecimal mediana;
+	private final BigDecimal percentil90;
+	private final BigDecimal percentil99;
+	private final SortedMap<BigDecimal, Long> histograma;
+	private final SortedMap<Integer, Long> distribuicaoItens;
+
+	private EstatisticasCarrinhos(long quantidadeCarrinhos, BigDecimal valorTicketMedio, BigDecimal mediana,
+			BigDecimal percentil90, BigDecimal percentil99, SortedMap<BigDecimal, Long> histograma,
+			SortedMap<Integer, Long> distribuicaoItens) {
+		this.quantidadeCarrinhos = quantidadeCarrinhos;
+		this.valorTicketMedio = valorTicketMedio;
+		this.mediana = mediana;
+		this.percentil90 = percentil90;
+		this.percentil99 = percentil99;
+		this.histograma = Collections.unmodifiableSortedMap(histograma);
+		this.distribuicaoItens = Collections.unmodifiableSortedMap(distribuicaoItens);
+	}
+
+	/**
+	 * Calcula as estatísticas dos carrinhos.
+	 *
+	 * @param carrinhos
+	 * @param limitesFaixas - limites inferiores das faixas do histograma após a primeira, que começa em zero,
+	 * em centavos e em ordem crescente.
+	 * @return EstatisticasCarrinhos
+	 */
+	static EstatisticasCarrinhos calcular(CarrinhoCompras[] carrinhos, long[] limitesFaixas) {
+		long[] valores = new long[carrinhos.length];
+		Parcial total = ForkJoinPool.commonPool().invoke(new Calculo(carrinhos, valores, limitesFaixas, 0, carrinhos.length));
+		Arrays.parallelSort(valores);
+
+		SortedMap<BigDecimal, Long> histograma = new TreeMap<BigDecimal, Long>();
+		for (int i = 0; i < total.faixas.length; i++) {
+			histograma.put(i == 0 ? ZERO : BigDecimal.valueOf(limitesFaixas[i - 1], 2), total.faixas[i]);
+		}
+		SortedMap<Integer, Long> distribuicaoItens = new TreeMap<Integer, Long>();
+		for (int i = 0; i < total.itens.length; i++) {
+			if (total.itens[i] > 0) {
+				distribuicaoItens.put(i, total.itens[i]);
+			}
+		}
+
+		int quantidade = carrinhos.length;
+		BigDecimal valorTicketMedio = quantidade == 0 ? ZERO
+				: total.soma.paraBigDecimal().divide(BigDecimal.valueOf(quantidade), 2, RoundingMode.HALF_UP);
+		return new EstatisticasCarrinhos(quantidade, valorTicketMedio, percentil(valores, 50), percentil(valores, 90),
+				percentil(valores, 99), histograma, distribuicaoItens);
+	}
+
+	/**
+	 * Retorna o percentil dos valores ordenados pelo método do posto mais próximo.
+	 */
+	private static BigDecimal percentil(long[] valores, int percentual) {
+		if (valores.length == 0) {
+			return ZERO;
+		}
+		int posto = (int) (((long) valores.length * percentual + 99) / 100);
+		return BigDecimal.valueOf(valores[Math.max(0, posto - 1)], 2);
+	}
+
+	/**
+	 * Retorna a quantidade de carrinhos considerados.
+	 *
+	 * @return long
+	 */
+	public long getQuantidadeCarrinhos() {
+		return quantidadeCarrinhos;
+	}
+
+	/**
+	 * Retorna o ticket médio, com duas casas decimais.
+	 *
+	 * @return BigDecimal
+	 */
+	public BigDecimal getValorTicketMedio() {
+		return valorTicketMedio;
+	}
+
+	/**
+	 * Retorna a mediana do valor total dos carrinhos, com duas casas decimais.
+	 *
+	 * @return BigDecimal
+	 */
+	public BigDecimal getMediana() {
+		return mediana;
+	}
+
+	/**
+	 * Retorna o percentil 90 do valor total dos carrinhos, com duas casas decimais.
+	 *
+	 * @return BigDecimal
+	 */
+	public BigDecimal getPercentil90() {
+		return percentil90;
+	}
+
+	/**
+	 * Retorna o percentil 99 do valor total dos carrinhos, com duas casas decimais.
+	 *
+	 * @return BigDecimal
+	 */
+	public BigDecimal getPercentil99() {
+		return percentil99;
+	}
+
+	/**
+	 * Retorna a quantidade de carrinhos por faixa de valor total, indexada pelo limite inferior da faixa.
+	 * Cada faixa vai até o limite inferior da faixa seguinte, exclusive, e a última não tem limite.
+	 *
+	 * @return SortedMap
+	 */
+	public SortedMap<BigDecimal, Long> getHistograma() {
+		return histograma;
+	}
+
+	/**
+	 * Retorna a quantidade de carrinhos por quantidade de itens, apenas para as quantidades de itens que
+	 * ocorrem em algum carrinho.
+	 *
+	 * @return SortedMap
+	 */
+	public SortedMap<Integer, Long> getDistribuicaoItens() {
+		return distribuicaoItens;
+	}
+
+	/**
+	 * Resultado do cálculo de uma parte dos carrinhos.
+	 */
+	private static class Parcial {
+
+		private ValorMonetario soma = ValorMonetario.ZERO;
+		private final long[] faixas;
+		private long[] itens = new long[16];
+
+		Parcial(int quantidadeFaixas) {
+			faixas = new long[quantidadeFaixas];
+		}
+
+		void contarItens(int quantidadeItens) {
+			if (quantidadeItens >= itens.length) {
+				itens = Arrays.copyOf(itens, Math.max(itens.length * 2, quantidadeItens + 1));
+			}
+			itens[quantidadeItens]++;
+		}
+
+		Parcial juntar(Parcial outra) {
+			soma = soma.somar(outra.soma);
+			for (int i = 0; i < faixas.length; i++) {
+				faixas[i] += outra.faixas[i];
+			}
+			if (outra.itens.length > itens.length) {
+				itens = Arrays.copyOf(itens, outra.itens.length);
+			}
+			for (int i = 0; i < outra.itens.length; i++) {
+				itens[i] += outra.itens[i];
+			}
+			return this;
+		}
+	}
+
+	/**
+	 * Calcula uma parte dos carrinhos, gravando o valor total em centavos de cada carrinho na mesma
+	 * posição do array de valores.
+	 */
+	private static class Calculo extends RecursiveTask<Parcial> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final CarrinhoCompras[] carrinhos;
+		private final long[] valores;
+		private final long[] limitesFaixas;
+		private final int inicio;
+		private final int fim;
+
+		Calculo(CarrinhoCompras[] carrinhos, long[] valores, long[] limitesFaixas, int inicio, int fim) {
+			this.carrinhos = carrinhos;
+			this.valores = valores;
+			this.limitesFaixas = limitesFaixas;
+			this.inicio = inicio;
+			this.fim = fim;
+		}
+
+		@Override
+		protected Parcial compute() {
+			if (fim - inicio > LIMIAR_DIVISAO) {
+				int meio = (inicio + fim) >>> 1;
+				Calculo esquerda = new Calculo(carrinhos, valores, limitesFaixas, inicio, meio);
+				esquerda.fork();
+				Parcial direita = new Calculo(carrinhos, valores, limitesFaixas, meio, fim).compute();
+				return esquerda.join().juntar(direita);
+			}
+
+			Parcial parcial = new Parcial(limitesFaixas.length + 1);
+			for (int i = inicio; i < fim; i++) {
+				VisaoCarrinho visao = carrinhos[i].getVisao();
+				ValorMonetario valorTotal = visao.getValorTotalMonetario();
+				long centavos = valorTotal.paraCentavos();
+
+				parcial.soma = parcial.soma.somar(valorTotal);
+				valores[i] = centavos;
+				int faixa = Arrays.binarySearch(limitesFaixas, centavos);
+				parcial.faixas[faixa >= 0 ? faixa + 1 : -faixa - 1]++;
+				parcial.contarItens(visao.getItens().size());
+			}
+			return parcial;
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package br.com.recrutamento.eds;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latências em nanossegundos que pode ser atualizado por várias threads sem lock.
+ *
+ * Os valores até 2^BITS_SUBFAIXA são contados exatamente; a partir daí cada potência de dois é dividida
+ * em 2^BITS_SUBFAIXA faixas de mesma largura, de modo que o erro relativo de um percentil é menor que
+ * 1/2^BITS_SUBFAIXA. O registro apenas incrementa o contador da faixa e a soma dos valores.
+ */
+final class HistogramaLatencia {
+
+	private static final int BITS_SUBFAIXA = 5;
+	private static final int SUBFAIXAS = 1 << BITS_SUBFAIXA;
+	private static final int QUANTIDADE_FAIXAS = SUBFAIXAS + (Long.SIZE - 1 - BITS_SUBFAIXA) * SUBFAIXAS;
+
+	private final AtomicLongArray faixas = new AtomicLongArray(QUANTIDADE_FAIXAS);
+	private final LongAdder soma = new LongAdder();
+	private final AtomicLong maximo = new AtomicLong();
+
+	/**
+	 * Registra uma latência. Valores negativos, causados por ajustes do relógio, são registrados como zero.
+	 *
+	 * @param nanos
+	 */
+	void registrar(long nanos) {
+		long valor = Math.max(0L, nanos);
+
+		faixas.getAndIncrement(indice(valor));
+		soma.add(valor);
+		long maximoAtual;
+		while (valor > (maximoAtual = maximo.get()) && !maximo.compareAndSet(maximoAtual, valor)) {
+			// Outra thread registrou um máximo; compara novamente.
+		}
+	}
+
+	/**
+	 * Retorna o resumo das latências registradas até o momento. As faixas são lidas uma a uma, e os
+	 * registros feitos durante a leitura podem ou não estar no resumo.
+	 *
+	 * @return ResumoLatencia
+	 */
+	ResumoLatencia resumir() {
+		long[] contagens = new long[QUANTIDADE_FAIXAS];
+		long quantidade = 0L;
+
+		for (int i = 0; i < QUANTIDADE_FAIXAS; i++) {
+			contagens[i] = faixas.get(i);
+			quantidade += contagens[i];
+		}
+		long maximoAtual = maximo.get();
+		if (quantidade == 0L) {
+			return new ResumoLatencia(0L, 0.0, 0L, 0L, 0L, 0L);
+		}
+		return new ResumoLatencia(quantidade, (double) soma.sum() / quantidade, percentil(contagens, quantidade, 50, maximoAtual),
+				percentil(contagens, quantidade, 90, maximoAtual), percentil(contagens, quantidade, 99, maximoAtual), maximoAtual);
+	}
+
+	/**
+	 * Retorna o maior valor da faixa que contém o percentil, limitado ao máximo registrado.
+	 */
+	private static long percentil(long[] contagens, long quantidade, int percentual, long maximo) {
+		long posto = Math.max(1L, (quantidade * percentual + 99) / 100);
+		long acumulado = 0L;
+
+		for (int i = 0; i < contagens.length; i++) {
+			acumulado += contagens[i];
+			if (acumulado >= posto) {
+				return Math.min(limiteSuperior(i), maximo);
+			}
+		}
+		return maximo;
+	}
+
+	static int indice(long valor) {
+		if (valor < SUBFAIXAS) {
+			return (int) valor;
+		}
+		int expoente = Long.SIZE - 1 - Long.numberOfLeadingZeros(valor);
+		int subfaixa = (int) (valor >>> (expoente - BITS_SUBFAIXA)) - SUBFAIXAS;
+		return SUBFAIXAS + (expoente - BITS_SUBFAIXA) * SUBFAIXAS + subfaixa;
+	}
+
+	static long limiteSuperior(int indice) {
+		if (indice < SUBFAIXAS) {
+			return indice;
+		}
+		int deslocamento = (indice - SUBFAIXAS) / SUBFAIXAS;
+		long inicio = (long) (SUBFAIXAS + (indice - SUBFAIXAS) % SUBFAIXAS) << deslocamento;
+		return inicio + (1L << deslocamento) - 1;
+	}
+}
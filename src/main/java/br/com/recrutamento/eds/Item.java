@@ -4,12 +4,45 @@ import java.math.BigDecimal;
 
 /**
  * Classe que representa um item no carrinho de compras.
+ *
+ * Um item obtido de CarrinhoCompras.getItens pertence ao carrinho enquanto não for removido e o carrinho
+ * não for hibernado: a hibernação descarta os objetos Item, e o carrinho despertado cria novos objetos.
+ * As alterações de um item que deixou de pertencer ao carrinho lançam IllegalStateException, em vez de
+ * alterar um objeto que não é mais considerado pelo carrinho; os itens devem então ser obtidos novamente.
  */
 public class Item {
 
     private Produto produto;
     private BigDecimal valorUnitario;
     private int quantidade;
+    
+    /**
+     * Valor unitário sem escala, válido quando valorUnitarioEmLong.
+     */
+    private long valorUnitarioSemEscala;
+    private boolean valorUnitarioEmLong;
+    
+    /**
+     * Valor total sem escala, na escala do valor unitário, válido quando valorTotalExcedente é null. O valor
+     * total é mantido em long para que o carrinho atualize o seu valor total sem criar objetos.
+     */
+    private long valorTotalSemEscala;
+    
+    /**
+     * Valor total quando ele não cabe em um long.
+     */
+    private BigDecimal valorTotalExcedente;
+    
+    /**
+     * Carrinho ao qual o item pertence, que faz as alterações do item sob o seu lock. Lido sem lock pelos
+     * setters de qualquer thread.
+     */
+    private volatile CarrinhoCompras carrinho;
+    
+    /**
+     * Indica se o item pertenceu a um carrinho e foi removido ou descartado na hibernação.
+     */
+    private volatile boolean desvinculado;
 
     /**
      * Construtor da classe Item.
@@ -20,8 +53,20 @@ public class Item {
      */
     public Item(Produto produto, BigDecimal valorUnitario, int quantidade) {
     	this.produto = produto;
-    	this.valorUnitario = valorUnitario;
     	this.quantidade = quantidade;
+    	definirValorUnitario(valorUnitario);
+    }
+
+    /**
+     * Cria o item a partir do valor unitário sem escala, usado na leitura dos itens armazenados fora do heap.
+     *
+     * @param produto
+     * @param valorUnitarioSemEscala
+     * @param escala
+     * @param quantidade
+     */
+    Item(Produto produto, long valorUnitarioSemEscala, int escala, int quantidade) {
+    	this(produto, BigDecimal.valueOf(valorUnitarioSemEscala, escala), quantidade);
     }
 
     /**
@@ -34,7 +79,7 @@ public class Item {
     }
     
     /**
-     * Retorna o valor unitrio do item.
+     * Retorna o valor unitário do item.
      *
      * @return BigDecimal
      */
@@ -42,6 +87,33 @@ public class Item {
     	return valorUnitario;
     }
 
+    /**
+     * Indica se o valor unitário cabe em um long sem escala.
+     *
+     * @return boolean
+     */
+    boolean isValorUnitarioEmLong() {
+    	return valorUnitarioEmLong;
+    }
+
+    /**
+     * Retorna o valor unitário sem escala, válido apenas quando isValorUnitarioEmLong.
+     *
+     * @return long
+     */
+    long getValorUnitarioSemEscala() {
+    	return valorUnitarioSemEscala;
+    }
+
+    /**
+     * Retorna a escala do valor unitário, que também é a escala do valor total.
+     *
+     * @return int
+     */
+    int getEscala() {
+    	return valorUnitario.scale();
+    }
+
     /**
      * Retorna a quantidade dos item.
      *
@@ -57,25 +129,162 @@ public class Item {
      * @return BigDecimal
      */
     public BigDecimal getValorTotal() {
-    	return this.valorUnitario.multiply(new BigDecimal(quantidade));
+    	if (valorUnitario == null) {
+    		return null;
+    	}
+    	return valorTotalExcedente == null ? BigDecimal.valueOf(valorTotalSemEscala, valorUnitario.scale()) : valorTotalExcedente;
+    }
+
+    /**
+     * Retorna o valor total sem escala, válido apenas quando getValorTotalExcedente retorna null.
+     *
+     * @return long
+     */
+    long getValorTotalSemEscala() {
+    	return valorTotalSemEscala;
+    }
+
+    /**
+     * Retorna o valor total quando ele não cabe em um long, ou null caso contrário.
+     *
+     * @return BigDecimal
+     */
+    BigDecimal getValorTotalExcedente() {
+    	return valorTotalExcedente;
+    }
+
+    /**
+     * Retorna o valor total em centavos, usado pelo ranking de produtos.
+     *
+     * @return long
+     */
+    long getValorTotalCentavos() {
+    	if (valorTotalExcedente != null) {
+    		return ValorMonetario.paraCentavos(valorTotalExcedente);
+    	}
+    	return ValorMonetario.paraCentavos(valorTotalSemEscala, valorUnitario.scale());
     }
 
     /** 
-     * Altera o valor unitrio do item.
+     * Altera o valor unitário do item. Caso o item pertença a um carrinho, a alteração e a atualização do
+     * valor total do carrinho são feitas juntas sob o lock do carrinho.
+     * 
+     * Deve ser lançada IllegalArgumentException caso o valor unitário seja nulo ou não seja positivo, e
+     * IllegalStateException caso o item tenha deixado de pertencer ao carrinho.
      * 
-     * @param valorUnitario - valor unitrio atualizado.
+     * @param valorUnitario - valor unitário atualizado.
      */
 	public void setValorUnitario(BigDecimal valorUnitario) {
-		this.valorUnitario = valorUnitario;
+		CarrinhoCompras carrinhoAtual = carrinho;
+		if (carrinhoAtual == null || !carrinhoAtual.alterarValorUnitario(this, valorUnitario)) {
+			validarVinculo();
+			validarValorUnitario(valorUnitario);
+			definirValorUnitario(valorUnitario);
+		}
 	}
 
 	/**
-     * Altera a quantidade dos itens.
+     * Altera a quantidade dos itens. Caso o item pertença a um carrinho, a alteração e a atualização do
+     * valor total do carrinho são feitas juntas sob o lock do carrinho.
+     * 
+     * Deve ser lançada IllegalArgumentException caso a quantidade não seja maior que zero, e
+     * IllegalStateException caso o item tenha deixado de pertencer ao carrinho.
      * 
      * @param quantidade - quantidade de produtos.
      */
 	public void setQuantidade(int novaQuantidade) {
+		CarrinhoCompras carrinhoAtual = carrinho;
+		if (carrinhoAtual == null || !carrinhoAtual.alterarQuantidade(this, novaQuantidade)) {
+			validarVinculo();
+			validarQuantidade(novaQuantidade);
+			this.quantidade = novaQuantidade;
+			calcularValorTotal();
+		}
+	}
+
+	/**
+	 * Altera o valor unitário e a quantidade sem avisar o carrinho, que atualiza o seu valor total uma
+	 * única vez ao final de uma operação em lote.
+	 * 
+	 * @param novoValorUnitario
+	 * @param novaQuantidade
+	 */
+	void alterar(BigDecimal novoValorUnitario, int novaQuantidade) {
 		this.quantidade = novaQuantidade;
+		if (valorUnitario.equals(novoValorUnitario)) {
+			calcularValorTotal();
+		} else {
+			definirValorUnitario(novoValorUnitario);
+		}
+	}
+
+	/**
+	 * Associa o item ao carrinho que mantém o seu valor total.
+	 * 
+	 * @param carrinho
+	 */
+	void setCarrinho(CarrinhoCompras carrinho) {
+		this.carrinho = carrinho;
+	}
+
+	/**
+	 * Retira o item do carrinho, que não o considera mais. Deve ser chamado sob o lock do carrinho, antes
+	 * que um setter em andamento obtenha o lock e verifique que o item não pertence mais ao carrinho.
+	 */
+	void desvincular() {
+		desvinculado = true;
+		carrinho = null;
+	}
+
+	/**
+	 * Retorna o carrinho ao qual o item pertence, ou null.
+	 * 
+	 * @return CarrinhoCompras
+	 */
+	CarrinhoCompras getCarrinho() {
+		return carrinho;
+	}
+
+	private void validarVinculo() {
+		if (desvinculado) {
+			throw new IllegalStateException("Falha no item: O item não pertence mais ao carrinho.");
+		}
+	}
+
+	private static void validarValorUnitario(BigDecimal valorUnitario) {
+		if (null == valorUnitario || valorUnitario.signum() <= 0) {
+			throw new IllegalArgumentException("Falha no item: O valor unitário deve ser maior que zero(0).");
+		}
+	}
+
+	private static void validarQuantidade(int quantidade) {
+		if (quantidade < 1) {
+			throw new IllegalArgumentException("Falha no item: A quantidade deve ser maior que zero(0).");
+		}
+	}
+
+	private void definirValorUnitario(BigDecimal novoValorUnitario) {
+		this.valorUnitario = novoValorUnitario;
+		valorUnitarioEmLong = novoValorUnitario != null && novoValorUnitario.unscaledValue().bitLength() < Long.SIZE;
+		valorUnitarioSemEscala = valorUnitarioEmLong ? novoValorUnitario.unscaledValue().longValue() : 0L;
+		calcularValorTotal();
+	}
+
+	private void calcularValorTotal() {
+		valorTotalSemEscala = 0L;
+		valorTotalExcedente = null;
+		if (valorUnitario == null) {
+			return;
+		}
+		if (valorUnitarioEmLong) {
+			try {
+				valorTotalSemEscala = Math.multiplyExact(valorUnitarioSemEscala, (long) quantidade);
+				return;
+			} catch (ArithmeticException e) {
+				// O resultado não cabe em um long e será calculado com BigDecimal.
+			}
+		}
+		valorTotalExcedente = valorUnitario.multiply(BigDecimal.valueOf(quantidade));
 	}
 
 	@Override
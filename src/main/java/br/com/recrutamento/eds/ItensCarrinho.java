@@ -0,0 +1,390 @@
+package br.com.recrutamento.eds;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Coleção dos itens de um carrinho de compras, indexada pelo código do produto e mantida na
+ * ordem de inclusão.
+ *
+ * Os itens ficam em posições fixas de um array, na ordem em que foram incluídos; a remoção apenas
+ * libera a posição, que é descartada quando o array é compactado. Uma árvore de Fenwick com a
+ * quantidade de posições ocupadas permite localizar o n-ésimo item em O(log n), e um índice de
+ * endereçamento aberto por código de produto (como o OrderedLongKeyHashMap do HSQLDB) permite
+ * pesquisar o item de um produto em O(1), sem criar objetos Long.
+ *
+ * A coleção também mantém as VisaoItem dos itens em blocos de posições, compartilhados com a última
+ * VisaoCarrinho publicada: um bloco compartilhado é copiado na primeira alteração após a publicação.
+ */
+class ItensCarrinho extends AbstractCollection<Item> {
+
+	private static final int CAPACIDADE_INICIAL = 8;
+
+	static final int BITS_BLOCO = 5;
+	static final int MASCARA_BLOCO = (1 << BITS_BLOCO) - 1;
+
+	private Item[] posicoes = new Item[CAPACIDADE_INICIAL];
+
+	/**
+	 * Árvore de Fenwick (base 1) com a quantidade de itens em cada faixa de posições.
+	 */
+	private int[] arvore = new int[CAPACIDADE_INICIAL + 1];
+
+	/**
+	 * Próxima posição livre no final do array.
+	 */
+	private int proximaPosicao;
+	private int tamanho;
+	private int alteracoes;
+
+	/**
+	 * Índice por código de produto: a posição do item é guardada somada de um, e zero representa
+	 * uma entrada vazia.
+	 */
+	private long[] chaves = new long[CAPACIDADE_INICIAL * 2];
+	private int[] valores = new int[CAPACIDADE_INICIAL * 2];
+
+	/**
+	 * Posição do item cujo produto não possui código, ou -1 caso não exista.
+	 */
+	private int posicaoCodigoNulo = -1;
+
+	private VisaoItem[][] blocos = new VisaoItem[quantidadeBlocos(CAPACIDADE_INICIAL)][];
+
+	/**
+	 * Indica se o array de blocos pertence à última visão publicada.
+	 */
+	private boolean blocosCompartilhados;
+
+	/**
+	 * Geração em que cada bloco foi copiado; os blocos de gerações anteriores à atual pertencem a
+	 * alguma visão publicada.
+	 */
+	private int[] geracaoBlocos = new int[blocos.length];
+	private int geracao = 1;
+
+	/**
+	 * Pesquisa o item associado ao produto.
+	 *
+	 * @param produto
+	 * @return Retorna o item associado ao produto, se não existir o produto retorna null.
+	 */
+	Item pesquisar(Produto produto) {
+		int posicao = pesquisarPosicao(produto.getCodigo());
+		return posicao < 0 ? null : posicoes[posicao];
+	}
+
+	/**
+	 * Inclui o item no final da coleção. O produto do item não deve existir na coleção.
+	 *
+	 * @param item
+	 */
+	void incluir(Item item) {
+		if (proximaPosicao == posicoes.length) {
+			reorganizar(tamanho + 1);
+		}
+		int posicao = proximaPosicao++;
+
+		posicoes[posicao] = item;
+		definirVisao(posicao, new VisaoItem(item));
+		atualizarArvore(posicao, 1);
+		indexar(item.getProduto().getCodigo(), posicao);
+		tamanho++;
+		alteracoes++;
+	}
+
+	/**
+	 * Atualiza a visão do item após a alteração do seu valor unitário ou quantidade.
+	 *
+	 * @param item
+	 */
+	void atualizar(Item item) {
+		int posicao = pesquisarPosicao(item.getProduto().getCodigo());
+		if (posicao >= 0 && posicoes[posicao] == item) {
+			definirVisao(posicao, new VisaoItem(item));
+		}
+	}
+
+	/**
+	 * Retorna os blocos de visões dos itens para uma nova VisaoCarrinho. A partir deste momento os blocos
+	 * não são mais alterados, e as próximas alterações copiam os blocos afetados.
+	 *
+	 * @return VisaoItem[][]
+	 */
+	VisaoItem[][] publicarBlocos() {
+		blocosCompartilhados = true;
+		geracao++;
+		return blocos;
+	}
+
+	/**
+	 * Retorna a posição seguinte à do último item incluído.
+	 *
+	 * @return int
+	 */
+	int getLimite() {
+		return proximaPosicao;
+	}
+
+	/**
+	 * Garante espaço para a inclusão da quantidade de itens informada com no máximo uma reorganização.
+	 *
+	 * @param quantidade
+	 */
+	void reservar(int quantidade) {
+		if (quantidade > posicoes.length - proximaPosicao) {
+			reorganizar(tamanho + quantidade);
+		}
+	}
+
+	/**
+	 * Remove o item associado ao produto.
+	 *
+	 * @param produto
+	 * @return Retorna o item removido ou null caso o produto não exista na coleção.
+	 */
+	Item remover(Produto produto) {
+		int posicao = pesquisarPosicao(produto.getCodigo());
+		return posicao < 0 ? null : removerPosicao(posicao);
+	}
+
+	/**
+	 * Remove o item de acordo com a ordem de inclusão, em que zero representa o primeiro item.
+	 *
+	 * @param indice
+	 * @return Retorna o item removido.
+	 */
+	Item removerIndice(int indice) {
+		if (indice < 0 || indice >= tamanho) {
+			throw new IndexOutOfBoundsException("Index: " + indice + ", Size: " + tamanho);
+		}
+		return removerPosicao(localizarIndice(indice));
+	}
+
+	@Override
+	public int size() {
+		return tamanho;
+	}
+
+	@Override
+	public Iterator<Item> iterator() {
+		return new Iterator<Item>() {
+
+			private int posicao = avancar(0);
+			private final int alteracoesEsperadas = alteracoes;
+
+			@Override
+			public boolean hasNext() {
+				return posicao < proximaPosicao;
+			}
+
+			@Override
+			public Item next() {
+				if (alteracoes != alteracoesEsperadas) {
+					throw new ConcurrentModificationException();
+				}
+				if (posicao >= proximaPosicao) {
+					throw new NoSuchElementException();
+				}
+				Item item = posicoes[posicao];
+				posicao = avancar(posicao + 1);
+				return item;
+			}
+
+			private int avancar(int inicio) {
+				while (inicio < proximaPosicao && posicoes[inicio] == null) {
+					inicio++;
+				}
+				return inicio;
+			}
+		};
+	}
+
+	private Item removerPosicao(int posicao) {
+		Item item = posicoes[posicao];
+
+		posicoes[posicao] = null;
+		definirVisao(posicao, null);
+		atualizarArvore(posicao, -1);
+		desindexar(item.getProduto().getCodigo());
+		tamanho--;
+		alteracoes++;
+		return item;
+	}
+
+	/**
+	 * Localiza a posição do item de índice informado descendo pela árvore de Fenwick.
+	 */
+	private int localizarIndice(int indice) {
+		int restante = indice + 1;
+		int posicao = 0;
+
+		for (int passo = Integer.highestOneBit(posicoes.length); passo > 0; passo >>= 1) {
+			int proxima = posicao + passo;
+			if (proxima <= posicoes.length && arvore[proxima] < restante) {
+				posicao = proxima;
+				restante -= arvore[proxima];
+			}
+		}
+		return posicao;
+	}
+
+	private void atualizarArvore(int posicao, int variacao) {
+		for (int i = posicao + 1; i < arvore.length; i += i & -i) {
+			arvore[i] += variacao;
+		}
+	}
+
+	/**
+	 * Compacta as posições quando ao menos metade delas foi liberada e cabem os itens necessários;
+	 * caso contrário dobra a capacidade até que caibam. Em ambos os casos a árvore e o índice são
+	 * reconstruídos em O(n).
+	 */
+	private void reorganizar(int necessario) {
+		int capacidade = posicoes.length;
+		while (capacidade < necessario || tamanho > capacidade / 2) {
+			capacidade <<= 1;
+		}
+		Item[] novasPosicoes = capacidade == posicoes.length ? posicoes : new Item[capacidade];
+		// Os blocos são sempre novos, pois os atuais podem pertencer a uma visão publicada.
+		VisaoItem[][] novosBlocos = new VisaoItem[quantidadeBlocos(capacidade)][];
+		int destino = 0;
+
+		for (int origem = 0; origem < proximaPosicao; origem++) {
+			Item item = posicoes[origem];
+			if (item != null) {
+				VisaoItem[] bloco = novosBlocos[destino >>> BITS_BLOCO];
+				if (bloco == null) {
+					bloco = new VisaoItem[1 << BITS_BLOCO];
+					novosBlocos[destino >>> BITS_BLOCO] = bloco;
+				}
+				bloco[destino & MASCARA_BLOCO] = blocos[origem >>> BITS_BLOCO][origem & MASCARA_BLOCO];
+				novasPosicoes[destino++] = item;
+			}
+		}
+		blocos = novosBlocos;
+		blocosCompartilhados = false;
+		geracaoBlocos = new int[novosBlocos.length];
+		Arrays.fill(geracaoBlocos, geracao);
+		for (int i = destino; i < proximaPosicao; i++) {
+			novasPosicoes[i] = null;
+		}
+		posicoes = novasPosicoes;
+		proximaPosicao = destino;
+
+		arvore = new int[posicoes.length + 1];
+		for (int i = 1; i < arvore.length; i++) {
+			if (i <= destino) {
+				arvore[i]++;
+			}
+			int pai = i + (i & -i);
+			if (pai < arvore.length) {
+				arvore[pai] += arvore[i];
+			}
+		}
+
+		chaves = new long[posicoes.length * 2];
+		valores = new int[posicoes.length * 2];
+		posicaoCodigoNulo = -1;
+		for (int i = 0; i < destino; i++) {
+			indexar(posicoes[i].getProduto().getCodigo(), i);
+		}
+	}
+
+	/**
+	 * Altera a visão da posição, copiando antes o array de blocos e o bloco caso pertençam a uma visão
+	 * publicada.
+	 */
+	private void definirVisao(int posicao, VisaoItem visao) {
+		if (blocosCompartilhados) {
+			blocos = blocos.clone();
+			blocosCompartilhados = false;
+		}
+		int indiceBloco = posicao >>> BITS_BLOCO;
+		VisaoItem[] bloco = blocos[indiceBloco];
+
+		if (bloco == null) {
+			bloco = new VisaoItem[1 << BITS_BLOCO];
+			blocos[indiceBloco] = bloco;
+			geracaoBlocos[indiceBloco] = geracao;
+		} else if (geracaoBlocos[indiceBloco] != geracao) {
+			bloco = bloco.clone();
+			blocos[indiceBloco] = bloco;
+			geracaoBlocos[indiceBloco] = geracao;
+		}
+		bloco[posicao & MASCARA_BLOCO] = visao;
+	}
+
+	private static int quantidadeBlocos(int capacidade) {
+		return (capacidade + MASCARA_BLOCO) >>> BITS_BLOCO;
+	}
+
+	private int pesquisarPosicao(Long codigo) {
+		if (codigo == null) {
+			return posicaoCodigoNulo;
+		}
+		long chave = codigo.longValue();
+		int mascara = chaves.length - 1;
+
+		for (int i = espalhar(chave) & mascara; valores[i] != 0; i = (i + 1) & mascara) {
+			if (chaves[i] == chave) {
+				return valores[i] - 1;
+			}
+		}
+		return -1;
+	}
+
+	private void indexar(Long codigo, int posicao) {
+		if (codigo == null) {
+			posicaoCodigoNulo = posicao;
+			return;
+		}
+		long chave = codigo.longValue();
+		int mascara = chaves.length - 1;
+		int i = espalhar(chave) & mascara;
+
+		while (valores[i] != 0 && chaves[i] != chave) {
+			i = (i + 1) & mascara;
+		}
+		chaves[i] = chave;
+		valores[i] = posicao + 1;
+	}
+
+	/**
+	 * Remove a chave do índice deslocando as entradas seguintes da mesma sequência de colisões,
+	 * para que as pesquisas não precisem de marcadores de remoção.
+	 */
+	private void desindexar(Long codigo) {
+		if (codigo == null) {
+			posicaoCodigoNulo = -1;
+			return;
+		}
+		long chave = codigo.longValue();
+		int mascara = chaves.length - 1;
+		int i = espalhar(chave) & mascara;
+
+		while (chaves[i] != chave || valores[i] == 0) {
+			i = (i + 1) & mascara;
+		}
+		valores[i] = 0;
+
+		for (int j = (i + 1) & mascara; valores[j] != 0; j = (j + 1) & mascara) {
+			int ideal = espalhar(chaves[j]) & mascara;
+			// A entrada j só pode ocupar a posição liberada se o seu ideal não estiver entre i e j.
+			if (((j - ideal) & mascara) >= ((j - i) & mascara)) {
+				chaves[i] = chaves[j];
+				valores[i] = valores[j];
+				valores[j] = 0;
+				i = j;
+			}
+		}
+	}
+
+	private static int espalhar(long chave) {
+		long h = chave * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
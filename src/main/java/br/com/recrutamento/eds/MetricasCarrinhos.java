@@ -0,0 +1,186 @@
+package br.com.recrutamento.eds;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Métricas das operações dos carrinhos e da factory: histogramas de latência por operação, contadores
+ * de carrinhos criados, invalidados e expirados e de falhas de validação, e a quantidade de carrinhos e
+ * de itens por carrinho.
+ *
+ * As métricas são criadas por CarrinhoComprasFactory.habilitarMetricas e podem ser lidas diretamente
+ * ou pelo JMX, após registrarJmx. O registro de uma operação é feito sem lock e sem alocação; com as
+ * métricas desabilitadas as operações apenas verificam que a factory não possui métricas.
+ */
+public class MetricasCarrinhos implements MetricasCarrinhosMXBean {
+
+	/**
+	 * Operações com a latência registrada.
+	 */
+	public enum Operacao {
+		CRIAR, ADICIONAR_ITEM, REMOVER_ITEM, GET_VALOR_TOTAL, GET_VALOR_TICKET_MEDIO
+	}
+
+	private static final String DOMINIO_JMX = "br.com.recrutamento.eds";
+
+	private final CarrinhoComprasFactory factory;
+	private final HistogramaLatencia[] latencias = new HistogramaLatencia[Operacao.values().length];
+	private final LongAdder carrinhosCriados = new LongAdder();
+	private final LongAdder carrinhosInvalidados = new LongAdder();
+	private final LongAdder carrinhosExpirados = new LongAdder();
+	private final LongAdder falhasValidacao = new LongAdder();
+	private final LongAdder quantidadeItens = new LongAdder();
+	private ObjectName nomeJmx;
+
+	MetricasCarrinhos(CarrinhoComprasFactory factory) {
+		this.factory = factory;
+		for (int i = 0; i < latencias.length; i++) {
+			latencias[i] = new HistogramaLatencia();
+		}
+	}
+
+	/**
+	 * Retorna o instante inicial de uma operação, ou zero caso as métricas estejam desabilitadas.
+	 *
+	 * @param metricas - métricas da factory, ou null caso estejam desabilitadas.
+	 * @return long
+	 */
+	static long iniciar(MetricasCarrinhos metricas) {
+		return metricas == null ? 0L : System.nanoTime();
+	}
+
+	/**
+	 * Registra a latência de uma operação iniciada em iniciar, caso as métricas estejam habilitadas.
+	 *
+	 * @param metricas - métricas da factory, ou null caso estejam desabilitadas.
+	 * @param operacao
+	 * @param inicio
+	 */
+	static void registrar(MetricasCarrinhos metricas, Operacao operacao, long inicio) {
+		if (metricas != null) {
+			metricas.latencias[operacao.ordinal()].registrar(System.nanoTime() - inicio);
+		}
+	}
+
+	/**
+	 * Retorna o resumo das latências da operação.
+	 *
+	 * @param operacao
+	 * @return ResumoLatencia
+	 */
+	public ResumoLatencia getLatencia(Operacao operacao) {
+		return latencias[operacao.ordinal()].resumir();
+	}
+
+	@Override
+	public Map<String, ResumoLatencia> getLatencias() {
+		Map<String, ResumoLatencia> resumos = new LinkedHashMap<String, ResumoLatencia>();
+
+		for (Operacao operacao : Operacao.values()) {
+			resumos.put(operacao.name(), getLatencia(operacao));
+		}
+		return resumos;
+	}
+
+	@Override
+	public long getCarrinhosCriados() {
+		return carrinhosCriados.sum();
+	}
+
+	@Override
+	public long getCarrinhosInvalidados() {
+		return carrinhosInvalidados.sum();
+	}
+
+	@Override
+	public long getCarrinhosExpirados() {
+		return carrinhosExpirados.sum();
+	}
+
+	@Override
+	public long getFalhasValidacao() {
+		return falhasValidacao.sum();
+	}
+
+	@Override
+	public int getQuantidadeCarrinhos() {
+		return factory.getQuantidadeCarrinhos();
+	}
+
+	@Override
+	public double getMediaItensPorCarrinho() {
+		int quantidadeCarrinhos = factory.getQuantidadeCarrinhos();
+		return quantidadeCarrinhos == 0 ? 0.0 : (double) quantidadeItens.sum() / quantidadeCarrinhos;
+	}
+
+	/**
+	 * Registra as métricas no servidor de MBeans da plataforma, com o nome informado.
+	 *
+	 * @param nome - nome que identifica a factory no JMX.
+	 */
+	public synchronized void registrarJmx(String nome) {
+		try {
+			MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+			ObjectName novoNome = new ObjectName(DOMINIO_JMX + ":type=CarrinhoComprasFactory,name=" + ObjectName.quote(nome));
+			servidor.registerMBean(this, novoNome);
+			nomeJmx = novoNome;
+		} catch (JMException e) {
+			throw new IllegalStateException("Falha nas métricas: Não foi possível registrar as métricas no JMX.", e);
+		}
+	}
+
+	/**
+	 * Remove as métricas do servidor de MBeans, caso tenham sido registradas.
+	 */
+	public synchronized void removerJmx() {
+		if (nomeJmx == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(nomeJmx);
+		} catch (JMException e) {
+			throw new IllegalStateException("Falha nas métricas: Não foi possível remover as métricas do JMX.", e);
+		}
+		nomeJmx = null;
+	}
+
+	/**
+	 * Retorna o nome das métricas no JMX, ou null caso não tenham sido registradas.
+	 *
+	 * @return ObjectName
+	 */
+	public synchronized ObjectName getNomeJmx() {
+		return nomeJmx;
+	}
+
+	void carrinhoCriado() {
+		carrinhosCriados.increment();
+	}
+
+	void carrinhoInvalidado() {
+		carrinhosInvalidados.increment();
+	}
+
+	void carrinhoExpirado() {
+		carrinhosExpirados.increment();
+	}
+
+	void falhaValidacao() {
+		falhasValidacao.increment();
+	}
+
+	/**
+	 * Soma a variação da quantidade de itens dos carrinhos da factory.
+	 *
+	 * @param variacao
+	 */
+	void somarItens(int variacao) {
+		quantidadeItens.add(variacao);
+	}
+}
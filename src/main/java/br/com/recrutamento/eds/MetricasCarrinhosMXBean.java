@@ -0,0 +1,28 @@
+package br.com.recrutamento.eds;
+
+import java.util.Map;
+
+/**
+ * Interface de gerenciamento das MetricasCarrinhos, publicada no JMX por MetricasCarrinhos.registrarJmx.
+ */
+public interface MetricasCarrinhosMXBean {
+
+	long getCarrinhosCriados();
+
+	long getCarrinhosInvalidados();
+
+	long getCarrinhosExpirados();
+
+	long getFalhasValidacao();
+
+	int getQuantidadeCarrinhos();
+
+	double getMediaItensPorCarrinho();
+
+	/**
+	 * Retorna o resumo das latências por nome da operação.
+	 *
+	 * @return Map
+	 */
+	Map<String, ResumoLatencia> getLatencias();
+}
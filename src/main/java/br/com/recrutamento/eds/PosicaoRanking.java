@@ -0,0 +1,57 @@
+package br.com.recrutamento.eds;
+
+import java.math.BigDecimal;
+
+/**
+ * Classe imutável que representa um produto do RankingProdutos, com a quantidade e o valor total
+ * estimados do produto nos carrinhos no momento da consulta.
+ */
+public final class PosicaoRanking {
+
+	private final Produto produto;
+	private final long quantidade;
+	private final long valorTotalCentavos;
+
+	PosicaoRanking(Produto produto, long quantidade, long valorTotalCentavos) {
+		this.produto = produto;
+		this.quantidade = quantidade;
+		this.valorTotalCentavos = valorTotalCentavos;
+	}
+
+	/**
+	 * Retorna o produto.
+	 *
+	 * @return Produto
+	 */
+	public Produto getProduto() {
+		return produto;
+	}
+
+	/**
+	 * Retorna a quantidade estimada do produto nos carrinhos, que nunca é menor que a quantidade real.
+	 *
+	 * @return long
+	 */
+	public long getQuantidade() {
+		return quantidade;
+	}
+
+	/**
+	 * Retorna o valor total estimado do produto nos carrinhos, com duas casas decimais, que nunca é menor
+	 * que o valor real.
+	 *
+	 * @return BigDecimal
+	 */
+	public BigDecimal getValorTotal() {
+		return BigDecimal.valueOf(valorTotalCentavos, 2);
+	}
+
+	/**
+	 * Retorna o valor total estimado em centavos.
+	 *
+	 * @return long
+	 */
+	long getValorTotalCentavos() {
+		return valorTotalCentavos;
+	}
+}
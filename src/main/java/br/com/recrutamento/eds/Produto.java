@@ -4,8 +4,8 @@ package br.com.recrutamento.eds;
  * Classe que representa um produto que pode ser adicionado
  * como item ao carrinho de compras.
  *
- * Importante: Dois produtos so considerados iguais quando ambos possuem o
- * mesmo cdigo.
+ * Importante: Dois produtos são considerados iguais quando ambos possuem o
+ * mesmo código.
  */
 public class Produto {
 
@@ -24,7 +24,7 @@ public class Produto {
     }
 
     /**
-     * Retorna o cdigo da produto.
+     * Retorna o código da produto.
      *
      * @return Long
      */
@@ -33,7 +33,7 @@ public class Produto {
     }
 
     /**
-     * Retorna a descrio do produto.
+     * Retorna a descrição do produto.
      *
      * @return String
      */
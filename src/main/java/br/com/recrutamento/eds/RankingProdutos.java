@@ -0,0 +1,254 @@
+package br.com.recrutamento.eds;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ranking dos produtos com maior quantidade e maior valor total nos carrinhos de uma factory, mantido
+ * a cada alteração dos itens, sem percorrer os carrinhos.
+ *
+ * A quantidade e o valor total, em centavos, de cada produto são somados em dois count-min sketches:
+ * matrizes de contadores com uma linha por função de hash, em que a estimativa de um produto é o menor
+ * dos seus contadores. Como as quantidades e valores nunca são negativos, a estimativa nunca é menor que
+ * o valor real, e excede o valor real em no máximo uma fração da soma de todos os produtos que depende
+ * da largura das linhas.
+ *
+ * Para cada um dos dois critérios são mantidos os candidatos, os produtos com as maiores estimativas,
+ * limitados à capacidade informada. Um produto passa a ser candidato quando a sua estimativa supera a do
+ * candidato mais fraco, que é substituído. A memória usada não depende da quantidade de carrinhos nem de
+ * produtos, e a consulta percorre apenas os candidatos.
+ */
+public class RankingProdutos {
+
+	private static final int LARGURA_PADRAO = 1 << 14;
+	private static final int PROFUNDIDADE = 4;
+
+	/**
+	 * Chave dos produtos sem código, fora da faixa dos códigos da tabela produto (INT), de modo que não
+	 * coincide com a chave de nenhum produto com código, inclusive o código zero(0).
+	 */
+	private static final long CHAVE_SEM_CODIGO = Long.MIN_VALUE;
+
+	private static final long[] SEMENTES = { 0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L,
+			0xD6E8FEB86659FD93L };
+
+	private final Esboco quantidades;
+	private final Esboco valores;
+	private final Candidatos candidatosQuantidade;
+	private final Candidatos candidatosValor;
+
+	/**
+	 * Construtor da classe RankingProdutos.
+	 *
+	 * @param capacidade - quantidade de produtos mantidos em cada um dos rankings.
+	 */
+	public RankingProdutos(int capacidade) {
+		this(capacidade, LARGURA_PADRAO);
+	}
+
+	/**
+	 * Construtor da classe RankingProdutos.
+	 *
+	 * @param capacidade - quantidade de produtos mantidos em cada um dos rankings.
+	 * @param largura - quantidade de contadores por linha dos sketches, arredondada para uma potência de dois.
+	 */
+	RankingProdutos(int capacidade, int largura) {
+		if (capacidade <= 0 || largura <= 0) {
+			throw new IllegalArgumentException("Falha no ranking: A capacidade e a largura devem ser maiores que zero(0).");
+		}
+		int larguraLinha = Integer.highestOneBit(Math.max(2, largura - 1)) << 1;
+
+		quantidades = new Esboco(larguraLinha);
+		valores = new Esboco(larguraLinha);
+		candidatosQuantidade = new Candidatos(quantidades, capacidade);
+		candidatosValor = new Candidatos(valores, capacidade);
+	}
+
+	/**
+	 * Retorna os produtos com maior quantidade nos carrinhos, em ordem decrescente de quantidade.
+	 *
+	 * @param quantidade - quantidade máxima de produtos retornados.
+	 * @return List
+	 * @throws IllegalArgumentException - caso a quantidade seja negativa.
+	 */
+	public List<PosicaoRanking> getMaioresQuantidades(int quantidade) {
+		return candidatosQuantidade.consultar(quantidade);
+	}
+
+	/**
+	 * Retorna os produtos com maior valor total nos carrinhos, em ordem decrescente de valor.
+	 *
+	 * @param quantidade - quantidade máxima de produtos retornados.
+	 * @return List
+	 * @throws IllegalArgumentException - caso a quantidade seja negativa.
+	 */
+	public List<PosicaoRanking> getMaioresValores(int quantidade) {
+		return candidatosValor.consultar(quantidade);
+	}
+
+	/**
+	 * Soma a variação da quantidade e do valor total de um item do produto.
+	 *
+	 * @param produto
+	 * @param variacaoQuantidade
+	 * @param variacaoValor - variação do valor total do item, em centavos.
+	 */
+	void somar(Produto produto, int variacaoQuantidade, long variacaoValor) {
+		long chave = chave(produto);
+
+		if (variacaoQuantidade != 0) {
+			quantidades.somar(chave, variacaoQuantidade);
+			if (variacaoQuantidade > 0) {
+				candidatosQuantidade.avaliar(produto, chave);
+			}
+		}
+		if (variacaoValor != 0L) {
+			valores.somar(chave, variacaoValor);
+			if (variacaoValor > 0L) {
+				candidatosValor.avaliar(produto, chave);
+			}
+		}
+	}
+
+	private static long chave(Produto produto) {
+		// Os produtos sem código são iguais entre si e, portanto, somados em uma única chave.
+		return produto.getCodigo() == null ? CHAVE_SEM_CODIGO : produto.getCodigo();
+	}
+
+	/**
+	 * Count-min sketch de um dos critérios, com os contadores das linhas em um único array.
+	 */
+	private static class Esboco {
+
+		private final AtomicLongArray contadores;
+		private final int largura;
+		private final int mascara;
+
+		Esboco(int largura) {
+			this.largura = largura;
+			this.mascara = largura - 1;
+			this.contadores = new AtomicLongArray(largura * PROFUNDIDADE);
+		}
+
+		void somar(long chave, long variacao) {
+			for (int linha = 0; linha < PROFUNDIDADE; linha++) {
+				contadores.getAndAdd(posicao(chave, linha), variacao);
+			}
+		}
+
+		long estimar(long chave) {
+			long estimativa = Long.MAX_VALUE;
+			for (int linha = 0; linha < PROFUNDIDADE; linha++) {
+				estimativa = Math.min(estimativa, contadores.get(posicao(chave, linha)));
+			}
+			return estimativa;
+		}
+
+		private int posicao(long chave, int linha) {
+			long hash = (chave + linha) * SEMENTES[linha];
+			hash ^= hash >>> 31;
+			hash *= 0xBF58476D1CE4E5B9L;
+			hash ^= hash >>> 29;
+			return linha * largura + ((int) hash & mascara);
+		}
+	}
+
+	/**
+	 * Produtos com as maiores estimativas de um dos critérios.
+	 *
+	 * A inclusão de candidatos é feita sob lock, e apenas pela thread que o obtém; as demais seguem sem
+	 * incluir o produto, que volta a ser avaliado na próxima alteração. O limiar é a estimativa do
+	 * candidato mais fraco no último cálculo, e evita o lock para os produtos que não entrariam no ranking.
+	 */
+	private class Candidatos {
+
+		private final Esboco esboco;
+		private final int capacidade;
+		private final Map<Produto, Long> produtos = new ConcurrentHashMap<Produto, Long>();
+		private final ReentrantLock lock = new ReentrantLock();
+		private volatile long limiar = Long.MIN_VALUE;
+
+		Candidatos(Esboco esboco, int capacidade) {
+			this.esboco = esboco;
+			this.capacidade = capacidade;
+		}
+
+		void avaliar(Produto produto, long chave) {
+			if (produtos.containsKey(produto)) {
+				return;
+			}
+			long estimativa = esboco.estimar(chave);
+			if (estimativa <= limiar || !lock.tryLock()) {
+				return;
+			}
+			try {
+				if (produtos.size() >= capacidade) {
+					Produto maisFraco = null;
+					long menorEstimativa = Long.MAX_VALUE;
+					for (Map.Entry<Produto, Long> candidato : produtos.entrySet()) {
+						long estimativaCandidato = esboco.estimar(candidato.getValue());
+						if (estimativaCandidato < menorEstimativa) {
+							menorEstimativa = estimativaCandidato;
+							maisFraco = candidato.getKey();
+						}
+					}
+					if (estimativa <= menorEstimativa) {
+						limiar = menorEstimativa;
+						return;
+					}
+					produtos.remove(maisFraco);
+				}
+				produtos.put(produto, chave);
+				if (produtos.size() >= capacidade) {
+					limiar = menorEstimativa();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		List<PosicaoRanking> consultar(int quantidade) {
+			if (quantidade < 0) {
+				throw new IllegalArgumentException("Falha no ranking: A quantidade de produtos não pode ser negativa.");
+			}
+			List<PosicaoRanking> posicoes = new ArrayList<PosicaoRanking>(produtos.size());
+
+			for (Map.Entry<Produto, Long> candidato : produtos.entrySet()) {
+				long chave = candidato.getValue();
+				long quantidadeProduto = quantidades.estimar(chave);
+				long valorProduto = valores.estimar(chave);
+				if ((esboco == quantidades ? quantidadeProduto : valorProduto) > 0L) {
+					posicoes.add(new PosicaoRanking(candidato.getKey(), quantidadeProduto, valorProduto));
+				}
+			}
+			if (esboco == quantidades) {
+				posicoes.sort((a, b) -> Long.compare(b.getQuantidade(), a.getQuantidade()));
+			} else {
+				posicoes.sort((a, b) -> Long.compare(b.getValorTotalCentavos(), a.getValorTotalCentavos()));
+			}
+
+			// As estimativas dos candidatos diminuem com as remoções, o que reduz o limiar de inclusão.
+			if (produtos.size() >= capacidade && lock.tryLock()) {
+				try {
+					limiar = menorEstimativa();
+				} finally {
+					lock.unlock();
+				}
+			}
+			return Collections.unmodifiableList(posicoes.subList(0, Math.min(quantidade, posicoes.size())));
+		}
+
+		private long menorEstimativa() {
+			long menor = Long.MAX_VALUE;
+			for (Long chave : produtos.values()) {
+				menor = Math.min(menor, esboco.estimar(chave));
+			}
+			return menor;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package br.com.recrutamento.eds;
+
+/**
+ * Classe imutável com o resumo das latências de uma operação registradas nas MetricasCarrinhos, em
+ * nanossegundos. Os percentis são o maior valor da faixa do histograma que contém o percentil, com erro
+ * relativo menor que 1/32.
+ */
+public final class ResumoLatencia {
+
+	private final long quantidade;
+	private final double media;
+	private final long percentil50;
+	private final long percentil90;
+	private final long percentil99;
+	private final long maximo;
+
+	ResumoLatencia(long quantidade, double media, long percentil50, long percentil90, long percentil99, long maximo) {
+		this.quantidade = quantidade;
+		this.media = media;
+		this.percentil50 = percentil50;
+		this.percentil90 = percentil90;
+		this.percentil99 = percentil99;
+		this.maximo = maximo;
+	}
+
+	/**
+	 * Retorna a quantidade de operações registradas.
+	 *
+	 * @return long
+	 */
+	public long getQuantidade() {
+		return quantidade;
+	}
+
+	/**
+	 * Retorna a latência média.
+	 *
+	 * @return double
+	 */
+	public double getMedia() {
+		return media;
+	}
+
+	/**
+	 * Retorna a mediana da latência.
+	 *
+	 * @return long
+	 */
+	public long getPercentil50() {
+		return percentil50;
+	}
+
+	/**
+	 * Retorna o percentil 90 da latência.
+	 *
+	 * @return long
+	 */
+	public long getPercentil90() {
+		return percentil90;
+	}
+
+	/**
+	 * Retorna o percentil 99 da latência.
+	 *
+	 * @return long
+	 */
+	public long getPercentil99() {
+		return percentil99;
+	}
+
+	/**
+	 * Retorna a maior latência registrada.
+	 *
+	 * @return long
+	 */
+	public long getMaximo() {
+		return maximo;
+	}
+}
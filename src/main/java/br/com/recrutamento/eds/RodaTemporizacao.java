@@ -0,0 +1,141 @@
+package br.com.recrutamento.eds;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Roda de temporização (hashed timer wheel) usada para expirar os carrinhos ociosos.
+ *
+ * O tempo é dividido em ticks e cada tick corresponde a um balde da roda. Um carrinho é agendado no
+ * balde do tick em que o seu prazo vence; os acessos ao carrinho não alteram o agendamento. Quando o
+ * balde é processado o prazo atual do carrinho é consultado: se ainda não venceu, o carrinho é
+ * reagendado para o balde correspondente. Assim cada carrinho é visitado no máximo uma vez por
+ * período de ociosidade, sem percorrer a sessão inteira.
+ */
+class RodaTemporizacao {
+
+	private final ConcurrentLinkedQueue<CarrinhoCompras>[] baldes;
+	private final int mascara;
+	private final long duracaoTick;
+	private final long inicio;
+
+	private final ToLongFunction<CarrinhoCompras> prazo;
+	private final Predicate<CarrinhoCompras> ativo;
+	private final Consumer<CarrinhoCompras> expirar;
+
+	/**
+	 * Último tick processado.
+	 */
+	private volatile long tickAtual;
+
+	/**
+	 * Construtor da classe RodaTemporizacao.
+	 *
+	 * @param duracaoTick - duração de cada tick, em nanossegundos.
+	 * @param quantidadeBaldes - quantidade de baldes, arredondada para uma potência de dois.
+	 * @param inicio - instante inicial da roda, em nanossegundos.
+	 * @param prazo - função que retorna o instante em que o carrinho deve expirar.
+	 * @param ativo - indica se o carrinho ainda pertence à sessão.
+	 * @param expirar - chamado para cada carrinho cujo prazo venceu.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	RodaTemporizacao(long duracaoTick, int quantidadeBaldes, long inicio, ToLongFunction<CarrinhoCompras> prazo,
+			Predicate<CarrinhoCompras> ativo, Consumer<CarrinhoCompras> expirar) {
+		int tamanho = Integer.highestOneBit(Math.max(2, quantidadeBaldes - 1)) << 1;
+
+		this.baldes = new ConcurrentLinkedQueue[tamanho];
+		for (int i = 0; i < tamanho; i++) {
+			baldes[i] = new ConcurrentLinkedQueue<CarrinhoCompras>();
+		}
+		this.mascara = tamanho - 1;
+		this.duracaoTick = duracaoTick;
+		this.inicio = inicio;
+		this.prazo = prazo;
+		this.ativo = ativo;
+		this.expirar = expirar;
+	}
+
+	/**
+	 * Agenda o carrinho no balde do seu prazo atual.
+	 *
+	 * @param carrinho
+	 */
+	void agendar(CarrinhoCompras carrinho) {
+		// Um prazo já vencido é agendado para o próximo tick a ser processado.
+		long tick = Math.max(tickDe(prazo.applyAsLong(carrinho)), tickAtual + 1);
+		baldes[(int) (tick & mascara)].add(carrinho);
+	}
+
+	/**
+	 * Processa todos os ticks até o instante informado, expirando os carrinhos cujo prazo venceu.
+	 * Não deve ser chamado por mais de uma thread ao mesmo tempo.
+	 *
+	 * @param agora - instante atual, em nanossegundos.
+	 */
+	void avancar(long agora) {
+		long tickFinal = tickDe(agora);
+		long tick = tickAtual;
+		
+		// Após uma volta completa todos os baldes já foram visitados.
+		if (tickFinal - tick > baldes.length) {
+			tick = tickFinal - baldes.length;
+		}
+		while (tick < tickFinal) {
+			tick++;
+			processarBalde(tick, false, Integer.MAX_VALUE);
+			tickAtual = tick;
+		}
+	}
+
+	/**
+	 * Expira os carrinhos com os prazos mais próximos, mesmo que ainda não tenham vencido, até atingir
+	 * a quantidade informada. Não deve ser chamado por mais de uma thread ao mesmo tempo.
+	 *
+	 * @param quantidade
+	 * @return Retorna a quantidade de carrinhos expirados.
+	 */
+	int expirarProximos(int quantidade) {
+		int expirados = 0;
+		long tick = tickAtual;
+		long tickLimite = tick + 2L * baldes.length;
+
+		while (expirados < quantidade && tick < tickLimite) {
+			tick++;
+			// Na segunda volta os carrinhos são expirados mesmo que o prazo esteja em uma volta futura.
+			expirados += processarBalde(tick, tick > tickAtual + baldes.length, quantidade - expirados);
+		}
+		return expirados;
+	}
+
+	private int processarBalde(long tick, boolean forcar, int limite) {
+		ConcurrentLinkedQueue<CarrinhoCompras> balde = baldes[(int) (tick & mascara)];
+		List<CarrinhoCompras> reagendar = new ArrayList<CarrinhoCompras>();
+		int expirados = 0;
+		CarrinhoCompras carrinho;
+
+		while (expirados < limite && (carrinho = balde.poll()) != null) {
+			if (!ativo.test(carrinho)) {
+				continue;
+			}
+			if (forcar || tickDe(prazo.applyAsLong(carrinho)) <= tick) {
+				expirar.accept(carrinho);
+				expirados++;
+			} else {
+				reagendar.add(carrinho);
+			}
+		}
+		for (CarrinhoCompras pendente : reagendar) {
+			long novoTick = Math.max(tickDe(prazo.applyAsLong(pendente)), tick + 1);
+			baldes[(int) (novoTick & mascara)].add(pendente);
+		}
+		return expirados;
+	}
+
+	private long tickDe(long instante) {
+		return Math.floorDiv(instante - inicio, duracaoTick);
+	}
+}
@@ -0,0 +1,354 @@
+package br.com.recrutamento.eds;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Grava e restaura os carrinhos de uma factory em um arquivo binário, escrito e lido através de
+ * regiões mapeadas em memória do FileChannel.
+ *
+ * O arquivo possui um cabeçalho com o identificador do formato, a versão e a quantidade de carrinhos,
+ * seguido dos carrinhos: identificação do cliente, tempo desde o último acesso e os itens. Cada produto
+ * é gravado uma única vez, na primeira ocorrência; as demais ocorrências gravam apenas o índice do
+ * produto, e na restauração os itens passam a compartilhar a mesma instância do produto.
+ *
+ * A gravação é feita em um arquivo temporário, movido sobre o arquivo final apenas quando completo.
+ * Os itens de cada carrinho são lidos da sua VisaoCarrinho, sem lock, de modo que a sessão continua
+ * sendo usada durante a gravação. Os carrinhos criados ou alterados durante a gravação podem ou não
+ * estar no snapshot.
+ *
+ * As visões são obtidas antes da gravação e percorridas duas vezes: a primeira apenas conta os bytes e
+ * a segunda grava os valores em regiões de até TAMANHO_REGIAO, limitadas ao tamanho contado. O arquivo
+ * cresce com o mapeamento de cada região e termina com exatamente o tamanho contado, sem ser truncado; a
+ * gravação falha caso os valores escritos não ocupem esse tamanho.
+ */
+final class SnapshotCarrinhos {
+
+	private static final int IDENTIFICADOR = 0x43415254;
+	private static final int VERSAO = 1;
+
+	/**
+	 * Tamanho das regiões do arquivo mapeadas de cada vez.
+	 */
+	static final int TAMANHO_REGIAO = 64 * 1024 * 1024;
+
+	private static final byte VALOR_LONG = 0;
+	private static final byte VALOR_BYTES = 1;
+
+	private SnapshotCarrinhos() {
+	}
+
+	/**
+	 * Grava os carrinhos no arquivo, substituindo o snapshot anterior.
+	 *
+	 * @param carrinhos
+	 * @param agora - instante atual do relógio da factory, usado para gravar o tempo desde o último acesso.
+	 * @param arquivo
+	 * @param tamanhoRegiao
+	 * @return Retorna a quantidade de carrinhos gravados.
+	 * @throws IOException
+	 */
+	static int gravar(Iterable<CarrinhoCompras> carrinhos, long agora, Path arquivo, int tamanhoRegiao) throws IOException {
+		Path temporario = arquivo.resolveSibling(arquivo.getFileName() + ".tmp");
+		List<VisaoCarrinho> visoes = new ArrayList<VisaoCarrinho>();
+		long[] temposOciosos = new long[16];
+
+		for (CarrinhoCompras carrinho : carrinhos) {
+			long ultimoAcesso = carrinho.getUltimoAcesso();
+			if (visoes.size() == temposOciosos.length) {
+				temposOciosos = Arrays.copyOf(temposOciosos, temposOciosos.length * 2);
+			}
+			temposOciosos[visoes.size()] = Math.max(0L, agora - ultimoAcesso);
+			visoes.add(carrinho.getVisao());
+		}
+
+		Escritor medidor = new Escritor(null, 0L, tamanhoRegiao);
+		escrever(medidor, visoes, temposOciosos);
+
+		try (FileChannel canal = FileChannel.open(temporario, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			Escritor escritor = new Escritor(canal, medidor.getPosicao(), tamanhoRegiao);
+			escrever(escritor, visoes, temposOciosos);
+			escritor.finalizar();
+		}
+		Files.move(temporario, arquivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return visoes.size();
+	}
+
+	/**
+	 * Escreve o cabeçalho e os carrinhos. Cada produto é gravado na primeira ocorrência, de modo que duas
+	 * execuções sobre as mesmas visões escrevem os mesmos bytes.
+	 */
+	private static void escrever(Escritor escritor, List<VisaoCarrinho> visoes, long[] temposOciosos) throws IOException {
+		escritor.putInt(IDENTIFICADOR);
+		escritor.putInt(VERSAO);
+		escritor.putInt(visoes.size());
+
+		Map<Produto, Integer> indices = new HashMap<Produto, Integer>();
+		List<Produto> produtos = new ArrayList<Produto>();
+
+		for (int c = 0; c < visoes.size(); c++) {
+			VisaoCarrinho visao = visoes.get(c);
+
+			escritor.putString(visao.getIdentificacaoCliente());
+			escritor.putLong(temposOciosos[c]);
+			escritor.putInt(visao.getItens().size());
+			for (VisaoItem item : visao.getItens()) {
+				Produto produto = item.getProduto();
+				Integer indice = indices.get(produto);
+
+				if (indice != null && Objects.equals(produtos.get(indice).getDescricao(), produto.getDescricao())) {
+					escritor.putInt(indice);
+				} else {
+					// Produto ainda não gravado, ou com o mesmo código e outra descrição.
+					indices.put(produto, produtos.size());
+					escritor.putInt(produtos.size());
+					produtos.add(produto);
+					escritor.putByte(produto.getCodigo() == null ? (byte) 0 : (byte) 1);
+					escritor.putLong(produto.getCodigo() == null ? 0L : produto.getCodigo());
+					escritor.putString(produto.getDescricao());
+				}
+				escritor.putValor(item.getValorUnitario());
+				escritor.putInt(item.getQuantidade());
+			}
+		}
+	}
+
+	/**
+	 * Restaura os carrinhos do arquivo na factory. Os carrinhos de clientes que já possuem carrinho na
+	 * factory são ignorados.
+	 *
+	 * @param arquivo
+	 * @param factory
+	 * @param tamanhoRegiao
+	 * @return Retorna a quantidade de carrinhos restaurados.
+	 * @throws IOException
+	 */
+	static int restaurar(Path arquivo, CarrinhoComprasFactory factory, int tamanhoRegiao) throws IOException {
+		try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+			Leitor leitor = new Leitor(canal, tamanhoRegiao);
+
+			if (leitor.getInt() != IDENTIFICADOR || leitor.getInt() != VERSAO) {
+				throw new IOException("Falha no snapshot: O arquivo " + arquivo + " não é um snapshot de carrinhos.");
+			}
+			int quantidade = leitor.getInt();
+			int restaurados = 0;
+			List<Produto> produtos = new ArrayList<Produto>();
+			List<Item> itens = new ArrayList<Item>();
+
+			for (int c = 0; c < quantidade; c++) {
+				String identificacaoCliente = leitor.getString();
+				long tempoOcioso = leitor.getLong();
+				int quantidadeItens = leitor.getInt();
+				itens.clear();
+
+				for (int i = 0; i < quantidadeItens; i++) {
+					int indice = leitor.getInt();
+					if (indice == produtos.size()) {
+						boolean possuiCodigo = leitor.getByte() != 0;
+						long codigo = leitor.getLong();
+						produtos.add(new Produto(possuiCodigo ? Long.valueOf(codigo) : null, leitor.getString()));
+					} else if (indice < 0 || indice > produtos.size()) {
+						throw new IOException("Falha no snapshot: O arquivo " + arquivo + " está corrompido.");
+					}
+					BigDecimal valorUnitario = leitor.getValor();
+					itens.add(new Item(produtos.get(indice), valorUnitario, leitor.getInt()));
+				}
+
+				CarrinhoCompras carrinho = new CarrinhoCompras(identificacaoCliente);
+				carrinho.adicionarItens(itens);
+				if (factory.restaurar(carrinho, tempoOcioso)) {
+					restaurados++;
+				}
+			}
+			return restaurados;
+		}
+	}
+
+	/**
+	 * Escreve no arquivo mapeando uma nova região sempre que a atual não comporta o próximo valor, sem
+	 * mapear além do tamanho do arquivo. Sem canal, apenas conta os bytes que seriam escritos.
+	 */
+	private static class Escritor {
+
+		private final FileChannel canal;
+		private final long tamanhoArquivo;
+		private final int tamanhoRegiao;
+		private MappedByteBuffer regiao;
+		private long posicao;
+
+		Escritor(FileChannel canal, long tamanhoArquivo, int tamanhoRegiao) {
+			this.canal = canal;
+			this.tamanhoArquivo = tamanhoArquivo;
+			this.tamanhoRegiao = tamanhoRegiao;
+		}
+
+		long getPosicao() {
+			return posicao;
+		}
+
+		/**
+		 * Avança a posição e retorna a região em que o valor deve ser escrito, ou null caso apenas os
+		 * bytes sejam contados.
+		 */
+		MappedByteBuffer garantir(int tamanho) throws IOException {
+			posicao += tamanho;
+			if (canal == null) {
+				return null;
+			}
+			if (posicao > tamanhoArquivo) {
+				throw new IOException("Falha no snapshot: Os carrinhos excederam o tamanho calculado para o arquivo.");
+			}
+			if (regiao == null || regiao.remaining() < tamanho) {
+				long inicio = posicao - tamanho;
+				if (regiao != null) {
+					regiao.force();
+				}
+				regiao = canal.map(MapMode.READ_WRITE, inicio, Math.min(Math.max(tamanhoRegiao, tamanho), tamanhoArquivo - inicio));
+			}
+			return regiao;
+		}
+
+		void putByte(byte valor) throws IOException {
+			MappedByteBuffer destino = garantir(1);
+			if (destino != null) {
+				destino.put(valor);
+			}
+		}
+
+		void putInt(int valor) throws IOException {
+			MappedByteBuffer destino = garantir(4);
+			if (destino != null) {
+				destino.putInt(valor);
+			}
+		}
+
+		void putLong(long valor) throws IOException {
+			MappedByteBuffer destino = garantir(8);
+			if (destino != null) {
+				destino.putLong(valor);
+			}
+		}
+
+		void putBytes(byte[] valor) throws IOException {
+			MappedByteBuffer destino = garantir(valor.length);
+			if (destino != null) {
+				destino.put(valor);
+			}
+		}
+
+		void putString(String valor) throws IOException {
+			if (valor == null) {
+				putInt(-1);
+				return;
+			}
+			byte[] bytes = valor.getBytes(StandardCharsets.UTF_8);
+			putInt(bytes.length);
+			putBytes(bytes);
+		}
+
+		void putValor(BigDecimal valor) throws IOException {
+			BigInteger valorSemEscala = valor.unscaledValue();
+
+			putInt(valor.scale());
+			if (valorSemEscala.bitLength() < Long.SIZE) {
+				putByte(VALOR_LONG);
+				putLong(valorSemEscala.longValue());
+			} else {
+				byte[] bytes = valorSemEscala.toByteArray();
+				putByte(VALOR_BYTES);
+				putInt(bytes.length);
+				putBytes(bytes);
+			}
+		}
+
+		/**
+		 * Grava as alterações da última região. O arquivo já possui o tamanho exato e não é truncado.
+		 */
+		void finalizar() throws IOException {
+			if (posicao != tamanhoArquivo) {
+				throw new IOException("Falha no snapshot: Os carrinhos não ocuparam o tamanho calculado para o arquivo.");
+			}
+			regiao.force();
+			canal.force(true);
+		}
+	}
+
+	/**
+	 * Lê o arquivo mapeando uma nova região sempre que a atual não contém o próximo valor.
+	 */
+	private static class Leitor {
+
+		private final FileChannel canal;
+		private final int tamanhoRegiao;
+		private final long tamanhoArquivo;
+		private MappedByteBuffer regiao;
+		private long inicioRegiao;
+
+		Leitor(FileChannel canal, int tamanhoRegiao) throws IOException {
+			this.canal = canal;
+			this.tamanhoRegiao = tamanhoRegiao;
+			this.tamanhoArquivo = canal.size();
+		}
+
+		MappedByteBuffer garantir(int tamanho) throws IOException {
+			if (regiao == null || regiao.remaining() < tamanho) {
+				long posicao = regiao == null ? 0L : inicioRegiao + regiao.position();
+				long tamanhoMapeado = Math.min(Math.max(tamanhoRegiao, tamanho), tamanhoArquivo - posicao);
+				if (tamanhoMapeado < tamanho) {
+					throw new IOException("Falha no snapshot: O arquivo está incompleto.");
+				}
+				regiao = canal.map(MapMode.READ_ONLY, posicao, tamanhoMapeado);
+				inicioRegiao = posicao;
+			}
+			return regiao;
+		}
+
+		byte getByte() throws IOException {
+			return garantir(1).get();
+		}
+
+		int getInt() throws IOException {
+			return garantir(4).getInt();
+		}
+
+		long getLong() throws IOException {
+			return garantir(8).getLong();
+		}
+
+		String getString() throws IOException {
+			int tamanho = getInt();
+			if (tamanho < 0) {
+				return null;
+			}
+			byte[] bytes = new byte[tamanho];
+			garantir(tamanho).get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		BigDecimal getValor() throws IOException {
+			int escala = getInt();
+			if (getByte() == VALOR_LONG) {
+				return BigDecimal.valueOf(getLong(), escala);
+			}
+			byte[] bytes = new byte[getInt()];
+			garantir(bytes.length).get(bytes);
+			return new BigDecimal(new BigInteger(bytes), escala);
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package br.com.recrutamento.eds;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Somatório de valores monetários que pode ser atualizado por várias threads simultaneamente.
+ *
+ * Assim como o LongAdder, o valor é distribuído em células escolhidas pela thread que faz a
+ * atualização, reduzindo a disputa entre threads. A leitura soma todas as células e, portanto,
+ * não representa um instante único quando há atualizações em andamento.
+ */
+class SomatorioConcorrente {
+
+	/**
+	 * Distância entre duas células no array, evitando que fiquem na mesma linha de cache.
+	 */
+	private static final int ESPACAMENTO = 16;
+
+	private final AtomicReferenceArray<ValorMonetario> celulas;
+	private final int mascara;
+
+	SomatorioConcorrente() {
+		int quantidadeCelulas = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+		
+		mascara = quantidadeCelulas - 1;
+		celulas = new AtomicReferenceArray<ValorMonetario>(quantidadeCelulas * ESPACAMENTO);
+		for (int i = 0; i < quantidadeCelulas; i++) {
+			celulas.set(i * ESPACAMENTO, ValorMonetario.ZERO);
+		}
+	}
+
+	/**
+	 * Soma o valor informado, que pode ser negativo.
+	 * 
+	 * @param valor
+	 */
+	void somar(ValorMonetario valor) {
+		int celula = espalhar(Thread.currentThread().getId());
+
+		while (true) {
+			int posicao = (celula & mascara) * ESPACAMENTO;
+			ValorMonetario atual = celulas.get(posicao);
+			if (celulas.compareAndSet(posicao, atual, atual.somar(valor))) {
+				return;
+			}
+			// Em caso de disputa tenta a próxima célula.
+			celula++;
+		}
+	}
+
+	/**
+	 * Retorna a soma de todas as células.
+	 * 
+	 * @return ValorMonetario
+	 */
+	ValorMonetario getValor() {
+		ValorMonetario valor = ValorMonetario.ZERO;
+		
+		for (int i = 0; i <= mascara; i++) {
+			valor = valor.somar(celulas.get(i * ESPACAMENTO));
+		}
+		return valor;
+	}
+
+	private static int espalhar(long id) {
+		int h = (int) (id ^ (id >>> 32));
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
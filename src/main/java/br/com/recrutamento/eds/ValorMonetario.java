@@ -0,0 +1,350 @@
+package br.com.recrutamento.eds;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+/**
+ * Classe que representa um valor monetário em ponto fixo.
+ *
+ * O valor é mantido como um long sem escala acompanhado da escala, da mesma forma que o BigDecimal,
+ * de modo que as operações mais comuns do carrinho são feitas com aritmética de long. Quando uma
+ * operação excede a capacidade do long o valor passa a ser representado por um BigDecimal.
+ *
+ * As operações seguem as mesmas regras de escala do BigDecimal, portanto paraBigDecimal() retorna
+ * exatamente o valor que a operação equivalente em BigDecimal retornaria.
+ */
+public final class ValorMonetario implements Comparable<ValorMonetario> {
+
+	public static final ValorMonetario ZERO = new ValorMonetario(0L, 0, BigDecimal.ZERO);
+
+	private static final long[] POTENCIAS_DEZ = new long[19];
+
+	static {
+		POTENCIAS_DEZ[0] = 1L;
+		for (int i = 1; i < POTENCIAS_DEZ.length; i++) {
+			POTENCIAS_DEZ[i] = POTENCIAS_DEZ[i - 1] * 10L;
+		}
+	}
+
+	private final long valorSemEscala;
+	private final int escala;
+
+	/**
+	 * Valor quando ele não cabe em um long.
+	 */
+	private final BigDecimal excedente;
+
+	/**
+	 * Representação em BigDecimal, criada apenas quando solicitada.
+	 */
+	private BigDecimal decimal;
+
+	private ValorMonetario(long valorSemEscala, int escala, BigDecimal decimal) {
+		this.valorSemEscala = valorSemEscala;
+		this.escala = escala;
+		this.excedente = null;
+		this.decimal = decimal;
+	}
+
+	private ValorMonetario(BigDecimal excedente) {
+		this.valorSemEscala = 0L;
+		this.escala = excedente.scale();
+		this.excedente = excedente;
+		this.decimal = excedente;
+	}
+
+	/**
+	 * Cria o valor monetário a partir de um BigDecimal. O próprio BigDecimal informado é retornado
+	 * por paraBigDecimal().
+	 *
+	 * @param valor
+	 * @return ValorMonetario
+	 */
+	public static ValorMonetario de(BigDecimal valor) {
+		BigInteger valorSemEscala = valor.unscaledValue();
+		
+		if (valorSemEscala.bitLength() < Long.SIZE) {
+			return new ValorMonetario(valorSemEscala.longValue(), valor.scale(), valor);
+		}
+		return new ValorMonetario(valor);
+	}
+
+	/**
+	 * Retorna o produto do valor pela quantidade.
+	 *
+	 * @param quantidade
+	 * @return ValorMonetario
+	 */
+	public ValorMonetario multiplicar(int quantidade) {
+		if (excedente == null) {
+			try {
+				return new ValorMonetario(Math.multiplyExact(valorSemEscala, (long) quantidade), escala, null);
+			} catch (ArithmeticException e) {
+				// O resultado não cabe em um long e será calculado com BigDecimal.
+			}
+		}
+		return de(paraBigDecimal().multiply(BigDecimal.valueOf(quantidade)));
+	}
+
+	/**
+	 * Retorna a soma dos valores, com a maior das duas escalas.
+	 *
+	 * @param outro
+	 * @return ValorMonetario
+	 */
+	public ValorMonetario somar(ValorMonetario outro) {
+		if (excedente == null && outro.excedente == null) {
+			int novaEscala = Math.max(escala, outro.escala);
+			try {
+				long resultado = Math.addExact(reescalar(valorSemEscala, novaEscala - escala),
+						reescalar(outro.valorSemEscala, novaEscala - outro.escala));
+				return new ValorMonetario(resultado, novaEscala, null);
+			} catch (ArithmeticException e) {
+				// O resultado não cabe em um long e será calculado com BigDecimal.
+			}
+		}
+		return de(paraBigDecimal().add(outro.paraBigDecimal()));
+	}
+
+	/**
+	 * Retorna a diferença dos valores, com a maior das duas escalas.
+	 *
+	 * @param outro
+	 * @return ValorMonetario
+	 */
+	public ValorMonetario subtrair(ValorMonetario outro) {
+		if (excedente == null && outro.excedente == null) {
+			int novaEscala = Math.max(escala, outro.escala);
+			try {
+				long resultado = Math.subtractExact(reescalar(valorSemEscala, novaEscala - escala),
+						reescalar(outro.valorSemEscala, novaEscala - outro.escala));
+				return new ValorMonetario(resultado, novaEscala, null);
+			} catch (ArithmeticException e) {
+				// O resultado não cabe em um long e será calculado com BigDecimal.
+			}
+		}
+		return de(paraBigDecimal().subtract(outro.paraBigDecimal()));
+	}
+
+	/**
+	 * Retorna o valor com o sinal invertido.
+	 *
+	 * @return ValorMonetario
+	 */
+	public ValorMonetario negar() {
+		if (excedente == null && valorSemEscala != Long.MIN_VALUE) {
+			return new ValorMonetario(-valorSemEscala, escala, null);
+		}
+		return de(paraBigDecimal().negate());
+	}
+
+	/**
+	 * Retorna o mesmo valor na escala informada. A redução da escala deve ser exata, caso contrário
+	 * é lançada ArithmeticException, assim como BigDecimal.setScale com RoundingMode.UNNECESSARY.
+	 *
+	 * @param novaEscala
+	 * @return ValorMonetario
+	 */
+	public ValorMonetario comEscala(int novaEscala) {
+		if (novaEscala == escala) {
+			return this;
+		}
+		if (excedente == null) {
+			if (novaEscala > escala) {
+				try {
+					return new ValorMonetario(reescalar(valorSemEscala, novaEscala - escala), novaEscala, null);
+				} catch (ArithmeticException e) {
+					// O resultado não cabe em um long e será calculado com BigDecimal.
+				}
+			} else {
+				try {
+					return new ValorMonetario(reduzirEscala(valorSemEscala, escala - novaEscala), novaEscala, null);
+				} catch (ArithmeticException e) {
+					// A redução não é exata e será feita com BigDecimal, que lança a exceção.
+				}
+			}
+		}
+		return de(paraBigDecimal().setScale(novaEscala, RoundingMode.UNNECESSARY));
+	}
+
+	/**
+	 * Retorna -1, 0 ou 1 caso o valor seja negativo, zero ou positivo.
+	 *
+	 * @return int
+	 */
+	public int signum() {
+		return excedente == null ? Long.signum(valorSemEscala) : excedente.signum();
+	}
+
+	/**
+	 * Retorna a escala do valor.
+	 *
+	 * @return int
+	 */
+	public int getEscala() {
+		return escala;
+	}
+
+	/**
+	 * Retorna o valor como BigDecimal.
+	 *
+	 * @return BigDecimal
+	 */
+	public BigDecimal paraBigDecimal() {
+		BigDecimal valor = decimal;
+
+		if (valor == null) {
+			valor = BigDecimal.valueOf(valorSemEscala, escala);
+			decimal = valor;
+		}
+		return valor;
+	}
+
+	/**
+	 * Retorna o valor em centavos, arredondado com RoundingMode.HALF_UP e limitado à faixa do long.
+	 *
+	 * @return long
+	 */
+	long paraCentavos() {
+		return excedente == null ? paraCentavos(valorSemEscala, escala) : paraCentavos(excedente);
+	}
+
+	/**
+	 * Retorna em centavos o valor sem escala na escala informada, arredondado com RoundingMode.HALF_UP e
+	 * limitado à faixa do long. Usado pelo carrinho, que mantém os valores em long sem criar objetos.
+	 *
+	 * @param valorSemEscala
+	 * @param escala
+	 * @return long
+	 */
+	static long paraCentavos(long valorSemEscala, int escala) {
+		if (escala <= 2) {
+			try {
+				return reescalar(valorSemEscala, 2 - escala);
+			} catch (ArithmeticException e) {
+				// O resultado não cabe em um long e será calculado com BigDecimal.
+			}
+		} else if (escala - 2 < POTENCIAS_DEZ.length) {
+			long divisor = POTENCIAS_DEZ[escala - 2];
+			long centavos = valorSemEscala / divisor;
+			if (Math.abs(valorSemEscala % divisor) * 2 >= divisor) {
+				centavos += Long.signum(valorSemEscala);
+			}
+			return centavos;
+		}
+		return paraCentavos(BigDecimal.valueOf(valorSemEscala, escala));
+	}
+
+	/**
+	 * Retorna o valor em centavos, arredondado com RoundingMode.HALF_UP e limitado à faixa do long.
+	 *
+	 * @param valor
+	 * @return long
+	 */
+	static long paraCentavos(BigDecimal valor) {
+		BigInteger centavos = valor.setScale(2, RoundingMode.HALF_UP).unscaledValue();
+		if (centavos.bitLength() < Long.SIZE) {
+			return centavos.longValue();
+		}
+		return centavos.signum() > 0 ? Long.MAX_VALUE : Long.MIN_VALUE;
+	}
+
+	/**
+	 * Indica se o valor é representado pelo long sem escala, e não por um BigDecimal.
+	 *
+	 * @return boolean
+	 */
+	boolean cabeEmLong() {
+		return excedente == null;
+	}
+
+	/**
+	 * Retorna o valor sem escala, válido apenas quando cabeEmLong.
+	 *
+	 * @return long
+	 */
+	long getValorSemEscala() {
+		return valorSemEscala;
+	}
+
+	/**
+	 * Cria o valor monetário a partir do valor sem escala e da escala, como BigDecimal.valueOf.
+	 *
+	 * @param valorSemEscala
+	 * @param escala
+	 * @return ValorMonetario
+	 */
+	static ValorMonetario deSemEscala(long valorSemEscala, int escala) {
+		return new ValorMonetario(valorSemEscala, escala, null);
+	}
+
+	@Override
+	public int compareTo(ValorMonetario outro) {
+		if (excedente == null && outro.excedente == null && escala == outro.escala) {
+			return Long.compare(valorSemEscala, outro.valorSemEscala);
+		}
+		return paraBigDecimal().compareTo(outro.paraBigDecimal());
+	}
+
+	/**
+	 * Multiplica o valor por 10 elevado à diferença de escala informada, lançando ArithmeticException
+	 * quando o resultado não cabe em um long.
+	 *
+	 * @param valor
+	 * @param diferencaEscala
+	 * @return long
+	 */
+	static long reescalar(long valor, int diferencaEscala) {
+		if (diferencaEscala == 0 || valor == 0L) {
+			return valor;
+		}
+		if (diferencaEscala >= POTENCIAS_DEZ.length) {
+			throw new ArithmeticException("long overflow");
+		}
+		return Math.multiplyExact(valor, POTENCIAS_DEZ[diferencaEscala]);
+	}
+
+	/**
+	 * Divide o valor por 10 elevado à diferença de escala informada, lançando ArithmeticException quando
+	 * a divisão não é exata.
+	 *
+	 * @param valor
+	 * @param diferencaEscala
+	 * @return long
+	 */
+	static long reduzirEscala(long valor, int diferencaEscala) {
+		if (diferencaEscala == 0 || valor == 0L) {
+			return valor;
+		}
+		if (diferencaEscala >= POTENCIAS_DEZ.length || valor % POTENCIAS_DEZ[diferencaEscala] != 0L) {
+			throw new ArithmeticException("Rounding necessary");
+		}
+		return valor / POTENCIAS_DEZ[diferencaEscala];
+	}
+
+	@Override
+	public int hashCode() {
+		return paraBigDecimal().hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		ValorMonetario other = (ValorMonetario) obj;
+		if (excedente == null && other.excedente == null) {
+			return valorSemEscala == other.valorSemEscala && escala == other.escala;
+		}
+		return paraBigDecimal().equals(other.paraBigDecimal());
+	}
+
+	@Override
+	public String toString() {
+		return paraBigDecimal().toString();
+	}
+}
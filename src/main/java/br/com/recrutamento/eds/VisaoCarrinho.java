@@ -0,0 +1,202 @@
+package br.com.recrutamento.eds;
+
+import java.math.BigDecimal;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Classe imutável que representa o estado de um carrinho de compras após uma alteração.
+ *
+ * O carrinho publica uma nova visão ao final de cada alteração, e a visão pode ser lida por qualquer
+ * thread sem lock e sem cópia: os itens e o valor total sempre correspondem à mesma versão do carrinho.
+ *
+ * Os itens ficam em blocos de tamanho fixo, nas mesmas posições que ocupam no carrinho. Uma alteração
+ * copia apenas o array de blocos e os blocos alterados; os demais blocos são compartilhados com a
+ * visão anterior.
+ *
+ * A visão de um carrinho hibernado não possui blocos: os itens são lidos do ArmazemCarrinhos sob o lock do
+ * carrinho a cada iteração, ou da visão publicada quando o carrinho foi despertado.
+ */
+public final class VisaoCarrinho {
+
+	private static final VisaoItem[][] SEM_BLOCOS = new VisaoItem[0][];
+
+	private final String identificacaoCliente;
+	private final long versao;
+	private final VisaoItem[][] blocos;
+	private final int limite;
+	private final int quantidadeItens;
+	private final ValorMonetario valorTotal;
+
+	/**
+	 * Carrinho cujos itens estão no armazém, ou null caso os itens estejam nos blocos.
+	 */
+	private final CarrinhoCompras carrinhoHibernado;
+
+	/**
+	 * Visão com os mesmos itens publicada quando o carrinho hibernado foi despertado, protegida pelo lock
+	 * do carrinho.
+	 */
+	private VisaoCarrinho substituta;
+
+	/**
+	 * Construtor da classe VisaoCarrinho.
+	 *
+	 * @param identificacaoCliente
+	 * @param versao
+	 * @param blocos - blocos de itens, que não podem mais ser alterados.
+	 * @param limite - posição seguinte à do último item nos blocos.
+	 * @param quantidadeItens
+	 * @param valorTotal
+	 */
+	VisaoCarrinho(String identificacaoCliente, long versao, VisaoItem[][] blocos, int limite, int quantidadeItens,
+			ValorMonetario valorTotal) {
+		this.identificacaoCliente = identificacaoCliente;
+		this.versao = versao;
+		this.blocos = blocos;
+		this.limite = limite;
+		this.quantidadeItens = quantidadeItens;
+		this.valorTotal = valorTotal;
+		this.carrinhoHibernado = null;
+	}
+
+	private VisaoCarrinho(CarrinhoCompras carrinhoHibernado, VisaoCarrinho visao) {
+		this.identificacaoCliente = visao.identificacaoCliente;
+		this.versao = visao.versao;
+		this.blocos = SEM_BLOCOS;
+		this.limite = 0;
+		this.quantidadeItens = visao.quantidadeItens;
+		this.valorTotal = visao.valorTotal;
+		this.carrinhoHibernado = carrinhoHibernado;
+	}
+
+	/**
+	 * Retorna a visão de um carrinho sem itens.
+	 *
+	 * @param identificacaoCliente
+	 * @return VisaoCarrinho
+	 */
+	static VisaoCarrinho vazia(String identificacaoCliente) {
+		return new VisaoCarrinho(identificacaoCliente, 0L, SEM_BLOCOS, 0, 0, ValorMonetario.ZERO);
+	}
+
+	/**
+	 * Retorna a visão do carrinho hibernado, com a mesma versão e os mesmos valores da visão informada.
+	 *
+	 * @param carrinho
+	 * @param visao - visão publicada antes da hibernação.
+	 * @return VisaoCarrinho
+	 */
+	static VisaoCarrinho hibernada(CarrinhoCompras carrinho, VisaoCarrinho visao) {
+		return new VisaoCarrinho(carrinho, visao);
+	}
+
+	/**
+	 * Retorna a identificação do cliente dono do carrinho.
+	 *
+	 * @return String
+	 */
+	public String getIdentificacaoCliente() {
+		return identificacaoCliente;
+	}
+
+	/**
+	 * Retorna a versão da visão, incrementada a cada alteração do carrinho.
+	 *
+	 * @return long
+	 */
+	public long getVersao() {
+		return versao;
+	}
+
+	/**
+	 * Retorna o valor total do carrinho nesta versão.
+	 *
+	 * @return BigDecimal
+	 */
+	public BigDecimal getValorTotal() {
+		return valorTotal.paraBigDecimal();
+	}
+
+	/**
+	 * Retorna o valor total do carrinho nesta versão em ponto fixo.
+	 *
+	 * @return ValorMonetario
+	 */
+	ValorMonetario getValorTotalMonetario() {
+		return valorTotal;
+	}
+
+	/**
+	 * Retorna os itens do carrinho nesta versão, na ordem de inclusão.
+	 *
+	 * @return itens
+	 */
+	public Collection<VisaoItem> getItens() {
+		return new AbstractCollection<VisaoItem>() {
+
+			@Override
+			public int size() {
+				return quantidadeItens;
+			}
+
+			@Override
+			public Iterator<VisaoItem> iterator() {
+				if (carrinhoHibernado != null) {
+					return carrinhoHibernado.lerItensHibernados(VisaoCarrinho.this).iterator();
+				}
+				return new Iterator<VisaoItem>() {
+
+					private int posicao = avancar(0);
+
+					@Override
+					public boolean hasNext() {
+						return posicao < limite;
+					}
+
+					@Override
+					public VisaoItem next() {
+						if (posicao >= limite) {
+							throw new NoSuchElementException();
+						}
+						VisaoItem item = itemNaPosicao(posicao);
+						posicao = avancar(posicao + 1);
+						return item;
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Associa a visão publicada quando o carrinho hibernado foi despertado. Deve ser chamado sob o lock do carrinho.
+	 *
+	 * @param visao
+	 */
+	void setSubstituta(VisaoCarrinho visao) {
+		this.substituta = visao;
+	}
+
+	/**
+	 * Retorna a visão publicada quando o carrinho hibernado foi despertado, ou null caso ainda esteja
+	 * hibernado. Deve ser chamado sob o lock do carrinho.
+	 *
+	 * @return VisaoCarrinho
+	 */
+	VisaoCarrinho getSubstituta() {
+		return substituta;
+	}
+
+	private VisaoItem itemNaPosicao(int posicao) {
+		return blocos[posicao >>> ItensCarrinho.BITS_BLOCO][posicao & ItensCarrinho.MASCARA_BLOCO];
+	}
+
+	private int avancar(int inicio) {
+		while (inicio < limite && itemNaPosicao(inicio) == null) {
+			inicio++;
+		}
+		return inicio;
+	}
+}
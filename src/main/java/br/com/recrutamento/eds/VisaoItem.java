@@ -0,0 +1,82 @@
+package br.com.recrutamento.eds;
+
+import java.math.BigDecimal;
+
+/**
+ * Classe imutável que representa um item de uma VisaoCarrinho, com os valores do item no momento
+ * em que a visão foi publicada.
+ */
+public final class VisaoItem {
+
+	private final Produto produto;
+	private final BigDecimal valorUnitario;
+	private final int quantidade;
+
+	/**
+	 * Valor total sem escala, na escala do valor unitário, válido quando valorTotalExcedente é null. O
+	 * BigDecimal do valor total é criado apenas quando solicitado.
+	 */
+	private final long valorTotalSemEscala;
+	private final BigDecimal valorTotalExcedente;
+
+	VisaoItem(Item item) {
+		this.produto = item.getProduto();
+		this.valorUnitario = item.getValorUnitario();
+		this.quantidade = item.getQuantidade();
+		this.valorTotalSemEscala = item.getValorTotalSemEscala();
+		this.valorTotalExcedente = item.getValorTotalExcedente();
+	}
+
+	VisaoItem(Produto produto, long valorUnitarioSemEscala, int escala, int quantidade) {
+		this(new Item(produto, valorUnitarioSemEscala, escala, quantidade));
+	}
+
+	/**
+	 * Retorna o produto.
+	 *
+	 * @return Produto
+	 */
+	public Produto getProduto() {
+		return produto;
+	}
+
+	/**
+	 * Retorna o valor unitário do item.
+	 *
+	 * @return BigDecimal
+	 */
+	public BigDecimal getValorUnitario() {
+		return valorUnitario;
+	}
+
+	/**
+	 * Retorna a quantidade do item.
+	 *
+	 * @return int
+	 */
+	public int getQuantidade() {
+		return quantidade;
+	}
+
+	/**
+	 * Retorna o valor total do item.
+	 *
+	 * @return BigDecimal
+	 */
+	public BigDecimal getValorTotal() {
+		return valorTotalExcedente == null ? BigDecimal.valueOf(valorTotalSemEscala, valorUnitario.scale())
+				: valorTotalExcedente;
+	}
+
+	/**
+	 * Retorna o valor total do item em centavos, usado pelo ranking de produtos.
+	 *
+	 * @return long
+	 */
+	long getValorTotalCentavos() {
+		if (valorTotalExcedente != null) {
+			return ValorMonetario.paraCentavos(valorTotalExcedente);
+		}
+		return ValorMonetario.paraCentavos(valorTotalSemEscala, valorUnitario.scale());
+	}
+}
@@ -1,5 +1,765 @@
 package br.com.recrutamento.eds.dao;
 
-public class CarrinhoComprasDao {
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
+import br.com.recrutamento.eds.CarrinhoCompras;
+import br.com.recrutamento.eds.CarrinhoComprasListener;
+import br.com.recrutamento.eds.Item;
+import br.com.recrutamento.eds.Produto;
+import br.com.recrutamento.eds.VisaoCarrinho;
+import br.com.recrutamento.eds.VisaoItem;
+import br.com.recrutamento.eds.dao.util.CreateTableJDBC;
+
+/**
+ * Classe responsável pela persistência dos carrinhos de compras no HSQLDB.
+ *
+ * A gravação é feita em segundo plano (write-behind): salvar e remover apenas registram a operação
+ * pendente do cliente, substituindo a anterior, e uma thread grava as operações pendentes em lotes
+ * JDBC a cada intervalo de gravação, reaproveitando os mesmos PreparedStatements. Assim, várias
+ * alterações do mesmo carrinho dentro do intervalo resultam em uma única gravação, e em caso de
+ * queda são perdidas no máximo as alterações do último intervalo. Se o lote falhar, as operações são
+ * regravadas uma a uma, e as que falharem novamente são descartadas, para que um carrinho inválido não
+ * impeça a gravação dos demais; apenas as falhas de conexão devolvem as operações às pendentes.
+ *
+ * A quantidade de clientes com operações pendentes é limitada pela capacidade; ao atingi-la as
+ * threads que registram novas operações aguardam a próxima gravação por até ESPERA_MAXIMA_CAPACIDADE (ou
+ * o intervalo de gravação, se menor). Como o registro é feito com o lock do carrinho, esgotada a espera a
+ * operação permanece registrada acima da capacidade, em vez de bloquear o carrinho enquanto o banco
+ * estiver indisponível.
+ *
+ * Após uma falha de conexão a thread de gravação aguarda antes de tentar novamente, dobrando a espera a
+ * cada falha seguida até ESPERA_MAXIMA_FALHA. As falhas da gravação em segundo plano são lançadas na
+ * próxima chamada de gravarPendentes ou close, junto com a falha da própria chamada, se houver.
+ *
+ * Registrado como listener da CarrinhoComprasFactory, os carrinhos são salvos a cada alteração e
+ * removidos quando invalidados. Carrinhos expirados por ociosidade permanecem gravados.
+ *
+ * Os carrinhos de vários clientes são carregados com uma consulta por lote de TAMANHO_LOTE_CARGA
+ * clientes, que traz os carrinhos e os seus itens ordenados por cliente. As consultas usam uma conexão
+ * de leitura própria, mantida aberta com os PreparedStatements de cada quantidade de parâmetros. Os
+ * produtos dos itens carregados são obtidos do catálogo de produtos, que pode ser compartilhado com
+ * outros DAOs.
+ */
+public class CarrinhoComprasDao implements CarrinhoComprasListener, AutoCloseable {
+
+	private static final long INTERVALO_GRAVACAO_PADRAO = 1000L;
+	private static final int CAPACIDADE_PADRAO = 10000;
+
+	/**
+	 * Tempo máximo, em nanossegundos, que o registro de uma operação aguarda espaço ao atingir a capacidade.
+	 */
+	private static final long ESPERA_MAXIMA_CAPACIDADE = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * Espera inicial e máxima, em nanossegundos, antes de uma nova tentativa após uma falha de conexão.
+	 */
+	private static final long ESPERA_INICIAL_FALHA = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final long ESPERA_MAXIMA_FALHA = TimeUnit.SECONDS.toNanos(30);
+
+	/**
+	 * Quantidade máxima de falhas da gravação em segundo plano mantidas até serem lançadas.
+	 */
+	private static final int MAXIMO_FALHAS = 16;
+
+	/**
+	 * Quantidade de operações pendentes que antecipa a gravação, sem aguardar o intervalo.
+	 */
+	private static final int TAMANHO_LOTE = 500;
+
+	/**
+	 * Quantidade máxima de clientes por consulta na carga de vários carrinhos.
+	 */
+	static final int TAMANHO_LOTE_CARGA = 512;
+
+	private static final String SQL_INSERIR_CARRINHO = "MERGE INTO carrinho USING (VALUES(CAST(? AS VARCHAR(100)))) AS novo(identificacao_cliente) "
+			+ "ON carrinho.identificacao_cliente = novo.identificacao_cliente "
+			+ "WHEN NOT MATCHED THEN INSERT VALUES novo.identificacao_cliente";
+	private static final String SQL_REMOVER_ITENS = "DELETE FROM item_carrinho WHERE identificacao_cliente = ?";
+	private static final String SQL_INSERIR_ITEM = "INSERT INTO item_carrinho (identificacao_cliente, posicao, codigo_produto, "
+			+ "descricao_produto, valor_unitario_sem_escala, escala_valor_unitario, quantidade) VALUES (?, ?, ?, ?, ?, ?, ?)";
+	private static final String SQL_REMOVER_CARRINHO = "DELETE FROM carrinho WHERE identificacao_cliente = ?";
+	private static final String SQL_PESQUISAR_CARRINHOS = "SELECT carrinho.identificacao_cliente, codigo_produto, descricao_produto, "
+			+ "valor_unitario_sem_escala, escala_valor_unitario, quantidade FROM carrinho LEFT JOIN item_carrinho "
+			+ "ON item_carrinho.identificacao_cliente = carrinho.identificacao_cliente WHERE carrinho.identificacao_cliente IN ";
+	private static final String SQL_ORDENAR_CARRINHOS = " ORDER BY carrinho.identificacao_cliente, posicao";
+
+	private final String url;
+	private final String usuario;
+	private final String senha;
+	private final long intervaloGravacao;
+	private final int capacidade;
+	private final int limiteAntecipacao;
+	private final CatalogoProdutos catalogo;
+	private final boolean catalogoProprio;
+	private final long esperaCapacidade;
+
+	/**
+	 * Última operação pendente de cada cliente: a visão do carrinho a salvar, ou a operação sem visão
+	 * para remover o carrinho.
+	 */
+	private final Map<String, OperacaoPendente> pendentes = new ConcurrentHashMap<String, OperacaoPendente>();
+	private final AtomicInteger quantidadePendente = new AtomicInteger();
+	private final ReentrantLock lockPendentes = new ReentrantLock();
+	private final Condition espacoDisponivel = lockPendentes.newCondition();
+	private final Condition gravacaoSolicitada = lockPendentes.newCondition();
+
+	private final Thread gravador;
+	private volatile boolean encerrado;
+
+	/**
+	 * Falhas da gravação em segundo plano ainda não lançadas: a primeira falha, com as seguintes
+	 * suprimidas, até MAXIMO_FALHAS.
+	 */
+	private final AtomicReference<SQLException> falhaGravacao = new AtomicReference<SQLException>();
+
+	/**
+	 * Conexão e comandos usados apenas pela gravação, protegidos pelo lock do próprio DAO.
+	 */
+	private Connection conexao;
+	private PreparedStatement inserirCarrinho;
+	private PreparedStatement removerItens;
+	private PreparedStatement inserirItem;
+	private PreparedStatement removerCarrinho;
+
+	/**
+	 * Conexão e comandos de pesquisa por quantidade de parâmetros, usados apenas pela carga dos
+	 * carrinhos, protegidos pelo lockLeitura.
+	 */
+	private final ReentrantLock lockLeitura = new ReentrantLock();
+	private Connection conexaoLeitura;
+	private final Map<Integer, PreparedStatement> pesquisas = new HashMap<Integer, PreparedStatement>();
+
+	public CarrinhoComprasDao(String url, String usuario, String senha) throws SQLException {
+		this(url, usuario, senha, INTERVALO_GRAVACAO_PADRAO, TimeUnit.MILLISECONDS, CAPACIDADE_PADRAO);
+	}
+
+	/**
+	 * Construtor da classe CarrinhoComprasDao. Cria as tabelas, caso não existam, e inicia a thread de
+	 * gravação.
+	 *
+	 * @param url - URL JDBC do banco de dados.
+	 * @param usuario
+	 * @param senha
+	 * @param intervaloGravacao - intervalo máximo entre uma alteração e a sua gravação.
+	 * @param unidade
+	 * @param capacidade - quantidade máxima de clientes com operações pendentes.
+	 * @throws SQLException
+	 */
+	public CarrinhoComprasDao(String url, String usuario, String senha, long intervaloGravacao, TimeUnit unidade,
+			int capacidade) throws SQLException {
+		this(url, usuario, senha, intervaloGravacao, unidade, capacidade, null);
+	}
+
+	/**
+	 * Construtor da classe CarrinhoComprasDao com o catálogo de produtos compartilhado. Cria as tabelas,
+	 * caso não existam, e inicia a thread de gravação.
+	 *
+	 * @param url - URL JDBC do banco de dados.
+	 * @param usuario
+	 * @param senha
+	 * @param intervaloGravacao - intervalo máximo entre uma alteração e a sua gravação.
+	 * @param unidade
+	 * @param capacidade - quantidade máxima de clientes com operações pendentes.
+	 * @param catalogo - catálogo dos produtos carregados, ou null para criar um catálogo próprio, fechado
+	 *        junto com o DAO.
+	 * @throws SQLException
+	 */
+	public CarrinhoComprasDao(String url, String usuario, String senha, long intervaloGravacao, TimeUnit unidade,
+			int capacidade, CatalogoProdutos catalogo) throws SQLException {
+		if (intervaloGravacao <= 0 || capacidade <= 0) {
+			throw new IllegalArgumentException("Falha no DAO: O intervalo de gravação e a capacidade devem ser maiores que zero(0).");
+		}
+		this.url = url;
+		this.usuario = usuario;
+		this.senha = senha;
+		this.intervaloGravacao = unidade.toNanos(intervaloGravacao);
+		this.capacidade = capacidade;
+		this.limiteAntecipacao = Math.min(TAMANHO_LOTE, capacidade);
+		this.esperaCapacidade = Math.min(this.intervaloGravacao, ESPERA_MAXIMA_CAPACIDADE);
+		this.catalogoProprio = catalogo == null;
+		this.catalogo = catalogoProprio ? new CatalogoProdutos(url, usuario, senha, CatalogoProdutos.PESO_MAXIMO_PADRAO) : catalogo;
+
+		Connection con = abrirConexao();
+		try {
+			CreateTableJDBC.criarTabelas(con);
+		} finally {
+			con.close();
+		}
+
+		gravador = new Thread(this::executarGravacao, "carrinho-gravacao");
+		gravador.setDaemon(true);
+		gravador.start();
+	}
+
+	/**
+	 * Registra o carrinho para ser salvo na próxima gravação, com os itens da visão publicada na última
+	 * alteração do carrinho.
+	 *
+	 * @param carrinho
+	 */
+	public void salvar(CarrinhoCompras carrinho) {
+		registrar(carrinho.getIdentificacaoCliente(), new OperacaoPendente(carrinho.getVisao()));
+	}
+
+	/**
+	 * Registra a remoção do carrinho do cliente na próxima gravação.
+	 *
+	 * @param identificacaoCliente
+	 */
+	public void remover(String identificacaoCliente) {
+		registrar(identificacaoCliente, new OperacaoPendente(null));
+	}
+
+	/**
+	 * Carrega o carrinho gravado para o cliente. Operações ainda pendentes não são consideradas.
+	 *
+	 * @param identificacaoCliente
+	 * @return Retorna o carrinho, ou null caso não exista carrinho gravado para o cliente.
+	 * @throws SQLException
+	 */
+	public CarrinhoCompras carregar(String identificacaoCliente) throws SQLException {
+		CarrinhoCompras[] carregado = new CarrinhoCompras[1];
+		carregar(Collections.singleton(identificacaoCliente), carrinho -> carregado[0] = carrinho);
+		return carregado[0];
+	}
+
+	/**
+	 * Carrega os carrinhos gravados para os clientes informados. Operações ainda pendentes não são
+	 * consideradas.
+	 *
+	 * @param identificacoesClientes
+	 * @return Retorna os carrinhos por identificação do cliente. Os clientes sem carrinho gravado não
+	 *         constam do resultado.
+	 * @throws SQLException
+	 */
+	public Map<String, CarrinhoCompras> carregar(Collection<String> identificacoesClientes) throws SQLException {
+		Map<String, CarrinhoCompras> carregados = new HashMap<String, CarrinhoCompras>();
+		carregar(identificacoesClientes, carrinho -> carregados.put(carrinho.getIdentificacaoCliente(), carrinho));
+		return carregados;
+	}
+
+	/**
+	 * Carrega os carrinhos gravados para os clientes informados, entregando cada carrinho ao destino à
+	 * medida que as linhas da consulta são lidas, sem acumular os carrinhos do lote. Os clientes são
+	 * pesquisados em lotes de até TAMANHO_LOTE_CARGA, e os clientes sem carrinho gravado são ignorados.
+	 *
+	 * As cargas são executadas uma por vez na conexão de leitura; o destino não deve carregar outros
+	 * carrinhos deste DAO.
+	 *
+	 * @param identificacoesClientes
+	 * @param destino
+	 * @return Retorna a quantidade de carrinhos carregados.
+	 * @throws SQLException
+	 */
+	public int carregar(Collection<String> identificacoesClientes, Consumer<CarrinhoCompras> destino) throws SQLException {
+		if (identificacoesClientes.isEmpty()) {
+			return 0;
+		}
+		lockLeitura.lock();
+		try {
+			int parametros = parametrosPesquisa(identificacoesClientes.size());
+			PreparedStatement pesquisar = prepararPesquisa(parametros);
+			String[] lote = new String[parametros];
+			List<Item> itens = new ArrayList<Item>();
+			int tamanho = 0;
+			int carregados = 0;
+
+			for (String identificacaoCliente : identificacoesClientes) {
+				lote[tamanho++] = identificacaoCliente;
+				if (tamanho == parametros) {
+					carregados += carregarLote(pesquisar, lote, tamanho, itens, catalogo, destino);
+					tamanho = 0;
+				}
+			}
+			if (tamanho > 0) {
+				carregados += carregarLote(pesquisar, lote, tamanho, itens, catalogo, destino);
+			}
+			return carregados;
+		} catch (SQLException e) {
+			fecharLeitura();
+			throw e;
+		} finally {
+			if (encerrado) {
+				fecharLeitura();
+			}
+			lockLeitura.unlock();
+		}
+	}
+
+	/**
+	 * Grava imediatamente as operações pendentes.
+	 *
+	 * @throws SQLException - caso a gravação falhe, ou com as falhas da gravação em segundo plano
+	 *         ocorridas desde a última chamada.
+	 */
+	public void gravarPendentes() throws SQLException {
+		try {
+			gravarOperacoes();
+		} catch (SQLException e) {
+			SQLException anteriores = retirarFalhas();
+			if (anteriores != null) {
+				e.addSuppressed(anteriores);
+			}
+			throw e;
+		}
+		SQLException anteriores = retirarFalhas();
+		if (anteriores != null) {
+			throw anteriores;
+		}
+	}
+
+	private void gravarOperacoes() throws SQLException {
+		synchronized (this) {
+			List<String> clientes = new ArrayList<String>();
+			List<OperacaoPendente> operacoes = new ArrayList<OperacaoPendente>();
+
+			for (String identificacaoCliente : pendentes.keySet()) {
+				OperacaoPendente operacao = pendentes.remove(identificacaoCliente);
+				if (operacao != null) {
+					clientes.add(identificacaoCliente);
+					operacoes.add(operacao);
+				}
+			}
+			liberarEspaco(clientes.size());
+
+			if (clientes.isEmpty()) {
+				return;
+			}
+			try {
+				gravar(clientes, operacoes);
+			} catch (SQLException e) {
+				if (falhaConexao(e)) {
+					reagendar(clientes, operacoes);
+					throw e;
+				}
+				gravarUmAUm(clientes, operacoes);
+			}
+		}
+	}
+
+	/**
+	 * Retorna o catálogo dos produtos carregados.
+	 *
+	 * @return CatalogoProdutos
+	 */
+	public CatalogoProdutos getCatalogo() {
+		return catalogo;
+	}
+
+	/**
+	 * Retorna a quantidade de clientes com operações pendentes.
+	 *
+	 * @return int
+	 */
+	public int getQuantidadePendente() {
+		return quantidadePendente.get();
+	}
+
+	/**
+	 * Encerra a thread de gravação, gravando as operações pendentes.
+	 */
+	@Override
+	public void close() throws SQLException {
+		encerrado = true;
+		// Libera as threads que aguardam espaço, que não devem aguardar a gravação do encerramento.
+		liberarEspaco(0);
+		gravador.interrupt();
+		try {
+			gravador.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			gravarPendentes();
+		} finally {
+			synchronized (this) {
+				fecharConexao();
+			}
+			lockLeitura.lock();
+			try {
+				fecharLeitura();
+			} finally {
+				lockLeitura.unlock();
+			}
+			if (catalogoProprio) {
+				catalogo.close();
+			}
+			liberarEspaco(0);
+		}
+	}
+
+	@Override
+	public void carrinhoAlterado(CarrinhoCompras carrinho) {
+		salvar(carrinho);
+	}
+
+	@Override
+	public void carrinhoInvalidado(CarrinhoCompras carrinho) {
+		remover(carrinho.getIdentificacaoCliente());
+	}
+
+	private void registrar(String identificacaoCliente, OperacaoPendente operacao) {
+		if (encerrado) {
+			throw new IllegalStateException("Falha no DAO: O DAO de carrinhos foi encerrado.");
+		}
+		if (pendentes.put(identificacaoCliente, operacao) != null) {
+			return;
+		}
+		int quantidade = quantidadePendente.incrementAndGet();
+
+		if (quantidade >= limiteAntecipacao) {
+			lockPendentes.lock();
+			try {
+				gravacaoSolicitada.signal();
+				// A operação já está registrada; esgotada a espera ela permanece acima da capacidade.
+				long espera = esperaCapacidade;
+				while (quantidadePendente.get() > capacidade && !encerrado && espera > 0) {
+					espera = espacoDisponivel.awaitNanos(espera);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				lockPendentes.unlock();
+			}
+		}
+	}
+
+	private void liberarEspaco(int quantidade) {
+		quantidadePendente.addAndGet(-quantidade);
+		lockPendentes.lock();
+		try {
+			espacoDisponivel.signalAll();
+		} finally {
+			lockPendentes.unlock();
+		}
+	}
+
+	private void executarGravacao() {
+		long esperaFalha = 0L;
+
+		while (!encerrado) {
+			lockPendentes.lock();
+			try {
+				if (esperaFalha > 0) {
+					// Após uma falha de conexão aguarda todo o prazo, mesmo com a gravação solicitada.
+					long espera = esperaFalha;
+					while (espera > 0 && !encerrado) {
+						espera = gravacaoSolicitada.awaitNanos(espera);
+					}
+				} else if (quantidadePendente.get() < limiteAntecipacao) {
+					gravacaoSolicitada.awaitNanos(intervaloGravacao);
+				}
+			} catch (InterruptedException e) {
+				// Interrompida pelo close, que grava as operações restantes.
+				return;
+			} finally {
+				lockPendentes.unlock();
+			}
+			try {
+				gravarOperacoes();
+				esperaFalha = 0L;
+			} catch (SQLException e) {
+				registrarFalha(e);
+				if (falhaConexao(e)) {
+					esperaFalha = esperaFalha == 0L ? ESPERA_INICIAL_FALHA : Math.min(esperaFalha * 2, ESPERA_MAXIMA_FALHA);
+				} else {
+					esperaFalha = 0L;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Guarda a falha da gravação em segundo plano para ser lançada na próxima chamada de gravarPendentes.
+	 * Além de MAXIMO_FALHAS, as falhas seguintes são descartadas.
+	 */
+	private void registrarFalha(SQLException e) {
+		synchronized (falhaGravacao) {
+			SQLException primeira = falhaGravacao.get();
+			if (primeira == null) {
+				falhaGravacao.set(e);
+			} else if (primeira.getSuppressed().length < MAXIMO_FALHAS - 1) {
+				primeira.addSuppressed(e);
+			}
+		}
+	}
+
+	private SQLException retirarFalhas() {
+		synchronized (falhaGravacao) {
+			return falhaGravacao.getAndSet(null);
+		}
+	}
+
+	private void gravar(List<String> clientes, List<OperacaoPendente> operacoes) throws SQLException {
+		prepararConexao();
+		int carrinhosSalvos = 0;
+		int itensSalvos = 0;
+		int carrinhosRemovidos = 0;
+
+		try {
+			for (int i = 0; i < clientes.size(); i++) {
+				String identificacaoCliente = clientes.get(i);
+				VisaoCarrinho visao = operacoes.get(i).visao;
+
+				if (visao == null) {
+					removerCarrinho.setString(1, identificacaoCliente);
+					removerCarrinho.addBatch();
+					carrinhosRemovidos++;
+					continue;
+				}
+				inserirCarrinho.setString(1, identificacaoCliente);
+				inserirCarrinho.addBatch();
+				removerItens.setString(1, identificacaoCliente);
+				removerItens.addBatch();
+				carrinhosSalvos++;
+
+				int posicao = 0;
+				for (VisaoItem item : visao.getItens()) {
+					Long codigo = item.getProduto().getCodigo();
+					inserirItem.setString(1, identificacaoCliente);
+					inserirItem.setInt(2, posicao++);
+					if (codigo == null) {
+						inserirItem.setNull(3, Types.BIGINT);
+					} else {
+						inserirItem.setLong(3, codigo);
+					}
+					inserirItem.setString(4, item.getProduto().getDescricao());
+					inserirItem.setBigDecimal(5, new BigDecimal(item.getValorUnitario().unscaledValue()));
+					inserirItem.setInt(6, item.getValorUnitario().scale());
+					inserirItem.setInt(7, item.getQuantidade());
+					inserirItem.addBatch();
+					itensSalvos++;
+				}
+			}
+
+			// O HSQLDB não aceita a execução de um lote vazio.
+			if (carrinhosSalvos > 0) {
+				inserirCarrinho.executeBatch();
+				removerItens.executeBatch();
+			}
+			if (itensSalvos > 0) {
+				inserirItem.executeBatch();
+			}
+			if (carrinhosRemovidos > 0) {
+				removerCarrinho.executeBatch();
+			}
+			conexao.commit();
+		} catch (SQLException e) {
+			// Os comandos que não chegaram a ser executados mantêm o lote, que não pode ir para a próxima gravação.
+			inserirCarrinho.clearBatch();
+			removerItens.clearBatch();
+			inserirItem.clearBatch();
+			removerCarrinho.clearBatch();
+			conexao.rollback();
+			throw e;
+		}
+	}
+
+	/**
+	 * Grava as operações de um lote que falhou, uma por transação. As operações que falham são
+	 * descartadas e informadas na exceção lançada ao final, depois de gravadas as demais. Uma falha de
+	 * conexão devolve às pendentes a operação atual e as seguintes.
+	 */
+	private void gravarUmAUm(List<String> clientes, List<OperacaoPendente> operacoes) throws SQLException {
+		SQLException descartadas = null;
+
+		for (int i = 0; i < clientes.size(); i++) {
+			try {
+				gravar(clientes.subList(i, i + 1), operacoes.subList(i, i + 1));
+			} catch (SQLException e) {
+				if (falhaConexao(e)) {
+					reagendar(clientes.subList(i, clientes.size()), operacoes.subList(i, operacoes.size()));
+					if (descartadas != null) {
+						e.addSuppressed(descartadas);
+					}
+					throw e;
+				}
+				SQLException descarte = new SQLException("Falha no DAO: A operação do carrinho do cliente "
+						+ clientes.get(i) + " foi descartada.", e.getSQLState(), e);
+				if (descartadas == null) {
+					descartadas = descarte;
+				} else {
+					descartadas.addSuppressed(descarte);
+				}
+			}
+		}
+		if (descartadas != null) {
+			throw descartadas;
+		}
+	}
+
+	/**
+	 * Devolve as operações às pendentes, exceto as que já foram substituídas por outras mais recentes, e
+	 * fecha a conexão de gravação para que seja reaberta na próxima gravação.
+	 */
+	private void reagendar(List<String> clientes, List<OperacaoPendente> operacoes) {
+		fecharConexao();
+		for (int i = 0; i < clientes.size(); i++) {
+			if (pendentes.putIfAbsent(clientes.get(i), operacoes.get(i)) == null) {
+				quantidadePendente.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Indica se a falha é da conexão com o banco (SQLState da classe 08), e não das operações gravadas.
+	 */
+	static boolean falhaConexao(SQLException e) {
+		return e.getSQLState() != null && e.getSQLState().startsWith("08");
+	}
+
+	private void prepararConexao() throws SQLException {
+		if (conexao != null) {
+			return;
+		}
+		try {
+			conexao = abrirConexao();
+		} catch (SQLException e) {
+			// Qualquer falha ao abrir a conexão é tratada como falha de conexão, e a gravação é repetida.
+			throw new SQLTransientConnectionException("Falha no DAO: Não foi possível abrir a conexão de gravação.", "08001", e);
+		}
+		conexao.setAutoCommit(false);
+		inserirCarrinho = conexao.prepareStatement(SQL_INSERIR_CARRINHO);
+		removerItens = conexao.prepareStatement(SQL_REMOVER_ITENS);
+		inserirItem = conexao.prepareStatement(SQL_INSERIR_ITEM);
+		removerCarrinho = conexao.prepareStatement(SQL_REMOVER_CARRINHO);
+	}
+
+	private void fecharConexao() {
+		if (conexao == null) {
+			return;
+		}
+		try {
+			conexao.close();
+		} catch (SQLException e) {
+			registrarFalha(e);
+		}
+		conexao = null;
+	}
+
+	/**
+	 * Consulta um lote de clientes. Os parâmetros sem cliente repetem o último cliente do lote, de modo
+	 * que o mesmo comando é usado para todos os lotes. As linhas chegam agrupadas por cliente, e cada
+	 * carrinho é entregue ao destino ao terminar as linhas do seu cliente. Os produtos com código são
+	 * obtidos do catálogo, compartilhando a instância entre os itens do mesmo produto.
+	 */
+	private static int carregarLote(PreparedStatement pesquisar, String[] lote, int tamanho, List<Item> itens,
+			CatalogoProdutos catalogo, Consumer<CarrinhoCompras> destino) throws SQLException {
+		for (int i = 0; i < lote.length; i++) {
+			pesquisar.setString(i + 1, lote[Math.min(i, tamanho - 1)]);
+		}
+		int carregados = 0;
+		String clienteAtual = null;
+
+		try (ResultSet rs = pesquisar.executeQuery()) {
+			while (rs.next()) {
+				String identificacaoCliente = rs.getString(1);
+				if (!identificacaoCliente.equals(clienteAtual)) {
+					if (clienteAtual != null) {
+						entregar(clienteAtual, itens, destino);
+						carregados++;
+					}
+					clienteAtual = identificacaoCliente;
+				}
+				// Carrinho sem itens: o LEFT JOIN traz uma única linha com as colunas dos itens nulas.
+				BigDecimal valorSemEscala = rs.getBigDecimal(4);
+				if (valorSemEscala == null) {
+					continue;
+				}
+				long codigo = rs.getLong(2);
+				Produto produto = rs.wasNull() ? new Produto(null, rs.getString(3)) : catalogo.internar(codigo, rs.getString(3));
+				BigDecimal valorUnitario = new BigDecimal(valorSemEscala.toBigIntegerExact(), rs.getInt(5));
+				itens.add(new Item(produto, valorUnitario, rs.getInt(6)));
+			}
+		}
+		if (clienteAtual != null) {
+			entregar(clienteAtual, itens, destino);
+			carregados++;
+		}
+		return carregados;
+	}
+
+	private static void entregar(String identificacaoCliente, List<Item> itens, Consumer<CarrinhoCompras> destino) {
+		CarrinhoCompras carrinho = new CarrinhoCompras(identificacaoCliente);
+		carrinho.adicionarItens(itens);
+		itens.clear();
+		destino.accept(carrinho);
+	}
+
+	/**
+	 * Quantidade de parâmetros da pesquisa para a quantidade de clientes: a menor potência de dois que
+	 * comporta os clientes, limitada a TAMANHO_LOTE_CARGA, de modo que poucos comandos distintos são
+	 * mantidos na conexão de leitura.
+	 */
+	static int parametrosPesquisa(int quantidadeClientes) {
+		if (quantidadeClientes >= TAMANHO_LOTE_CARGA) {
+			return TAMANHO_LOTE_CARGA;
+		}
+		return Math.max(1, Integer.highestOneBit(quantidadeClientes - 1) << 1);
+	}
+
+	private PreparedStatement prepararPesquisa(int parametros) throws SQLException {
+		if (conexaoLeitura == null) {
+			conexaoLeitura = abrirConexao();
+		}
+		PreparedStatement pesquisar = pesquisas.get(parametros);
+		if (pesquisar == null) {
+			StringBuilder sql = new StringBuilder(SQL_PESQUISAR_CARRINHOS).append('(');
+			for (int i = 0; i < parametros; i++) {
+				sql.append(i == 0 ? "?" : ", ?");
+			}
+			pesquisar = conexaoLeitura.prepareStatement(sql.append(')').append(SQL_ORDENAR_CARRINHOS).toString());
+			pesquisas.put(parametros, pesquisar);
+		}
+		return pesquisar;
+	}
+
+	private void fecharLeitura() {
+		pesquisas.clear();
+		if (conexaoLeitura == null) {
+			return;
+		}
+		try {
+			conexaoLeitura.close();
+		} catch (SQLException e) {
+			registrarFalha(e);
+		}
+		conexaoLeitura = null;
+	}
+
+	private Connection abrirConexao() throws SQLException {
+		return DriverManager.getConnection(url, usuario, senha);
+	}
+
+	/**
+	 * Operação pendente de um cliente: a visão do carrinho a salvar, ou null para remover o carrinho.
+	 */
+	private static class OperacaoPendente {
+
+		private final VisaoCarrinho visao;
+
+		OperacaoPendente(VisaoCarrinho visao) {
+			this.visao = visao;
+		}
+	}
 }
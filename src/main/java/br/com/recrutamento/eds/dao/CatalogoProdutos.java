@@ -0,0 +1,384 @@
+package br.com.recrutamento.eds.dao;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import br.com.recrutamento.eds.Produto;
+
+/**
+ * Catálogo de produtos que mantém uma única instância de Produto por código, carregando os produtos
+ * ausentes da tabela produto.
+ *
+ * Os produtos ficam em um ConcurrentHashMap, e as pesquisas não bloqueiam. O tamanho do catálogo é
+ * limitado pela memória estimada dos produtos: ao exceder o limite são removidos os produtos não
+ * pesquisados recentemente, percorridos em uma fila circular (algoritmo do relógio, ou segunda
+ * chance), em que o produto pesquisado desde a última passagem é mantido.
+ *
+ * Os produtos ausentes de uma pesquisa de vários códigos são carregados com uma única consulta, com
+ * os códigos divididos em lotes de TAMANHO_LOTE. As consultas usam uma conexão própria, aberta na
+ * primeira carga e mantida com os PreparedStatements de cada quantidade de parâmetros, e são executadas
+ * uma por vez; em caso de falha a conexão é fechada e reaberta na carga seguinte.
+ */
+public class CatalogoProdutos implements AutoCloseable {
+
+	/**
+	 * Quantidade de códigos por consulta ao banco de dados.
+	 */
+	static final int TAMANHO_LOTE = 100;
+
+	/**
+	 * Memória máxima estimada do catálogo criado pelos DAOs que não recebem um catálogo, em bytes.
+	 */
+	static final long PESO_MAXIMO_PADRAO = 16L * 1024 * 1024;
+
+	/**
+	 * Memória estimada de um produto sem a descrição: o Produto, o Long do código, a String e o seu
+	 * array, e a entrada do catálogo.
+	 */
+	private static final int PESO_PRODUTO = 128;
+
+	private static final String SQL_PESQUISAR = "SELECT codigo, descricao FROM produto WHERE codigo IN ";
+
+	private final String url;
+	private final String usuario;
+	private final String senha;
+	private final long pesoMaximo;
+
+	private final Map<Long, Entrada> produtos = new ConcurrentHashMap<Long, Entrada>();
+	private final Queue<Entrada> relogio = new ConcurrentLinkedQueue<Entrada>();
+	private final AtomicLong peso = new AtomicLong();
+	private final ReentrantLock lockRemocao = new ReentrantLock();
+
+	/**
+	 * Conexão e comandos de pesquisa por quantidade de parâmetros, protegidos pelo lockLeitura.
+	 */
+	private final ReentrantLock lockLeitura = new ReentrantLock();
+	private Connection conexao;
+	private final Map<Integer, PreparedStatement> pesquisas = new HashMap<Integer, PreparedStatement>();
+	private boolean encerrado;
+
+	/**
+	 * Construtor da classe CatalogoProdutos.
+	 *
+	 * @param url - URL JDBC do banco de dados.
+	 * @param usuario
+	 * @param senha
+	 * @param pesoMaximo - memória máxima estimada dos produtos mantidos, em bytes.
+	 */
+	public CatalogoProdutos(String url, String usuario, String senha, long pesoMaximo) {
+		if (pesoMaximo <= 0) {
+			throw new IllegalArgumentException("Falha no catálogo: O tamanho máximo deve ser maior que zero(0).");
+		}
+		this.url = url;
+		this.usuario = usuario;
+		this.senha = senha;
+		this.pesoMaximo = pesoMaximo;
+	}
+
+	/**
+	 * Retorna o produto do código informado, carregando-o do banco de dados caso não esteja no catálogo.
+	 *
+	 * @param codigo
+	 * @return Retorna o produto, ou null caso não exista produto com o código.
+	 * @throws SQLException
+	 */
+	public Produto obter(long codigo) throws SQLException {
+		Produto produto = pesquisar(codigo);
+
+		if (produto == null) {
+			produto = carregar(Collections.singleton(codigo)).get(codigo);
+		}
+		return produto;
+	}
+
+	/**
+	 * Retorna os produtos dos códigos informados, carregando os ausentes do catálogo com uma única
+	 * consulta por lote de códigos.
+	 *
+	 * @param codigos
+	 * @return Retorna os produtos por código, na ordem dos códigos informados. Os códigos sem produto
+	 * não são incluídos.
+	 * @throws SQLException
+	 */
+	public Map<Long, Produto> obter(Collection<Long> codigos) throws SQLException {
+		Map<Long, Produto> encontrados = new LinkedHashMap<Long, Produto>();
+		Set<Long> ausentes = new LinkedHashSet<Long>();
+
+		for (Long codigo : codigos) {
+			if (codigo == null) {
+				continue;
+			}
+			Produto produto = pesquisar(codigo);
+			if (produto != null) {
+				encontrados.put(codigo, produto);
+			} else {
+				// Reserva a posição do código para manter a ordem informada.
+				encontrados.put(codigo, null);
+				ausentes.add(codigo);
+			}
+		}
+
+		if (!ausentes.isEmpty()) {
+			Map<Long, Produto> carregados = carregar(ausentes);
+			for (Long codigo : ausentes) {
+				Produto produto = carregados.get(codigo);
+				if (produto == null) {
+					encontrados.remove(codigo);
+				} else {
+					encontrados.put(codigo, produto);
+				}
+			}
+		}
+		return encontrados;
+	}
+
+	/**
+	 * Retorna a instância do catálogo para o código do produto informado, incluindo o produto no catálogo
+	 * caso o código ainda não exista. Produtos sem código não são mantidos no catálogo.
+	 *
+	 * @param produto
+	 * @return Produto
+	 */
+	public Produto internar(Produto produto) {
+		if (produto.getCodigo() == null) {
+			return produto;
+		}
+		Produto existente = pesquisar(produto.getCodigo());
+		return existente != null ? existente : incluir(produto);
+	}
+
+	/**
+	 * Retorna a instância do catálogo para o código e a descrição lidos de outra tabela, sem consultar a
+	 * tabela produto e sem criar um Produto quando o código já está no catálogo com a mesma descrição.
+	 * Caso o código não esteja no catálogo, o produto é incluído; caso esteja com outra descrição, é
+	 * retornado um novo produto, fora do catálogo, para não alterar a descrição gravada.
+	 *
+	 * @param codigo
+	 * @param descricao
+	 * @return Produto
+	 */
+	public Produto internar(long codigo, String descricao) {
+		Produto existente = pesquisar(codigo);
+
+		if (existente == null) {
+			return incluir(new Produto(codigo, descricao));
+		}
+		return Objects.equals(existente.getDescricao(), descricao) ? existente : new Produto(codigo, descricao);
+	}
+
+	/**
+	 * Fecha a conexão de pesquisa. Os produtos do catálogo continuam disponíveis, mas os ausentes não
+	 * são mais carregados.
+	 */
+	@Override
+	public void close() {
+		lockLeitura.lock();
+		try {
+			encerrado = true;
+			fecharConexao();
+		} finally {
+			lockLeitura.unlock();
+		}
+	}
+
+	/**
+	 * Retorna a quantidade de produtos no catálogo.
+	 *
+	 * @return int
+	 */
+	public int getQuantidadeProdutos() {
+		return produtos.size();
+	}
+
+	/**
+	 * Retorna a memória estimada dos produtos no catálogo, em bytes.
+	 *
+	 * @return long
+	 */
+	public long getPeso() {
+		return peso.get();
+	}
+
+	private Produto pesquisar(long codigo) {
+		Entrada entrada = produtos.get(codigo);
+
+		if (entrada == null) {
+			return null;
+		}
+		if (!entrada.referenciada) {
+			entrada.referenciada = true;
+		}
+		return entrada.produto;
+	}
+
+	/**
+	 * Inclui o produto no catálogo, retornando o produto já incluído por outra thread para o mesmo código.
+	 */
+	private Produto incluir(Produto produto) {
+		Entrada nova = new Entrada(produto);
+		Entrada existente = produtos.putIfAbsent(produto.getCodigo(), nova);
+
+		if (existente != null) {
+			existente.referenciada = true;
+			return existente.produto;
+		}
+		relogio.offer(nova);
+		if (peso.addAndGet(nova.peso) > pesoMaximo) {
+			removerExcedentes();
+		}
+		return produto;
+	}
+
+	/**
+	 * Remove produtos até que o catálogo volte ao peso máximo. Caso outra thread esteja removendo,
+	 * retorna sem fazer nada.
+	 */
+	private void removerExcedentes() {
+		if (!lockRemocao.tryLock()) {
+			return;
+		}
+		try {
+			// Cada produto é mantido no máximo uma vez, o que limita a remoção a duas voltas.
+			int limite = produtos.size() * 2;
+			Entrada entrada;
+
+			while (peso.get() > pesoMaximo && limite-- > 0 && (entrada = relogio.poll()) != null) {
+				if (entrada.referenciada) {
+					entrada.referenciada = false;
+					relogio.offer(entrada);
+				} else if (produtos.remove(entrada.produto.getCodigo(), entrada)) {
+					peso.addAndGet(-entrada.peso);
+				}
+			}
+		} finally {
+			lockRemocao.unlock();
+		}
+	}
+
+	private Map<Long, Produto> carregar(Collection<Long> codigos) throws SQLException {
+		Map<Long, Produto> carregados = new HashMap<Long, Produto>();
+		int parametros = parametrosPesquisa(codigos.size());
+		List<Long> lote = new ArrayList<Long>(parametros);
+
+		lockLeitura.lock();
+		try {
+			if (encerrado) {
+				throw new IllegalStateException("Falha no catálogo: O catálogo foi encerrado.");
+			}
+			PreparedStatement pesquisar = prepararPesquisa(parametros);
+			for (Long codigo : codigos) {
+				lote.add(codigo);
+				if (lote.size() == parametros) {
+					carregarLote(pesquisar, parametros, lote, carregados);
+					lote.clear();
+				}
+			}
+			if (!lote.isEmpty()) {
+				carregarLote(pesquisar, parametros, lote, carregados);
+			}
+		} catch (SQLException e) {
+			fecharConexao();
+			throw e;
+		} finally {
+			lockLeitura.unlock();
+		}
+		return carregados;
+	}
+
+	/**
+	 * Quantidade de parâmetros da pesquisa para a quantidade de códigos: a menor potência de dois que
+	 * comporta os códigos, limitada a TAMANHO_LOTE, de modo que poucos comandos distintos são mantidos na
+	 * conexão.
+	 */
+	static int parametrosPesquisa(int quantidadeCodigos) {
+		if (quantidadeCodigos >= TAMANHO_LOTE) {
+			return TAMANHO_LOTE;
+		}
+		return Math.max(1, Math.min(TAMANHO_LOTE, Integer.highestOneBit(quantidadeCodigos - 1) << 1));
+	}
+
+	private PreparedStatement prepararPesquisa(int parametros) throws SQLException {
+		if (conexao == null) {
+			conexao = DriverManager.getConnection(url, usuario, senha);
+		}
+		PreparedStatement pesquisar = pesquisas.get(parametros);
+		if (pesquisar == null) {
+			pesquisar = conexao.prepareStatement(criarSql(parametros));
+			pesquisas.put(parametros, pesquisar);
+		}
+		return pesquisar;
+	}
+
+	private void fecharConexao() {
+		pesquisas.clear();
+		if (conexao == null) {
+			return;
+		}
+		try {
+			conexao.close();
+		} catch (SQLException e) {
+			// A conexão é descartada mesmo que o fechamento falhe.
+		}
+		conexao = null;
+	}
+
+	/**
+	 * Consulta um lote de códigos. Os parâmetros sem código repetem o último código do lote, de modo que
+	 * o mesmo comando é usado para todos os lotes.
+	 */
+	private void carregarLote(PreparedStatement pesquisar, int parametros, List<Long> lote,
+			Map<Long, Produto> carregados) throws SQLException {
+		for (int i = 0; i < parametros; i++) {
+			pesquisar.setLong(i + 1, lote.get(Math.min(i, lote.size() - 1)));
+		}
+		try (ResultSet rs = pesquisar.executeQuery()) {
+			while (rs.next()) {
+				Produto produto = incluir(new Produto(Long.valueOf(rs.getLong(1)), rs.getString(2)));
+				carregados.put(produto.getCodigo(), produto);
+			}
+		}
+	}
+
+	private static String criarSql(int parametros) {
+		StringBuilder sql = new StringBuilder(SQL_PESQUISAR).append('(');
+		for (int i = 0; i < parametros; i++) {
+			sql.append(i == 0 ? "?" : ", ?");
+		}
+		return sql.append(')').toString();
+	}
+
+	private static class Entrada {
+
+		private final Produto produto;
+		private final int peso;
+
+		/**
+		 * Indica se o produto foi pesquisado desde a última passagem do relógio. O produto incluído começa
+		 * sem referência, de modo que os produtos usados uma única vez são os primeiros removidos.
+		 */
+		private volatile boolean referenciada;
+
+		Entrada(Produto produto) {
+			this.produto = produto;
+			this.peso = PESO_PRODUTO + (produto.getDescricao() == null ? 0 : produto.getDescricao().length() * 2);
+		}
+	}
+}
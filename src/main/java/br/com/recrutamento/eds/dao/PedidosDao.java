@@ -0,0 +1,481 @@
+package br.com.recrutamento.eds.dao;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import br.com.recrutamento.eds.CarrinhoCompras;
+import br.com.recrutamento.eds.CarrinhoComprasFactory;
+import br.com.recrutamento.eds.Item;
+import br.com.recrutamento.eds.Produto;
+import br.com.recrutamento.eds.VisaoCarrinho;
+import br.com.recrutamento.eds.VisaoItem;
+import br.com.recrutamento.eds.dao.util.CreateTableJDBC;
+
+/**
+ * Classe responsável pela finalização das compras e pela gravação dos pedidos no HSQLDB.
+ *
+ * A finalização remove o carrinho da factory com CarrinhoComprasFactory.finalizarCompra e coloca a visão
+ * final do carrinho em uma fila, retornando imediatamente um CompletableFuture concluído com o número do
+ * pedido quando ele for gravado. Uma thread grava os pedidos da fila em lotes JDBC, um lote por transação:
+ * cada lote contém os pedidos que chegaram enquanto o anterior era gravado, até o tamanho do lote, de modo
+ * que um pedido isolado é gravado sem espera e sob carga os pedidos são agrupados.
+ *
+ * A quantidade de pedidos na fila ou em gravação é limitada pela capacidade; ao atingi-la as finalizações
+ * aguardam a gravação de um lote antes de remover o carrinho da factory. Caso a gravação de um lote falhe,
+ * os pedidos do lote são gravados um a um, e apenas os CompletableFuture dos pedidos que falharem novamente
+ * são concluídos com a exceção da gravação. As falhas de conexão não concluem os pedidos, cujos carrinhos
+ * já foram removidos da factory: a gravação é repetida após uma espera, dobrada a cada falha seguida até
+ * ESPERA_MAXIMA_FALHA.
+ *
+ * O encerramento aguarda a gravação dos pedidos pendentes por um tempo limitado. Os pedidos não gravados
+ * até o fim da thread de gravação são concluídos com falha, de modo que nenhum CompletableFuture fica sem
+ * conclusão.
+ *
+ * As ações associadas aos CompletableFuture são executadas pela thread de gravação, e devem ser rápidas ou
+ * repassadas a outro executor.
+ */
+public class PedidosDao implements AutoCloseable {
+
+	private static final int CAPACIDADE_PADRAO = 10000;
+	private static final int TAMANHO_LOTE_PADRAO = 500;
+
+	/**
+	 * Tempo que o encerramento aguarda a gravação dos pedidos pendentes, em segundos.
+	 */
+	private static final long ESPERA_ENCERRAMENTO_PADRAO = 30L;
+
+	/**
+	 * Tempo que o encerramento aguarda o fim da thread de gravação após interrompê-la, em milissegundos.
+	 */
+	private static final long ESPERA_GRAVADOR = 5000L;
+
+	/**
+	 * Espera inicial e máxima, em nanossegundos, antes de uma nova tentativa após uma falha de conexão.
+	 */
+	private static final long ESPERA_INICIAL_FALHA = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final long ESPERA_MAXIMA_FALHA = TimeUnit.SECONDS.toNanos(30);
+
+	private static final String SQL_MAIOR_NUMERO = "SELECT COALESCE(MAX(numero), 0) FROM pedido";
+	private static final String SQL_INSERIR_PEDIDO = "INSERT INTO pedido (numero, identificacao_cliente, valor_total_sem_escala, "
+			+ "escala_valor_total) VALUES (?, ?, ?, ?)";
+	private static final String SQL_INSERIR_ITEM = "INSERT INTO item_pedido (numero_pedido, posicao, codigo_produto, "
+			+ "descricao_produto, valor_unitario_sem_escala, escala_valor_unitario, quantidade) VALUES (?, ?, ?, ?, ?, ?, ?)";
+	private static final String SQL_PESQUISAR_PEDIDO = "SELECT identificacao_cliente FROM pedido WHERE numero = ?";
+	private static final String SQL_PESQUISAR_ITENS = "SELECT codigo_produto, descricao_produto, valor_unitario_sem_escala, escala_valor_unitario, quantidade "
+			+ "FROM item_pedido WHERE numero_pedido = ? ORDER BY posicao";
+
+	private final CarrinhoComprasFactory factory;
+	private final String url;
+	private final String usuario;
+	private final String senha;
+	private final int capacidade;
+	private final int tamanhoLote;
+	private final CatalogoProdutos catalogo;
+	private final boolean catalogoProprio;
+
+	private final BlockingQueue<PedidoPendente> fila = new LinkedBlockingQueue<PedidoPendente>();
+
+	/**
+	 * Vagas para novos pedidos, devolvidas após a gravação do lote de cada pedido.
+	 */
+	private final Semaphore vagas;
+	private final AtomicLong ultimoNumero;
+
+	private final Thread gravador;
+	private volatile boolean encerrado;
+
+	/**
+	 * Conexão e comandos usados apenas pela thread de gravação.
+	 */
+	private Connection conexao;
+	private PreparedStatement inserirPedido;
+	private PreparedStatement inserirItem;
+
+	public PedidosDao(CarrinhoComprasFactory factory, String url, String usuario, String senha) throws SQLException {
+		this(factory, url, usuario, senha, CAPACIDADE_PADRAO, TAMANHO_LOTE_PADRAO);
+	}
+
+	/**
+	 * Construtor da classe PedidosDao. Cria as tabelas, caso não existam, e inicia a thread de gravação.
+	 * Os números dos pedidos continuam a partir do maior número gravado.
+	 *
+	 * @param factory - factory de onde são removidos os carrinhos finalizados.
+	 * @param url - URL JDBC do banco de dados.
+	 * @param usuario
+	 * @param senha
+	 * @param capacidade - quantidade máxima de pedidos aguardando gravação.
+	 * @param tamanhoLote - quantidade máxima de pedidos gravados em uma transação.
+	 * @throws SQLException
+	 */
+	public PedidosDao(CarrinhoComprasFactory factory, String url, String usuario, String senha, int capacidade,
+			int tamanhoLote) throws SQLException {
+		this(factory, url, usuario, senha, capacidade, tamanhoLote, null);
+	}
+
+	/**
+	 * Construtor da classe PedidosDao com o catálogo de produtos compartilhado. Cria as tabelas, caso não
+	 * existam, e inicia a thread de gravação. Os números dos pedidos continuam a partir do maior número
+	 * gravado.
+	 *
+	 * @param factory - factory de onde são removidos os carrinhos finalizados.
+	 * @param url - URL JDBC do banco de dados.
+	 * @param usuario
+	 * @param senha
+	 * @param capacidade - quantidade máxima de pedidos aguardando gravação.
+	 * @param tamanhoLote - quantidade máxima de pedidos gravados em uma transação.
+	 * @param catalogo - catálogo dos produtos carregados, ou null para criar um catálogo próprio, fechado
+	 *        junto com o DAO.
+	 * @throws SQLException
+	 */
+	public PedidosDao(CarrinhoComprasFactory factory, String url, String usuario, String senha, int capacidade,
+			int tamanhoLote, CatalogoProdutos catalogo) throws SQLException {
+		if (capacidade <= 0 || tamanhoLote <= 0) {
+			throw new IllegalArgumentException("Falha no DAO: A capacidade e o tamanho do lote devem ser maiores que zero(0).");
+		}
+		this.factory = factory;
+		this.url = url;
+		this.usuario = usuario;
+		this.senha = senha;
+		this.capacidade = capacidade;
+		this.tamanhoLote = tamanhoLote;
+		this.vagas = new Semaphore(capacidade);
+		this.catalogoProprio = catalogo == null;
+		this.catalogo = catalogoProprio ? new CatalogoProdutos(url, usuario, senha, CatalogoProdutos.PESO_MAXIMO_PADRAO) : catalogo;
+
+		try (Connection con = abrirConexao()) {
+			CreateTableJDBC.criarTabelas(con);
+			try (Statement stmt = con.createStatement(); ResultSet rs = stmt.executeQuery(SQL_MAIOR_NUMERO)) {
+				rs.next();
+				ultimoNumero = new AtomicLong(rs.getLong(1));
+			}
+		}
+
+		gravador = new Thread(this::executarGravacao, "carrinho-pedidos");
+		gravador.setDaemon(true);
+		gravador.start();
+	}
+
+	/**
+	 * Finaliza a compra do cliente: remove o carrinho da factory e coloca o pedido na fila de gravação.
+	 * Aguarda uma vaga caso a fila esteja na capacidade máxima.
+	 *
+	 * @param identificacaoCliente
+	 * @return Retorna o CompletableFuture concluído com o número do pedido após a gravação, ou null caso o
+	 * cliente não possua carrinho.
+	 */
+	public CompletableFuture<Long> finalizarCompra(String identificacaoCliente) {
+		verificarEncerramento();
+		vagas.acquireUninterruptibly();
+		if (encerrado) {
+			vagas.release();
+			verificarEncerramento();
+		}
+
+		VisaoCarrinho visao = factory.finalizarCompra(identificacaoCliente);
+		if (visao == null) {
+			vagas.release();
+			return null;
+		}
+		PedidoPendente pedido = new PedidoPendente(ultimoNumero.incrementAndGet(), visao);
+		fila.add(pedido);
+		return pedido.conclusao;
+	}
+
+	/**
+	 * Carrega o pedido gravado como um carrinho desvinculado de qualquer factory. Os produtos com código
+	 * são obtidos do catálogo.
+	 *
+	 * @param numero
+	 * @return Retorna o carrinho com os itens do pedido, ou null caso o pedido não exista.
+	 * @throws SQLException
+	 */
+	public CarrinhoCompras carregar(long numero) throws SQLException {
+		try (Connection con = abrirConexao();
+				PreparedStatement pesquisarPedido = con.prepareStatement(SQL_PESQUISAR_PEDIDO);
+				PreparedStatement pesquisarItens = con.prepareStatement(SQL_PESQUISAR_ITENS)) {
+			CarrinhoCompras carrinho;
+			pesquisarPedido.setLong(1, numero);
+			try (ResultSet rs = pesquisarPedido.executeQuery()) {
+				if (!rs.next()) {
+					return null;
+				}
+				carrinho = new CarrinhoCompras(rs.getString(1));
+			}
+
+			List<Item> itens = new ArrayList<Item>();
+			pesquisarItens.setLong(1, numero);
+			try (ResultSet rs = pesquisarItens.executeQuery()) {
+				while (rs.next()) {
+					long codigo = rs.getLong(1);
+					Produto produto = rs.wasNull() ? new Produto(null, rs.getString(2)) : catalogo.internar(codigo, rs.getString(2));
+					BigDecimal valorUnitario = new BigDecimal(rs.getBigDecimal(3).toBigIntegerExact(), rs.getInt(4));
+					itens.add(new Item(produto, valorUnitario, rs.getInt(5)));
+				}
+			}
+			carrinho.adicionarItens(itens);
+			return carrinho;
+		}
+	}
+
+	/**
+	 * Retorna o catálogo dos produtos carregados.
+	 *
+	 * @return CatalogoProdutos
+	 */
+	public CatalogoProdutos getCatalogo() {
+		return catalogo;
+	}
+
+	/**
+	 * Retorna a quantidade de pedidos aguardando gravação ou em gravação.
+	 *
+	 * @return int
+	 */
+	public int getQuantidadePendente() {
+		// Após um encerramento sem a gravação de todos os pedidos, as vagas podem exceder a capacidade.
+		return Math.max(0, capacidade - vagas.availablePermits());
+	}
+
+	/**
+	 * Encerra o DAO aguardando a gravação dos pedidos pendentes por até ESPERA_ENCERRAMENTO_PADRAO segundos.
+	 */
+	@Override
+	public void close() {
+		encerrar(ESPERA_ENCERRAMENTO_PADRAO, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Deixa de aceitar finalizações, aguarda a gravação dos pedidos pendentes por até o tempo informado e
+	 * encerra a thread de gravação. Os CompletableFuture dos pedidos não gravados são concluídos com falha.
+	 * Um lote cuja gravação no banco não retorna é concluído pela thread de gravação quando ela retornar.
+	 *
+	 * @param tempoMaximo
+	 * @param unidade
+	 * @return Retorna true caso todos os pedidos tenham sido gravados.
+	 */
+	public synchronized boolean encerrar(long tempoMaximo, TimeUnit unidade) {
+		if (encerrado) {
+			return true;
+		}
+		encerrado = true;
+		// Todas as vagas são obtidas apenas quando os pedidos aceitos antes do encerramento forem gravados.
+		boolean gravados = false;
+		try {
+			gravados = vagas.tryAcquire(capacidade, tempoMaximo, unidade);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		gravador.interrupt();
+		try {
+			gravador.join(ESPERA_GRAVADOR);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (gravador.isAlive()) {
+			// A thread de gravação está presa no banco; os pedidos que ainda não retirou da fila são concluídos aqui.
+			falharPendentes(new ArrayList<PedidoPendente>());
+		}
+		if (catalogoProprio) {
+			catalogo.close();
+		}
+		// As finalizações que aguardavam vaga são liberadas para encontrar o DAO encerrado.
+		vagas.release(capacidade);
+		return gravados;
+	}
+
+	private void verificarEncerramento() {
+		if (encerrado) {
+			throw new IllegalStateException("Falha no DAO: O DAO de pedidos foi encerrado.");
+		}
+	}
+
+	private void executarGravacao() {
+		List<PedidoPendente> lote = new ArrayList<PedidoPendente>(tamanhoLote);
+
+		try {
+			while (true) {
+				lote.add(fila.take());
+				fila.drainTo(lote, tamanhoLote - 1);
+				if (!gravarLote(lote)) {
+					// Um pedido inválido não pode impedir a gravação dos demais pedidos do lote.
+					for (PedidoPendente pedido : lote) {
+						gravarLote(Collections.singletonList(pedido));
+					}
+				}
+				lote.clear();
+			}
+		} catch (InterruptedException e) {
+			// Interrompida pelo encerramento; os pedidos ainda não gravados são concluídos com falha.
+		} finally {
+			falharPendentes(lote);
+			fecharConexao();
+		}
+	}
+
+	/**
+	 * Grava o lote em uma transação e conclui os CompletableFuture dos pedidos, repetindo a gravação
+	 * após uma espera enquanto a falha for de conexão. Em caso de outra falha, os pedidos de um lote
+	 * unitário são concluídos com a exceção da gravação. As vagas dos pedidos são devolvidas antes da
+	 * conclusão, de modo que um pedido concluído não conste como pendente.
+	 *
+	 * @return Retorna false caso a gravação de um lote com mais de um pedido falhe, sem concluir os pedidos.
+	 * @throws InterruptedException - caso a espera após uma falha de conexão seja interrompida.
+	 */
+	private boolean gravarLote(List<PedidoPendente> lote) throws InterruptedException {
+		long esperaFalha = 0L;
+
+		while (true) {
+			try {
+				gravar(lote);
+				break;
+			} catch (SQLException | RuntimeException e) {
+				fecharConexao();
+				if (e instanceof SQLException && CarrinhoComprasDao.falhaConexao((SQLException) e)) {
+					esperaFalha = esperaFalha == 0L ? ESPERA_INICIAL_FALHA : Math.min(esperaFalha * 2, ESPERA_MAXIMA_FALHA);
+					TimeUnit.NANOSECONDS.sleep(esperaFalha);
+					continue;
+				}
+				if (lote.size() > 1) {
+					return false;
+				}
+				vagas.release();
+				lote.get(0).conclusao.completeExceptionally(e);
+				return true;
+			}
+		}
+		vagas.release(lote.size());
+		for (PedidoPendente pedido : lote) {
+			pedido.conclusao.complete(pedido.numero);
+		}
+		return true;
+	}
+
+	/**
+	 * Conclui com falha os pedidos do lote ainda não concluídos e os pedidos da fila, devolvendo as vagas.
+	 */
+	private void falharPendentes(List<PedidoPendente> lote) {
+		fila.drainTo(lote);
+		for (PedidoPendente pedido : lote) {
+			if (!pedido.conclusao.isDone()) {
+				vagas.release();
+				pedido.conclusao.completeExceptionally(new IllegalStateException(
+						"Falha no DAO: O pedido " + pedido.numero + " não foi gravado antes do encerramento do DAO."));
+			}
+		}
+		lote.clear();
+	}
+
+	private void gravar(List<PedidoPendente> lote) throws SQLException {
+		prepararConexao();
+
+		// Os valores são gravados sem perdas: o valor sem escala (unscaledValue) e a escala.
+		for (PedidoPendente pedido : lote) {
+			BigDecimal valorTotal = pedido.visao.getValorTotal();
+			inserirPedido.setLong(1, pedido.numero);
+			inserirPedido.setString(2, pedido.visao.getIdentificacaoCliente());
+			inserirPedido.setBigDecimal(3, new BigDecimal(valorTotal.unscaledValue()));
+			inserirPedido.setInt(4, valorTotal.scale());
+			inserirPedido.addBatch();
+
+			int posicao = 0;
+			for (VisaoItem item : pedido.visao.getItens()) {
+				Long codigo = item.getProduto().getCodigo();
+				inserirItem.setLong(1, pedido.numero);
+				inserirItem.setInt(2, posicao++);
+				if (codigo == null) {
+					inserirItem.setNull(3, Types.BIGINT);
+				} else {
+					inserirItem.setLong(3, codigo);
+				}
+				inserirItem.setString(4, item.getProduto().getDescricao());
+				inserirItem.setBigDecimal(5, new BigDecimal(item.getValorUnitario().unscaledValue()));
+				inserirItem.setInt(6, item.getValorUnitario().scale());
+				inserirItem.setInt(7, item.getQuantidade());
+				inserirItem.addBatch();
+			}
+		}
+
+		try {
+			inserirPedido.executeBatch();
+			// O HSQLDB não aceita a execução de um lote vazio, e os pedidos podem não ter itens.
+			if (possuiItens(lote)) {
+				inserirItem.executeBatch();
+			}
+			conexao.commit();
+		} catch (SQLException e) {
+			conexao.rollback();
+			throw e;
+		}
+	}
+
+	private static boolean possuiItens(List<PedidoPendente> lote) {
+		for (PedidoPendente pedido : lote) {
+			if (!pedido.visao.getItens().isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void prepararConexao() throws SQLException {
+		if (conexao != null) {
+			return;
+		}
+		try {
+			conexao = abrirConexao();
+		} catch (SQLException e) {
+			// Qualquer falha ao abrir a conexão é tratada como falha de conexão, e a gravação é repetida.
+			throw new SQLTransientConnectionException("Falha no DAO: Não foi possível abrir a conexão de gravação.", "08001", e);
+		}
+		conexao.setAutoCommit(false);
+		inserirPedido = conexao.prepareStatement(SQL_INSERIR_PEDIDO);
+		inserirItem = conexao.prepareStatement(SQL_INSERIR_ITEM);
+	}
+
+	private void fecharConexao() {
+		if (conexao == null) {
+			return;
+		}
+		try {
+			conexao.close();
+		} catch (SQLException e) {
+			e.printStackTrace(System.out);
+		}
+		conexao = null;
+	}
+
+	private Connection abrirConexao() throws SQLException {
+		return DriverManager.getConnection(url, usuario, senha);
+	}
+
+	/**
+	 * Pedido aguardando gravação: o número, a visão final do carrinho e o CompletableFuture concluído na gravação.
+	 */
+	private static class PedidoPendente {
+
+		private final long numero;
+		private final VisaoCarrinho visao;
+		private final CompletableFuture<Long> conclusao = new CompletableFuture<Long>();
+
+		PedidoPendente(long numero, VisaoCarrinho visao) {
+			this.numero = numero;
+			this.visao = visao;
+		}
+	}
+}
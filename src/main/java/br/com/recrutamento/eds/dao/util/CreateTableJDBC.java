@@ -2,6 +2,7 @@ package br.com.recrutamento.eds.dao.util;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.SQLException;
 import java.sql.Statement;
 
 public class CreateTableJDBC {
@@ -9,25 +10,85 @@ public class CreateTableJDBC {
 	public static void main(String[] args) {
 
 		Connection con = null;
-		Statement stmt = null;
 		int result = 0;
 
-		StringBuilder sb = new StringBuilder();
-		sb.append("CREATE TABLE produto ( ");
-		sb.append("codigo INT NOT NULL, ");
-		sb.append("descricao VARCHAR(200) NOT NULL, ");
-		sb.append(" PRIMARY KEY (codigo));");
-
 		try {
 			Class.forName("org.hsqldb.jdbc.JDBCDriver");
 			con = DriverManager.getConnection("jdbc:hsqldb:hsql://localhost/comprasdb", "SA", "");
-			stmt = con.createStatement();
 
-			result = stmt.executeUpdate(sb.toString());
+			result = criarTabelas(con);
 
 		} catch (Exception e) {
 			e.printStackTrace(System.out);
 		}
 		System.out.println("Table created successfully " + result);
 	}
+
+	/**
+	 * Cria as tabelas de produtos, carrinhos de compras e pedidos, caso ainda não existam.
+	 * 
+	 * @param con
+	 * @return Retorna a soma dos resultados dos comandos executados.
+	 * @throws SQLException
+	 */
+	public static int criarTabelas(Connection con) throws SQLException {
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("CREATE TABLE IF NOT EXISTS produto ( ");
+		sb.append("codigo INT NOT NULL, ");
+		sb.append("descricao VARCHAR(200) NOT NULL, ");
+		sb.append(" PRIMARY KEY (codigo));");
+
+		StringBuilder carrinho = new StringBuilder();
+		carrinho.append("CREATE TABLE IF NOT EXISTS carrinho ( ");
+		carrinho.append("identificacao_cliente VARCHAR(100) NOT NULL, ");
+		carrinho.append(" PRIMARY KEY (identificacao_cliente));");
+
+		// O valor unitário é gravado sem perdas: o valor sem escala (unscaledValue), com até 1000 dígitos, e a escala.
+		StringBuilder item = new StringBuilder();
+		item.append("CREATE TABLE IF NOT EXISTS item_carrinho ( ");
+		item.append("identificacao_cliente VARCHAR(100) NOT NULL, ");
+		item.append("posicao INT NOT NULL, ");
+		item.append("codigo_produto BIGINT, ");
+		item.append("descricao_produto VARCHAR(200), ");
+		item.append("valor_unitario_sem_escala DECIMAL(1000) NOT NULL, ");
+		item.append("escala_valor_unitario INT NOT NULL, ");
+		item.append("quantidade INT NOT NULL, ");
+		item.append(" PRIMARY KEY (identificacao_cliente, posicao), ");
+		item.append(" FOREIGN KEY (identificacao_cliente) REFERENCES carrinho (identificacao_cliente) ON DELETE CASCADE);");
+
+		// Os valores dos pedidos também são gravados como o valor sem escala e a escala.
+		StringBuilder pedido = new StringBuilder();
+		pedido.append("CREATE TABLE IF NOT EXISTS pedido ( ");
+		pedido.append("numero BIGINT NOT NULL, ");
+		pedido.append("identificacao_cliente VARCHAR(100) NOT NULL, ");
+		pedido.append("valor_total_sem_escala DECIMAL(1000) NOT NULL, ");
+		pedido.append("escala_valor_total INT NOT NULL, ");
+		pedido.append(" PRIMARY KEY (numero));");
+
+		StringBuilder itemPedido = new StringBuilder();
+		itemPedido.append("CREATE TABLE IF NOT EXISTS item_pedido ( ");
+		itemPedido.append("numero_pedido BIGINT NOT NULL, ");
+		itemPedido.append("posicao INT NOT NULL, ");
+		itemPedido.append("codigo_produto BIGINT, ");
+		itemPedido.append("descricao_produto VARCHAR(200), ");
+		itemPedido.append("valor_unitario_sem_escala DECIMAL(1000) NOT NULL, ");
+		itemPedido.append("escala_valor_unitario INT NOT NULL, ");
+		itemPedido.append("quantidade INT NOT NULL, ");
+		itemPedido.append(" PRIMARY KEY (numero_pedido, posicao), ");
+		itemPedido.append(" FOREIGN KEY (numero_pedido) REFERENCES pedido (numero) ON DELETE CASCADE);");
+
+		int result = 0;
+		Statement stmt = con.createStatement();
+		try {
+			result += stmt.executeUpdate(sb.toString());
+			result += stmt.executeUpdate(carrinho.toString());
+			result += stmt.executeUpdate(item.toString());
+			result += stmt.executeUpdate(pedido.toString());
+			result += stmt.executeUpdate(itemPedido.toString());
+		} finally {
+			stmt.close();
+		}
+		return result;
+	}
 }
\ No newline at end of file
@@ -450,6 +450,12 @@ extends org.hsqldb.dbinfo.DatabaseInformationMain {
      * FREE_BYTES          BIGINT   total bytes in available file allocation units
      * FREE_COUNT          BIGINT   total # of allocation units available
      * FREE_POS            BIGINT   largest file position allocated + 1
+     * CACHE_POLICY        CHARACTER_DATA   eviction policy of the cache
+     * HIT_COUNT           BIGINT   rows found in the cache
+     * MISS_COUNT          BIGINT   rows read from the file
+     * EVICTION_COUNT      BIGINT   rows removed to make room in the cache
+     * EVICTION_TIME       BIGINT   milliseconds spent removing rows
+     * READ_AHEAD_COUNT    BIGINT   rows copied from read-ahead windows
      * </pre> <p>
      *
      * <b>Notes:</b> <p>
@@ -484,6 +490,12 @@ extends org.hsqldb.dbinfo.DatabaseInformationMain {
             addColumn(t, "CACHE_BYTES", CARDINAL_NUMBER);        // not null
             addColumn(t, "FILE_LOST_BYTES", CARDINAL_NUMBER);    // not null
             addColumn(t, "FILE_FREE_POS", CARDINAL_NUMBER);      // not null
+            addColumn(t, "CACHE_POLICY", CHARACTER_DATA);        // not null
+            addColumn(t, "HIT_COUNT", CARDINAL_NUMBER);          // not null
+            addColumn(t, "MISS_COUNT", CARDINAL_NUMBER);         // not null
+            addColumn(t, "EVICTION_COUNT", CARDINAL_NUMBER);     // not null
+            addColumn(t, "EVICTION_TIME", CARDINAL_NUMBER);      // not null
+            addColumn(t, "READ_AHEAD_COUNT", CARDINAL_NUMBER);   // not null
 
             HsqlName name = HsqlNameManager.newInfoSchemaObjectName(
                 sysTableHsqlNames[SYSTEM_CACHEINFO].name, false,
@@ -502,6 +514,12 @@ extends org.hsqldb.dbinfo.DatabaseInformationMain {
         final int icache_length    = 4;
         final int ilost_bytes      = 5;
         final int ifree_pos        = 6;
+        final int icache_policy    = 7;
+        final int ihit_count       = 8;
+        final int imiss_count      = 9;
+        final int ievict_count     = 10;
+        final int ievict_time      = 11;
+        final int iread_ahead      = 12;
 
         //
         DataFileCache cache = null;
@@ -563,6 +581,14 @@ extends org.hsqldb.dbinfo.DatabaseInformationMain {
                 ValuePool.getLong(cache.getTotalCachedBlockSize());
             row[ilost_bytes] = ValuePool.getLong(cache.getLostBlockSize());
             row[ifree_pos]   = ValuePool.getLong(cache.getFileFreePos());
+            row[icache_policy] = cache.getCachePolicyName();
+            row[ihit_count]    = ValuePool.getLong(cache.getCacheHitCount());
+            row[imiss_count]   = ValuePool.getLong(cache.getCacheMissCount());
+            row[ievict_count] =
+                ValuePool.getLong(cache.getCacheEvictionCount());
+            row[ievict_time] = ValuePool.getLong(cache.getCacheEvictionTime());
+            row[iread_ahead] =
+                ValuePool.getLong(cache.getCacheReadAheadCount());
 
             t.insertSys(session, store, row);
         }
@@ -73,6 +73,7 @@ package org.hsqldb.lib;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
 
 import org.hsqldb.map.BitMap;
 
@@ -560,6 +561,87 @@ public class StringConverter {
         return new String(buf, 0, bcount);
     }
 
+    /**
+     * Reads a UTF-8 string of length bytes from buffer, starting at the
+     * absolute index offset. The position of buffer is not changed.
+     */
+    public static String readUTF(ByteBuffer buffer, int offset,
+                                 int length) throws IOException {
+
+        char[] buf    = new char[length];
+        int    bcount = 0;
+        int    c, char2, char3;
+        int    count = 0;
+
+        while (count < length) {
+            c = (int) buffer.get(offset + count);
+
+            if (c > 0) {
+
+                /* 0xxxxxxx*/
+                count++;
+
+                buf[bcount++] = (char) c;
+
+                continue;
+            }
+
+            c &= 0xff;
+
+            switch (c >> 4) {
+
+                case 12 :
+                case 13 :
+
+                    /* 110x xxxx   10xx xxxx*/
+                    count += 2;
+
+                    if (count > length) {
+                        throw new UTFDataFormatException();
+                    }
+
+                    char2 = (int) buffer.get(offset + count - 1);
+
+                    if ((char2 & 0xC0) != 0x80) {
+                        throw new UTFDataFormatException();
+                    }
+
+                    buf[bcount++] = (char) (((c & 0x1F) << 6)
+                                            | (char2 & 0x3F));
+                    break;
+
+                case 14 :
+
+                    /* 1110 xxxx  10xx xxxx  10xx xxxx */
+                    count += 3;
+
+                    if (count > length) {
+                        throw new UTFDataFormatException();
+                    }
+
+                    char2 = (int) buffer.get(offset + count - 2);
+                    char3 = (int) buffer.get(offset + count - 1);
+
+                    if (((char2 & 0xC0) != 0x80) || ((char3 & 0xC0) != 0x80)) {
+                        throw new UTFDataFormatException();
+                    }
+
+                    buf[bcount++] = (char) (((c & 0x0F) << 12)
+                                            | ((char2 & 0x3F) << 6)
+                                            | ((char3 & 0x3F)));
+                    break;
+
+                default :
+
+                    /* 10xx xxxx,  1111 xxxx */
+                    throw new UTFDataFormatException();
+            }
+        }
+
+        // The number of chars produced may be less than length
+        return new String(buf, 0, bcount);
+    }
+
     /**
      * Writes a string to the specified DataOutput using UTF-8 encoding in a
      * machine-independent manner.
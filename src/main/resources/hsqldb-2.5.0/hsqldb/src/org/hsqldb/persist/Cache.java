@@ -48,6 +48,11 @@ import org.hsqldb.map.BaseHashMap;
  * Also provides services for selecting rows to be saved and passing them
  * to DataFileCache.<p>
  *
+ * When the DataFileCache uses a CachePolicy other than ACCESS_COUNT, the
+ * policy chooses the rows to evict, one at a time, and only as many rows as
+ * needed for the new row are evicted. Modified rows are saved in batches
+ * sorted by file position.<p>
+ *
  * @author Fred Toussi (fredt@users dot sourceforge.net)
  * @version 2.5.0
  * @since 1.8.0
@@ -61,6 +66,13 @@ public class Cache extends BaseHashMap {
     private final CachedObjectComparator       rowComparator;
     private final BaseHashMap.BaseHashIterator objectIterator;
     private boolean                            updateAccess;
+    private final CachePolicy                  policy;
+
+    // statistics, hit and miss counts are approximate with concurrent readers
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long evictionTime;
 
     //
     private CachedObject[] rowTable;
@@ -89,6 +101,9 @@ public class Cache extends BaseHashMap {
         reserveCount = dfc instanceof TextCache
                        || dfc instanceof DataFileCacheSession ? 0
                                                               : 8;
+        policy = dfc.cachePolicy == CachePolicy.TINY_LFU
+                 ? new CachePolicyTinyLFU(capacity)
+                 : null;
     }
 
     long getTotalCachedBlockSize() {
@@ -100,7 +115,7 @@ public class Cache extends BaseHashMap {
      */
     public CachedObject get(long pos) {
 
-        if (accessCount > ACCESS_MAX) {
+        if (policy == null && accessCount > ACCESS_MAX) {
             updateAndResetAccessCounts();
         }
 
@@ -110,7 +125,13 @@ public class Cache extends BaseHashMap {
             return null;
         }
 
-        accessTable[lookup] = ++accessCount;
+        hitCount++;
+
+        if (policy == null) {
+            accessTable[lookup] = ++accessCount;
+        } else {
+            policy.access(pos);
+        }
 
         CachedObject object = (CachedObject) objectKeyTable[lookup];
 
@@ -168,50 +189,133 @@ public class Cache extends BaseHashMap {
         boolean exceedsSize  = storageSize + cacheBytesLength > bytesCapacity;
 
         if (exceedsCount || exceedsSize) {
-            cleanUp(false);
+            long startTime = System.nanoTime();
+            int  startSize = size();
+
+            try {
+                return policy == null ? cleanUp(storageSize)
+                                      : evict(storageSize);
+            } finally {
+                evictionCount += startSize - size();
+                evictionTime  += System.nanoTime() - startTime;
+            }
+        }
 
-            exceedsCount = size() + reserveCount >= capacity;
-            exceedsSize  = storageSize + cacheBytesLength > bytesCapacity;
+        return true;
+    }
 
-            if (exceedsCount || exceedsSize) {
-                clearUnchanged();
-            } else {
-                return true;
-            }
+    /**
+     * ACCESS_COUNT cleanup, removing progressively larger parts of the
+     * cache.
+     */
+    private boolean cleanUp(int storageSize) {
 
-            exceedsCount = size() + reserveCount >= capacity;
-            exceedsSize  = storageSize + cacheBytesLength > bytesCapacity;
+        cleanUp(false);
 
-            if (exceedsCount || exceedsSize) {
-                cleanUp(true);
-            } else {
-                return true;
-            }
+        boolean exceedsCount = size() + reserveCount >= capacity;
+        boolean exceedsSize  = storageSize + cacheBytesLength > bytesCapacity;
 
-            exceedsCount = size() + reserveCount >= capacity;
-            exceedsSize  = storageSize + cacheBytesLength > bytesCapacity;
+        if (exceedsCount || exceedsSize) {
+            clearUnchanged();
+        } else {
+            return true;
+        }
+
+        exceedsCount = size() + reserveCount >= capacity;
+        exceedsSize  = storageSize + cacheBytesLength > bytesCapacity;
 
-            if (exceedsCount) {
-                dataFileCache.logInfoEvent(
-                    "dataFileCache CACHE ROWS limit reached");
+        if (exceedsCount || exceedsSize) {
+            cleanUp(true);
+        } else {
+            return true;
+        }
+
+        exceedsCount = size() + reserveCount >= capacity;
+        exceedsSize  = storageSize + cacheBytesLength > bytesCapacity;
+
+        if (exceedsCount) {
+            dataFileCache.logInfoEvent(
+                "dataFileCache CACHE ROWS limit reached");
+        }
+
+        if (exceedsSize) {
+            dataFileCache.logInfoEvent(
+                "dataFileCache CACHE SIZE limit reached");
+        }
+
+        if (exceedsCount || exceedsSize) {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Evicts the rows chosen by the policy until the new row fits, leaving
+     * 1/64 of the limits free to avoid evicting for each new row.
+     */
+    private boolean evict(int storageSize) {
+
+        int  countLimit = capacity - reserveCount - 1 - capacity / 64;
+        long bytesLimit = bytesCapacity - storageSize - bytesCapacity / 64;
+        int  savecount  = 0;
+        int  retained   = 0;
+
+        while ((size() > countLimit || cacheBytesLength > bytesLimit)
+                && retained <= size()) {
+            CachedObject row = policy.evict();
+
+            if (row == null) {
+                break;
             }
 
-            if (exceedsSize) {
-                dataFileCache.logInfoEvent(
-                    "dataFileCache CACHE SIZE limit reached");
+            synchronized (row) {
+                if (row.isKeepInMemory()) {
+                    policy.retain(row);
+
+                    retained++;
+
+                    continue;
+                }
+
+                if (row.hasChanged()) {
+                    rowTable[savecount++] = row;
+                }
+
+                row.setInMemory(false);
+                addOrRemoveObject(null, row.getPos(), true);
+
+                cacheBytesLength -= row.getStorageSize();
             }
 
-            if (exceedsCount || exceedsSize) {
-                return false;
+            if (savecount == rowTable.length) {
+                saveRows(savecount);
+
+                savecount = 0;
             }
         }
 
-        return true;
+        saveRows(savecount);
+
+        boolean exceedsCount = size() + reserveCount >= capacity;
+        boolean exceedsSize  = storageSize + cacheBytesLength > bytesCapacity;
+
+        if (exceedsCount) {
+            dataFileCache.logInfoEvent(
+                "dataFileCache CACHE ROWS limit reached");
+        }
+
+        if (exceedsSize) {
+            dataFileCache.logInfoEvent(
+                "dataFileCache CACHE SIZE limit reached");
+        }
+
+        return !exceedsCount && !exceedsSize;
     }
 
     private void putNoCheck(CachedObject row) {
 
-        if (accessCount > ACCESS_MAX) {
+        if (policy == null && accessCount > ACCESS_MAX) {
             updateAccessCounts();
             resetAccessCount();
             updateObjectAccessCounts();
@@ -228,6 +332,10 @@ public class Cache extends BaseHashMap {
         row.setInMemory(true);
 
         cacheBytesLength += row.getStorageSize();
+
+        if (policy != null) {
+            policy.add(row);
+        }
     }
 
     /**
@@ -245,6 +353,10 @@ public class Cache extends BaseHashMap {
 
         r.setInMemory(false);
 
+        if (policy != null) {
+            policy.remove(pos);
+        }
+
         return r;
     }
 
@@ -263,6 +375,10 @@ public class Cache extends BaseHashMap {
                 objectIterator.remove();
 
                 cacheBytesLength -= o.getStorageSize();
+
+                if (policy != null) {
+                    policy.remove(pos);
+                }
             }
         }
     }
@@ -280,6 +396,10 @@ public class Cache extends BaseHashMap {
                 objectIterator.remove();
 
                 cacheBytesLength -= o.getStorageSize();
+
+                if (policy != null) {
+                    policy.remove(pos);
+                }
             }
         }
     }
@@ -397,6 +517,10 @@ public class Cache extends BaseHashMap {
                     objectIterator.remove();
 
                     cacheBytesLength -= row.getStorageSize();
+
+                    if (policy != null) {
+                        policy.remove(row.getPos());
+                    }
                 }
             }
         }
@@ -471,6 +595,39 @@ public class Cache extends BaseHashMap {
         super.clear();
 
         cacheBytesLength = 0;
+
+        if (policy != null) {
+            policy.clear();
+        }
+    }
+
+    void countMiss() {
+        missCount++;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Returns the time spent choosing, saving and removing rows to make room
+     * in the cache, in milliseconds.
+     */
+    public long getEvictionTime() {
+        return evictionTime / 1000000;
+    }
+
+    public String getPolicyName() {
+        return policy == null ? "ACCESS_COUNT"
+                              : policy.getName();
     }
 
     public Iterator getIterator() {
@@ -0,0 +1,82 @@
+/* Copyright (c) 2001-2019, The HSQL Development Group
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of the HSQL Development Group nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL HSQL DEVELOPMENT GROUP, HSQLDB.ORG,
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.hsqldb.persist;
+
+/**
+ * Eviction policy for the rows of a Cache.<p>
+ *
+ * The Cache keeps the rows in its own hash map and asks the policy which
+ * row to evict when it is full. All methods except access() are called by
+ * the thread holding the write lock of the DataFileCache. access() is called
+ * concurrently by threads holding the read lock and must not block.<p>
+ *
+ * The default policy, ACCESS_COUNT, is the access count based cleanup built
+ * into Cache and has no CachePolicy object.
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public interface CachePolicy {
+
+    int ACCESS_COUNT = 0;
+    int TINY_LFU     = 1;
+
+    /**
+     * Records a cache hit for the row at pos.
+     */
+    void access(long pos);
+
+    /**
+     * Adds a row that has just been put in the cache.
+     */
+    void add(CachedObject object);
+
+    /**
+     * Removes a row that has been released from the cache.
+     */
+    void remove(long pos);
+
+    /**
+     * Removes the row chosen for eviction from the policy and returns it,
+     * or null if the policy holds no rows.
+     */
+    CachedObject evict();
+
+    /**
+     * Adds back a row returned by evict() that cannot leave the cache.
+     */
+    void retain(CachedObject object);
+
+    void clear();
+
+    String getName();
+}
@@ -0,0 +1,407 @@
+/* Copyright (c) 2001-2019, The HSQL Development Group
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of the HSQL Development Group nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL HSQL DEVELOPMENT GROUP, HSQLDB.ORG,
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.hsqldb.persist;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.hsqldb.map.BaseHashMap;
+
+/**
+ * W-TinyLFU eviction policy.<p>
+ *
+ * New rows enter an LRU window of 5% of the capacity. Rows leaving the window
+ * join the probation segment of the main area, where they compete with the
+ * least recently used probation row: the one with the lower estimated access
+ * frequency is evicted. A probation row that is accessed again moves to the
+ * protected segment, which holds up to 80% of the main area. Frequencies are
+ * estimated with a count-min sketch that is halved periodically, so rows read
+ * once by a full table scan do not displace the rows that are used repeatedly.
+ * The window is larger than the 1% commonly used, because an index scan
+ * touches each row again when it returns from the row's subtree; with a
+ * smaller window these rows are promoted as if they were reused.<p>
+ *
+ * Hits are recorded by the readers in a lossy ring buffer, without locking,
+ * and replayed on the segments when the buffer fills up (if the policy lock
+ * is free) or before an eviction. Each eviction removes a single row.
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public class CachePolicyTinyLFU implements CachePolicy {
+
+    static final int WINDOW       = 0;
+    static final int PROBATION    = 1;
+    static final int PROTECTED    = 2;
+    static final int BUFFER_SIZE  = 256;
+    static final int DRAIN_PERIOD = 64;
+
+    //
+    private final ReentrantLock lock = new ReentrantLock();
+    private final NodeMap       nodes;
+    private final Node[]        heads = new Node[]{
+        new Node(), new Node(), new Node()
+    };
+    private final int[]         counts = new int[3];
+    private final int           windowCapacity;
+    private final FrequencySketch sketch;
+
+    //
+    private final AtomicLongArray readBuffer =
+        new AtomicLongArray(BUFFER_SIZE);
+    private final AtomicLong readCount = new AtomicLong();
+    private long             drainCount;
+
+    CachePolicyTinyLFU(int capacity) {
+
+        nodes          = new NodeMap(capacity);
+        windowCapacity = Math.max(1, capacity / 20);
+        sketch         = new FrequencySketch(capacity);
+    }
+
+    public void access(long pos) {
+
+        long count = readCount.getAndIncrement();
+
+        readBuffer.lazySet((int) (count & (BUFFER_SIZE - 1)), pos);
+
+        if (((count + 1) & (DRAIN_PERIOD - 1)) == 0 && lock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public void add(CachedObject object) {
+
+        lock.lock();
+
+        try {
+            long pos      = object.getPos();
+            Node node     = new Node();
+            Node existing = nodes.get(pos);
+
+            if (existing != null) {
+                unlink(existing);
+            }
+
+            node.pos    = pos;
+            node.object = object;
+
+            sketch.increment(pos);
+            nodes.put(pos, node);
+            link(node, WINDOW);
+
+            if (counts[WINDOW] > windowCapacity) {
+                Node first = heads[WINDOW].next;
+
+                unlink(first);
+                link(first, PROBATION);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void remove(long pos) {
+
+        lock.lock();
+
+        try {
+            Node node = nodes.remove(pos);
+
+            if (node != null) {
+                unlink(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public CachedObject evict() {
+
+        lock.lock();
+
+        try {
+            drainReadBuffer();
+
+            Node node;
+
+            if (counts[PROBATION] > 0) {
+                Node victim    = heads[PROBATION].next;
+                Node candidate = heads[PROBATION].prev;
+
+                // the candidate is the last row admitted from the window
+                node = sketch.frequency(candidate.pos)
+                       > sketch.frequency(victim.pos) ? victim
+                                                      : candidate;
+            } else if (counts[PROTECTED] > 0) {
+                node = heads[PROTECTED].next;
+            } else if (counts[WINDOW] > 0) {
+                node = heads[WINDOW].next;
+            } else {
+                return null;
+            }
+
+            unlink(node);
+            nodes.remove(node.pos);
+
+            return node.object;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void retain(CachedObject object) {
+
+        lock.lock();
+
+        try {
+            Node node = new Node();
+
+            node.pos    = object.getPos();
+            node.object = object;
+
+            nodes.put(node.pos, node);
+            link(node, PROTECTED);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+
+        lock.lock();
+
+        try {
+            nodes.clear();
+
+            for (int i = 0; i < heads.length; i++) {
+                heads[i].next = heads[i];
+                heads[i].prev = heads[i];
+                counts[i]     = 0;
+            }
+
+            drainCount = readCount.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String getName() {
+        return "TINY_LFU";
+    }
+
+    /**
+     * Replays the hits recorded since the last drain. Hits overwritten in
+     * the ring buffer before the drain are lost.
+     */
+    private void drainReadBuffer() {
+
+        long limit = readCount.get();
+        long start = Math.max(drainCount, limit - BUFFER_SIZE);
+
+        for (long i = start; i < limit; i++) {
+            long pos  = readBuffer.get((int) (i & (BUFFER_SIZE - 1)));
+            Node node = nodes.get(pos);
+
+            if (node == null) {
+                continue;
+            }
+
+            sketch.increment(pos);
+
+            switch (node.queue) {
+
+                case WINDOW :
+                case PROTECTED :
+                    unlink(node);
+                    link(node, node.queue);
+                    break;
+
+                case PROBATION :
+                    unlink(node);
+                    link(node, PROTECTED);
+
+                    int mainCount = counts[PROBATION] + counts[PROTECTED];
+
+                    if (counts[PROTECTED] > mainCount - mainCount / 5) {
+                        Node first = heads[PROTECTED].next;
+
+                        unlink(first);
+                        link(first, PROBATION);
+                    }
+                    break;
+
+                default :
+            }
+        }
+
+        drainCount = limit;
+    }
+
+    private void link(Node node, int queue) {
+
+        Node head = heads[queue];
+
+        node.queue     = queue;
+        node.prev      = head.prev;
+        node.next      = head;
+        head.prev.next = node;
+        head.prev      = node;
+
+        counts[queue]++;
+    }
+
+    private void unlink(Node node) {
+
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev      = null;
+        node.next      = null;
+
+        counts[node.queue]--;
+    }
+
+    /**
+     * Row entry in one of the circular lists headed by the heads array, from
+     * least to most recently used.
+     */
+    static final class Node {
+
+        long         pos;
+        CachedObject object;
+        int          queue;
+        Node         prev = this;
+        Node         next = this;
+    }
+
+    static final class NodeMap extends BaseHashMap {
+
+        NodeMap(int initialCapacity) {
+            super(initialCapacity, BaseHashMap.longKeyOrValue,
+                  BaseHashMap.objectKeyOrValue, false);
+        }
+
+        Node get(long pos) {
+
+            int lookup = getLookup(pos);
+
+            return lookup == -1 ? null
+                                : (Node) objectValueTable[lookup];
+        }
+
+        void put(long pos, Node node) {
+            super.addOrRemove(pos, 0, null, node, false);
+        }
+
+        Node remove(long pos) {
+            return (Node) super.addOrRemove(pos, 0, null, null, true);
+        }
+    }
+
+    /**
+     * Count-min sketch of four rows of 4-bit counters. All counters are
+     * halved after ten increments per cached row, so that old accesses lose
+     * weight.
+     */
+    static final class FrequencySketch {
+
+        private static final long[] SEEDS = new long[] {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+            0xcbf29ce484222325L
+        };
+        private final long[] table;
+        private final int    tableMask;
+        private final int    sampleSize;
+        private int          additions;
+
+        FrequencySketch(int capacity) {
+
+            int size = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+
+            table      = new long[size];
+            tableMask  = size - 1;
+            sampleSize = 10 * Math.max(capacity, 16);
+        }
+
+        int frequency(long pos) {
+
+            int frequency = Integer.MAX_VALUE;
+
+            for (int i = 0; i < SEEDS.length; i++) {
+                long hash  = hash(pos, i);
+                int  index = (int) (hash >>> 40) & tableMask;
+                int  shift = (((int) hash & 3) << 2) + (i << 4);
+                int  count = (int) ((table[index] >>> shift) & 0xf);
+
+                frequency = Math.min(frequency, count);
+            }
+
+            return frequency;
+        }
+
+        void increment(long pos) {
+
+            boolean added = false;
+
+            for (int i = 0; i < SEEDS.length; i++) {
+                long hash  = hash(pos, i);
+                int  index = (int) (hash >>> 40) & tableMask;
+                int  shift = (((int) hash & 3) << 2) + (i << 4);
+
+                if (((table[index] >>> shift) & 0xf) != 0xf) {
+                    table[index] += 1L << shift;
+                    added        = true;
+                }
+            }
+
+            if (added && ++additions == sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+                }
+
+                additions /= 2;
+            }
+        }
+
+        private static long hash(long pos, int i) {
+
+            long hash = (pos + SEEDS[i]) * SEEDS[(i + 1) & 3];
+
+            return hash ^ (hash >>> 29);
+        }
+    }
+}
@@ -31,9 +31,11 @@
 
 package org.hsqldb.persist;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.hsqldb.Database;
@@ -48,6 +50,7 @@ import org.hsqldb.lib.IntIndex;
 import org.hsqldb.map.BitMap;
 import org.hsqldb.rowio.RowInputBinary180;
 import org.hsqldb.rowio.RowInputBinaryDecode;
+import org.hsqldb.rowio.RowInputBinaryMapped;
 import org.hsqldb.rowio.RowInputInterface;
 import org.hsqldb.rowio.RowOutputBinary180;
 import org.hsqldb.rowio.RowOutputBinaryEncode;
@@ -129,15 +132,40 @@ public class DataFileCache {
     protected volatile long         fileFreePosition;
     protected int                   maxCacheRows;     // number of Rows
     protected long                  maxCacheBytes;    // number of bytes
+    protected int                   cachePolicy;      // CachePolicy type
+    protected int                   readAheadSize;    // number of bytes
     protected Cache                 cache;
+    protected DataFileReadAhead     readAhead;
 
     //
     private RAShadowFile shadowFile;
 
     //
-    ReadWriteLock lock      = new ReentrantReadWriteLock();
-    Lock          readLock  = lock.readLock();
-    Lock          writeLock = lock.writeLock();
+    ReentrantReadWriteLock lock      = new ReentrantReadWriteLock();
+    Lock                   readLock  = lock.readLock();
+    Lock                   writeLock = lock.writeLock();
+
+    // rows missing from the cache are read and decoded with one of several
+    // input buffers, chosen by file position, holding its latch and only the
+    // read lock; rows are read at their position without the file pointer,
+    // and fileReadLock serializes seek and read on files that cannot do that
+    static final int                  rowLatchBits   = 4;
+    private final Lock[]              rowLatches     =
+        newLocks(1 << rowLatchBits);
+    private final RowInputInterface[] rowLatchInputs =
+        new RowInputInterface[1 << rowLatchBits];
+    private final Lock                fileReadLock   = new ReentrantLock();
+
+    // reads of a missing row before it is read under the locks
+    static final int readRetries = 3;
+
+    // bytes read at the position of a missing row, enough for most rows
+    static final int rowReadSize = 4096;
+
+    // counts of rows saved or released, by file position, incremented under
+    // the write lock
+    static final int     rowChangeBits   = 8;
+    private final long[] rowChangeCounts = new long[1 << rowChangeBits];
 
     public DataFileCache(Database db, String baseFileName) {
 
@@ -197,6 +225,8 @@ public class DataFileCache {
         cacheReadonly = database.isFilesReadOnly();
         maxCacheRows  = database.logger.getCacheMaxRows();
         maxCacheBytes = database.logger.getCacheSize();
+        cachePolicy   = database.logger.getCachePolicy();
+        readAheadSize = database.logger.getCacheReadAheadSize();
         maxDataFileSize = (long) Integer.MAX_VALUE * dataFileScale
                           * database.logger.getDataFileFactor();
 
@@ -205,6 +235,12 @@ public class DataFileCache {
             this.backupFileName = backupFileName + Logger.newFileExtension;
             this.maxCacheRows   = 1024;
             this.maxCacheBytes  = 1024 * 4096;
+            this.cachePolicy    = CachePolicy.ACCESS_COUNT;
+            this.readAheadSize  = 0;
+        }
+
+        if (readAheadSize > 0) {
+            readAhead = new DataFileReadAhead(this, readAheadSize);
         }
     }
 
@@ -638,6 +674,10 @@ public class DataFileCache {
                 shadowFile = null;
             }
 
+            if (readAhead != null) {
+                readAhead.terminate();
+            }
+
             dataFile.close();
             logDetailEvent("dataFileCache file closed");
 
@@ -663,6 +703,11 @@ public class DataFileCache {
             }
 
             reset();
+
+            if (readAhead != null) {
+                readAhead.terminate();
+            }
+
             dataFile.close();
             logDetailEvent("dataFileCache file close end");
 
@@ -693,6 +738,7 @@ public class DataFileCache {
         writeLock.lock();
 
         try {
+            countRowChanges();
             cache.clear();
         } finally {
             writeLock.unlock();
@@ -804,12 +850,52 @@ public class DataFileCache {
         }
 
         if (rowIn == null) {
-            if (is180) {
-                rowIn = new RowInputBinary180(new byte[initIOBufferSize]);
-            } else {
-                rowIn = new RowInputBinaryDecode(database.logger.getCrypto(),
-                                                 new byte[initIOBufferSize]);
-            }
+            rowIn = newRowInput();
+        }
+    }
+
+    private RowInputInterface newRowInput() {
+
+        if (is180) {
+            return new RowInputBinary180(new byte[initIOBufferSize]);
+        } else if (database.logger.getCrypto() == null) {
+            return new RowInputBinaryMapped(new byte[initIOBufferSize]);
+        } else {
+            return new RowInputBinaryDecode(database.logger.getCrypto(),
+                                            new byte[initIOBufferSize]);
+        }
+    }
+
+    private static Lock[] newLocks(int count) {
+
+        Lock[] locks = new Lock[count];
+
+        for (int i = 0; i < count; i++) {
+            locks[i] = new ReentrantLock();
+        }
+
+        return locks;
+    }
+
+    private static int getPositionIndex(long pos, int bits) {
+
+        int hash = (int) (pos ^ (pos >>> 32)) * 0x9E3779B9;
+
+        return hash >>> (32 - bits);
+    }
+
+    private void countRowChange(long pos) {
+        rowChangeCounts[getPositionIndex(pos, rowChangeBits)]++;
+    }
+
+    private void countRowChanges() {
+
+        for (int i = 0; i < rowChangeCounts.length; i++) {
+            rowChangeCounts[i]++;
+        }
+
+        if (readAhead != null) {
+            readAhead.invalidate();
         }
     }
 
@@ -824,6 +910,7 @@ public class DataFileCache {
 
             dfd.process(session);
             close();
+            countRowChanges();
             cache.clear();
 
             if (!database.logger.propIncrementBackup) {
@@ -987,88 +1074,221 @@ public class DataFileCache {
         return getFromFile(pos, store, keep);
     }
 
+    /**
+     * Reads and decodes the row holding only the read lock, so that cache
+     * hits in other threads are not blocked, then puts it in the cache under
+     * the write lock.<p>
+     *
+     * The row actions of the store are set while the write lock is held, so
+     * that an action added and then evicted with the cached copy of the row
+     * is not missed. The lock of the store is not waited for, as it may be
+     * held by a thread waiting for this cache; the row is read again instead.
+     * If a row at a nearby position was saved or released in the meantime,
+     * the data read may be out of date and the row is also read again. The
+     * change count is read without the lock: an out of date value can only
+     * cause an unnecessary read.<p>
+     *
+     * After readRetries reads the row is read holding the lock of the store
+     * and then the write lock. A thread that already holds the write lock
+     * cannot wait for the store and keeps reading; the change count cannot
+     * move while it holds the write lock.
+     */
     private CachedObject getFromFile(long pos, PersistentStore store,
                                      boolean keep) {
 
-        CachedObject object = null;
+        CachedObject object;
+        int          changeIndex = getPositionIndex(pos, rowChangeBits);
 
-        writeLock.lock();
+        cache.countMiss();
+
+        if (readAhead != null) {
+            readAhead.access(store, pos * dataFileScale);
+        }
 
         try {
-            object = cache.get(pos);
+            for (int i = 0;
+                    i < readRetries || lock.isWriteLockedByCurrentThread();
+                    i++) {
+                long changeCount = rowChangeCounts[changeIndex];
+
+                object = readFromFile(pos, store);
+
+                writeLock.lock();
+
+                try {
+                    CachedObject existing = cache.get(pos);
+
+                    if (existing != null) {
+                        object = existing;
+                    } else if (changeCount == rowChangeCounts[changeIndex]
+                               && trySet(store, object)) {
+
+                        // for text tables with empty rows at the beginning,
+                        // pos may move forward in readObject
+                        cache.put(object);
+                    } else {
+                        continue;
+                    }
+
+                    if (keep) {
+                        object.keepInMemory(true);
+                    }
+
+                    return object;
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+
+            return getFromFileLocked(pos, store, keep);
+        } catch (HsqlException e) {
+            logSevereEvent(dataFileName + " getFromFile failed " + pos, e);
+
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the row under the write lock, with the row actions of the store
+     * locked first, in the same order as the threads that use the cache
+     * while they hold the lock of the store.
+     */
+    private CachedObject getFromFileLocked(long pos, PersistentStore store,
+                                           boolean keep) {
+
+        RowStoreAVLDisk rowStore = store instanceof RowStoreAVLDisk
+                                   ? (RowStoreAVLDisk) store
+                                   : null;
+
+        if (rowStore != null) {
+            rowStore.readLock();
+        }
+
+        try {
+            writeLock.lock();
+
+            try {
+                CachedObject object = cache.get(pos);
+
+                if (object == null) {
+                    object = readFromFile(pos, store);
+
+                    store.set(object);
+                    cache.put(object);
+                }
 
-            if (object != null) {
                 if (keep) {
                     object.keepInMemory(true);
                 }
 
                 return object;
+            } finally {
+                writeLock.unlock();
+            }
+        } finally {
+            if (rowStore != null) {
+                rowStore.readUnlock();
             }
+        }
+    }
 
-            for (int j = 0; j < 2; j++) {
-                try {
-                    readObject(pos);
+    private static boolean trySet(PersistentStore store,
+                                  CachedObject object) {
 
-                    object = store.get(rowIn);
+        if (store instanceof RowStoreAVLDisk) {
+            return ((RowStoreAVLDisk) store).trySet(object);
+        }
 
-                    if (object == null) {
-                        throw Error.error(ErrorCode.GENERAL_IO_ERROR,
-                                          "position " + pos);
-                    }
+        store.set(object);
 
-                    break;
-                } catch (Throwable t) {
-                    if (t instanceof OutOfMemoryError) {
-                        cache.clearUnchanged();
+        return true;
+    }
 
-                        if (j > 0) {
-                            logInfoEvent(dataFileName
-                                         + " getFromFile out of mem " + pos);
+    private CachedObject readFromFile(long pos, PersistentStore store) {
 
-                            HsqlException ex =
-                                Error.error(ErrorCode.OUT_OF_MEMORY, t);
+        // a thread holding the write lock, such as defrag, uses rowIn
+        if (lock.isWriteLockedByCurrentThread()) {
+            return readFromFile(pos, store, rowIn);
+        }
 
-                            ex.info = rowIn;
+        int  index = getPositionIndex(pos, rowLatchBits);
+        Lock latch = rowLatches[index];
 
-                            throw ex;
-                        }
-                    } else if (t instanceof HsqlException) {
-                        ((HsqlException) t).info = rowIn;
+        latch.lock();
 
-                        throw (HsqlException) t;
-                    } else {
-                        HsqlException ex =
-                            Error.error(ErrorCode.GENERAL_IO_ERROR, t);
+        try {
+            if (rowLatchInputs[index] == null) {
+                rowLatchInputs[index] = newRowInput();
+            }
 
-                        ex.info = rowIn;
+            return readFromFile(pos, store, rowLatchInputs[index]);
+        } finally {
+            latch.unlock();
+        }
+    }
 
-                        throw ex;
-                    }
+    private CachedObject readFromFile(long pos, PersistentStore store,
+                                      RowInputInterface in) {
+
+        for (int j = 0; j < 2; j++) {
+            try {
+                CachedObject object;
+
+                // a row read from a mapped file is decoded from the mapping,
+                // which is closed only with the write lock
+                readLock.lock();
+
+                try {
+                    readObject(pos, in);
+
+                    object = store.get(in);
+                } finally {
+                    readLock.unlock();
                 }
-            }
 
-            if (object == null) {
-                throw Error.error(ErrorCode.DATA_FILE_ERROR);
-            }
+                if (object == null) {
+                    throw Error.error(ErrorCode.GENERAL_IO_ERROR,
+                                      "position " + pos);
+                }
 
-            // for text tables with empty rows at the beginning,
-            // pos may move forward in readObject
-            cache.put(object);
+                return object;
+            } catch (Throwable t) {
+                if (t instanceof OutOfMemoryError) {
+                    writeLock.lock();
 
-            if (keep) {
-                object.keepInMemory(true);
-            }
+                    try {
+                        cache.clearUnchanged();
+                    } finally {
+                        writeLock.unlock();
+                    }
 
-            store.set(object);
+                    if (j > 0) {
+                        logInfoEvent(dataFileName + " getFromFile out of mem "
+                                     + pos);
 
-            return object;
-        } catch (HsqlException e) {
-            logSevereEvent(dataFileName + " getFromFile failed " + pos, e);
+                        HsqlException ex = Error.error(ErrorCode.OUT_OF_MEMORY,
+                                                       t);
 
-            throw e;
-        } finally {
-            writeLock.unlock();
+                        ex.info = in;
+
+                        throw ex;
+                    }
+                } else if (t instanceof HsqlException) {
+                    ((HsqlException) t).info = in;
+
+                    throw (HsqlException) t;
+                } else {
+                    HsqlException ex = Error.error(ErrorCode.GENERAL_IO_ERROR,
+                                                   t);
+
+                    ex.info = in;
+
+                    throw ex;
+                }
+            }
         }
+
+        throw Error.error(ErrorCode.DATA_FILE_ERROR);
     }
 
     private CachedObject getFromFile(long pos, int size,
@@ -1089,6 +1309,8 @@ public class DataFileCache {
                 return object;
             }
 
+            cache.countMiss();
+
             for (int j = 0; j < 2; j++) {
                 try {
                     readObject(pos, size);
@@ -1137,7 +1359,7 @@ public class DataFileCache {
         writeLock.lock();
 
         try {
-            readObject(pos);
+            readObject(pos, rowIn);
 
             return rowIn;
         } finally {
@@ -1145,30 +1367,192 @@ public class DataFileCache {
         }
     }
 
-    private void readObject(long pos) {
+    private void readObject(long pos, RowInputInterface in) {
+
+        readLock.lock();
 
         try {
-            dataFile.seek(pos * dataFileScale);
+            if (in instanceof RowInputBinaryMapped
+                    && readMappedObject(pos, (RowInputBinaryMapped) in)) {
+                return;
+            }
+
+            if (readAhead != null
+                    && readAhead.readRow(pos, pos * dataFileScale, in)) {
+                return;
+            }
 
-            int size = dataFile.readInt();
+            readFileObject(pos, in);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Sets the input to the row in the memory mapped .data file, without
+     * copying it. Returns false if the file is not mapped at pos, or the row
+     * continues in the next mapped segment.
+     */
+    private boolean readMappedObject(long pos, RowInputBinaryMapped in) {
 
-            rowIn.resetRow(pos, size);
-            dataFile.read(rowIn.getBuffer(), 4, size - 4);
+        ByteBuffer view = dataFile.getReadBuffer(pos * dataFileScale);
+
+        if (view == null) {
+            return false;
+        }
+
+        int offset    = view.position();
+        int available = view.limit() - offset;
+
+        if (available < 4) {
+            return false;
+        }
+
+        int size = view.getInt(offset);
+
+        if (size < 4 || size > available) {
+            return false;
+        }
+
+        in.resetRow(pos, size, view);
+
+        return true;
+    }
+
+    private void readFileObject(long pos, RowInputInterface in) {
+
+        try {
+            if (!readFileObjectAt(pos, in)) {
+                fileReadLock.lock();
+
+                try {
+                    dataFile.seek(pos * dataFileScale);
+
+                    int size = dataFile.readInt();
+
+                    in.resetRow(pos, size);
+                    dataFile.read(in.getBuffer(), 4, size - 4);
+                } finally {
+                    fileReadLock.unlock();
+                }
+            }
         } catch (Throwable t) {
             logSevereEvent("DataFileCache.readObject", t, pos);
 
             HsqlException ex = Error.error(ErrorCode.DATA_FILE_ERROR, t);
 
-            if (rowIn.getFilePosition() != pos) {
-                rowIn.resetRow(pos, 0);
+            if (in.getFilePosition() != pos) {
+                in.resetRow(pos, 0);
             }
 
-            ex.info = rowIn;
+            ex.info = in;
 
             throw ex;
         }
     }
 
+    /**
+     * Reads the row at its position, without fileReadLock, usually with a
+     * single read that also returns the size. Returns false if the file
+     * cannot read at a position.
+     */
+    private boolean readFileObjectAt(long pos,
+                                     RowInputInterface in)
+                                     throws IOException {
+
+        long   position = pos * dataFileScale;
+        byte[] buffer   = in.getBuffer();
+        int    count    = dataFile.readAt(position, buffer, 0,
+                                          Math.min(buffer.length,
+                                                   rowReadSize));
+
+        if (count < 0) {
+            return false;
+        }
+
+        if (count < 4) {
+            throw new EOFException();
+        }
+
+        int size = ((buffer[0] & 0xff) << 24) | ((buffer[1] & 0xff) << 16)
+                   | ((buffer[2] & 0xff) << 8) | (buffer[3] & 0xff);
+
+        // the buffer is kept, with the bytes read, if the row fits
+        in.resetRow(pos, size);
+
+        int offset = in.getBuffer() == buffer ? count
+                                              : 4;
+
+        if (size <= offset) {
+            return true;
+        }
+
+        count = dataFile.readAt(position + offset, in.getBuffer(), offset,
+                                size - offset);
+
+        if (count < 0) {
+            return false;
+        }
+
+        if (count < size - offset) {
+            throw new EOFException();
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads a window of the file for the read-ahead thread, up to the free
+     * position, and installs it before the read lock is released. Returns
+     * the buffer for the next window.
+     */
+    byte[] readAhead(long position, byte[] buffer) {
+
+        int length = 0;
+
+        readLock.lock();
+
+        try {
+            try {
+
+                // rows in a mapped region are not read ahead
+                if (dataFile != null
+                        && dataFile.getReadBuffer(position) == null) {
+                    long limit = Math.min(fileFreePosition,
+                                          dataFile.length()) - position;
+
+                    length = (int) Math.min(limit, buffer.length);
+
+                    int count = length > 0
+                                ? dataFile.readAt(position, buffer, 0,
+                                                  length)
+                                : 0;
+
+                    if (count < 0) {
+                        fileReadLock.lock();
+
+                        try {
+                            dataFile.seek(position);
+                            dataFile.read(buffer, 0, length);
+                        } finally {
+                            fileReadLock.unlock();
+                        }
+                    } else {
+                        length = count;
+                    }
+                }
+            } catch (Throwable t) {
+                logInfoEvent("DataFileCache.readAhead failed " + position);
+
+                length = 0;
+            }
+
+            return readAhead.install(buffer, length);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
     protected void readObject(long pos, int size) {
 
         try {
@@ -1193,6 +1577,7 @@ public class DataFileCache {
         try {
             cacheModified = true;
 
+            countRowChanges();
             cache.releaseRange(startPos, limitPos);
         } finally {
             writeLock.unlock();
@@ -1206,6 +1591,7 @@ public class DataFileCache {
         try {
             cacheModified = true;
 
+            countRowChanges();
             cache.releaseRange(list, fileBlockItemCount);
         } finally {
             writeLock.unlock();
@@ -1219,6 +1605,8 @@ public class DataFileCache {
         try {
             cacheModified = true;
 
+            countRowChange(pos);
+
             return cache.release(pos);
         } finally {
             writeLock.unlock();
@@ -1273,6 +1661,13 @@ public class DataFileCache {
 
     public void saveRowOutput(long pos) {
 
+        countRowChange(pos);
+
+        if (readAhead != null) {
+            readAhead.invalidate(pos * dataFileScale,
+                                 rowOut.getOutputStream().size());
+        }
+
         try {
             dataFile.seek(pos * dataFileScale);
             dataFile.write(rowOut.getOutputStream().getBuffer(), 0,
@@ -1286,6 +1681,13 @@ public class DataFileCache {
 
     protected void saveRowNoLock(CachedObject row) {
 
+        countRowChange(row.getPos());
+
+        if (readAhead != null) {
+            readAhead.invalidate(row.getPos() * dataFileScale,
+                                 row.getStorageSize());
+        }
+
         try {
             rowOut.reset();
             row.write(rowOut);
@@ -1545,6 +1947,31 @@ public class DataFileCache {
         return cache.size();
     }
 
+    public String getCachePolicyName() {
+        return cache.getPolicyName();
+    }
+
+    public long getCacheHitCount() {
+        return cache.getHitCount();
+    }
+
+    public long getCacheMissCount() {
+        return cache.getMissCount();
+    }
+
+    public long getCacheEvictionCount() {
+        return cache.getEvictionCount();
+    }
+
+    public long getCacheEvictionTime() {
+        return cache.getEvictionTime();
+    }
+
+    public long getCacheReadAheadCount() {
+        return readAhead == null ? 0
+                                 : readAhead.getHitCount();
+    }
+
     public String getFileName() {
         return dataFileName;
     }
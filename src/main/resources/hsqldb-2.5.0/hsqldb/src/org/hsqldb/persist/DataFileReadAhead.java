@@ -0,0 +1,396 @@
+/* Copyright (c) 2001-2019, The HSQL Development Group
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of the HSQL Development Group nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL HSQL DEVELOPMENT GROUP, HSQLDB.ORG,
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+
+package org.hsqldb.persist;
+
+import org.hsqldb.rowio.RowInputInterface;
+
+/**
+ * Read-ahead of the .data file for sequential scans of CACHED tables.<p>
+ *
+ * The DataFileCache reports each row that is missing from its cache. Misses
+ * of the same store at nearby file positions form a stream, which moves
+ * forward with its furthest miss; an index scan also misses the parents of
+ * the rows it visits, which are behind. Once a stream has moved forward
+ * three times, the following window of the file is requested and read in
+ * one call by a background thread, which stays at least one window ahead of
+ * the stream until it stops. Rows that are missed
+ * later are then copied from the window instead of being read from the file
+ * one by one. Each stream is followed separately, so several scans, of the
+ * same or different tables, can be read ahead at the same time.<p>
+ *
+ * The windows hold the raw bytes of the file and are dropped when a row in
+ * their range is saved. Windows are read and installed only while the read
+ * lock of the DataFileCache is held, so a window read before a save to its
+ * range is never used.
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public class DataFileReadAhead implements Runnable {
+
+    static final int streamCount      = 8;
+    static final int blockCount       = 4;
+    static final int sequentialMisses = 3;
+
+    //
+    private final DataFileCache cache;
+    private final int           windowSize;
+    private final Stream[]      streams  = new Stream[streamCount];
+    private final Block[]       blocks   = new Block[blockCount];
+    private final long[]        requests = new long[blockCount];
+    private int                 requestCount;
+    private long                useCount;
+    private long                hitCount;
+
+    // the window being read by the background thread
+    private long    loadPosition = -1;
+    private boolean loadChanged;
+
+    //
+    private Thread thread;
+
+    DataFileReadAhead(DataFileCache cache, int windowSize) {
+
+        this.cache      = cache;
+        this.windowSize = windowSize;
+
+        for (int i = 0; i < streamCount; i++) {
+            streams[i] = new Stream();
+        }
+
+        for (int i = 0; i < blockCount; i++) {
+            blocks[i] = new Block();
+        }
+    }
+
+    /**
+     * Records a cache miss for the row of the store at filePos and requests
+     * the next window if the misses of the store are sequential.
+     */
+    synchronized void access(PersistentStore store, long filePos) {
+
+        Stream stream = null;
+        Stream oldest = streams[0];
+
+        for (int i = 0; i < streamCount; i++) {
+            Stream current = streams[i];
+
+            if (current.store == store
+                    && Math.abs(filePos - current.lastPosition)
+                       <= windowSize) {
+                stream = current;
+
+                break;
+            }
+
+            if (current.lastUse < oldest.lastUse) {
+                oldest = current;
+            }
+        }
+
+        if (stream == null) {
+            stream               = oldest;
+            stream.store         = store;
+            stream.missCount     = 0;
+            stream.lastPosition  = filePos;
+            stream.aheadPosition = filePos;
+        }
+
+        stream.lastUse = ++useCount;
+
+        if (filePos <= stream.lastPosition) {
+            return;
+        }
+
+        stream.lastPosition = filePos;
+
+        stream.missCount++;
+
+        if (stream.missCount < sequentialMisses
+                || filePos + windowSize <= stream.aheadPosition) {
+            return;
+        }
+
+        long position = getUncoveredPosition(Math.max(stream.aheadPosition,
+            filePos));
+
+        stream.aheadPosition = position + windowSize;
+
+        if (position < filePos + windowSize
+                && position < cache.getFileFreePos()) {
+            request(position);
+        }
+    }
+
+    /**
+     * Copies the row at filePos to the input buffer if it is held in a
+     * window. Called with the read lock of the DataFileCache.
+     */
+    synchronized boolean readRow(long pos, long filePos,
+                                 RowInputInterface in) {
+
+        for (int i = 0; i < blockCount; i++) {
+            Block block  = blocks[i];
+            long  offset = filePos - block.position;
+
+            if (block.position < 0 || offset < 0
+                    || offset + 4 > block.length) {
+                continue;
+            }
+
+            byte[] data  = block.data;
+            int    start = (int) offset;
+            int size = ((data[start] & 0xff) << 24)
+                       + ((data[start + 1] & 0xff) << 16)
+                       + ((data[start + 2] & 0xff) << 8)
+                       + (data[start + 3] & 0xff);
+
+            if (size < 4 || start + size > block.length) {
+                return false;
+            }
+
+            in.resetRow(pos, size);
+            System.arraycopy(data, start + 4, in.getBuffer(), 4, size - 4);
+
+            block.lastUse = ++useCount;
+
+            hitCount++;
+
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Drops the windows that overlap a row being saved. Called with the
+     * write lock of the DataFileCache.
+     */
+    synchronized void invalidate(long filePos, int length) {
+
+        for (int i = 0; i < blockCount; i++) {
+            Block block = blocks[i];
+
+            if (block.position >= 0 && filePos < block.position + block.length
+                    && filePos + length > block.position) {
+                block.position = -1;
+            }
+        }
+
+        if (loadPosition >= 0 && filePos < loadPosition + windowSize
+                && filePos + length > loadPosition) {
+            loadChanged = true;
+        }
+    }
+
+    /**
+     * Drops all the windows and requests. Called with the write lock of the
+     * DataFileCache.
+     */
+    synchronized void invalidate() {
+
+        for (int i = 0; i < blockCount; i++) {
+            blocks[i].position = -1;
+        }
+
+        for (int i = 0; i < streamCount; i++) {
+            streams[i].store = null;
+        }
+
+        requestCount = 0;
+        loadChanged  = loadPosition >= 0;
+    }
+
+    /**
+     * Drops all the windows and stops the background thread. The thread is
+     * started again by the next request.
+     */
+    synchronized void terminate() {
+
+        invalidate();
+
+        thread = null;
+
+        notifyAll();
+    }
+
+    synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the first position from filePos onwards that is not in a
+     * window that is held, being read or requested.
+     */
+    private long getUncoveredPosition(long filePos) {
+
+        boolean moved = true;
+
+        while (moved) {
+            moved = false;
+
+            for (int i = 0; i < blockCount; i++) {
+                Block block = blocks[i];
+
+                if (block.position >= 0 && filePos >= block.position
+                        && filePos < block.position + block.length) {
+                    filePos = block.position + block.length;
+                    moved   = true;
+                }
+            }
+
+            if (loadPosition >= 0 && filePos >= loadPosition
+                    && filePos < loadPosition + windowSize) {
+                filePos = loadPosition + windowSize;
+                moved   = true;
+            }
+
+            for (int i = 0; i < requestCount; i++) {
+                if (filePos >= requests[i]
+                        && filePos < requests[i] + windowSize) {
+                    filePos = requests[i] + windowSize;
+                    moved   = true;
+                }
+            }
+        }
+
+        return filePos;
+    }
+
+    private void request(long position) {
+
+        // the oldest request is dropped when the thread falls behind
+        if (requestCount == blockCount) {
+            System.arraycopy(requests, 1, requests, 0, --requestCount);
+        }
+
+        requests[requestCount++] = position;
+
+        if (thread == null) {
+            thread = new Thread(this);
+
+            thread.setName("HSQLDB Read Ahead @"
+                           + Integer.toHexString(hashCode()));
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Reads the requested windows until terminate() is called.
+     */
+    public void run() {
+
+        Thread current = Thread.currentThread();
+        byte[] buffer  = new byte[windowSize];
+
+        while (true) {
+            long position;
+
+            synchronized (this) {
+                while (requestCount == 0 && thread == current) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        thread = null;
+                    }
+                }
+
+                if (thread != current) {
+                    return;
+                }
+
+                position     = requests[0];
+                loadPosition = position;
+                loadChanged  = false;
+
+                System.arraycopy(requests, 1, requests, 0, --requestCount);
+            }
+
+            buffer = cache.readAhead(position, buffer);
+        }
+    }
+
+    /**
+     * Installs a window read by the background thread, unless a row in its
+     * range has been saved in the meantime. Returns the buffer to be used
+     * for the next window. Called with the read lock of the DataFileCache.
+     */
+    synchronized byte[] install(byte[] data, int length) {
+
+        long position = loadPosition;
+
+        loadPosition = -1;
+
+        if (loadChanged || length <= 0) {
+            return data;
+        }
+
+        Block oldest = blocks[0];
+
+        for (int i = 1; i < blockCount; i++) {
+            if (blocks[i].lastUse < oldest.lastUse) {
+                oldest = blocks[i];
+            }
+        }
+
+        byte[] free = oldest.data;
+
+        oldest.data     = data;
+        oldest.position = position;
+        oldest.length   = length;
+        oldest.lastUse  = ++useCount;
+
+        return free == null ? new byte[windowSize]
+                            : free;
+    }
+
+    static final class Stream {
+
+        PersistentStore store;
+        long            lastPosition;
+        long            aheadPosition;
+        long            lastUse;
+        int             missCount;
+    }
+
+    static final class Block {
+
+        long   position = -1;
+        int    length;
+        byte[] data;
+        long   lastUse;
+    }
+}
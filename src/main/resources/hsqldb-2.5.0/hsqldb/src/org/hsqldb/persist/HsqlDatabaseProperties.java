@@ -233,6 +233,9 @@ public class HsqlDatabaseProperties extends HsqlProperties {
     public static final String hsqldb_cache_free_count =
         "hsqldb.cache_free_count";
     public static final String hsqldb_cache_rows = "hsqldb.cache_rows";
+    public static final String hsqldb_cache_policy = "hsqldb.cache_policy";
+    public static final String hsqldb_cache_read_ahead =
+        "hsqldb.cache_read_ahead";
     public static final String hsqldb_cache_size = "hsqldb.cache_size";
     public static final String hsqldb_default_table_type =
         "hsqldb.default_table_type";
@@ -240,6 +243,7 @@ public class HsqlDatabaseProperties extends HsqlProperties {
     public static final String hsqldb_files_readonly = "files_readonly";
     public static final String hsqldb_lock_file      = "hsqldb.lock_file";
     public static final String hsqldb_log_data       = "hsqldb.log_data";
+    public static final String hsqldb_log_binary     = "hsqldb.log_binary";
     public static final String hsqldb_log_size       = "hsqldb.log_size";
     public static final String hsqldb_nio_data_file  = "hsqldb.nio_data_file";
     public static final String hsqldb_nio_max_size   = "hsqldb.nio_max_size";
@@ -408,6 +412,9 @@ public class HsqlDatabaseProperties extends HsqlProperties {
         dbMeta.put(hsqldb_log_data,
                    HsqlProperties.getMeta(hsqldb_log_data, SQL_PROPERTY,
                                           true));
+        dbMeta.put(hsqldb_log_binary,
+                   HsqlProperties.getMeta(hsqldb_log_binary, SQL_PROPERTY,
+                                          false));
         dbMeta.put(hsqldb_nio_data_file,
                    HsqlProperties.getMeta(hsqldb_nio_data_file, SQL_PROPERTY,
                                           true));
@@ -556,6 +563,12 @@ public class HsqlDatabaseProperties extends HsqlProperties {
         dbMeta.put(hsqldb_cache_rows,
                    HsqlProperties.getMeta(hsqldb_cache_rows, SQL_PROPERTY,
                                           50000, 100, 4 * 1024 * 1024));
+        dbMeta.put(hsqldb_cache_policy,
+                   HsqlProperties.getMeta(hsqldb_cache_policy, SQL_PROPERTY,
+                                          0, 0, 1));
+        dbMeta.put(hsqldb_cache_read_ahead,
+                   HsqlProperties.getMeta(hsqldb_cache_read_ahead,
+                                          SQL_PROPERTY, 0, 0, 16 * 1024));
         dbMeta.put(hsqldb_cache_free_count,
                    HsqlProperties.getMeta(hsqldb_cache_free_count,
                                           SQL_PROPERTY, 512, 0, 4096));
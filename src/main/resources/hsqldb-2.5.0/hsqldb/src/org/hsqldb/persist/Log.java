@@ -48,7 +48,9 @@ import org.hsqldb.lib.FileAccess;
 import org.hsqldb.scriptio.ScriptReaderBase;
 import org.hsqldb.scriptio.ScriptReaderDecode;
 import org.hsqldb.scriptio.ScriptReaderText;
+import org.hsqldb.scriptio.ScriptReaderBinaryLog;
 import org.hsqldb.scriptio.ScriptWriterBase;
+import org.hsqldb.scriptio.ScriptWriterBinaryLog;
 import org.hsqldb.scriptio.ScriptWriterEncode;
 import org.hsqldb.scriptio.ScriptWriterText;
 
@@ -649,15 +651,24 @@ public class Log {
             return;
         }
 
-        Crypto crypto = database.logger.getCrypto();
+        Crypto  crypto = database.logger.getCrypto();
+        boolean binary = database.logger.propLogBinary;
+
+        // a log kept after a failed checkpoint is appended in its own format
+        if (fa.isStreamElement(logFileName)) {
+            binary = ScriptReaderBinaryLog.isBinaryLog(database, logFileName);
+        }
 
         try {
-            if (crypto == null) {
-                dbLogWriter = new ScriptWriterText(database, logFileName,
-                                                   false, false, false);
-            } else {
+            if (crypto != null) {
                 dbLogWriter = new ScriptWriterEncode(database, logFileName,
                                                      crypto);
+            } else if (binary) {
+                dbLogWriter = new ScriptWriterBinaryLog(database, logFileName,
+                        !fa.isStreamElement(logFileName));
+            } else {
+                dbLogWriter = new ScriptWriterText(database, logFileName,
+                                                   false, false, false);
             }
 
             dbLogWriter.setWriteDelay(writeDelay);
@@ -111,6 +111,8 @@ public class Logger implements EventLogInterface {
     int             propMaxFreeBlocks = 512;
     int             propMinReuse      = 0;
     private int     propCacheMaxRows;
+    private int     propCachePolicy;
+    private int     propCacheReadAhead;
     private long    propCacheMaxSize;
     int             propCacheDefragLimit;
     private int     propDataFileScale;
@@ -119,6 +121,7 @@ public class Logger implements EventLogInterface {
     private int     propWriteDelay;
     private int     propLogSize;
     private boolean propLogData = true;
+    boolean         propLogBinary;
     private int     propEventLogLevel;
     int             propSqlLogLevel;
     int             propGC;
@@ -283,6 +286,11 @@ public class Logger implements EventLogInterface {
                 database.databaseProperties.setProperty(
                     HsqlDatabaseProperties.hsqldb_lock_file, false);
             }
+
+            // tuning properties are not saved with the database
+            setURLProperty(HsqlDatabaseProperties.hsqldb_cache_policy);
+            setURLProperty(HsqlDatabaseProperties.hsqldb_cache_read_ahead);
+            setURLProperty(HsqlDatabaseProperties.hsqldb_log_binary);
         }
 
         setVariables();
@@ -358,6 +366,19 @@ public class Logger implements EventLogInterface {
         }
     }
 
+    /**
+     * Applies a database property given in the connection URL when an
+     * existing database is opened.
+     */
+    private void setURLProperty(String name) {
+
+        String value = database.urlProperties.getProperty(name);
+
+        if (value != null) {
+            database.databaseProperties.setDatabaseProperty(name, value);
+        }
+    }
+
     private void setVariables() {
 
         String cryptKey = database.urlProperties.getProperty(
@@ -409,6 +430,12 @@ public class Logger implements EventLogInterface {
         propMaxFreeBlocks = database.databaseProperties.getIntegerProperty(
             HsqlDatabaseProperties.hsqldb_cache_free_count);
         propMaxFreeBlocks = ArrayUtil.getTwoPowerFloor(propMaxFreeBlocks);
+        propCachePolicy = database.databaseProperties.getIntegerProperty(
+            HsqlDatabaseProperties.hsqldb_cache_policy);
+        propCacheReadAhead = database.databaseProperties.getIntegerProperty(
+            HsqlDatabaseProperties.hsqldb_cache_read_ahead);
+        propLogBinary = database.databaseProperties.isPropertyTrue(
+            HsqlDatabaseProperties.hsqldb_log_binary);
 
         if (database.urlProperties.isPropertyTrue(
                 HsqlDatabaseProperties.hsqldb_large_data, false)) {
@@ -1126,6 +1153,21 @@ public class Logger implements EventLogInterface {
         return propCacheMaxRows;
     }
 
+    /**
+     * Returns the CachePolicy type used by the cache of the .data file.
+     */
+    public int getCachePolicy() {
+        return propCachePolicy;
+    }
+
+    /**
+     * Returns the size in bytes of the windows read ahead of sequential
+     * scans of the .data file, or 0 if read-ahead is disabled.
+     */
+    public int getCacheReadAheadSize() {
+        return propCacheReadAhead * 1024;
+    }
+
     public void setCacheSize(int value) {
         propCacheMaxSize = value * 1024L;
     }
@@ -1510,6 +1552,14 @@ public class Logger implements EventLogInterface {
             return String.valueOf(propCacheMaxRows);
         }
 
+        if (HsqlDatabaseProperties.hsqldb_cache_policy.equals(name)) {
+            return String.valueOf(propCachePolicy);
+        }
+
+        if (HsqlDatabaseProperties.hsqldb_cache_read_ahead.equals(name)) {
+            return String.valueOf(propCacheReadAhead);
+        }
+
         if (HsqlDatabaseProperties.hsqldb_cache_size.equals(name)) {
             return String.valueOf(propCacheMaxSize / 1024);
         }
@@ -1550,6 +1600,10 @@ public class Logger implements EventLogInterface {
             return String.valueOf(propLogData);
         }
 
+        if (HsqlDatabaseProperties.hsqldb_log_binary.equals(name)) {
+            return String.valueOf(propLogBinary);
+        }
+
         if (HsqlDatabaseProperties.hsqldb_log_size.equals(name)) {
             return String.valueOf(propLogSize);
         }
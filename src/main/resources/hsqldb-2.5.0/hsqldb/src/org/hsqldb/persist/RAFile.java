@@ -36,6 +36,11 @@ import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 import org.hsqldb.Database;
 import org.hsqldb.error.Error;
@@ -85,6 +90,11 @@ final class RAFile implements RandomAccessInterface {
     long seekPosition;
     int  cacheHit;
 
+    // separate channel for positional reads, as an interrupt during a read
+    // closes the channel it reads from
+    private volatile FileChannel readChannel;
+    private boolean              closed;
+
     /**
      * seekPosition is the position in seek() calls or after reading or writing
      * realPosition is the file position
@@ -315,6 +325,15 @@ final class RAFile implements RandomAccessInterface {
     }
 
     public void close() throws IOException {
+
+        synchronized (this) {
+            closed = true;
+
+            if (readChannel != null) {
+                readChannel.close();
+            }
+        }
+
         file.close();
     }
 
@@ -322,6 +341,77 @@ final class RAFile implements RandomAccessInterface {
         return readOnly;
     }
 
+    public ByteBuffer getReadBuffer(long position) {
+        return null;
+    }
+
+    public int readAt(long position, byte[] b, int offset,
+                      int length) throws IOException {
+
+        // the read would close the channel
+        if (Thread.currentThread().isInterrupted()) {
+            return -1;
+        }
+
+        if (position + length > fileLength) {
+            length = (int) Math.max(0, fileLength - position);
+        }
+
+        FileChannel channel = getReadChannel();
+
+        if (channel == null) {
+            return -1;
+        }
+
+        ByteBuffer target = ByteBuffer.wrap(b, offset, length);
+
+        try {
+            while (target.hasRemaining()) {
+                long filePosition = position + target.position() - offset;
+
+                if (channel.read(target, filePosition) < 0) {
+                    break;
+                }
+            }
+        } catch (ClosedChannelException e) {
+
+            // closed by an interrupt, opened again by a later read
+            return -1;
+        } catch (IOException e) {
+            logger.logWarningEvent("failed to read a byte array", e);
+
+            throw e;
+        }
+
+        return target.position() - offset;
+    }
+
+    private FileChannel getReadChannel() {
+
+        FileChannel channel = readChannel;
+
+        if (channel != null && channel.isOpen()) {
+            return channel;
+        }
+
+        synchronized (this) {
+            if (closed) {
+                return null;
+            }
+
+            if (readChannel == null || !readChannel.isOpen()) {
+                try {
+                    readChannel = FileChannel.open(Paths.get(fileName),
+                                                   StandardOpenOption.READ);
+                } catch (IOException e) {
+                    return null;
+                }
+            }
+
+            return readChannel;
+        }
+    }
+
     public boolean ensureLength(long newLength) {
 
         if (newLength <= fileLength) {
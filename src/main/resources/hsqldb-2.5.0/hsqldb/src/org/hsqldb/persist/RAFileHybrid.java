@@ -32,6 +32,7 @@
 package org.hsqldb.persist;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import org.hsqldb.Database;
 
@@ -121,6 +122,15 @@ public final class RAFileHybrid implements RandomAccessInterface {
         return store.isReadOnly();
     }
 
+    public ByteBuffer getReadBuffer(long position) {
+        return store.getReadBuffer(position);
+    }
+
+    public int readAt(long position, byte[] b, int offset,
+                      int length) throws IOException {
+        return store.readAt(position, b, offset, length);
+    }
+
     public boolean ensureLength(long newLength) {
 
         if (newLength <= initialMaxLength) {
@@ -35,6 +35,7 @@ import java.io.DataInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import org.hsqldb.Database;
 import org.hsqldb.lib.HsqlByteArrayInputStream;
@@ -198,6 +199,14 @@ final class RAFileInJar implements RandomAccessInterface {
         return true;
     }
 
+    public ByteBuffer getReadBuffer(long position) {
+        return null;
+    }
+
+    public int readAt(long position, byte[] b, int offset, int length) {
+        return -1;
+    }
+
     private long getLength() throws IOException {
 
         int count = 0;
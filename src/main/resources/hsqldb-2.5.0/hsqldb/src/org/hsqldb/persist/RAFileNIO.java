@@ -34,6 +34,7 @@ package org.hsqldb.persist;
 import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
@@ -73,6 +74,9 @@ final class RAFileNIO implements RandomAccessInterface {
     //
     private MappedByteBuffer[] buffers = new MappedByteBuffer[]{};
 
+    // read-only views of buffers, never moved, for getReadBuffer()
+    private ByteBuffer[] readBuffers = new ByteBuffer[]{};
+
     //
     private static final String JVM_ERROR = "NIO access failed";
 
@@ -333,6 +337,8 @@ final class RAFileNIO implements RandomAccessInterface {
             buffer  = null;
             channel = null;
 
+            readBuffers = new ByteBuffer[]{};
+
             for (int i = 0; i < buffers.length; i++) {
                 thrown = JavaSystem.unmap(buffers[i]);
 
@@ -357,6 +363,45 @@ final class RAFileNIO implements RandomAccessInterface {
         return readOnly;
     }
 
+    /**
+     * The returned view is a duplicate that can be used by one thread while
+     * other threads read and write the file.
+     */
+    public ByteBuffer getReadBuffer(long position) {
+
+        ByteBuffer[] views = readBuffers;
+        int          index = 0;
+        long         start = 0;
+
+        // a read-only file is mapped with a single buffer
+        if (!readOnly) {
+            index = (int) (position >> largeBufferScale);
+            start = position & largeBufferMask;
+        }
+
+        if (position < 0 || index >= views.length) {
+            return null;
+        }
+
+        ByteBuffer view   = views[index].duplicate();
+        long       offset = position - start;
+
+        if (offset >= view.limit()) {
+            return null;
+        }
+
+        view.position((int) offset);
+
+        return view;
+    }
+
+    /**
+     * Rows outside a single mapped region are rare and read with seek().
+     */
+    public int readAt(long position, byte[] b, int offset, int length) {
+        return -1;
+    }
+
     public boolean ensureLength(long newLength) {
 
         if (newLength > maxLength) {
@@ -394,11 +439,18 @@ final class RAFileNIO implements RandomAccessInterface {
             MappedByteBuffer newBuffer = channel.map(mapMode, fileLength,
                 newBufferLength);
 
-            System.arraycopy(buffers, 0, newBuffers, 0, buffers.length);
+            ByteBuffer[] newReadBuffers =
+                new ByteBuffer[readBuffers.length + 1];
 
-            newBuffers[buffers.length] = newBuffer;
-            buffers                    = newBuffers;
-            fileLength                 += newBufferLength;
+            System.arraycopy(buffers, 0, newBuffers, 0, buffers.length);
+            System.arraycopy(readBuffers, 0, newReadBuffers, 0,
+                             readBuffers.length);
+
+            newBuffers[buffers.length]         = newBuffer;
+            newReadBuffers[readBuffers.length] = newBuffer.asReadOnlyBuffer();
+            buffers                            = newBuffers;
+            readBuffers                        = newReadBuffers;
+            fileLength                         += newBufferLength;
 
             logger.logDetailEvent("NIO buffer instance, file size "
                                   + fileLength);
@@ -34,6 +34,7 @@ package org.hsqldb.persist;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 
 import org.hsqldb.Database;
 import org.hsqldb.error.Error;
@@ -109,6 +110,14 @@ final class RAFileSimple implements RandomAccessInterface {
         return readOnly;
     }
 
+    public ByteBuffer getReadBuffer(long position) {
+        return null;
+    }
+
+    public int readAt(long position, byte[] b, int offset, int length) {
+        return -1;
+    }
+
     public boolean ensureLength(long newLength) {
 
         try {
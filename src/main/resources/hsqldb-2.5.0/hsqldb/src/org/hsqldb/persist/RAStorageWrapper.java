@@ -32,6 +32,7 @@
 package org.hsqldb.persist;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import org.hsqldb.lib.Storage;
 
@@ -100,6 +101,14 @@ final class RAStorageWrapper implements RandomAccessInterface {
         return file.isReadOnly();
     }
 
+    public ByteBuffer getReadBuffer(long position) {
+        return null;
+    }
+
+    public int readAt(long position, byte[] b, int offset, int length) {
+        return -1;
+    }
+
     public boolean ensureLength(long newLong) {
         return true;
     }
@@ -32,6 +32,7 @@
 package org.hsqldb.persist;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
 * @author Fred Toussi (fredt@users dot sourceforge.net)
@@ -64,6 +65,24 @@ public interface RandomAccessInterface {
 
     boolean isReadOnly();
 
+    /**
+     * Returns a read-only view of the memory mapped region of the file that
+     * contains position, with the view positioned at position and limited
+     * to the end of the region, or null if the position is not mapped. The
+     * view is valid until the file is closed or enlarged.
+     */
+    ByteBuffer getReadBuffer(long position);
+
+    /**
+     * Reads up to length bytes at position, fewer only at the end of the
+     * file, without using or moving the file pointer, so that several
+     * threads can read at once. Returns the number of bytes read, or -1 if
+     * the file has no positional read or the read was interrupted; the
+     * caller then reads with seek() and read() instead.
+     */
+    int readAt(long position, byte[] b, int offset,
+               int length) throws IOException;
+
     void synch();
 
     boolean ensureLength(long newLong);
@@ -107,6 +107,30 @@ public class RowStoreAVLDisk extends RowStoreAVL {
         }
     }
 
+    /**
+     * Same as set(), but returns false instead of waiting when the row
+     * actions are locked by another thread. Used by the cache while it
+     * holds its write lock.
+     */
+    boolean trySet(CachedObject object) {
+
+        if (!database.txManager.isMVRows()) {
+            return true;
+        }
+
+        if (!readLock.tryLock()) {
+            return false;
+        }
+
+        try {
+            set(object);
+        } finally {
+            readLock.unlock();
+        }
+
+        return true;
+    }
+
     public CachedObject get(long key) {
 
         CachedObject object = cache.get(key, this, false);
@@ -391,6 +415,15 @@ public class RowStoreAVLDisk extends RowStoreAVL {
                 action = RowAction.addDeleteAction(session, table, row,
                                                    colMap);
             }
+
+            // another session may have read the row again into the cache
+            // before the action was added; the cache does not wait for this
+            // lock, so the cached copy can be fetched while holding it
+            if (action != null && !row.isInMemory()) {
+                Row current = (Row) get(row.getPos(), false);
+
+                current.rowAction = row.rowAction;
+            }
         } finally {
             writeUnlock();
         }
@@ -50,6 +50,7 @@ import org.hsqldb.lib.IntKeyHashMap;
 import org.hsqldb.map.ValuePool;
 import org.hsqldb.result.Result;
 import org.hsqldb.scriptio.ScriptReaderBase;
+import org.hsqldb.scriptio.ScriptReaderBinaryLog;
 import org.hsqldb.scriptio.ScriptReaderDecode;
 import org.hsqldb.scriptio.ScriptReaderText;
 import org.hsqldb.scriptio.StatementLineTypes;
@@ -78,11 +79,14 @@ public class ScriptRunner {
         ScriptReaderBase scr;
 
         try {
-            if (crypto == null) {
-                scr = new ScriptReaderText(database, logFilename, false);
-            } else {
+            if (crypto != null) {
                 scr = new ScriptReaderDecode(database, logFilename, crypto,
                                              true);
+            } else if (ScriptReaderBinaryLog.isBinaryLog(database,
+                    logFilename)) {
+                scr = new ScriptReaderBinaryLog(database, logFilename);
+            } else {
+                scr = new ScriptReaderText(database, logFilename, false);
             }
         } catch (Throwable e) {
 
@@ -0,0 +1,243 @@
+/* Copyright (c) 2001-2019, The HSQL Development Group
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of the HSQL Development Group nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL HSQL DEVELOPMENT GROUP, HSQLDB.ORG,
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+
+package org.hsqldb.rowio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.hsqldb.error.Error;
+import org.hsqldb.error.ErrorCode;
+import org.hsqldb.lib.StringConverter;
+import org.hsqldb.map.ValuePool;
+
+/**
+ * RowInputBinary that can also read a row directly from a memory mapped
+ * region of the .data file, without copying it to the byte[] buffer.<p>
+ *
+ * After resetRow(long, int, ByteBuffer), the values are read from the view
+ * until one of the other reset methods is called; getBuffer() then does not
+ * return the row. The view must remain mapped while the row is read.
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public class RowInputBinaryMapped extends RowInputBinary {
+
+    private ByteBuffer mapped;
+    private int        base;
+
+    public RowInputBinaryMapped(byte[] buf) {
+        super(buf);
+    }
+
+    /**
+     * Sets the row to the size bytes of view, starting at its position.
+     */
+    public void resetRow(long filepos, int rowsize, ByteBuffer view) {
+
+        mark = 0;
+
+        reset();
+
+        mapped  = view;
+        base    = view.position();
+        filePos = filepos;
+        size    = count = rowsize;
+        pos     = 4;
+    }
+
+    public void resetRow(int rowsize) {
+
+        mapped = null;
+
+        super.resetRow(rowsize);
+    }
+
+    public void resetRow(long filepos, int rowsize) {
+
+        mapped = null;
+
+        super.resetRow(filepos, rowsize);
+    }
+
+    public void resetBlock(long filepos, int rowsize) {
+
+        mapped = null;
+
+        super.resetBlock(filepos, rowsize);
+    }
+
+    public int read() {
+
+        if (mapped == null) {
+            return super.read();
+        }
+
+        return (pos < count) ? (mapped.get(base + pos++) & 0xff)
+                             : -1;
+    }
+
+    public int read(byte[] b, int off, int len) {
+
+        if (mapped == null) {
+            return super.read(b, off, len);
+        }
+
+        if (pos >= count) {
+            return -1;
+        }
+
+        if (pos + len > count) {
+            len = count - pos;
+        }
+
+        if (len <= 0) {
+            return 0;
+        }
+
+        // the view belongs to this object and can be positioned
+        mapped.position(base + pos);
+        mapped.get(b, off, len);
+
+        pos += len;
+
+        return len;
+    }
+
+    public short readShort() {
+
+        if (mapped == null) {
+            return super.readShort();
+        }
+
+        checkAvailable(2);
+
+        short value = mapped.getShort(base + pos);
+
+        pos += 2;
+
+        return value;
+    }
+
+    public int readInt() {
+
+        if (mapped == null) {
+            return super.readInt();
+        }
+
+        checkAvailable(4);
+
+        int value = mapped.getInt(base + pos);
+
+        pos += 4;
+
+        return value;
+    }
+
+    public long readLong() {
+
+        if (mapped == null) {
+            return super.readLong();
+        }
+
+        checkAvailable(8);
+
+        long value = mapped.getLong(base + pos);
+
+        pos += 8;
+
+        return value;
+    }
+
+    public String readString() {
+
+        if (mapped == null) {
+            return super.readString();
+        }
+
+        try {
+            int length = readInt();
+
+            if (length < 0) {
+                throw Error.error(ErrorCode.GENERAL_IO_ERROR,
+                                  "RowInputBinary - negative length");
+            }
+
+            checkAvailable(length);
+
+            String s = StringConverter.readUTF(mapped, base + pos, length);
+
+            s   = ValuePool.getString(s);
+            pos += length;
+
+            return s;
+        } catch (IOException e) {
+            throw Error.error(e, ErrorCode.GENERAL_IO_ERROR,
+                              "RowInputBinary" + ' ' + getFilePosition());
+        }
+    }
+
+    public char[] readCharArray() throws IOException {
+
+        if (mapped == null) {
+            return super.readCharArray();
+        }
+
+        int    length = readInt();
+        char[] c      = new char[length];
+
+        if (count - pos < c.length * 2) {
+            pos = count;
+
+            throw new EOFException();
+        }
+
+        for (int i = 0; i < c.length; i++) {
+            c[i] = mapped.getChar(base + pos);
+            pos  += 2;
+        }
+
+        return c;
+    }
+
+    private void checkAvailable(int length) {
+
+        if (count - pos < length) {
+            pos = count;
+
+            throw Error.error(new EOFException(), ErrorCode.GENERAL_IO_ERROR,
+                              "RowInputBinary" + ' ' + getFilePosition());
+        }
+    }
+}
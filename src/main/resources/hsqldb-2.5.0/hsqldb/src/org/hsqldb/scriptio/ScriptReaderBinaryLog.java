@@ -0,0 +1,269 @@
+/* Copyright (c) 2001-2019, The HSQL Development Group
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of the HSQL Development Group nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL HSQL DEVELOPMENT GROUP, HSQLDB.ORG,
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.hsqldb.scriptio;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.hsqldb.Database;
+import org.hsqldb.Session;
+import org.hsqldb.error.Error;
+import org.hsqldb.error.ErrorCode;
+import org.hsqldb.lib.ArrayUtil;
+import org.hsqldb.lib.java.JavaSystem;
+import org.hsqldb.rowio.RowInputBinary;
+import org.hsqldb.types.Type;
+
+/**
+ * Reads back a .log file written by ScriptWriterBinaryLog.<p>
+ *
+ * Each record is returned as one logged statement, with the same statement
+ * types and data as ScriptReaderText, so that ScriptRunner can replay it.
+ * Rows are decoded with RowInputBinary, without parsing SQL. A record cut
+ * short by the end of the file ends the log, as does an incomplete last
+ * line of a text log. A record with a wrong CRC is reported as an error.
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public class ScriptReaderBinaryLog extends ScriptReaderBase {
+
+    InputStream     inputStream;
+    DataInputStream dataInput;
+    RowInputBinary  rowIn;
+    byte[]          buffer = new byte[256];
+    CRC32           crc    = new CRC32();
+
+    public ScriptReaderBinaryLog(Database db,
+                                 String fileName) throws IOException {
+
+        super(db, fileName);
+
+        try {
+            inputStream =
+                db.logger.getFileAccess().openInputStreamElement(fileName);
+            dataInput = new DataInputStream(
+                new BufferedInputStream(inputStream, 1 << 14));
+            rowIn = new RowInputBinary(buffer);
+
+            byte[] header = new byte[ScriptWriterBinaryLog.HEADER.length];
+
+            dataInput.readFully(header);
+
+            if (!Arrays.equals(header, ScriptWriterBinaryLog.HEADER)) {
+                throw new IOException("not a binary log file");
+            }
+        } catch (Throwable t) {
+            close();
+
+            throw JavaSystem.toIOException(t);
+        }
+    }
+
+    /**
+     * Returns true if the file exists and starts with the header written by
+     * ScriptWriterBinaryLog.
+     */
+    public static boolean isBinaryLog(Database db, String fileName) {
+
+        if (!db.logger.getFileAccess().isStreamElement(fileName)) {
+            return false;
+        }
+
+        InputStream in     = null;
+        byte[]      header = new byte[ScriptWriterBinaryLog.HEADER.length];
+
+        try {
+            in = db.logger.getFileAccess().openInputStreamElement(fileName);
+
+            new DataInputStream(in).readFully(header);
+
+            return Arrays.equals(header, ScriptWriterBinaryLog.HEADER);
+        } catch (IOException e) {
+            return false;
+        } finally {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (IOException e) {}
+        }
+    }
+
+    public void readAll(Session session) {
+        throw Error.runtimeError(ErrorCode.U_S0500, "ScriptReaderBinaryLog");
+    }
+
+    protected void readDDL(Session session) {
+        throw Error.runtimeError(ErrorCode.U_S0500, "ScriptReaderBinaryLog");
+    }
+
+    protected void readExistingData(Session session) {
+        throw Error.runtimeError(ErrorCode.U_S0500, "ScriptReaderBinaryLog");
+    }
+
+    public boolean readLoggedStatement(Session session) {
+
+        int length;
+
+        try {
+            length = dataInput.readInt();
+
+            if (length < 1) {
+                throw Error.error(ErrorCode.GENERAL_IO_ERROR,
+                                  "binary log record length " + length);
+            }
+
+            readRecord(length);
+
+            int checksum = dataInput.readInt();
+
+            crc.reset();
+            crc.update(buffer, 0, length);
+
+            if (checksum != (int) crc.getValue()) {
+                throw Error.error(ErrorCode.GENERAL_IO_ERROR,
+                                  "binary log record checksum");
+            }
+        } catch (EOFException e) {
+            return false;
+        } catch (IOException e) {
+            throw Error.error(e, ErrorCode.FILE_IO_ERROR, null);
+        }
+
+        lineCount++;
+
+        rowIn.resetBlock(0, length);
+        processStatement(session, rowIn.readByte());
+
+        return true;
+    }
+
+    /**
+     * Reads the content of a record into buffer. The buffer grows as the
+     * bytes arrive, so a damaged length at the end of the file cannot
+     * allocate more than twice the remaining bytes.
+     */
+    private void readRecord(int length) throws IOException {
+
+        int count = 0;
+
+        while (count < length) {
+            if (count == buffer.length) {
+                int newSize = (int) Math.min(length, buffer.length * 2L);
+
+                buffer = (byte[]) ArrayUtil.resizeArray(buffer, newSize);
+                rowIn  = new RowInputBinary(buffer);
+            }
+
+            int size = Math.min(length, buffer.length) - count;
+
+            dataInput.readFully(buffer, count, size);
+
+            count += size;
+        }
+    }
+
+    private void processStatement(Session session, int type) {
+
+        statementType = type;
+        rowData       = null;
+        currentTable  = null;
+        statement     = null;
+
+        switch (type) {
+
+            case StatementLineTypes.SESSION_ID :
+                sessionNumber = (int) rowIn.readLong();
+
+                return;
+
+            case StatementLineTypes.SET_SCHEMA_STATEMENT :
+                currentSchema = rowIn.readString();
+
+                return;
+
+            case StatementLineTypes.ANY_STATEMENT :
+                statement = rowIn.readString();
+
+                return;
+
+            case StatementLineTypes.COMMIT_STATEMENT :
+                return;
+
+            case StatementLineTypes.INSERT_STATEMENT :
+            case StatementLineTypes.DELETE_STATEMENT :
+                break;
+
+            default :
+                throw Error.error(ErrorCode.GENERAL_IO_ERROR,
+                                  "binary log record type " + type);
+        }
+
+        String name   = rowIn.readString();
+        String schema = session.getCurrentSchemaHsqlName().name;
+
+        currentTable = database.schemaManager.getUserTable(name, schema);
+        currentStore =
+            database.persistentStoreCollection.getStore(currentTable);
+
+        Type[] colTypes;
+
+        if (type == StatementLineTypes.INSERT_STATEMENT) {
+            colTypes = currentTable.getColumnTypes();
+        } else if (currentTable.hasPrimaryKey()) {
+            colTypes = currentTable.getPrimaryKeyTypes();
+        } else {
+            colTypes = currentTable.getColumnTypes();
+        }
+
+        rowData = rowIn.readData(colTypes);
+    }
+
+    public void close() {
+
+        try {
+            if (dataInput != null) {
+                dataInput.close();
+            } else if (inputStream != null) {
+                inputStream.close();
+            }
+        } catch (Exception e) {}
+
+        database.recoveryMode = 0;
+    }
+}
@@ -0,0 +1,247 @@
+/* Copyright (c) 2001-2019, The HSQL Development Group
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of the HSQL Development Group nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL HSQL DEVELOPMENT GROUP, HSQLDB.ORG,
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.hsqldb.scriptio;
+
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+import org.hsqldb.Database;
+import org.hsqldb.NumberSequence;
+import org.hsqldb.Row;
+import org.hsqldb.Session;
+import org.hsqldb.Table;
+import org.hsqldb.error.Error;
+import org.hsqldb.error.ErrorCode;
+import org.hsqldb.rowio.RowOutputBinary;
+
+/**
+ * Writes the .log file in binary form, as an alternative to
+ * ScriptWriterText.<p>
+ *
+ * The file starts with a header, followed by one record for each logged
+ * statement. A record consists of the int length of its content, the
+ * content and the CRC32 of the content. The content begins with the
+ * StatementLineTypes code of the statement. The rows of INSERT and DELETE
+ * statements are encoded with RowOutputBinary after the table name, as in
+ * the .data file. Session changes, schema changes and commits have their
+ * own records. Other statements are stored as SQL text.<p>
+ *
+ * The file is read back by ScriptReaderBinaryLog.
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public class ScriptWriterBinaryLog extends ScriptWriterBase {
+
+    static final byte[] HEADER = new byte[] {
+        0, 'H', 'B', 'L', 0, 0, 0, 1
+    };
+
+    //
+    RowOutputBinary rowOut;
+    CRC32           crc;
+
+    /**
+     * Opens the log file for appending. The header is written if the file
+     * is new.
+     */
+    public ScriptWriterBinaryLog(Database db, String file, boolean newFile) {
+
+        super(db, file, false, false, false);
+
+        // always start with a session record
+        currentSession = null;
+
+        if (newFile) {
+            writeToFile(HEADER, HEADER.length);
+        }
+    }
+
+    protected void initBuffers() {
+
+        rowOut = new RowOutputBinary(256, 1);
+        crc    = new CRC32();
+    }
+
+    protected void writeDataTerm() {}
+
+    protected void writeSessionIdAndSchema(Session session) {
+
+        if (session == null) {
+            return;
+        }
+
+        if (session != currentSession) {
+            startRecord(StatementLineTypes.SESSION_ID);
+            rowOut.writeLong(session.getId());
+            writeRecord();
+
+            currentSession = session;
+        }
+
+        if (schemaToLog != session.loggedSchema) {
+            startRecord(StatementLineTypes.SET_SCHEMA_STATEMENT);
+            rowOut.writeString(schemaToLog.name);
+            writeRecord();
+
+            session.loggedSchema = schemaToLog;
+        }
+    }
+
+    public void writeLogStatement(Session session, String s) {
+
+        if (session != null) {
+            schemaToLog = session.currentSchema;
+
+            writeSessionIdAndSchema(session);
+        }
+
+        startRecord(StatementLineTypes.ANY_STATEMENT);
+        rowOut.writeString(s);
+        writeRecord();
+
+        needsSync = true;
+    }
+
+    public void writeRow(Session session, Row row, Table table) {
+
+        schemaToLog = table.getName().schema;
+
+        writeSessionIdAndSchema(session);
+        startRecord(StatementLineTypes.INSERT_STATEMENT);
+        rowOut.writeString(table.getName().name);
+        rowOut.writeData(row, table.getColumnTypes());
+        writeRecord();
+    }
+
+    public void writeOtherStatement(Session session, String s) {
+
+        writeLogStatement(session, s);
+
+        if (writeDelay == 0) {
+            sync();
+        }
+    }
+
+    public void writeInsertStatement(Session session, Row row, Table table) {
+        writeRow(session, row, table);
+    }
+
+    /**
+     * Only the primary key columns are written if the table has a primary
+     * key.
+     */
+    public void writeDeleteStatement(Session session, Table table,
+                                     Object[] data) {
+
+        schemaToLog = table.getName().schema;
+
+        writeSessionIdAndSchema(session);
+        startRecord(StatementLineTypes.DELETE_STATEMENT);
+        rowOut.writeString(table.getName().name);
+        rowOut.writeData(table.getColumnCount(), table.getColumnTypes(), data,
+                         null, table.getPrimaryKey());
+        writeRecord();
+    }
+
+    public void writeSequenceStatement(Session session, NumberSequence seq) {
+
+        StringBuilder sb = new StringBuilder(64);
+
+        sb.append("ALTER SEQUENCE ");
+        sb.append(seq.getSchemaName().statementName).append('.');
+        sb.append(seq.getName().statementName);
+        sb.append(" RESTART WITH ").append(seq.peek());
+
+        schemaToLog = seq.getName().schema;
+
+        writeSessionIdAndSchema(session);
+        startRecord(StatementLineTypes.ANY_STATEMENT);
+        rowOut.writeString(sb.toString());
+        writeRecord();
+
+        needsSync = true;
+    }
+
+    public void writeCommitStatement(Session session) {
+
+        writeSessionIdAndSchema(session);
+        startRecord(StatementLineTypes.COMMIT_STATEMENT);
+        writeRecord();
+
+        needsSync = true;
+
+        if (writeDelay == 0) {
+            sync();
+        }
+    }
+
+    private void startRecord(int type) {
+
+        rowOut.reset();
+
+        // length, filled in by writeRecord()
+        rowOut.writeInt(0);
+        rowOut.writeByte(type);
+    }
+
+    private void writeRecord() {
+
+        int length = rowOut.size() - RowOutputBinary.INT_STORE_SIZE;
+
+        rowOut.writeIntData(length, 0);
+        crc.reset();
+        crc.update(rowOut.getBuffer(), RowOutputBinary.INT_STORE_SIZE,
+                   length);
+        rowOut.writeInt((int) crc.getValue());
+        writeToFile(rowOut.getBuffer(), rowOut.size());
+
+        lineCount++;
+    }
+
+    private void writeToFile(byte[] buffer, int length) {
+
+        if (fileStreamOut == null) {
+            return;
+        }
+
+        synchronized (fileStreamOut) {
+            try {
+                fileStreamOut.write(buffer, 0, length);
+
+                byteCount += length;
+            } catch (IOException io) {
+                throw Error.error(ErrorCode.FILE_IO_ERROR, outFile);
+            }
+        }
+    }
+}
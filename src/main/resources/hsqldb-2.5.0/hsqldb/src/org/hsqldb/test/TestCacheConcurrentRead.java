@@ -0,0 +1,255 @@
+/* Copyright (c) 2001-2019, The HSQL Development Group
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of the HSQL Development Group nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL HSQL DEVELOPMENT GROUP, HSQLDB.ORG,
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+
+
+package org.hsqldb.test;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+import org.hsqldb.lib.FileUtil;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests concurrent cache misses on a cached table while another session
+ * updates rows, with a cache much smaller than the table.<p>
+ *
+ * Readers check each row they load and an updater moves amounts between
+ * rows, keeping the total constant. With MVCC, stock 2.5.0 could deadlock
+ * between a cache writer waiting for the store lock and a store writer
+ * waiting for a reader that needed the cache; the sessions must all finish
+ * within the time limit. A row read again by a reader while the updater
+ * deletes it must not lose the delete action, or the update fails with a
+ * unique constraint violation. Without a memory mapped .data file the
+ * rows are read at their position by concurrent readers.
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public class TestCacheConcurrentRead extends TestCase {
+
+    static final int  rowCount    = 20000;
+    static final int  readerCount = 3;
+    static final long runMillis   = 4000;
+    static final long joinMillis  = 60000;
+
+    String path;
+    String url;
+
+    public TestCacheConcurrentRead(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+
+        path = new File(System.getProperty("java.io.tmpdir"),
+                        "testcacheconcurrentread"
+                        + System.nanoTime()).getPath() + "/test";
+
+        Class.forName("org.hsqldb.jdbc.JDBCDriver");
+    }
+
+    protected void tearDown() {
+        FileUtil.deleteOrRenameDatabaseFiles(path);
+        new File(path).getParentFile().delete();
+    }
+
+    static String pad(int i) {
+        return "row " + i
+               + " ..................................................";
+    }
+
+    public void testMVCC() throws Exception {
+        runReadersAndUpdater("MVCC", true);
+    }
+
+    public void testLocks() throws Exception {
+        runReadersAndUpdater("LOCKS", true);
+    }
+
+    public void testMVCCWithoutNio() throws Exception {
+        runReadersAndUpdater("MVCC", false);
+    }
+
+    void runReadersAndUpdater(String txMode,
+                              boolean nio) throws Exception {
+
+        url = "jdbc:hsqldb:file:" + path
+              + ";hsqldb.cache_rows=500;hsqldb.cache_size=500;hsqldb.tx="
+              + txMode + ";hsqldb.nio_data_file=" + nio;
+
+        Connection c  = DriverManager.getConnection(url, "SA", "");
+        Statement  st = c.createStatement();
+
+        st.execute("CREATE CACHED TABLE T(ID INT PRIMARY KEY, V INT, "
+                   + "PAD VARCHAR(200))");
+
+        PreparedStatement ps =
+            c.prepareStatement("INSERT INTO T VALUES(?, 10, ?)");
+
+        for (int i = 0; i < rowCount; i++) {
+            ps.setInt(1, i);
+            ps.setString(2, pad(i));
+            ps.executeUpdate();
+        }
+
+        ps.close();
+        st.execute("CHECKPOINT");
+
+        long      end     = System.currentTimeMillis() + runMillis;
+        Session[] threads = new Session[readerCount + 1];
+
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Session(i, i == readerCount, end);
+
+            threads[i].start();
+        }
+
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join(joinMillis);
+            assertFalse(txMode + " session " + i + " did not finish",
+                        threads[i].isAlive());
+
+            if (threads[i].error != null) {
+                throw threads[i].error;
+            }
+
+            assertTrue(threads[i].operations > 0);
+        }
+
+        ResultSet rs =
+            st.executeQuery("SELECT COUNT(*), SUM(V) FROM T");
+
+        assertTrue(rs.next());
+        assertEquals(rowCount, rs.getInt(1));
+        assertEquals(rowCount * 10L, rs.getLong(2));
+        rs.close();
+
+        rs = st.executeQuery(
+            "SELECT MISS_COUNT FROM INFORMATION_SCHEMA.SYSTEM_CACHEINFO");
+
+        assertTrue(rs.next());
+        assertTrue(rs.getLong(1) > 0);
+        rs.close();
+        st.execute("SHUTDOWN");
+    }
+
+    class Session extends Thread {
+
+        final int     number;
+        final boolean updater;
+        final long    end;
+        long          operations;
+        Exception     error;
+
+        Session(int number, boolean updater, long end) {
+
+            this.number  = number;
+            this.updater = updater;
+            this.end     = end;
+
+            setDaemon(true);
+        }
+
+        public void run() {
+
+            try {
+                Connection c = DriverManager.getConnection(url, "SA", "");
+
+                try {
+                    if (updater) {
+                        update(c);
+                    } else {
+                        read(c);
+                    }
+                } finally {
+                    c.close();
+                }
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        void read(Connection c) throws SQLException {
+
+            PreparedStatement ps = c.prepareStatement(
+                "SELECT V, PAD FROM T WHERE ID = ?");
+            Random random = new Random(number);
+
+            while (System.currentTimeMillis() < end) {
+                int id = random.nextInt(rowCount);
+
+                ps.setInt(1, id);
+
+                ResultSet rs = ps.executeQuery();
+
+                assertTrue(rs.next());
+                assertEquals(pad(id), rs.getString(2));
+                rs.close();
+
+                operations++;
+            }
+
+            ps.close();
+        }
+
+        void update(Connection c) throws SQLException {
+
+            PreparedStatement ps = c.prepareStatement(
+                "UPDATE T SET V = V + ? WHERE ID = ?");
+            Random random = new Random(number);
+
+            c.setAutoCommit(false);
+
+            while (System.currentTimeMillis() < end) {
+                ps.setInt(1, -1);
+                ps.setInt(2, random.nextInt(rowCount));
+                assertEquals(1, ps.executeUpdate());
+                ps.setInt(1, 1);
+                ps.setInt(2, random.nextInt(rowCount));
+                assertEquals(1, ps.executeUpdate());
+                c.commit();
+
+                operations++;
+            }
+
+            ps.close();
+        }
+    }
+}
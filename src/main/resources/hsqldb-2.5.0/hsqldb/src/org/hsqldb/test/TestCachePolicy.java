@@ -0,0 +1,238 @@
+/* Copyright (c) 2001-2019, The HSQL Development Group
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of the HSQL Development Group nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL HSQL DEVELOPMENT GROUP, HSQLDB.ORG,
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.hsqldb.test;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+import org.hsqldb.lib.FileUtil;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the cache eviction policies selected with the hsqldb.cache_policy
+ * property and the counters reported in SYSTEM_CACHEINFO.
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public class TestCachePolicy extends TestCase {
+
+    static final int rowCount   = 20000;
+    static final int hotCount   = 400;
+    static final int cacheRows  = 1000;
+    static final int roundCount = 6;
+
+    String path;
+
+    public TestCachePolicy(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+
+        path = new File(System.getProperty("java.io.tmpdir"),
+                        "testcachepolicy" + System.nanoTime()).getPath()
+               + "/test";
+
+        Class.forName("org.hsqldb.jdbc.JDBCDriver");
+    }
+
+    protected void tearDown() {
+        FileUtil.deleteOrRenameDatabaseFiles(path);
+        new File(path).getParentFile().delete();
+    }
+
+    Connection newConnection(int policy) throws SQLException {
+
+        String url = "jdbc:hsqldb:file:" + path + ";hsqldb.cache_rows="
+                     + cacheRows + ";hsqldb.cache_size=1000"
+                     + ";hsqldb.cache_policy=" + policy;
+
+        return DriverManager.getConnection(url, "SA", "");
+    }
+
+    static void populate(Connection c) throws SQLException {
+
+        Statement st = c.createStatement();
+
+        st.execute(
+            "CREATE CACHED TABLE T(ID INT PRIMARY KEY, V VARCHAR(200))");
+
+        PreparedStatement ps =
+            c.prepareStatement("INSERT INTO T VALUES(?, ?)");
+
+        for (int i = 0; i < rowCount; i++) {
+            ps.setInt(1, i);
+            ps.setString(2, value(i));
+            ps.executeUpdate();
+        }
+
+        ps.close();
+        st.execute("CHECKPOINT");
+        st.close();
+    }
+
+    static String value(int i) {
+        return "value " + i
+               + " ..................................................";
+    }
+
+    static long getCacheInfo(Statement st,
+                             String column) throws SQLException {
+
+        ResultSet rs = st.executeQuery(
+            "SELECT " + column
+            + " FROM INFORMATION_SCHEMA.SYSTEM_CACHEINFO");
+
+        rs.next();
+
+        long value = rs.getLong(1);
+
+        rs.close();
+
+        return value;
+    }
+
+    /**
+     * Runs point lookups over a small hot set interleaved with full scans
+     * of the table and returns the cache misses caused by the lookups.
+     */
+    static long runHotSetWithScans(Connection c) throws SQLException {
+
+        Statement         st     = c.createStatement();
+        PreparedStatement ps     =
+            c.prepareStatement("SELECT V FROM T WHERE ID = ?");
+        Random            random = new Random(1);
+        long              misses = 0;
+
+        for (int round = 0; round < roundCount; round++) {
+            long start = getCacheInfo(st, "MISS_COUNT");
+
+            for (int i = 0; i < 5000; i++) {
+                int id = random.nextInt(hotCount);
+
+                ps.setInt(1, id);
+
+                ResultSet rs = ps.executeQuery();
+
+                assertTrue(rs.next());
+                assertEquals(value(id), rs.getString(1));
+                rs.close();
+            }
+
+            // the first round only loads the hot set
+            if (round > 0) {
+                misses += getCacheInfo(st, "MISS_COUNT") - start;
+            }
+
+            ResultSet rs = st.executeQuery(
+                "SELECT COUNT(*), SUM(ID) FROM T WHERE V LIKE 'value%'");
+
+            assertTrue(rs.next());
+            assertEquals(rowCount, rs.getInt(1));
+            assertEquals((long) rowCount * (rowCount - 1) / 2,
+                         rs.getLong(2));
+            rs.close();
+        }
+
+        ps.close();
+        st.close();
+
+        return misses;
+    }
+
+    public void testCacheInfo() throws SQLException {
+
+        Connection c = newConnection(1);
+
+        populate(c);
+
+        Statement st = c.createStatement();
+        ResultSet rs = st.executeQuery(
+            "SELECT CACHE_POLICY FROM INFORMATION_SCHEMA.SYSTEM_CACHEINFO");
+
+        assertTrue(rs.next());
+        assertEquals("TINY_LFU", rs.getString(1));
+        rs.close();
+        runHotSetWithScans(c);
+        assertTrue(getCacheInfo(st, "HIT_COUNT") > 0);
+        assertTrue(getCacheInfo(st, "MISS_COUNT") > 0);
+        assertTrue(getCacheInfo(st, "EVICTION_COUNT") > 0);
+        assertTrue(getCacheInfo(st, "CACHE_SIZE") <= cacheRows);
+        st.execute("SHUTDOWN");
+    }
+
+    public void testPolicyNotPersisted() throws SQLException {
+
+        Connection c = newConnection(1);
+
+        populate(c);
+        c.createStatement().execute("SHUTDOWN");
+
+        c = newConnection(0);
+
+        Statement st = c.createStatement();
+        ResultSet rs = st.executeQuery(
+            "SELECT CACHE_POLICY FROM INFORMATION_SCHEMA.SYSTEM_CACHEINFO");
+
+        assertTrue(rs.next());
+        assertEquals("ACCESS_COUNT", rs.getString(1));
+        rs.close();
+        st.execute("SHUTDOWN");
+    }
+
+    public void testScanResistance() throws SQLException {
+
+        Connection c = newConnection(0);
+
+        populate(c);
+
+        long accessCountMisses = runHotSetWithScans(c);
+
+        c.createStatement().execute("SHUTDOWN");
+
+        c = newConnection(1);
+
+        long tinyLfuMisses = runHotSetWithScans(c);
+
+        c.createStatement().execute("SHUTDOWN");
+        assertTrue("TINY_LFU " + tinyLfuMisses + " ACCESS_COUNT "
+                   + accessCountMisses, tinyLfuMisses < accessCountMisses);
+    }
+}
@@ -0,0 +1,213 @@
+/* Copyright (c) 2001-2019, The HSQL Development Group
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of the HSQL Development Group nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL HSQL DEVELOPMENT GROUP, HSQLDB.ORG,
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+
+
+package org.hsqldb.test;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.hsqldb.lib.FileUtil;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the read-ahead of the .data file set with the
+ * hsqldb.cache_read_ahead property: full scans of a cached table much
+ * larger than the cache return the same results as without read-ahead, use
+ * the windows read ahead, and see the rows saved after a window was read.
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public class TestCacheReadAhead extends TestCase {
+
+    static final int rowCount = 30000;
+
+    String path;
+
+    public TestCacheReadAhead(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+
+        path = new File(System.getProperty("java.io.tmpdir"),
+                        "testcachereadahead" + System.nanoTime()).getPath()
+               + "/test";
+
+        Class.forName("org.hsqldb.jdbc.JDBCDriver");
+
+        Connection c  = newConnection(0);
+        Statement  st = c.createStatement();
+
+        st.execute("CREATE CACHED TABLE T(ID INT PRIMARY KEY, N INT, "
+                   + "V VARCHAR(200))");
+
+        PreparedStatement ps =
+            c.prepareStatement("INSERT INTO T VALUES(?, ?, ?)");
+
+        for (int i = 0; i < rowCount; i++) {
+            ps.setInt(1, i);
+            ps.setInt(2, 0);
+            ps.setString(3, value(i));
+            ps.executeUpdate();
+        }
+
+        ps.close();
+        st.execute("SHUTDOWN");
+    }
+
+    protected void tearDown() {
+        FileUtil.deleteOrRenameDatabaseFiles(path);
+        new File(path).getParentFile().delete();
+    }
+
+    Connection newConnection(int readAhead) throws SQLException {
+
+        String url = "jdbc:hsqldb:file:" + path
+                     + ";hsqldb.cache_rows=1000;hsqldb.cache_size=100"
+                     + ";hsqldb.cache_read_ahead=" + readAhead;
+
+        return DriverManager.getConnection(url, "SA", "");
+    }
+
+    static String value(int i) {
+        return "value " + i
+               + " ..................................................";
+    }
+
+    static long getCacheInfo(Statement st,
+                             String column) throws SQLException {
+
+        ResultSet rs = st.executeQuery(
+            "SELECT " + column
+            + " FROM INFORMATION_SCHEMA.SYSTEM_CACHEINFO");
+
+        rs.next();
+
+        long value = rs.getLong(1);
+
+        rs.close();
+
+        return value;
+    }
+
+    /**
+     * Scans the rows from id first in primary key order, checking that each
+     * has the value n in column N.
+     */
+    static void scan(Statement st, int first, int n) throws SQLException {
+
+        ResultSet rs = st.executeQuery("SELECT ID, N, V FROM T WHERE ID >= "
+                                       + first + " ORDER BY ID");
+        int id = first;
+
+        while (rs.next()) {
+            assertEquals(id, rs.getInt(1));
+            assertEquals(n, rs.getInt(2));
+            assertEquals(value(id), rs.getString(3));
+
+            id++;
+        }
+
+        rs.close();
+        assertEquals(rowCount, id);
+    }
+
+    public void testScan() throws SQLException {
+
+        Connection c  = newConnection(64);
+        Statement  st = c.createStatement();
+
+        for (int i = 0; i < 3; i++) {
+            scan(st, 0, 0);
+        }
+
+        ResultSet rs = st.executeQuery(
+            "SELECT COUNT(*), SUM(N) FROM T WHERE V LIKE 'value%'");
+
+        assertTrue(rs.next());
+        assertEquals(rowCount, rs.getInt(1));
+        assertEquals(0, rs.getLong(2));
+        rs.close();
+        assertTrue(getCacheInfo(st, "READ_AHEAD_COUNT") > 0);
+        st.execute("SHUTDOWN");
+    }
+
+    /**
+     * Each updated row is saved, once evicted, to the space freed by the
+     * previous one, which is in a window read by the last scan.
+     */
+    public void testScanAfterUpdates() throws SQLException {
+
+        Connection        c     = newConnection(64);
+        Statement         st    = c.createStatement();
+        PreparedStatement ps    =
+            c.prepareStatement("UPDATE T SET N = N + 1 WHERE ID = ?");
+        int               first = rowCount * 2 / 3;
+
+        for (int round = 0; round < 3; round++) {
+            scan(st, first, round);
+
+            for (int i = first; i < rowCount; i++) {
+                ps.setInt(1, i);
+                assertEquals(1, ps.executeUpdate());
+            }
+        }
+
+        scan(st, first, 3);
+        assertTrue(getCacheInfo(st, "READ_AHEAD_COUNT") > 0);
+        st.execute("SHUTDOWN");
+
+        c  = newConnection(0);
+        st = c.createStatement();
+
+        scan(st, first, 3);
+        st.execute("SHUTDOWN");
+    }
+
+    public void testDisabled() throws SQLException {
+
+        Connection c  = newConnection(0);
+        Statement  st = c.createStatement();
+
+        scan(st, 0, 0);
+        assertEquals(0, getCacheInfo(st, "READ_AHEAD_COUNT"));
+        st.execute("SHUTDOWN");
+    }
+}
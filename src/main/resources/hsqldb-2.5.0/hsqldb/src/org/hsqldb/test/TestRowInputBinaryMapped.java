@@ -0,0 +1,291 @@
+/* Copyright (c) 2001-2019, The HSQL Development Group
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of the HSQL Development Group nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL HSQL DEVELOPMENT GROUP, HSQLDB.ORG,
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+
+
+package org.hsqldb.test;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+import org.hsqldb.HsqlException;
+import org.hsqldb.lib.FileUtil;
+import org.hsqldb.rowio.RowInputBinary;
+import org.hsqldb.rowio.RowInputBinaryMapped;
+import org.hsqldb.rowio.RowOutputBinary;
+import org.hsqldb.types.BinaryData;
+import org.hsqldb.types.TimestampData;
+import org.hsqldb.types.Type;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the decoding of rows directly from the memory mapped .data file
+ * with RowInputBinaryMapped, against the decoding from a byte[] buffer.
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public class TestRowInputBinaryMapped extends TestCase {
+
+    static final Type[] types = new Type[] {
+        Type.SQL_INTEGER, Type.SQL_BIGINT, Type.SQL_SMALLINT, Type.SQL_DOUBLE,
+        Type.SQL_DECIMAL_DEFAULT, Type.SQL_VARCHAR_DEFAULT,
+        Type.SQL_VARCHAR_DEFAULT, Type.SQL_TIMESTAMP, Type.SQL_BOOLEAN,
+        Type.SQL_VARBINARY_DEFAULT, Type.SQL_VARCHAR_DEFAULT
+    };
+
+    // ASCII, Latin-1, CJK and a surrogate pair, as one to four UTF-8 bytes
+    static final String text = "text a\u00e7\u00e3o \u4e2d\u6587 \ud83d\ude00";
+
+    static final int rowCount = 60000;
+
+    String path;
+
+    public TestRowInputBinaryMapped(String name) {
+        super(name);
+    }
+
+    protected void tearDown() {
+
+        if (path != null) {
+            FileUtil.deleteOrRenameDatabaseFiles(path);
+            new File(path).getParentFile().delete();
+        }
+    }
+
+    static Object[] getData(int i) {
+
+        return new Object[] {
+            Integer.valueOf(i), Long.valueOf(i * 1000003L),
+            Integer.valueOf(i % 30000), Double.valueOf(i / 7.0),
+            BigDecimal.valueOf(i * 31L - 7, 4), text + i, "",
+            new TimestampData(1559520000L + i, i * 1000),
+            Boolean.valueOf(i % 2 == 0),
+            new BinaryData(new byte[] {
+                (byte) i, (byte) (i >> 8), 0, -1
+            }, false), null
+        };
+    }
+
+    /**
+     * Returns the row written with its size in the first four bytes.
+     */
+    static byte[] getRow(Object[] data) {
+
+        RowOutputBinary out = new RowOutputBinary(256, 1);
+
+        out.writeInt(0);
+        out.writeData(types.length, types, data, null, null);
+        out.writeIntData(out.size(), 0);
+
+        return Arrays.copyOf(out.getBuffer(), out.size());
+    }
+
+    static Object[] readFromBuffer(byte[] row, int size) {
+
+        RowInputBinary in = new RowInputBinary(new byte[16]);
+
+        in.resetRow(0, size);
+        System.arraycopy(row, 4, in.getBuffer(), 4, size - 4);
+
+        return in.readData(types);
+    }
+
+    static Object[] readFromView(RowInputBinaryMapped in, byte[] row,
+                                 int size) {
+
+        // the row is placed between other bytes, as in the mapped file
+        ByteBuffer buffer = ByteBuffer.allocateDirect(row.length + 100);
+
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0x55);
+        }
+
+        buffer.position(37);
+        buffer.put(row);
+
+        ByteBuffer view = buffer.asReadOnlyBuffer();
+
+        view.position(37);
+        in.resetRow(37, size, view);
+
+        return in.readData(types);
+    }
+
+    public void testReadData() {
+
+        RowInputBinaryMapped in = new RowInputBinaryMapped(new byte[16]);
+
+        for (int i = 0; i < 1000; i += 7) {
+            Object[] data = getData(i);
+            byte[]   row  = getRow(data);
+
+            assertTrue(Arrays.equals(data, readFromView(in, row,
+                    row.length)));
+            assertTrue(Arrays.equals(data, readFromBuffer(row,
+                    row.length)));
+        }
+
+        // the byte[] buffer is used again after a reset without a view
+        byte[] row = getRow(getData(5));
+
+        in.resetRow(0, row.length);
+        System.arraycopy(row, 4, in.getBuffer(), 4, row.length - 4);
+        assertTrue(Arrays.equals(getData(5), in.readData(types)));
+    }
+
+    public void testTruncatedRow() {
+
+        RowInputBinaryMapped in  = new RowInputBinaryMapped(new byte[16]);
+        byte[]               row = getRow(getData(11));
+
+        // the size excludes the last bytes of the string and the columns
+        // after it, which must not be read from the view
+        int size = 40;
+
+        try {
+            readFromBuffer(row, size);
+            fail();
+        } catch (HsqlException e) {}
+
+        try {
+            readFromView(in, row, size);
+            fail();
+        } catch (HsqlException e) {}
+    }
+
+    public void testMappedDataFile() throws Exception {
+
+        path = new File(System.getProperty("java.io.tmpdir"),
+                        "testrowinputbinarymapped"
+                        + System.nanoTime()).getPath() + "/test";
+
+        Class.forName("org.hsqldb.jdbc.JDBCDriver");
+
+        Connection c  = newConnection(true);
+        Statement  st = c.createStatement();
+
+        st.execute("CREATE CACHED TABLE T(ID INT PRIMARY KEY, B BIGINT, "
+                   + "SI SMALLINT, D DOUBLE, N DECIMAL(20, 4), "
+                   + "S VARCHAR(100), E VARCHAR(10), T TIMESTAMP, "
+                   + "F BOOLEAN, X VARBINARY(16), Z VARCHAR(10))");
+
+        PreparedStatement ps = c.prepareStatement(
+            "INSERT INTO T VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+
+        for (int i = 0; i < rowCount; i++) {
+            ps.setInt(1, i);
+            ps.setLong(2, i * 1000003L);
+            ps.setInt(3, i % 30000);
+            ps.setDouble(4, i / 7.0);
+            ps.setBigDecimal(5, BigDecimal.valueOf(i * 31L - 7, 4));
+            ps.setString(6, text + i);
+            ps.setString(7, "");
+            ps.setTimestamp(8, getTimestamp(i));
+            ps.setBoolean(9, i % 2 == 0);
+            ps.setBytes(10, getBytes(i));
+            ps.setString(11, null);
+            ps.executeUpdate();
+        }
+
+        ps.close();
+        st.execute("SHUTDOWN");
+
+        // the .data file is mapped only from 8MB
+        assertTrue(new File(path + ".data").length() >= 8 * 1024 * 1024);
+        scan(true);
+        scan(false);
+    }
+
+    Connection newConnection(boolean nio) throws SQLException {
+
+        String url = "jdbc:hsqldb:file:" + path
+                     + ";hsqldb.cache_rows=1000;hsqldb.cache_size=1000"
+                     + ";hsqldb.nio_data_file=" + nio;
+
+        return DriverManager.getConnection(url, "SA", "");
+    }
+
+    static Timestamp getTimestamp(int i) {
+        return new Timestamp(1559520000000L + i * 1000L);
+    }
+
+    static byte[] getBytes(int i) {
+
+        return new byte[] {
+            (byte) i, (byte) (i >> 8), 0, -1
+        };
+    }
+
+    void scan(boolean nio) throws SQLException {
+
+        Connection c  = newConnection(nio);
+        Statement  st = c.createStatement();
+
+        for (int round = 0; round < 2; round++) {
+            ResultSet rs = st.executeQuery(
+                "SELECT * FROM T WHERE ID >= 0 ORDER BY ID");
+            int i = 0;
+
+            while (rs.next()) {
+                assertEquals(i, rs.getInt(1));
+                assertEquals(i * 1000003L, rs.getLong(2));
+                assertEquals(i % 30000, rs.getInt(3));
+                assertEquals(i / 7.0, rs.getDouble(4), 0);
+                assertEquals(BigDecimal.valueOf(i * 31L - 7, 4),
+                             rs.getBigDecimal(5));
+                assertEquals(text + i, rs.getString(6));
+                assertEquals("", rs.getString(7));
+                assertEquals(getTimestamp(i), rs.getTimestamp(8));
+                assertEquals(i % 2 == 0, rs.getBoolean(9));
+                assertTrue(Arrays.equals(getBytes(i), rs.getBytes(10)));
+                assertNull(rs.getString(11));
+
+                i++;
+            }
+
+            rs.close();
+            assertEquals(rowCount, i);
+        }
+
+        st.execute("SHUTDOWN");
+    }
+}
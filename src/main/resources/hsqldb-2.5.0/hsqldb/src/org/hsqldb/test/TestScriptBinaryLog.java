@@ -0,0 +1,348 @@
+/* Copyright (c) 2001-2019, The HSQL Development Group
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of the HSQL Development Group nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL HSQL DEVELOPMENT GROUP, HSQLDB.ORG,
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+
+
+package org.hsqldb.test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+import org.hsqldb.lib.FileUtil;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the replay of the .log file written in binary form when
+ * hsqldb.log_binary is set, after the database is closed without a
+ * checkpoint, including a log with a torn or corrupted record.
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public class TestScriptBinaryLog extends TestCase {
+
+    static final int rowCount = 2000;
+
+    String path;
+
+    public TestScriptBinaryLog(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+
+        path = new File(System.getProperty("java.io.tmpdir"),
+                        "testscriptbinarylog" + System.nanoTime()).getPath()
+               + "/test";
+
+        Class.forName("org.hsqldb.jdbc.JDBCDriver");
+    }
+
+    protected void tearDown() {
+        FileUtil.deleteOrRenameDatabaseFiles(path);
+        new File(path).getParentFile().delete();
+    }
+
+    Connection newConnection(String properties) throws SQLException {
+        return DriverManager.getConnection("jdbc:hsqldb:file:" + path
+                                           + properties, "SA", "");
+    }
+
+    /**
+     * Logs inserts, updates and deletes of two sessions on cached and
+     * memory tables, sequence values and DDL, then uncommitted changes,
+     * and closes the database without a checkpoint. Returns the committed
+     * state.
+     */
+    String writeLog(boolean binary) throws SQLException {
+
+        Connection c  = newConnection(";hsqldb.log_binary=" + binary);
+        Connection c2 = newConnection("");
+        Statement  st = c.createStatement();
+
+        st.execute("CREATE SCHEMA S2");
+        st.execute("CREATE CACHED TABLE T(ID INT PRIMARY KEY, "
+                   + "V VARCHAR(100), D DECIMAL(12, 2), TS TIMESTAMP, "
+                   + "B VARBINARY(16))");
+        st.execute("CREATE MEMORY TABLE S2.M(ID INT, V VARCHAR(100))");
+        st.execute("CREATE SEQUENCE SQ START WITH 10");
+        st.execute("CHECKPOINT");
+        c.setAutoCommit(false);
+        c2.setAutoCommit(false);
+
+        Statement st2 = c2.createStatement();
+
+        st2.execute("SET SCHEMA S2");
+
+        PreparedStatement insert =
+            c.prepareStatement("INSERT INTO T VALUES(?, ?, ?, ?, ?)");
+        PreparedStatement update = c.prepareStatement(
+            "UPDATE T SET V = ?, D = D + 1 WHERE ID = ?");
+        PreparedStatement delete =
+            c.prepareStatement("DELETE FROM T WHERE ID = ?");
+        PreparedStatement insert2 =
+            c2.prepareStatement("INSERT INTO M VALUES(?, ?)");
+        PreparedStatement delete2 =
+            c2.prepareStatement("DELETE FROM M WHERE ID = ?");
+
+        for (int i = 0; i < rowCount; i++) {
+            insert.setInt(1, i);
+            insert.setString(2, "value \u00e7\u00e3o " + i);
+            insert.setBigDecimal(3, new BigDecimal(i + ".25"));
+            insert.setTimestamp(4, new Timestamp(1000L * i));
+            insert.setBytes(5, new byte[] {
+                (byte) i, (byte) (i >> 8)
+            });
+            insert.executeUpdate();
+
+            if (i % 3 == 0) {
+                update.setString(1, "updated " + i);
+                update.setInt(2, i);
+                update.executeUpdate();
+            }
+
+            if (i % 7 == 0 && i > 0) {
+                delete.setInt(1, i - 1);
+                delete.executeUpdate();
+            }
+
+            if (i % 5 == 0) {
+                insert2.setInt(1, i);
+                insert2.setString(2, i % 10 == 0 ? null
+                                                 : "m" + i);
+                insert2.executeUpdate();
+            }
+
+            if (i % 10 == 0 && i > 0) {
+                delete2.setInt(1, i - 10);
+                delete2.executeUpdate();
+            }
+
+            if (i % 10 == 9) {
+                st.execute("CALL NEXT VALUE FOR SQ");
+                c.commit();
+                c2.commit();
+            }
+
+            if (i == rowCount / 2) {
+                st.execute("CREATE TABLE X(A INT)");
+                st.execute("INSERT INTO X VALUES 1, 2, 3");
+                c.commit();
+            }
+        }
+
+        c.commit();
+        c2.commit();
+
+        String state = getState(st);
+
+        // not committed, so rolled back on replay
+        st2.execute("DELETE FROM M");
+        insert.setInt(1, -1);
+        insert.setString(2, "rolled back");
+        insert.executeUpdate();
+        st.execute("SHUTDOWN IMMEDIATELY");
+
+        return state;
+    }
+
+    static String getState(Statement st) throws SQLException {
+
+        ResultSet rs = st.executeQuery(
+            "SELECT COUNT(*), SUM(ID), SUM(D), SUM(LENGTH(V)), "
+            + "SUM(OCTET_LENGTH(B)), MAX(TS) FROM PUBLIC.T");
+
+        rs.next();
+
+        String state = rs.getLong(1) + " " + rs.getLong(2) + " "
+                       + rs.getBigDecimal(3) + " " + rs.getLong(4) + " "
+                       + rs.getLong(5) + " " + rs.getTimestamp(6);
+
+        rs = st.executeQuery("SELECT COUNT(*), COUNT(V), SUM(ID) FROM S2.M");
+
+        rs.next();
+
+        state += " " + rs.getLong(1) + " " + rs.getLong(2) + " "
+                 + rs.getLong(3);
+        rs = st.executeQuery("SELECT COUNT(*) FROM PUBLIC.X");
+
+        rs.next();
+
+        state += " " + rs.getLong(1);
+        rs = st.executeQuery(
+            "SELECT NEXT_VALUE FROM INFORMATION_SCHEMA.SEQUENCES "
+            + "WHERE SEQUENCE_NAME = 'SQ'");
+
+        rs.next();
+
+        state += " " + rs.getString(1);
+
+        return state;
+    }
+
+    String replay(String properties) throws SQLException {
+
+        Connection c     = newConnection(properties);
+        Statement  st    = c.createStatement();
+        String     state = getState(st);
+
+        st.execute("SHUTDOWN");
+
+        return state;
+    }
+
+    boolean isBinaryLog() throws Exception {
+
+        RandomAccessFile file = new RandomAccessFile(path + ".log", "r");
+
+        try {
+            return file.readInt() == ('H' << 16 | 'B' << 8 | 'L');
+        } finally {
+            file.close();
+        }
+    }
+
+    public void testReplay() throws Exception {
+
+        String state = writeLog(true);
+
+        assertTrue(isBinaryLog());
+
+        // the format of the log is found from the file
+        assertEquals(state, replay(""));
+        assertFalse(new File(path + ".log").length() > 0);
+    }
+
+    public void testSameStateAsTextLog() throws Exception {
+
+        String state = writeLog(false);
+
+        assertFalse(isBinaryLog());
+        assertEquals(state, replay(""));
+        tearDown();
+        setUp();
+
+        assertEquals(state, writeLog(true));
+        assertEquals(state, replay(""));
+    }
+
+    /**
+     * Returns the positions of the records of the .log file, followed by
+     * the file length.
+     */
+    long[] getRecordPositions() throws Exception {
+
+        RandomAccessFile file      = new RandomAccessFile(path + ".log", "r");
+        long[]           positions = new long[16];
+        int              count     = 0;
+
+        try {
+            long position = 8;
+
+            while (position < file.length()) {
+                if (count == positions.length - 1) {
+                    positions = Arrays.copyOf(positions, count * 2);
+                }
+
+                positions[count++] = position;
+
+                file.seek(position);
+
+                // length, record and checksum
+                position += 4 + file.readInt() + 4;
+            }
+
+            positions[count++] = position;
+
+            return Arrays.copyOf(positions, count);
+        } finally {
+            file.close();
+        }
+    }
+
+    public void testTornLastRecord() throws Exception {
+
+        String     state = writeLog(true);
+        Connection c     = newConnection(";hsqldb.log_binary=true");
+        Statement  st    = c.createStatement();
+
+        st.execute("INSERT INTO X VALUES 4");
+        st.execute("SHUTDOWN IMMEDIATELY");
+        assertTrue(isBinaryLog());
+
+        // the last records are the insert, its commit and the disconnect,
+        // the commit is cut short
+        long[]           positions = getRecordPositions();
+        RandomAccessFile file = new RandomAccessFile(path + ".log", "rw");
+
+        file.setLength(positions[positions.length - 3] + 6);
+        file.close();
+
+        // not an error, even when the whole log must be replayed
+        assertEquals(state, replay(";hsqldb.full_log_replay=true"));
+    }
+
+    public void testCorruptRecord() throws Exception {
+
+        String           state     = writeLog(true);
+        long[]           positions = getRecordPositions();
+        RandomAccessFile file = new RandomAccessFile(path + ".log", "rw");
+
+        // last byte of the checksum of a record logged after table X
+        long position = positions[positions.length * 3 / 4] - 1;
+
+        file.seek(position);
+
+        int b = file.read();
+
+        file.seek(position);
+        file.write(b ^ 0xff);
+        file.close();
+
+        try {
+            replay(";hsqldb.full_log_replay=true");
+            fail();
+        } catch (SQLException e) {}
+
+        // replay stops at the corrupted record
+        assertFalse(state.equals(replay("")));
+    }
+}
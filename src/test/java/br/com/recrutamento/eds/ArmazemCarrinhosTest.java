@@ -0,0 +1,165 @@
+package br.com.recrutamento.eds;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ArmazemCarrinhosTest {
+
+	private AtomicLong relogio;
+	private CarrinhoComprasFactory factory;
+	private ArmazemCarrinhos armazem;
+
+	@Before
+	public void setUp() {
+		relogio = new AtomicLong();
+		factory = new CarrinhoComprasFactory(true);
+		factory.setRelogio(relogio::get);
+		armazem = new ArmazemCarrinhos();
+		factory.configurarArmazem(armazem, 30, TimeUnit.MINUTES);
+	}
+
+	@Test
+	public void deveHibernarApenasOsCarrinhosOciosos() {
+		CarrinhoCompras ocioso = factory.criar("OCIOSO");
+		ocioso.adicionarItem(new Produto(1L, "Caneta azul"), new BigDecimal("2.50"), 3);
+		ocioso.adicionarItem(new Produto(2L, "Lápis"), new BigDecimal("1.125"), 2);
+		CarrinhoCompras vazio = factory.criar("VAZIO");
+		relogio.addAndGet(TimeUnit.MINUTES.toNanos(20));
+		CarrinhoCompras ativo = factory.criar("ATIVO");
+		ativo.adicionarItem(new Produto(1L, "Caneta vermelha"), new BigDecimal("3.00"), 1);
+		relogio.addAndGet(TimeUnit.MINUTES.toNanos(20));
+
+		List<String> itensAntes = descrever(ocioso.getVisao());
+		long versaoAntes = ocioso.getVisao().getVersao();
+		BigDecimal ticketAntes = factory.getValorTicketMedio();
+
+		Assert.assertEquals(2, factory.hibernarCarrinhosOciosos());
+		Assert.assertTrue(ocioso.isHibernado());
+		Assert.assertTrue(vazio.isHibernado());
+		Assert.assertFalse(ativo.isHibernado());
+		Assert.assertEquals(1, armazem.getQuantidadeRegistros());
+		Assert.assertEquals(0, factory.hibernarCarrinhosOciosos());
+
+		Assert.assertEquals(itensAntes, descrever(ocioso.getVisao()));
+		Assert.assertEquals(versaoAntes, ocioso.getVisao().getVersao());
+		Assert.assertEquals(new BigDecimal("9.750"), ocioso.getValorTotal());
+		Assert.assertEquals(ticketAntes, factory.getValorTicketMedio());
+		Assert.assertTrue(ocioso.isHibernado());
+		Assert.assertEquals(0, vazio.getVisao().getItens().size());
+	}
+
+	@Test
+	public void deveDespertarNaAlteracaoDosItens() {
+		CarrinhoCompras carrinho = factory.criar("A");
+		carrinho.adicionarItem(new Produto(1L, "Caneta"), new BigDecimal("2.50"), 3);
+		carrinho.adicionarItem(new Produto(2L, "Lápis"), new BigDecimal("1.125"), 2);
+		carrinho.adicionarItem(new Produto(3L, "Borracha"), new BigDecimal("0.75"), 1);
+		relogio.addAndGet(TimeUnit.HOURS.toNanos(1));
+		factory.hibernarCarrinhosOciosos();
+		VisaoCarrinho visaoHibernada = carrinho.getVisao();
+		List<String> itensHibernados = descrever(visaoHibernada);
+
+		carrinho.adicionarItem(new Produto(2L, "Lápis"), new BigDecimal("1.125"), 1);
+
+		Assert.assertFalse(carrinho.isHibernado());
+		Assert.assertEquals(0, armazem.getQuantidadeRegistros());
+		Assert.assertEquals(visaoHibernada.getVersao() + 1, carrinho.getVisao().getVersao());
+		Assert.assertEquals(Arrays.asList("1 Caneta 2.50 x 3", "2 Lápis 1.125 x 3", "3 Borracha 0.75 x 1"),
+				descrever(carrinho.getVisao()));
+		Assert.assertEquals(new BigDecimal("11.625"), carrinho.getValorTotal());
+		Assert.assertEquals(itensHibernados, descrever(visaoHibernada));
+
+		Assert.assertTrue(carrinho.removerItem(0));
+		Assert.assertEquals(new BigDecimal("4.125"), carrinho.getValorTotal());
+		Assert.assertEquals(new BigDecimal("4.13"), factory.getValorTicketMedio());
+	}
+
+	@Test
+	public void naoDeveAlterarItensObtidosAntesDaHibernacao() {
+		CarrinhoCompras carrinho = factory.criar("A");
+		carrinho.adicionarItem(new Produto(1L, "Caneta"), new BigDecimal("2.50"), 3);
+		Item item = carrinho.getItens().iterator().next();
+		relogio.addAndGet(TimeUnit.HOURS.toNanos(1));
+		factory.hibernarCarrinhosOciosos();
+
+		try {
+			item.setQuantidade(5);
+			Assert.fail("O item descartado na hibernação não deveria ser alterado.");
+		} catch (IllegalStateException e) {
+			// esperado
+		}
+		Assert.assertEquals(new BigDecimal("7.50"), carrinho.getValorTotal());
+
+		carrinho.getItens().iterator().next().setQuantidade(5);
+		Assert.assertEquals(new BigDecimal("12.50"), carrinho.getValorTotal());
+		Assert.assertEquals(3, item.getQuantidade());
+	}
+
+	@Test
+	public void deveReutilizarOsRegistrosLiberados() {
+		CarrinhoCompras[] carrinhos = new CarrinhoCompras[100];
+		for (int i = 0; i < carrinhos.length; i++) {
+			carrinhos[i] = factory.criar("CLIENTE-" + i);
+			for (int j = 0; j <= i % 5; j++) {
+				carrinhos[i].adicionarItem(new Produto(Long.valueOf(j + 1), "Produto " + (j + 1)), BigDecimal.TEN, 1);
+			}
+		}
+		relogio.addAndGet(TimeUnit.HOURS.toNanos(1));
+		Assert.assertEquals(100, factory.hibernarCarrinhosOciosos());
+		long reservados = armazem.getBytesReservados();
+		long utilizados = armazem.getBytesUtilizados();
+
+		for (CarrinhoCompras carrinho : carrinhos) {
+			Assert.assertEquals(carrinho.getVisao().getItens().size(), carrinho.getItens().size());
+		}
+		Assert.assertEquals(0, armazem.getQuantidadeRegistros());
+		Assert.assertEquals(0, armazem.getBytesUtilizados());
+
+		relogio.addAndGet(TimeUnit.HOURS.toNanos(1));
+		Assert.assertEquals(100, factory.hibernarCarrinhosOciosos());
+		Assert.assertEquals(reservados, armazem.getBytesReservados());
+		Assert.assertEquals(utilizados, armazem.getBytesUtilizados());
+	}
+
+	@Test
+	public void deveLiberarORegistroDoCarrinhoInvalidado() {
+		RankingProdutos ranking = new RankingProdutos(10);
+		CarrinhoCompras carrinho = factory.criar("A");
+		Item item = new Item(new Produto(1L, "Caneta"), new BigDecimal("2.00"), 4);
+		carrinho.adicionarItens(Arrays.asList(item));
+		relogio.addAndGet(TimeUnit.HOURS.toNanos(1));
+		factory.hibernarCarrinhosOciosos();
+		factory.setRanking(ranking);
+
+		Assert.assertEquals(4, ranking.getMaioresQuantidades(1).get(0).getQuantidade());
+		Assert.assertTrue(carrinho.isHibernado());
+
+		Assert.assertTrue(factory.invalidar("A"));
+		Assert.assertEquals(0, armazem.getQuantidadeRegistros());
+		Assert.assertTrue(ranking.getMaioresQuantidades(1).isEmpty());
+		Assert.assertEquals(1, carrinho.getItens().size());
+		Assert.assertEquals(new BigDecimal("8.00"), carrinho.getValorTotal());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void naoDeveCriarArmazemComSlabMenorQueUmItem() {
+		new ArmazemCarrinhos(8);
+	}
+
+	private static List<String> descrever(VisaoCarrinho visao) {
+		List<String> itens = new ArrayList<String>();
+		for (VisaoItem item : visao.getItens()) {
+			itens.add(item.getProduto().getCodigo() + " " + item.getProduto().getDescricao() + " " + item.getValorUnitario()
+					+ " x " + item.getQuantidade());
+		}
+		return itens;
+	}
+}
@@ -7,6 +7,16 @@ import org.junit.Test;
 import static br.com.recrutamento.eds.StringUtils.EMPTY;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class CarrinhoComprasFactoryTest {
 
@@ -33,7 +43,7 @@ public class CarrinhoComprasFactoryTest {
 	public void deveCriarCarrinhoComSucesso() {
 		String idCliente = "7001A";
 		CarrinhoCompras carrinho = buyFactory.criar(idCliente);
-		Assert.assertNotNull("O Carrinho no deve est nulo.", carrinho);
+		Assert.assertNotNull("O Carrinho não deve está nulo.", carrinho);
 	}
 	
 	@Test(expected = IllegalArgumentException.class)
@@ -41,11 +51,11 @@ public class CarrinhoComprasFactoryTest {
 		try {
 			String idCliente = "7001A";
 			CarrinhoCompras carrinho = buyFactory.criar(idCliente);
-			Assert.assertNotNull("O Carrinho no deve est nulo.", carrinho);
+			Assert.assertNotNull("O Carrinho não deve está nulo.", carrinho);
 			adicionarProdutoInvalido(carrinho);
 		} catch (IllegalArgumentException ilxae) {
 			Assert.assertTrue("Deve conter mensagem", !ilxae.getMessage().isEmpty());
-			Assert.assertEquals("A mensagem deve ser iguais","Falha no carrinho: O produto no foi informado.",ilxae.getMessage());
+			Assert.assertEquals("A mensagem deve ser iguais","Falha no carrinho: O produto não foi informado.",ilxae.getMessage());
 			throw new IllegalArgumentException(ilxae);
 		}
 	}
@@ -55,11 +65,11 @@ public class CarrinhoComprasFactoryTest {
 		try {
 			String idCliente = "7001A";
 			CarrinhoCompras carrinho = buyFactory.criar(idCliente);
-			Assert.assertNotNull("O Carrinho no deve est nulo.", carrinho);
+			Assert.assertNotNull("O Carrinho não deve está nulo.", carrinho);
 			adicionarProdutoIdInvalido(carrinho);
 		} catch (IllegalArgumentException ilxae) {
 			Assert.assertTrue("Deve conter mensagem", !ilxae.getMessage().isEmpty());
-			Assert.assertEquals("A mensagem deve ser iguais","Falha no carrinho: O Id do produto no foi informado.",ilxae.getMessage());
+			Assert.assertEquals("A mensagem deve ser iguais","Falha no carrinho: O Id do produto não foi informado.",ilxae.getMessage());
 			throw new IllegalArgumentException(ilxae);
 		}
 	}
@@ -69,11 +79,11 @@ public class CarrinhoComprasFactoryTest {
 		try {
 			String idCliente = "7001B";
 			CarrinhoCompras carrinho = buyFactory.criar(idCliente);
-			Assert.assertNotNull("O Carrinho no deve est nulo.", carrinho);
+			Assert.assertNotNull("O Carrinho não deve está nulo.", carrinho);
 			adicionarProdutoComValorInvalido(carrinho);
 		} catch (IllegalArgumentException ilxae) {
 			Assert.assertTrue("Deve conter mensagem", !ilxae.getMessage().isEmpty());
-			Assert.assertEquals("A mensagem deve ser iguais","Falha na adio de Item: O valor unitrio est invlido.",ilxae.getMessage());
+			Assert.assertEquals("A mensagem deve ser iguais","Falha na adição de Item: O valor unitário está inválido.",ilxae.getMessage());
 			throw new IllegalArgumentException(ilxae);
 		}
 	}
@@ -83,11 +93,11 @@ public class CarrinhoComprasFactoryTest {
 		try {
 			String idCliente = "7001V";
 			CarrinhoCompras carrinho = buyFactory.criar(idCliente);
-			Assert.assertNotNull("O Carrinho no deve est nulo.", carrinho);
+			Assert.assertNotNull("O Carrinho não deve está nulo.", carrinho);
 			adicionarProdutoComValorNegativo(carrinho);
 		} catch (IllegalArgumentException ilxae) {
 			Assert.assertTrue("Deve conter mensagem", !ilxae.getMessage().isEmpty());
-			Assert.assertEquals("A mensagem deve ser iguais","Falha na adio de Item: O valor unitrio no pode ser negativo.",ilxae.getMessage());
+			Assert.assertEquals("A mensagem deve ser iguais","Falha na adição de Item: O valor unitário não pode ser negativo.",ilxae.getMessage());
 			throw new IllegalArgumentException(ilxae);
 		}
 	}
@@ -97,7 +107,7 @@ public class CarrinhoComprasFactoryTest {
 		try {
 			String idCliente = "7001V";
 			CarrinhoCompras carrinho = buyFactory.criar(idCliente);
-			Assert.assertNotNull("O Carrinho no deve est nulo.", carrinho);
+			Assert.assertNotNull("O Carrinho não deve está nulo.", carrinho);
 			adicionarProdutoComQauntidadeInvalida(carrinho);
 		} catch (IllegalArgumentException ilxae) {
 			Assert.assertTrue("Deve conter mensagem", !ilxae.getMessage().isEmpty());
@@ -110,15 +120,15 @@ public class CarrinhoComprasFactoryTest {
 	public void deveAdicionarProdutoNoCarrinhoComSucesso() {
 		String idCliente = "7002AAA";
 		CarrinhoCompras carrinho = buyFactory.criar(idCliente);
-		Assert.assertNotNull("O Carrinho no deve est nulo.", carrinho);
+		Assert.assertNotNull("O Carrinho não deve está nulo.", carrinho);
 		Produto p = criarProduto(1L);
 		adicionarProduto(carrinho, p, 1);
-		Assert.assertNotNull("No deve ser vazio.", carrinho.getItens());
+		Assert.assertNotNull("Não deve ser vazio.", carrinho.getItens());
 		for(Item item:carrinho.getItens()) {
 			Produto produtoSalvo = item.getProduto();
 			Assert.assertEquals("O id do produto devem ser iguais", p.getCodigo(), produtoSalvo.getCodigo());
-			Assert.assertNotNull("A descrio do produto no deve ser vazia.", produtoSalvo.getDescricao());
-			Assert.assertEquals("A descrio do produto devem ser iguais", p.getDescricao(), produtoSalvo.getDescricao());
+			Assert.assertNotNull("A descrição do produto não deve ser vazia.", produtoSalvo.getDescricao());
+			Assert.assertEquals("A descrição do produto devem ser iguais", p.getDescricao(), produtoSalvo.getDescricao());
 		}
 	}
 	
@@ -127,19 +137,19 @@ public class CarrinhoComprasFactoryTest {
 		
 		String idCliente = "7003ABC";
 		CarrinhoCompras carrinho = buyFactory.criar(idCliente);
-		Assert.assertNotNull("O Carrinho no deve est nulo.", carrinho);
+		Assert.assertNotNull("O Carrinho não deve está nulo.", carrinho);
 		Produto p = criarProduto(1L);
 		adicionarProduto(carrinho, p, new BigDecimal(50.50), 1);
 		
 		String idCliente2 = "7004ABC";
 		CarrinhoCompras carrinho2 = buyFactory.criar(idCliente2);
-		Assert.assertNotNull("O Carrinho no deve est nulo.", carrinho);
+		Assert.assertNotNull("O Carrinho não deve está nulo.", carrinho);
 		Produto p2 = criarProduto(2L);
 		adicionarProduto(carrinho2, p2, new BigDecimal(33.30), 2);
 		
 		String idCliente3 = "7005ABC";
 		CarrinhoCompras carrinho3 = buyFactory.criar(idCliente3);
-		Assert.assertNotNull("O Carrinho no deve est nulo.", carrinho);
+		Assert.assertNotNull("O Carrinho não deve está nulo.", carrinho);
 		Produto p3 = criarProduto(3L);
 		adicionarProduto(carrinho3, p3, new BigDecimal(25), 3);
 
@@ -148,12 +158,39 @@ public class CarrinhoComprasFactoryTest {
 		Assert.assertEquals(valorTicketMedio, new BigDecimal("64.03"));
 	}
 		
+	@Test
+	public void deveRetornarTicketMedioZeroSemCarrinhos() {
+		Assert.assertEquals(new BigDecimal("0.00"), buyFactory.getValorTicketMedio());
+	}
+	
+	@Test
+	public void deveAtualizarValorTicketMedioAposAlteracoesEInvalidacao() {
+		CarrinhoCompras carrinho = buyFactory.criar("7006ABC");
+		CarrinhoCompras carrinho2 = buyFactory.criar("7007ABC");
+		adicionarProduto(carrinho, criarProduto(1L), new BigDecimal("10.00"), 3);
+		adicionarProduto(carrinho2, criarProduto(2L), new BigDecimal("5.55"), 1);
+		Assert.assertEquals(new BigDecimal("17.78"), buyFactory.getValorTicketMedio());
+		
+		carrinho.removerItem(0);
+		Assert.assertEquals(new BigDecimal("2.78"), buyFactory.getValorTicketMedio());
+		
+		carrinho2.getItens().iterator().next().setQuantidade(4);
+		Assert.assertEquals(new BigDecimal("11.10"), buyFactory.getValorTicketMedio());
+		
+		Assert.assertTrue(buyFactory.invalidar("7007ABC"));
+		Assert.assertEquals(new BigDecimal("0.00"), buyFactory.getValorTicketMedio());
+		
+		// Alterações em um carrinho invalidado não afetam o ticket médio.
+		adicionarProduto(carrinho2, criarProduto(3L), new BigDecimal("100"), 1);
+		Assert.assertEquals(new BigDecimal("0.00"), buyFactory.getValorTicketMedio());
+	}
+	
 	@Test
 	public void naoDeveInvalidarCarrinhoIdClienteInvalido() {
 		// Arrange
 		String idCliente = "7015ACB";
 		CarrinhoCompras carrinho = buyFactory.criar(idCliente);
-		Assert.assertNotNull("O Carrinho no deve est nulo.", carrinho);
+		Assert.assertNotNull("O Carrinho não deve está nulo.", carrinho);
 		
 		boolean resultado = buyFactory.invalidar(null);
 		
@@ -165,7 +202,7 @@ public class CarrinhoComprasFactoryTest {
 		// Arrange
 		String idCliente = "7015ACB";
 		CarrinhoCompras carrinho = buyFactory.criar(idCliente);
-		Assert.assertNotNull("O Carrinho no deve est nulo.", carrinho);
+		Assert.assertNotNull("O Carrinho não deve está nulo.", carrinho);
 		
 		boolean resultado = buyFactory.invalidar("7015ACB-INEXISTENTE");
 		
@@ -177,20 +214,242 @@ public class CarrinhoComprasFactoryTest {
 		// Arrange
 		String idCliente = "7016ACB";
 		CarrinhoCompras carrinho = buyFactory.criar(idCliente);
-		Assert.assertNotNull("O Carrinho no deve est nulo.", carrinho);
+		Assert.assertNotNull("O Carrinho não deve está nulo.", carrinho);
 		
 		boolean resultado = buyFactory.invalidar(idCliente);
 		
 		Assert.assertTrue(resultado);
 	}
 	
+	@Test
+	public void naoDevePerderCarrinhosCriadosConcorrentemente() throws Exception {
+		final CarrinhoComprasFactory factory = new CarrinhoComprasFactory(true);
+		final int threads = 8;
+		final int clientes = 2000;
+		final ConcurrentHashMap<String, CarrinhoCompras> criados = new ConcurrentHashMap<String, CarrinhoCompras>();
+		final CountDownLatch largada = new CountDownLatch(1);
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Integer>> resultados = new ArrayList<Future<Integer>>();
+		for (int t = 0; t < threads; t++) {
+			resultados.add(executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					largada.await();
+					int divergencias = 0;
+					// Todas as threads disputam os mesmos clientes.
+					for (int i = 0; i < clientes; i++) {
+						String idCliente = "CLIENTE-" + i;
+						CarrinhoCompras carrinho = factory.criar(idCliente);
+						CarrinhoCompras anterior = criados.putIfAbsent(idCliente, carrinho);
+						if (anterior != null && anterior != carrinho) {
+							divergencias++;
+						}
+					}
+					return divergencias;
+				}
+			}));
+		}
+		largada.countDown();
+		
+		for (Future<Integer> resultado : resultados) {
+			Assert.assertEquals("Cada cliente deve possuir um único carrinho.", Integer.valueOf(0), resultado.get());
+		}
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		Assert.assertEquals(clientes, factory.getQuantidadeCarrinhos());
+		for (int i = 0; i < clientes; i++) {
+			Assert.assertSame(criados.get("CLIENTE-" + i), factory.criar("CLIENTE-" + i));
+		}
+	}
+	
+	@Test
+	public void deveInvalidarCadaCarrinhoUmaUnicaVezConcorrentemente() throws Exception {
+		final CarrinhoComprasFactory factory = new CarrinhoComprasFactory(true);
+		final int threads = 8;
+		final int clientes = 2000;
+		for (int i = 0; i < clientes; i++) {
+			factory.criar("CLIENTE-" + i);
+		}
+		final CountDownLatch largada = new CountDownLatch(1);
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Integer>> resultados = new ArrayList<Future<Integer>>();
+		for (int t = 0; t < threads; t++) {
+			resultados.add(executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					largada.await();
+					int invalidados = 0;
+					for (int i = 0; i < clientes; i++) {
+						if (factory.invalidar("CLIENTE-" + i)) {
+							invalidados++;
+						}
+					}
+					return invalidados;
+				}
+			}));
+		}
+		largada.countDown();
+		
+		int totalInvalidados = 0;
+		for (Future<Integer> resultado : resultados) {
+			totalInvalidados += resultado.get();
+		}
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		Assert.assertEquals(clientes, totalInvalidados);
+		Assert.assertEquals(0, factory.getQuantidadeCarrinhos());
+	}
+	
+	@Test
+	public void deveCalcularValorTicketMedioComAlteracoesConcorrentes() throws Exception {
+		final CarrinhoComprasFactory factory = new CarrinhoComprasFactory(true);
+		final int threads = 8;
+		final int clientesPorThread = 250;
+		final CountDownLatch largada = new CountDownLatch(1);
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Integer>> resultados = new ArrayList<Future<Integer>>();
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			resultados.add(executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					largada.await();
+					for (int i = 0; i < clientesPorThread; i++) {
+						CarrinhoCompras carrinho = factory.criar("CLIENTE-" + thread + "-" + i);
+						carrinho.adicionarItem(criarProduto(1L), new BigDecimal("1.50"), 2);
+						carrinho.adicionarItem(criarProduto(2L), new BigDecimal("7.00"), 1);
+						carrinho.removerItem(criarProduto(1L));
+					}
+					return clientesPorThread;
+				}
+			}));
+		}
+		largada.countDown();
+		
+		for (Future<Integer> resultado : resultados) {
+			resultado.get();
+		}
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		Assert.assertEquals(new BigDecimal("7.00"), factory.getValorTicketMedio());
+	}
+	
+	@Test
+	public void deveExpirarCarrinhosOciosos() {
+		final AtomicLong relogio = new AtomicLong();
+		final List<String> expirados = new ArrayList<String>();
+		buyFactory.setRelogio(relogio::get);
+		buyFactory.configurarExpiracao(30, TimeUnit.MINUTES, 1000);
+		buyFactory.adicionarListener(new CarrinhoComprasListener() {
+			@Override
+			public void carrinhoExpirado(CarrinhoCompras carrinho) {
+				expirados.add(carrinho.getIdentificacaoCliente());
+			}
+		});
+		
+		CarrinhoCompras carrinho = buyFactory.criar("7020ABC");
+		adicionarProduto(carrinho, criarProduto(1L), new BigDecimal("10.00"), 1);
+		CarrinhoCompras carrinho2 = buyFactory.criar("7021ABC");
+		adicionarProduto(carrinho2, criarProduto(2L), new BigDecimal("20.00"), 1);
+		
+		relogio.addAndGet(TimeUnit.MINUTES.toNanos(20));
+		adicionarProduto(carrinho2, criarProduto(3L), new BigDecimal("20.00"), 1);
+		buyFactory.expirarCarrinhosOciosos();
+		Assert.assertTrue(expirados.isEmpty());
+		
+		relogio.addAndGet(TimeUnit.MINUTES.toNanos(11));
+		buyFactory.expirarCarrinhosOciosos();
+		Assert.assertEquals(1, expirados.size());
+		Assert.assertEquals("7020ABC", expirados.get(0));
+		Assert.assertEquals(1, buyFactory.getQuantidadeCarrinhos());
+		Assert.assertEquals(new BigDecimal("40.00"), buyFactory.getValorTicketMedio());
+		
+		// O acesso através do criar também adia a expiração.
+		relogio.addAndGet(TimeUnit.MINUTES.toNanos(15));
+		Assert.assertSame(carrinho2, buyFactory.criar("7021ABC"));
+		relogio.addAndGet(TimeUnit.MINUTES.toNanos(29));
+		buyFactory.expirarCarrinhosOciosos();
+		Assert.assertEquals(1, expirados.size());
+		
+		relogio.addAndGet(TimeUnit.HOURS.toNanos(5));
+		buyFactory.expirarCarrinhosOciosos();
+		Assert.assertEquals(2, expirados.size());
+		Assert.assertEquals(0, buyFactory.getQuantidadeCarrinhos());
+		Assert.assertEquals(new BigDecimal("0.00"), buyFactory.getValorTicketMedio());
+		Assert.assertNotSame(carrinho2, buyFactory.criar("7021ABC"));
+	}
+	
+	@Test
+	public void deveExpirarCarrinhosMaisAntigosAoExcederQuantidadeMaxima() {
+		final AtomicLong relogio = new AtomicLong();
+		final List<String> expirados = new ArrayList<String>();
+		buyFactory.setRelogio(relogio::get);
+		buyFactory.configurarExpiracao(30, TimeUnit.MINUTES, 3);
+		buyFactory.adicionarListener(new CarrinhoComprasListener() {
+			@Override
+			public void carrinhoExpirado(CarrinhoCompras carrinho) {
+				expirados.add(carrinho.getIdentificacaoCliente());
+			}
+		});
+		
+		for (int i = 0; i < 3; i++) {
+			buyFactory.criar("CLIENTE-" + i);
+			relogio.addAndGet(TimeUnit.MINUTES.toNanos(1));
+		}
+		// O primeiro carrinho foi acessado recentemente e não deve ser o escolhido.
+		buyFactory.criar("CLIENTE-0");
+		relogio.addAndGet(TimeUnit.MINUTES.toNanos(1));
+		buyFactory.criar("CLIENTE-3");
+		
+		Assert.assertEquals(3, buyFactory.getQuantidadeCarrinhos());
+		Assert.assertEquals(1, expirados.size());
+		Assert.assertEquals("CLIENTE-1", expirados.get(0));
+	}
+	
+	@Test
+	public void deveAvisarUmaVezPorLoteDeItens() {
+		final AtomicLong alteracoes = new AtomicLong();
+		buyFactory.adicionarListener(new CarrinhoComprasListener() {
+			@Override
+			public void carrinhoAlterado(CarrinhoCompras carrinho) {
+				alteracoes.incrementAndGet();
+			}
+		});
+		
+		CarrinhoCompras carrinho = buyFactory.criar("7030ABC");
+		List<Item> lote = new ArrayList<Item>();
+		for (long codigo = 1; codigo <= 100; codigo++) {
+			lote.add(new Item(criarProduto(codigo), new BigDecimal("1.50"), 2));
+		}
+		carrinho.adicionarItens(lote);
+		Assert.assertEquals(1, alteracoes.get());
+		Assert.assertEquals(new BigDecimal("300.00"), buyFactory.getValorTicketMedio());
+		
+		List<Produto> remocoes = new ArrayList<Produto>();
+		for (long codigo = 1; codigo <= 50; codigo++) {
+			remocoes.add(criarProduto(codigo));
+		}
+		Assert.assertEquals(50, carrinho.removerItens(remocoes));
+		Assert.assertEquals(2, alteracoes.get());
+		Assert.assertEquals(new BigDecimal("150.00"), buyFactory.getValorTicketMedio());
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void naoDeveIniciarExpiracaoForaDoModoConcorrente() {
+		buyFactory.configurarExpiracao(30, TimeUnit.MINUTES, 1000);
+		buyFactory.iniciarExpiracao();
+	}
+	
 	//Mocks
 	public void adicionarProdutoInvalido(final CarrinhoCompras carrinho) {
 		carrinho.adicionarItem(null, null, 0);
 	}
 	
 	public void adicionarProdutoIdInvalido(final CarrinhoCompras carrinho) {
-		Produto p = new Produto(-1L, "Descricao_Produto_ID_Invlido");
+		Produto p = new Produto(-1L, "Descricao_Produto_ID_Inválido");
 		carrinho.adicionarItem(p, null, 0);
 	}
 	
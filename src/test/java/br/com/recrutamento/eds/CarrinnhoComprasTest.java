@@ -2,7 +2,9 @@ package br.com.recrutamento.eds;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -46,7 +48,7 @@ public class CarrinnhoComprasTest {
 
 		BigDecimal valorRetornado = buyCart.getValorTotal();
 		Assert.assertEquals("O valor total devem ser iguais.",valorEsperado, valorRetornado);
-		Assert.assertFalse("A lista no deve ser vazia.", buyCart.getItens().isEmpty());
+		Assert.assertFalse("A lista não deve ser vazia.", buyCart.getItens().isEmpty());
 		Assert.assertEquals("A lista deve conter dois elementos.",buyCart.getItens().size(), 2);
 	}
 
@@ -64,7 +66,7 @@ public class CarrinnhoComprasTest {
 
 		BigDecimal valorRetornado = buyCart.getValorTotal();
 		Assert.assertEquals(valorEsperado, valorRetornado);
-		Assert.assertFalse("A lista no deve ser vazia.", buyCart.getItens().isEmpty());
+		Assert.assertFalse("A lista não deve ser vazia.", buyCart.getItens().isEmpty());
 		Assert.assertEquals(buyCart.getItens().size(), 1);
 	}
 
@@ -102,7 +104,7 @@ public class CarrinnhoComprasTest {
 		Assert.assertTrue( buyCart.removerItem(produto1));
 
 		List<Item> itens = new ArrayList<Item>(buyCart.getItens());
-		Assert.assertFalse("A lista no deve ser vazia.", itens.isEmpty());
+		Assert.assertFalse("A lista não deve ser vazia.", itens.isEmpty());
 		Produto produtoRestante = itens.get(0).getProduto();
 		Assert.assertTrue(produtoRestante.equals(produto2));
 	}
@@ -116,10 +118,10 @@ public class CarrinnhoComprasTest {
 
 		buyCart.adicionarItem(produto1, valorUnitario, 2);
 
-		Assert.assertFalse("No deve remover produto inexistente",buyCart.removerItem(produtoInvalido));
+		Assert.assertFalse("Não deve remover produto inexistente",buyCart.removerItem(produtoInvalido));
 
 		List<Item> itens = new ArrayList<Item>(buyCart.getItens());
-		Assert.assertFalse("A lista no deve ser vazia.", itens.isEmpty());
+		Assert.assertFalse("A lista não deve ser vazia.", itens.isEmpty());
 		Assert.assertEquals(itens.size(), 1);
 	}
 
@@ -138,7 +140,7 @@ public class CarrinnhoComprasTest {
 		Assert.assertTrue(removido);
 
 		List<Item> itens = new ArrayList<Item>(buyCart.getItens());
-		Assert.assertFalse("A lista no deve ser vazia.", itens.isEmpty());
+		Assert.assertFalse("A lista não deve ser vazia.", itens.isEmpty());
 		Produto produtoRestante = itens.get(0).getProduto();
 		Assert.assertTrue(produtoRestante.equals(produto2));
 	}
@@ -153,7 +155,7 @@ public class CarrinnhoComprasTest {
 		buyCart.adicionarItem(produto1, valorUnitario, 1);
 		buyCart.adicionarItem(produto2, valorUnitario, 2);
 
-		Assert.assertFalse("No deve remover nada.",buyCart.removerItem(10));
+		Assert.assertFalse("Não deve remover nada.",buyCart.removerItem(10));
 
 		List<Item> itens = new ArrayList<Item>(buyCart.getItens());
 		Assert.assertEquals(itens.size(), 2);
@@ -173,4 +175,273 @@ public class CarrinnhoComprasTest {
 		Assert.assertTrue("A lista deve ser vazia.", itens.isEmpty());
 		Assert.assertEquals(itens.size(), 0);
 	}
+
+	@Test
+	public void deveManterValorTotalIgualAoSomatorioDosItens() {
+
+		Produto produto1 = new Produto(1L, "Descricao_Produto_1");
+		Produto produto2 = new Produto(2L, "Descricao_Produto_2");
+		Produto produto3 = new Produto(3L, "Descricao_Produto_3");
+
+		buyCart.adicionarItem(produto1, new BigDecimal("10.125"), 3);
+		Assert.assertEquals(somarItens(), buyCart.getValorTotal());
+		buyCart.adicionarItem(produto2, new BigDecimal("7.5"), 2);
+		Assert.assertEquals(somarItens(), buyCart.getValorTotal());
+		buyCart.adicionarItem(produto3, new BigDecimal(4), 1);
+		Assert.assertEquals(somarItens(), buyCart.getValorTotal());
+		buyCart.adicionarItem(produto2, new BigDecimal("7.50"), 1);
+		Assert.assertEquals(somarItens(), buyCart.getValorTotal());
+
+		Assert.assertTrue(buyCart.removerItem(produto1));
+		Assert.assertEquals(new BigDecimal("26.50"), buyCart.getValorTotal());
+		Assert.assertEquals(somarItens(), buyCart.getValorTotal());
+
+		Assert.assertTrue(buyCart.removerItem(0));
+		Assert.assertEquals(new BigDecimal(4), buyCart.getValorTotal());
+		Assert.assertEquals(somarItens(), buyCart.getValorTotal());
+
+		Assert.assertTrue(buyCart.removerItem(0));
+		Assert.assertEquals(BigDecimal.ZERO, buyCart.getValorTotal());
+	}
+
+	@Test
+	public void deveAtualizarValorTotalQuandoItemForAlterado() {
+
+		Produto produto1 = new Produto(1L, "Descricao_Produto_1");
+		buyCart.adicionarItem(produto1, new BigDecimal(10), 2);
+
+		Item item = buyCart.getItens().iterator().next();
+		item.setQuantidade(5);
+		Assert.assertEquals(new BigDecimal(50), buyCart.getValorTotal());
+
+		item.setValorUnitario(new BigDecimal("2.5"));
+		Assert.assertEquals(new BigDecimal("12.5"), buyCart.getValorTotal());
+		Assert.assertEquals(somarItens(), buyCart.getValorTotal());
+	}
+
+	@Test
+	public void naoDeveAlterarItemComValoresInvalidos() {
+
+		buyCart.adicionarItem(new Produto(1L, "Descricao_Produto_1"), new BigDecimal(10), 2);
+		Item item = buyCart.getItens().iterator().next();
+
+		for (Runnable alteracao : Arrays.<Runnable>asList(() -> item.setValorUnitario(null),
+				() -> item.setValorUnitario(BigDecimal.ZERO), () -> item.setQuantidade(0), () -> item.setQuantidade(-1))) {
+			try {
+				alteracao.run();
+				Assert.fail("A alteração deveria ter sido rejeitada.");
+			} catch (IllegalArgumentException e) {
+				// esperado
+			}
+		}
+		Assert.assertEquals(2, item.getQuantidade());
+		Assert.assertEquals(new BigDecimal(20), buyCart.getValorTotal());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void naoDeveAlterarItemRemovido() {
+
+		Produto produto = new Produto(1L, "Descricao_Produto_1");
+		buyCart.adicionarItem(produto, new BigDecimal(10), 2);
+		Item item = buyCart.getItens().iterator().next();
+		Assert.assertTrue(buyCart.removerItem(produto));
+
+		item.setValorUnitario(BigDecimal.ONE);
+	}
+
+	@Test
+	public void deveManterValorTotalComItensAlteradosEmOutrasThreads() throws InterruptedException {
+
+		for (long codigo = 1; codigo <= 4; codigo++) {
+			buyCart.adicionarItem(new Produto(codigo, "Descricao_Produto"), BigDecimal.ONE, 1);
+		}
+		List<Item> itens = new ArrayList<Item>(buyCart.getItens());
+		Thread[] threads = new Thread[4];
+
+		for (int t = 0; t < threads.length; t++) {
+			Item item = itens.get(t);
+			threads[t] = new Thread(() -> {
+				Random random = new Random();
+				for (int i = 0; i < 20000; i++) {
+					if (random.nextBoolean()) {
+						item.setQuantidade(1 + random.nextInt(5));
+					} else {
+						item.setValorUnitario(BigDecimal.valueOf(1 + random.nextInt(100), random.nextInt(3)));
+					}
+					buyCart.adicionarItem(new Produto(5L, "Descricao_Produto"), BigDecimal.ONE, 1);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertEquals(somarItens(), buyCart.getValorTotal());
+	}
+
+	@Test
+	public void deveManterOrdemDeInclusaoComMuitosItens() {
+
+		Random random = new Random(42);
+		List<Long> esperado = new ArrayList<Long>();
+
+		for (int i = 0; i < 20000; i++) {
+			int operacao = random.nextInt(10);
+			if (operacao < 6 || esperado.isEmpty()) {
+				long codigo = 1 + random.nextInt(5000);
+				buyCart.adicionarItem(new Produto(codigo, "Descricao_Produto"), BigDecimal.ONE, 1);
+				if (!esperado.contains(codigo)) {
+					esperado.add(codigo);
+				}
+			} else if (operacao < 8) {
+				long codigo = 1 + random.nextInt(5000);
+				boolean removido = buyCart.removerItem(new Produto(codigo, "Descricao_Produto"));
+				Assert.assertEquals(esperado.remove(Long.valueOf(codigo)), removido);
+			} else {
+				int posicao = random.nextInt(esperado.size() + 1);
+				boolean removido = buyCart.removerItem(posicao);
+				Assert.assertEquals(posicao < esperado.size(), removido);
+				if (removido) {
+					esperado.remove(posicao);
+				}
+			}
+		}
+
+		List<Long> codigos = new ArrayList<Long>();
+		for (Item item : buyCart.getItens()) {
+			codigos.add(item.getProduto().getCodigo());
+		}
+		Assert.assertEquals(esperado, codigos);
+		Assert.assertEquals(somarItens(), buyCart.getValorTotal());
+	}
+
+	@Test
+	public void deveTratarProdutoSemCodigo() {
+
+		Produto produtoSemCodigo = new Produto(null, "Descricao_Produto");
+		buyCart.adicionarItem(produtoSemCodigo, BigDecimal.TEN, 1);
+		buyCart.adicionarItem(new Produto(null, "Descricao_Produto"), BigDecimal.TEN, 2);
+
+		Assert.assertEquals(1, buyCart.getItens().size());
+		Assert.assertEquals(new BigDecimal(30), buyCart.getValorTotal());
+		Assert.assertTrue(buyCart.removerItem(produtoSemCodigo));
+		Assert.assertTrue(buyCart.getItens().isEmpty());
+	}
+
+	@Test
+	public void deveCalcularValorTotalComValoresAcimaDoLong() {
+
+		BigDecimal valorUnitario = new BigDecimal(Long.MAX_VALUE).movePointLeft(2);
+		buyCart.adicionarItem(new Produto(1L, "Descricao_Produto_1"), valorUnitario, 1000);
+		buyCart.adicionarItem(new Produto(2L, "Descricao_Produto_2"), new BigDecimal("0.5"), 3);
+
+		Assert.assertEquals(somarItens(), buyCart.getValorTotal());
+		Assert.assertTrue(buyCart.removerItem(0));
+		Assert.assertEquals(new BigDecimal("1.5"), buyCart.getValorTotal());
+	}
+
+	@Test
+	public void deveManterEscalaDoValorTotalComEscalasVariadas() {
+
+		Random random = new Random(7);
+		BigDecimal[] valores = { new BigDecimal("1E+2"), BigDecimal.ONE, new BigDecimal("0.5"), new BigDecimal("2.25"),
+				new BigDecimal("0.125"), new BigDecimal("3.0000"), new BigDecimal(Long.MAX_VALUE).movePointLeft(3) };
+
+		for (int i = 0; i < 5000; i++) {
+			Produto produto = new Produto(1L + random.nextInt(8), "Descricao_Produto");
+			int operacao = random.nextInt(4);
+			if (operacao < 2) {
+				buyCart.adicionarItem(produto, valores[random.nextInt(valores.length)], 1 + random.nextInt(3));
+			} else if (operacao < 3) {
+				buyCart.removerItem(produto);
+			} else if (!buyCart.getItens().isEmpty()) {
+				buyCart.getItens().iterator().next().setValorUnitario(valores[random.nextInt(valores.length)]);
+			}
+			Assert.assertEquals(somarItens(), buyCart.getValorTotal());
+		}
+	}
+
+	@Test
+	public void deveAdicionarItensEmLoteComoAdicoesIndividuais() {
+
+		Random random = new Random(11);
+		CarrinhoCompras individual = new CarrinhoCompras("5002-XPTO");
+
+		for (int rodada = 0; rodada < 20; rodada++) {
+			List<Item> lote = new ArrayList<Item>();
+			for (int i = 0; i < 200; i++) {
+				Long codigo = random.nextInt(50) == 0 ? null : Long.valueOf(1 + random.nextInt(300));
+				BigDecimal valorUnitario = BigDecimal.valueOf(1 + random.nextInt(10000), random.nextInt(4));
+				Item item = new Item(new Produto(codigo, "Descricao_Produto"), valorUnitario, 1 + random.nextInt(5));
+				lote.add(item);
+				individual.adicionarItem(item.getProduto(), item.getValorUnitario(), item.getQuantidade());
+			}
+			buyCart.adicionarItens(lote);
+
+			List<Produto> remocoes = new ArrayList<Produto>();
+			for (int i = 0; i < 30; i++) {
+				Produto produto = new Produto(Long.valueOf(1 + random.nextInt(300)), "Descricao_Produto");
+				remocoes.add(produto);
+				individual.removerItem(produto);
+			}
+			buyCart.removerItens(remocoes);
+
+			Assert.assertEquals(descrever(individual), descrever(buyCart));
+			Assert.assertEquals(individual.getValorTotal(), buyCart.getValorTotal());
+		}
+		Assert.assertEquals(somarItens(), buyCart.getValorTotal());
+	}
+
+	@Test
+	public void naoDeveAdicionarNenhumItemDoLoteComItemInvalido() {
+
+		buyCart.adicionarItem(new Produto(1L, "Descricao_Produto_1"), BigDecimal.TEN, 1);
+		List<Item> lote = new ArrayList<Item>();
+		lote.add(new Item(new Produto(1L, "Descricao_Produto_1"), BigDecimal.ONE, 2));
+		lote.add(new Item(new Produto(2L, "Descricao_Produto_2"), BigDecimal.ONE, 0));
+
+		try {
+			buyCart.adicionarItens(lote);
+			Assert.fail("O lote com quantidade inválida não deve ser aceito.");
+		} catch (IllegalArgumentException e) {
+			// Esperado.
+		}
+		Assert.assertEquals(1, buyCart.getItens().size());
+		Assert.assertEquals(BigDecimal.TEN, buyCart.getValorTotal());
+	}
+
+	@Test
+	public void deveSomarQuantidadesDoMesmoProdutoNoLote() {
+
+		List<Item> lote = new ArrayList<Item>();
+		lote.add(new Item(new Produto(1L, "Descricao_Produto_1"), BigDecimal.TEN, 2));
+		lote.add(new Item(new Produto(2L, "Descricao_Produto_2"), BigDecimal.ONE, 1));
+		lote.add(new Item(new Produto(1L, "Descricao_Produto_1"), new BigDecimal("7.5"), 3));
+		buyCart.adicionarItens(lote);
+
+		Item item = buyCart.getItens().iterator().next();
+		Assert.assertEquals(2, buyCart.getItens().size());
+		Assert.assertEquals(5, item.getQuantidade());
+		Assert.assertEquals(new BigDecimal("7.5"), item.getValorUnitario());
+		Assert.assertEquals(new BigDecimal("38.5"), buyCart.getValorTotal());
+		Assert.assertEquals(2, buyCart.removerItens(Arrays.asList(new Produto(1L, "Descricao_Produto_1"),
+				new Produto(2L, "Descricao_Produto_2"), new Produto(3L, "Descricao_Produto_3"), null)));
+		Assert.assertTrue(buyCart.getItens().isEmpty());
+	}
+
+	private static List<String> descrever(CarrinhoCompras carrinho) {
+		List<String> itens = new ArrayList<String>();
+		for (Item item : carrinho.getItens()) {
+			itens.add(item.getProduto().getCodigo() + " " + item.getValorUnitario() + " " + item.getQuantidade());
+		}
+		return itens;
+	}
+
+	private BigDecimal somarItens() {
+		BigDecimal valorTotal = BigDecimal.ZERO;
+		for (Item item : buyCart.getItens()) {
+			valorTotal = valorTotal.add(item.getValorTotal());
+		}
+		return valorTotal;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,257 @@
+package br.com.recrutamento.eds;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DiarioCarrinhosTest {
+
+	@Rule
+	public TemporaryFolder pasta = new TemporaryFolder();
+
+	@Test
+	public void deveRestaurarAsAlteracoesRegistradas() throws Exception {
+		Path diretorio = pasta.getRoot().toPath();
+		CarrinhoComprasFactory origem = new CarrinhoComprasFactory(true);
+
+		try (DiarioCarrinhos diario = new DiarioCarrinhos(diretorio)) {
+			origem.setDiario(diario);
+			alterar(origem, new Random(7), 3000);
+			diario.sincronizar();
+			Assert.assertTrue(diario.getSequencia() > 3000);
+		}
+
+		CarrinhoComprasFactory destino = new CarrinhoComprasFactory(true);
+		try (DiarioCarrinhos diario = new DiarioCarrinhos(diretorio)) {
+			Assert.assertTrue(diario.restaurar(destino) > 3000);
+		}
+		assertMesmosCarrinhos(origem, destino);
+	}
+
+	@Test
+	public void deveRestaurarOSnapshotEOsEventosPosteriores() throws Exception {
+		Path diretorio = pasta.getRoot().toPath();
+		CarrinhoComprasFactory origem = new CarrinhoComprasFactory(true);
+		Random random = new Random(11);
+
+		try (DiarioCarrinhos diario = new DiarioCarrinhos(diretorio, 4096)) {
+			origem.setDiario(diario);
+			for (int i = 0; i < 10; i++) {
+				alterar(origem, random, 200);
+				diario.sincronizar();
+			}
+			int segmentos = arquivos(diretorio, "diario-").size();
+			Assert.assertTrue(segmentos >= 10);
+
+			diario.gravarSnapshot(origem);
+			// Apenas o segmento em gravação pode conter eventos posteriores ao snapshot.
+			Assert.assertEquals(1, arquivos(diretorio, "diario-").size());
+			alterar(origem, random, 500);
+		}
+		Assert.assertEquals(1, arquivos(diretorio, "snapshot-").size());
+
+		CarrinhoComprasFactory destino = new CarrinhoComprasFactory(true);
+		try (DiarioCarrinhos diario = new DiarioCarrinhos(diretorio)) {
+			long aplicados = diario.restaurar(destino);
+			Assert.assertTrue(aplicados >= 500 && aplicados < 2500);
+		}
+		assertMesmosCarrinhos(origem, destino);
+	}
+
+	@Test
+	public void deveIgnorarEventoIncompletoEContinuarASequencia() throws Exception {
+		Path diretorio = pasta.getRoot().toPath();
+		CarrinhoComprasFactory origem = new CarrinhoComprasFactory();
+		long sequencia;
+
+		try (DiarioCarrinhos diario = new DiarioCarrinhos(diretorio)) {
+			origem.setDiario(diario);
+			origem.criar("A").adicionarItem(new Produto(1L, "Caneta"), new BigDecimal("2.50"), 2);
+			origem.criar("B").adicionarItem(new Produto(2L, "Lápis"), BigDecimal.ONE, 1);
+			sequencia = diario.getSequencia();
+		}
+		// Simula uma queda durante a gravação do próximo evento.
+		Path segmento = arquivos(diretorio, "diario-").get(0);
+		Files.write(segmento, new byte[] { 0, 0, 0, 40, 1, 2, 3, 4, 5, 6 }, StandardOpenOption.APPEND);
+
+		try (DiarioCarrinhos diario = new DiarioCarrinhos(diretorio)) {
+			Assert.assertEquals(sequencia, diario.getSequencia());
+			CarrinhoComprasFactory intermediaria = new CarrinhoComprasFactory();
+			Assert.assertEquals(sequencia, diario.restaurar(intermediaria));
+			intermediaria.setDiario(diario);
+			intermediaria.criar("A").getItens().iterator().next().setQuantidade(5);
+			intermediaria.invalidar("B");
+			Assert.assertEquals(sequencia + 2, diario.getSequencia());
+		}
+
+		CarrinhoComprasFactory destino = new CarrinhoComprasFactory();
+		try (DiarioCarrinhos diario = new DiarioCarrinhos(diretorio)) {
+			diario.restaurar(destino);
+		}
+		Assert.assertEquals(1, destino.getQuantidadeCarrinhos());
+		Assert.assertEquals(new BigDecimal("12.50"), destino.criar("A").getValorTotal());
+	}
+
+	@Test
+	public void deveRegistrarAExpiracao() throws Exception {
+		Path diretorio = pasta.getRoot().toPath();
+		AtomicLong relogio = new AtomicLong();
+		CarrinhoComprasFactory origem = new CarrinhoComprasFactory();
+		origem.setRelogio(relogio::get);
+		origem.configurarExpiracao(30, TimeUnit.MINUTES, 1000);
+
+		try (DiarioCarrinhos diario = new DiarioCarrinhos(diretorio)) {
+			origem.setDiario(diario);
+			origem.criar("A").adicionarItem(new Produto(1L, "Caneta"), BigDecimal.TEN, 1);
+			relogio.addAndGet(TimeUnit.MINUTES.toNanos(20));
+			origem.criar("B").adicionarItem(new Produto(2L, "Lápis"), BigDecimal.ONE, 1);
+			relogio.addAndGet(TimeUnit.MINUTES.toNanos(11));
+			origem.expirarCarrinhosOciosos();
+		}
+
+		CarrinhoComprasFactory destino = new CarrinhoComprasFactory();
+		try (DiarioCarrinhos diario = new DiarioCarrinhos(diretorio)) {
+			diario.restaurar(destino);
+		}
+		Assert.assertEquals(1, destino.getQuantidadeCarrinhos());
+		Assert.assertEquals(BigDecimal.ONE, destino.criar("B").getValorTotal());
+	}
+
+	@Test
+	public void deveRestaurarCriacoesEInvalidacoesConcorrentesDoMesmoCliente() throws Exception {
+		Path diretorio = pasta.getRoot().toPath();
+		CarrinhoComprasFactory origem = new CarrinhoComprasFactory(true);
+
+		try (DiarioCarrinhos diario = new DiarioCarrinhos(diretorio)) {
+			origem.setDiario(diario);
+			// Cede o processador com o carrinho bloqueado, para que as operações das threads se intercalem.
+			origem.adicionarListener(new CarrinhoComprasListener() {
+				@Override
+				public void carrinhoAlterado(CarrinhoCompras carrinho) {
+					Thread.yield();
+				}
+			});
+			Thread[] threads = new Thread[4];
+			for (int t = 0; t < threads.length; t++) {
+				int semente = t;
+				threads[t] = new Thread(() -> {
+					// As threads percorrem os mesmos clientes, e apenas o estado final de cada cliente é comparado.
+					Random random = new Random(semente);
+					for (int o = 0; o < 20000; o++) {
+						String cliente = "CLIENTE-" + o / 4;
+						if (random.nextBoolean()) {
+							origem.criar(cliente).adicionarItem(new Produto(1L + random.nextInt(3), "Produto"), BigDecimal.ONE, 1);
+						} else {
+							origem.invalidar(cliente);
+						}
+					}
+				});
+				threads[t].start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			diario.sincronizar();
+		}
+
+		CarrinhoComprasFactory destino = new CarrinhoComprasFactory(true);
+		try (DiarioCarrinhos diario = new DiarioCarrinhos(diretorio)) {
+			diario.restaurar(destino);
+		}
+		assertMesmosCarrinhos(origem, destino);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void naoDeveRestaurarEmFactoryComDiario() throws Exception {
+		CarrinhoComprasFactory factory = new CarrinhoComprasFactory();
+
+		try (DiarioCarrinhos diario = new DiarioCarrinhos(pasta.getRoot().toPath())) {
+			factory.setDiario(diario);
+			diario.restaurar(factory);
+		}
+	}
+
+	/**
+	 * Executa alterações aleatórias nos carrinhos, com todas as operações registradas no diário.
+	 */
+	private static void alterar(CarrinhoComprasFactory factory, Random random, int operacoes) {
+		for (int o = 0; o < operacoes; o++) {
+			CarrinhoCompras carrinho = factory.criar("CLIENTE-" + random.nextInt(100));
+			Produto produto = new Produto(1L + random.nextInt(40), "Produto " + random.nextInt(3));
+			BigDecimal valorUnitario = BigDecimal.valueOf(1 + random.nextInt(100000), random.nextInt(4));
+
+			switch (random.nextInt(8)) {
+			case 0:
+				carrinho.removerItem(produto);
+				break;
+			case 1:
+				carrinho.removerItem(random.nextInt(5));
+				break;
+			case 2:
+				carrinho.adicionarItens(Arrays.asList(new Item(produto, valorUnitario, 2),
+						new Item(new Produto(null, "Sem código"), BigDecimal.ONE, 1), new Item(produto, BigDecimal.TEN, 1)));
+				break;
+			case 3:
+				carrinho.removerItens(Arrays.asList(produto, new Produto(1L + random.nextInt(40), null)));
+				break;
+			case 4:
+				if (!carrinho.getItens().isEmpty()) {
+					Item item = carrinho.getItens().iterator().next();
+					item.setQuantidade(1 + random.nextInt(10));
+					item.setValorUnitario(valorUnitario);
+				}
+				break;
+			case 5:
+				if (random.nextInt(10) == 0) {
+					factory.invalidar(carrinho.getIdentificacaoCliente());
+				}
+				break;
+			default:
+				carrinho.adicionarItem(produto, valorUnitario, 1 + random.nextInt(10));
+			}
+		}
+	}
+
+	private static List<Path> arquivos(Path diretorio, String prefixo) throws IOException {
+		try (Stream<Path> arquivos = Files.list(diretorio)) {
+			return arquivos.filter(arquivo -> arquivo.getFileName().toString().startsWith(prefixo)).sorted()
+					.collect(Collectors.toCollection(ArrayList::new));
+		}
+	}
+
+	private static void assertMesmosCarrinhos(CarrinhoComprasFactory esperada, CarrinhoComprasFactory atual) {
+		Assert.assertEquals(esperada.getQuantidadeCarrinhos(), atual.getQuantidadeCarrinhos());
+		Assert.assertEquals(esperada.getValorTicketMedio(), atual.getValorTicketMedio());
+
+		for (CarrinhoCompras carrinho : esperada.getCarrinhos()) {
+			CarrinhoCompras restaurado = atual.criar(carrinho.getIdentificacaoCliente());
+			Assert.assertEquals(carrinho.getValorTotal(), restaurado.getValorTotal());
+			Assert.assertEquals(carrinho.getItens().size(), restaurado.getItens().size());
+
+			Iterator<Item> itens = restaurado.getItens().iterator();
+			for (Item item : carrinho.getItens()) {
+				Item itemRestaurado = itens.next();
+				Assert.assertEquals(item.getProduto().getCodigo(), itemRestaurado.getProduto().getCodigo());
+				Assert.assertEquals(item.getProduto().getDescricao(), itemRestaurado.getProduto().getDescricao());
+				Assert.assertEquals(item.getValorUnitario(), itemRestaurado.getValorUnitario());
+				Assert.assertEquals(item.getQuantidade(), itemRestaurado.getQuantidade());
+			}
+		}
+	}
+}
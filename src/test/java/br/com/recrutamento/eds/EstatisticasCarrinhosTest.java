@@ -0,0 +1,98 @@
+package br.com.recrutamento.eds;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EstatisticasCarrinhosTest {
+
+	@Test
+	public void deveCalcularAsEstatisticasDosCarrinhos() {
+		CarrinhoComprasFactory factory = new CarrinhoComprasFactory();
+
+		for (int i = 1; i <= 100; i++) {
+			CarrinhoCompras carrinho = factory.criar("CLIENTE-" + i);
+			carrinho.adicionarItem(new Produto(1L, "Caneta"), BigDecimal.valueOf(i), 1);
+			if (i % 4 == 0) {
+				carrinho.adicionarItem(new Produto(2L, "Brinde"), new BigDecimal("0.001"), 1);
+			}
+		}
+		factory.criar("VAZIO");
+
+		EstatisticasCarrinhos estatisticas = factory.calcularEstatisticas(new BigDecimal("25"), new BigDecimal("50.5"));
+
+		Assert.assertEquals(101, estatisticas.getQuantidadeCarrinhos());
+		Assert.assertEquals(factory.getValorTicketMedio(), estatisticas.getValorTicketMedio());
+		Assert.assertEquals(new BigDecimal("50.00"), estatisticas.getMediana());
+		Assert.assertEquals(new BigDecimal("90.00"), estatisticas.getPercentil90());
+		Assert.assertEquals(new BigDecimal("99.00"), estatisticas.getPercentil99());
+
+		Assert.assertEquals(3, estatisticas.getHistograma().size());
+		Assert.assertEquals(Long.valueOf(25), estatisticas.getHistograma().get(new BigDecimal("0.00")));
+		Assert.assertEquals(Long.valueOf(26), estatisticas.getHistograma().get(new BigDecimal("25.00")));
+		Assert.assertEquals(Long.valueOf(50), estatisticas.getHistograma().get(new BigDecimal("50.50")));
+
+		Assert.assertEquals(3, estatisticas.getDistribuicaoItens().size());
+		Assert.assertEquals(Long.valueOf(1), estatisticas.getDistribuicaoItens().get(0));
+		Assert.assertEquals(Long.valueOf(75), estatisticas.getDistribuicaoItens().get(1));
+		Assert.assertEquals(Long.valueOf(25), estatisticas.getDistribuicaoItens().get(2));
+	}
+
+	@Test
+	public void deveCalcularEmParaleloComoOCalculoSequencial() {
+		CarrinhoComprasFactory factory = new CarrinhoComprasFactory(true);
+		Random random = new Random(17);
+		List<BigDecimal> valores = new ArrayList<BigDecimal>();
+		BigDecimal soma = BigDecimal.ZERO;
+
+		for (int c = 0; c < 50000; c++) {
+			CarrinhoCompras carrinho = factory.criar("CLIENTE-" + c);
+			int quantidadeItens = random.nextInt(6);
+			for (int i = 0; i < quantidadeItens; i++) {
+				carrinho.adicionarItem(new Produto(Long.valueOf(i + 1), "Produto"),
+						BigDecimal.valueOf(1 + random.nextInt(1000000), random.nextInt(4)), 1 + random.nextInt(3));
+			}
+			valores.add(carrinho.getValorTotal());
+			soma = soma.add(carrinho.getValorTotal());
+		}
+		Collections.sort(valores);
+
+		EstatisticasCarrinhos estatisticas = factory.calcularEstatisticas();
+
+		Assert.assertEquals(soma.divide(BigDecimal.valueOf(50000), 2, RoundingMode.HALF_UP), estatisticas.getValorTicketMedio());
+		Assert.assertEquals(factory.getValorTicketMedio(), estatisticas.getValorTicketMedio());
+		Assert.assertEquals(valores.get(24999).setScale(2, RoundingMode.HALF_UP), estatisticas.getMediana());
+		Assert.assertEquals(valores.get(44999).setScale(2, RoundingMode.HALF_UP), estatisticas.getPercentil90());
+		Assert.assertEquals(valores.get(49499).setScale(2, RoundingMode.HALF_UP), estatisticas.getPercentil99());
+
+		long carrinhos = 0;
+		for (long quantidade : estatisticas.getHistograma().values()) {
+			carrinhos += quantidade;
+		}
+		Assert.assertEquals(50000, carrinhos);
+		Assert.assertEquals(8, estatisticas.getHistograma().size());
+		Assert.assertEquals(6, estatisticas.getDistribuicaoItens().size());
+	}
+
+	@Test
+	public void deveRetornarZeroSemCarrinhos() {
+		EstatisticasCarrinhos estatisticas = new CarrinhoComprasFactory().calcularEstatisticas();
+
+		Assert.assertEquals(0, estatisticas.getQuantidadeCarrinhos());
+		Assert.assertEquals(new BigDecimal("0.00"), estatisticas.getValorTicketMedio());
+		Assert.assertEquals(new BigDecimal("0.00"), estatisticas.getMediana());
+		Assert.assertEquals(new BigDecimal("0.00"), estatisticas.getPercentil99());
+		Assert.assertTrue(estatisticas.getDistribuicaoItens().isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void naoDeveAceitarLimitesForaDeOrdem() {
+		new CarrinhoComprasFactory().calcularEstatisticas(new BigDecimal("100"), new BigDecimal("100.001"));
+	}
+}
@@ -0,0 +1,110 @@
+package br.com.recrutamento.eds;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricasCarrinhosTest {
+
+	@Test
+	public void deveContarAsOperacoesDosCarrinhos() {
+		CarrinhoComprasFactory factory = new CarrinhoComprasFactory();
+		factory.criar("EXISTENTE").adicionarItem(new Produto(9L, "Borracha"), BigDecimal.ONE, 1);
+		MetricasCarrinhos metricas = factory.habilitarMetricas();
+		Assert.assertSame(metricas, factory.habilitarMetricas());
+
+		CarrinhoCompras carrinho = factory.criar("A");
+		carrinho.adicionarItem(new Produto(1L, "Caneta"), BigDecimal.TEN, 1);
+		carrinho.adicionarItem(new Produto(2L, "Lápis"), BigDecimal.ONE, 2);
+		carrinho.adicionarItem(new Produto(1L, "Caneta"), BigDecimal.TEN, 1);
+		carrinho.removerItem(new Produto(2L, "Lápis"));
+		carrinho.removerItem(5);
+		carrinho.getValorTotal();
+		factory.criar("B").adicionarItem(new Produto(3L, "Caderno"), BigDecimal.TEN, 1);
+		factory.criar("A");
+		Assert.assertNull(factory.criar(""));
+		try {
+			carrinho.adicionarItem(new Produto(1L, "Caneta"), BigDecimal.ZERO, 1);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			// Falha de validação contada nas métricas.
+		}
+		factory.invalidar("B");
+		factory.getValorTicketMedio();
+
+		Assert.assertEquals(2, metricas.getCarrinhosCriados());
+		Assert.assertEquals(1, metricas.getCarrinhosInvalidados());
+		Assert.assertEquals(0, metricas.getCarrinhosExpirados());
+		Assert.assertEquals(2, metricas.getFalhasValidacao());
+		Assert.assertEquals(2, metricas.getQuantidadeCarrinhos());
+		Assert.assertEquals(1.0, metricas.getMediaItensPorCarrinho(), 0.0);
+
+		Assert.assertEquals(3, metricas.getLatencia(MetricasCarrinhos.Operacao.CRIAR).getQuantidade());
+		Assert.assertEquals(4, metricas.getLatencia(MetricasCarrinhos.Operacao.ADICIONAR_ITEM).getQuantidade());
+		Assert.assertEquals(2, metricas.getLatencia(MetricasCarrinhos.Operacao.REMOVER_ITEM).getQuantidade());
+		Assert.assertEquals(1, metricas.getLatencia(MetricasCarrinhos.Operacao.GET_VALOR_TOTAL).getQuantidade());
+		Assert.assertEquals(1, metricas.getLatencia(MetricasCarrinhos.Operacao.GET_VALOR_TICKET_MEDIO).getQuantidade());
+
+		factory.desabilitarMetricas();
+		Assert.assertNull(factory.getMetricas());
+		carrinho.adicionarItem(new Produto(4L, "Régua"), BigDecimal.ONE, 1);
+		Assert.assertEquals(4, metricas.getLatencia(MetricasCarrinhos.Operacao.ADICIONAR_ITEM).getQuantidade());
+	}
+
+	@Test
+	public void deveCalcularOsPercentisComErroLimitado() {
+		HistogramaLatencia histograma = new HistogramaLatencia();
+
+		for (long valor = 1; valor <= 100000; valor++) {
+			histograma.registrar(valor);
+		}
+		ResumoLatencia resumo = histograma.resumir();
+
+		Assert.assertEquals(100000, resumo.getQuantidade());
+		Assert.assertEquals(50000.5, resumo.getMedia(), 0.0);
+		Assert.assertEquals(100000, resumo.getMaximo());
+		assertProximo(50000, resumo.getPercentil50());
+		assertProximo(90000, resumo.getPercentil90());
+		assertProximo(99000, resumo.getPercentil99());
+
+		for (long valor : new long[] { 0, 1, 31, 32, 33, 1000, 123456789, Long.MAX_VALUE }) {
+			int indice = HistogramaLatencia.indice(valor);
+			Assert.assertTrue(valor <= HistogramaLatencia.limiteSuperior(indice));
+			Assert.assertTrue(indice == 0 || valor > HistogramaLatencia.limiteSuperior(indice - 1));
+		}
+	}
+
+	@Test
+	public void devePublicarAsMetricasNoJmx() throws Exception {
+		CarrinhoComprasFactory factory = new CarrinhoComprasFactory();
+		MetricasCarrinhos metricas = factory.habilitarMetricas();
+		factory.criar("A").adicionarItem(new Produto(1L, "Caneta"), BigDecimal.TEN, 3);
+		metricas.registrarJmx("teste-jmx");
+
+		MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+		ObjectName nome = metricas.getNomeJmx();
+		try {
+			Assert.assertEquals(1L, servidor.getAttribute(nome, "CarrinhosCriados"));
+			Assert.assertEquals(1.0, (Double) servidor.getAttribute(nome, "MediaItensPorCarrinho"), 0.0);
+
+			TabularData latencias = (TabularData) servidor.getAttribute(nome, "Latencias");
+			CompositeData adicionarItem = latencias.get(new Object[] { "ADICIONAR_ITEM" });
+			CompositeData resumo = (CompositeData) adicionarItem.get("value");
+			Assert.assertEquals(1L, resumo.get("quantidade"));
+		} finally {
+			factory.desabilitarMetricas();
+		}
+		Assert.assertFalse(servidor.isRegistered(nome));
+	}
+
+	private static void assertProximo(long esperado, long atual) {
+		Assert.assertTrue("percentil " + atual, atual >= esperado && atual <= esperado + esperado / 32);
+	}
+}
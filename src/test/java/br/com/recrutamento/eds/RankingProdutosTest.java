@@ -0,0 +1,119 @@
+package br.com.recrutamento.eds;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RankingProdutosTest {
+
+	@Rule
+	public TemporaryFolder pasta = new TemporaryFolder();
+
+	@Test
+	public void deveManterOsProdutosComMaiorQuantidadeEValor() {
+		CarrinhoComprasFactory factory = new CarrinhoComprasFactory();
+		RankingProdutos ranking = new RankingProdutos(10);
+		factory.setRanking(ranking);
+		Produto caneta = new Produto(1L, "Caneta");
+		Produto lapis = new Produto(2L, "Lápis");
+		Produto caderno = new Produto(3L, "Caderno");
+
+		factory.criar("A").adicionarItem(caneta, new BigDecimal("1.50"), 10);
+		factory.criar("A").adicionarItem(caderno, new BigDecimal("25.00"), 1);
+		factory.criar("B").adicionarItem(lapis, new BigDecimal("0.755"), 4);
+		factory.criar("B").adicionarItem(caneta, new BigDecimal("1.50"), 2);
+		factory.criar("C").adicionarItens(Arrays.asList(new Item(lapis, new BigDecimal("0.755"), 4), new Item(caderno,
+				new BigDecimal("20.00"), 1)));
+
+		assertRanking(ranking.getMaioresQuantidades(3), caneta, 12, "18.00", lapis, 8, "6.04", caderno, 2, "45.00");
+		assertRanking(ranking.getMaioresValores(2), caderno, 2, "45.00", caneta, 12, "18.00");
+
+		// Remoção, alteração pelo Item e invalidação do carrinho.
+		factory.criar("A").removerItem(caneta);
+		factory.criar("B").getItens().iterator().next().setQuantidade(20);
+		factory.invalidar("C");
+
+		assertRanking(ranking.getMaioresQuantidades(5), lapis, 20, "15.10", caneta, 2, "3.00", caderno, 1, "25.00");
+		assertRanking(ranking.getMaioresValores(1), caderno, 1, "25.00");
+	}
+
+	@Test
+	public void deveEncontrarOsProdutosMaisFrequentesEntreMuitosProdutos() {
+		CarrinhoComprasFactory factory = new CarrinhoComprasFactory();
+		RankingProdutos ranking = new RankingProdutos(20, 1024);
+		factory.setRanking(ranking);
+
+		// Dez produtos frequentes intercalados com 50 mil produtos adicionados uma única vez.
+		for (int i = 0; i < 50000; i++) {
+			CarrinhoCompras carrinho = factory.criar("CLIENTE-" + (i % 500));
+			carrinho.adicionarItem(new Produto(Long.valueOf(1000 + i), "Produto"), BigDecimal.ONE, 1);
+			if (i % 10 == 0) {
+				carrinho.adicionarItem(new Produto(Long.valueOf(1 + (i / 10) % 10), "Frequente"), BigDecimal.TEN, 1);
+			}
+		}
+
+		List<PosicaoRanking> maiores = ranking.getMaioresQuantidades(10);
+		Assert.assertEquals(10, maiores.size());
+		for (PosicaoRanking posicao : maiores) {
+			Assert.assertTrue(posicao.getProduto().getCodigo() <= 10);
+			Assert.assertTrue(posicao.getQuantidade() >= 500);
+		}
+		Assert.assertTrue(ranking.getMaioresValores(10).get(9).getValorTotal().compareTo(new BigDecimal("5000.00")) >= 0);
+	}
+
+	@Test
+	public void deveSomarOsCarrinhosRestauradosEExistentes() throws Exception {
+		CarrinhoComprasFactory origem = new CarrinhoComprasFactory();
+		Produto caneta = new Produto(1L, "Caneta");
+		origem.criar("A").adicionarItem(caneta, BigDecimal.ONE, 3);
+		Path arquivo = pasta.getRoot().toPath().resolve("carrinhos.snapshot");
+		origem.gravarSnapshot(arquivo);
+
+		RankingProdutos ranking = new RankingProdutos(10);
+		origem.setRanking(ranking);
+		CarrinhoComprasFactory destino = new CarrinhoComprasFactory();
+		destino.setRanking(ranking);
+		destino.restaurarSnapshot(arquivo);
+		assertRanking(ranking.getMaioresQuantidades(1), caneta, 6, "6.00");
+
+		origem.invalidar("A");
+		destino.invalidar("A");
+		Assert.assertTrue(ranking.getMaioresQuantidades(1).isEmpty());
+	}
+
+	@Test
+	public void deveSepararOsProdutosSemCodigoDoCodigoZero() {
+		// O carrinho não aceita o código zero(0), mas o ranking não depende da validação do carrinho.
+		RankingProdutos ranking = new RankingProdutos(10);
+		Produto brinde = new Produto(null, "Brinde");
+		Produto produtoZero = new Produto(0L, "Produto zero");
+
+		ranking.somar(brinde, 5, 50L);
+		ranking.somar(produtoZero, 1, 200L);
+
+		assertRanking(ranking.getMaioresQuantidades(2), brinde, 5, "0.50", produtoZero, 1, "2.00");
+		Assert.assertTrue(ranking.getMaioresValores(0).isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void naoDeveConsultarQuantidadeNegativa() {
+		new RankingProdutos(10).getMaioresQuantidades(-1);
+	}
+
+	private static void assertRanking(List<PosicaoRanking> posicoes, Object... esperado) {
+		Assert.assertEquals(esperado.length / 3, posicoes.size());
+
+		for (int i = 0; i < posicoes.size(); i++) {
+			PosicaoRanking posicao = posicoes.get(i);
+			Assert.assertSame(esperado[i * 3], posicao.getProduto());
+			Assert.assertEquals(((Integer) esperado[i * 3 + 1]).longValue(), posicao.getQuantidade());
+			Assert.assertEquals(new BigDecimal((String) esperado[i * 3 + 2]), posicao.getValorTotal());
+		}
+	}
+}
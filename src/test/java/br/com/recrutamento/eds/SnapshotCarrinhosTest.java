@@ -0,0 +1,165 @@
+package br.com.recrutamento.eds;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SnapshotCarrinhosTest {
+
+	@Rule
+	public TemporaryFolder pasta = new TemporaryFolder();
+
+	@Test
+	public void deveRestaurarOsCarrinhosGravados() throws Exception {
+		CarrinhoComprasFactory origem = criarFactory(new Random(3), 500);
+		Path arquivo = pasta.getRoot().toPath().resolve("carrinhos.snapshot");
+
+		Assert.assertEquals(500, origem.gravarSnapshot(arquivo));
+		Assert.assertFalse(Files.exists(arquivo.resolveSibling("carrinhos.snapshot.tmp")));
+
+		CarrinhoComprasFactory destino = new CarrinhoComprasFactory(true);
+		Assert.assertEquals(500, destino.restaurarSnapshot(arquivo));
+		assertMesmosCarrinhos(origem, destino);
+	}
+
+	@Test
+	public void deveGravarEmVariasRegioesMapeadas() throws Exception {
+		CarrinhoComprasFactory origem = criarFactory(new Random(5), 200);
+		CarrinhoCompras grande = origem.criar("CLIENTE-GRANDE");
+		grande.adicionarItem(new Produto(99999L, descricaoLonga()), new BigDecimal(BigInteger.TEN.pow(40), 3), 2);
+		Path arquivo = pasta.getRoot().toPath().resolve("carrinhos.snapshot");
+
+		// Regiões menores que a descrição do produto e que vários carrinhos.
+		Assert.assertEquals(201, SnapshotCarrinhos.gravar(origem.getCarrinhos(), origem.agora(), arquivo, 64));
+
+		CarrinhoComprasFactory destino = new CarrinhoComprasFactory();
+		Assert.assertEquals(201, SnapshotCarrinhos.restaurar(arquivo, destino, 64));
+		assertMesmosCarrinhos(origem, destino);
+	}
+
+	@Test
+	public void deveMapearApenasOTamanhoExatoDoArquivo() throws Exception {
+		CarrinhoComprasFactory origem = criarFactory(new Random(9), 300);
+		Path pequenas = pasta.getRoot().toPath().resolve("pequenas.snapshot");
+		Path grandes = pasta.getRoot().toPath().resolve("grandes.snapshot");
+
+		// O arquivo não é estendido até o fim da última região, e portanto não precisa ser truncado.
+		long agora = origem.agora();
+		SnapshotCarrinhos.gravar(origem.getCarrinhos(), agora, pequenas, 100);
+		SnapshotCarrinhos.gravar(origem.getCarrinhos(), agora, grandes, SnapshotCarrinhos.TAMANHO_REGIAO);
+		Assert.assertTrue(Files.size(grandes) < SnapshotCarrinhos.TAMANHO_REGIAO);
+		Assert.assertArrayEquals(Files.readAllBytes(pequenas), Files.readAllBytes(grandes));
+
+		// Substitui o snapshot anterior, já restaurado.
+		origem.criar("CLIENTE-NOVO").adicionarItem(new Produto(1L, "Caneta"), BigDecimal.ONE, 1);
+		Assert.assertEquals(301, SnapshotCarrinhos.gravar(origem.getCarrinhos(), origem.agora(), grandes, 100));
+		CarrinhoComprasFactory destino = new CarrinhoComprasFactory();
+		Assert.assertEquals(301, SnapshotCarrinhos.restaurar(grandes, destino, 100));
+		assertMesmosCarrinhos(origem, destino);
+	}
+
+	@Test
+	public void deveCompartilharOsProdutosRestaurados() throws Exception {
+		CarrinhoComprasFactory origem = new CarrinhoComprasFactory();
+		origem.criar("A").adicionarItem(new Produto(1L, "Caneta"), BigDecimal.ONE, 1);
+		origem.criar("B").adicionarItem(new Produto(1L, "Caneta"), BigDecimal.ONE, 2);
+		origem.criar("C").adicionarItem(new Produto(1L, "Caneta azul"), BigDecimal.ONE, 3);
+		Path arquivo = pasta.getRoot().toPath().resolve("carrinhos.snapshot");
+		origem.gravarSnapshot(arquivo);
+
+		CarrinhoComprasFactory destino = new CarrinhoComprasFactory();
+		destino.restaurarSnapshot(arquivo);
+
+		Produto a = destino.criar("A").getItens().iterator().next().getProduto();
+		Assert.assertSame(a, destino.criar("B").getItens().iterator().next().getProduto());
+		Assert.assertEquals("Caneta azul", destino.criar("C").getItens().iterator().next().getProduto().getDescricao());
+	}
+
+	@Test
+	public void deveManterCarrinhosExistentesEOTempoOcioso() throws Exception {
+		AtomicLong relogio = new AtomicLong();
+		CarrinhoComprasFactory origem = new CarrinhoComprasFactory();
+		origem.setRelogio(relogio::get);
+		origem.criar("A").adicionarItem(new Produto(1L, "Caneta"), BigDecimal.TEN, 1);
+		relogio.addAndGet(TimeUnit.MINUTES.toNanos(20));
+		origem.criar("B").adicionarItem(new Produto(2L, "Lapis"), BigDecimal.ONE, 1);
+		Path arquivo = pasta.getRoot().toPath().resolve("carrinhos.snapshot");
+		origem.gravarSnapshot(arquivo);
+
+		AtomicLong outroRelogio = new AtomicLong(TimeUnit.DAYS.toNanos(1));
+		CarrinhoComprasFactory destino = new CarrinhoComprasFactory();
+		destino.setRelogio(outroRelogio::get);
+		destino.configurarExpiracao(30, TimeUnit.MINUTES, 1000);
+		CarrinhoCompras existente = destino.criar("B");
+		Assert.assertEquals(1, destino.restaurarSnapshot(arquivo));
+		Assert.assertSame(existente, destino.criar("B"));
+		Assert.assertEquals(new BigDecimal("5.00"), destino.getValorTicketMedio());
+
+		// O carrinho A estava ocioso havia 20 minutos e expira 10 minutos após a restauração.
+		outroRelogio.addAndGet(TimeUnit.MINUTES.toNanos(11));
+		destino.expirarCarrinhosOciosos();
+		Assert.assertEquals(1, destino.getQuantidadeCarrinhos());
+		Assert.assertEquals(new BigDecimal("0.00"), destino.getValorTicketMedio());
+	}
+
+	@Test(expected = IOException.class)
+	public void naoDeveRestaurarArquivoInvalido() throws Exception {
+		Path arquivo = pasta.newFile("invalido.snapshot").toPath();
+		Files.write(arquivo, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12 });
+		new CarrinhoComprasFactory().restaurarSnapshot(arquivo);
+	}
+
+	private static CarrinhoComprasFactory criarFactory(Random random, int quantidadeCarrinhos) {
+		CarrinhoComprasFactory factory = new CarrinhoComprasFactory(true);
+
+		for (int c = 0; c < quantidadeCarrinhos; c++) {
+			CarrinhoCompras carrinho = factory.criar("CLIENTE-" + c);
+			int quantidadeItens = random.nextInt(20);
+			for (int i = 0; i < quantidadeItens; i++) {
+				Long codigo = random.nextInt(30) == 0 ? null : Long.valueOf(1 + random.nextInt(1000));
+				BigDecimal valorUnitario = BigDecimal.valueOf(1 + random.nextInt(100000), random.nextInt(4));
+				carrinho.adicionarItem(new Produto(codigo, "Produto " + codigo), valorUnitario, 1 + random.nextInt(10));
+			}
+		}
+		return factory;
+	}
+
+	private static void assertMesmosCarrinhos(CarrinhoComprasFactory esperada, CarrinhoComprasFactory atual) {
+		Assert.assertEquals(esperada.getQuantidadeCarrinhos(), atual.getQuantidadeCarrinhos());
+		Assert.assertEquals(esperada.getValorTicketMedio(), atual.getValorTicketMedio());
+
+		for (CarrinhoCompras carrinho : esperada.getCarrinhos()) {
+			CarrinhoCompras restaurado = atual.criar(carrinho.getIdentificacaoCliente());
+			Assert.assertEquals(carrinho.getValorTotal(), restaurado.getValorTotal());
+			Assert.assertEquals(carrinho.getItens().size(), restaurado.getItens().size());
+
+			Iterator<Item> itens = restaurado.getItens().iterator();
+			for (Item item : carrinho.getItens()) {
+				Item itemRestaurado = itens.next();
+				Assert.assertEquals(item.getProduto().getCodigo(), itemRestaurado.getProduto().getCodigo());
+				Assert.assertEquals(item.getProduto().getDescricao(), itemRestaurado.getProduto().getDescricao());
+				Assert.assertEquals(item.getValorUnitario(), itemRestaurado.getValorUnitario());
+				Assert.assertEquals(item.getQuantidade(), itemRestaurado.getQuantidade());
+			}
+		}
+	}
+
+	private static String descricaoLonga() {
+		StringBuilder descricao = new StringBuilder();
+		for (int i = 0; i < 20; i++) {
+			descricao.append("Descrição longa ");
+		}
+		return descricao.toString();
+	}
+}
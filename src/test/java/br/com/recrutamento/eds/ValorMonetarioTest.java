@@ -0,0 +1,82 @@
+package br.com.recrutamento.eds;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ValorMonetarioTest {
+
+	@Test
+	public void deveRetornarOMesmoBigDecimalInformado() {
+		BigDecimal valor = new BigDecimal("10.50");
+		Assert.assertSame(valor, ValorMonetario.de(valor).paraBigDecimal());
+	}
+
+	@Test
+	public void deveCalcularComoBigDecimal() {
+		Random random = new Random(7);
+
+		for (int i = 0; i < 10000; i++) {
+			BigDecimal a = BigDecimal.valueOf(random.nextInt(2000000) - 1000000, random.nextInt(6) - 1);
+			BigDecimal b = BigDecimal.valueOf(random.nextInt(2000000) - 1000000, random.nextInt(6) - 1);
+			int quantidade = random.nextInt(1000);
+
+			ValorMonetario valorA = ValorMonetario.de(a);
+			ValorMonetario valorB = ValorMonetario.de(b);
+
+			Assert.assertEquals(a.add(b), valorA.somar(valorB).paraBigDecimal());
+			Assert.assertEquals(a.subtract(b), valorA.subtrair(valorB).paraBigDecimal());
+			Assert.assertEquals(a.multiply(new BigDecimal(quantidade)), valorA.multiplicar(quantidade).paraBigDecimal());
+			Assert.assertEquals(a.compareTo(b), valorA.compareTo(valorB));
+			Assert.assertEquals(a.signum(), valorA.signum());
+		}
+	}
+
+	@Test
+	public void deveUsarBigDecimalQuandoExcederLong() {
+		BigDecimal grande = new BigDecimal(Long.MAX_VALUE).movePointLeft(2);
+		ValorMonetario valor = ValorMonetario.de(grande);
+
+		Assert.assertEquals(grande.multiply(new BigDecimal(3)), valor.multiplicar(3).paraBigDecimal());
+		Assert.assertEquals(grande.add(grande), valor.somar(valor).paraBigDecimal());
+		Assert.assertEquals(grande.add(new BigDecimal("0.001")),
+				valor.somar(ValorMonetario.de(new BigDecimal("0.001"))).paraBigDecimal());
+
+		// Ao voltar para a faixa do long o valor volta a ser calculado em ponto fixo.
+		ValorMonetario dobro = valor.somar(valor);
+		Assert.assertEquals(grande, dobro.subtrair(valor).paraBigDecimal());
+
+		BigDecimal enorme = new BigDecimal(BigInteger.TEN.pow(30), 2);
+		Assert.assertEquals(enorme.add(BigDecimal.ONE),
+				ValorMonetario.de(enorme).somar(ValorMonetario.de(BigDecimal.ONE)).paraBigDecimal());
+	}
+
+	@Test
+	public void deveAlterarEscalaSemArredondar() {
+		ValorMonetario valor = ValorMonetario.de(new BigDecimal("12.500"));
+
+		Assert.assertEquals(new BigDecimal("12.5"), valor.comEscala(1).paraBigDecimal());
+		Assert.assertEquals(new BigDecimal("12.50000"), valor.comEscala(5).paraBigDecimal());
+	}
+
+	@Test
+	public void deveArredondarParaCentavosComoBigDecimal() {
+		Random random = new Random(13);
+
+		for (int i = 0; i < 10000; i++) {
+			BigDecimal valor = BigDecimal.valueOf(random.nextLong() >> (20 + random.nextInt(43)), random.nextInt(24) - 4);
+			BigDecimal esperado = valor.setScale(2, RoundingMode.HALF_UP);
+			Assert.assertEquals(esperado.unscaledValue().longValue(), ValorMonetario.de(valor).paraCentavos());
+		}
+		Assert.assertEquals(Long.MAX_VALUE, ValorMonetario.de(new BigDecimal(BigInteger.TEN.pow(30))).paraCentavos());
+	}
+
+	@Test(expected = ArithmeticException.class)
+	public void naoDeveReduzirEscalaComArredondamento() {
+		ValorMonetario.de(new BigDecimal("12.55")).comEscala(1);
+	}
+}
@@ -0,0 +1,124 @@
+package br.com.recrutamento.eds;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VisaoCarrinhoTest {
+
+	@Test
+	public void deveRefletirOCarrinhoAposCadaAlteracao() {
+		CarrinhoCompras carrinho = new CarrinhoCompras("5001-XPTO");
+		Random random = new Random(21);
+		long versao = carrinho.getVisao().getVersao();
+
+		for (int i = 0; i < 5000; i++) {
+			int operacao = random.nextInt(10);
+			boolean alterado = true;
+			if (operacao < 6) {
+				carrinho.adicionarItem(new Produto(1L + random.nextInt(300), "Descricao_Produto"),
+						BigDecimal.valueOf(1 + random.nextInt(1000), random.nextInt(3)), 1 + random.nextInt(3));
+			} else if (operacao < 8) {
+				alterado = carrinho.removerItem(new Produto(1L + random.nextInt(300), "Descricao_Produto"));
+			} else if (operacao < 9) {
+				alterado = carrinho.removerItem(random.nextInt(carrinho.getItens().size() + 1));
+			} else if (!carrinho.getItens().isEmpty()) {
+				carrinho.getItens().iterator().next().setQuantidade(1 + random.nextInt(10));
+			} else {
+				alterado = false;
+			}
+
+			VisaoCarrinho visao = carrinho.getVisao();
+			Assert.assertEquals(alterado ? versao + 1 : versao, visao.getVersao());
+			versao = visao.getVersao();
+			Assert.assertEquals(descrever(carrinho), descreverVisao(visao));
+			Assert.assertEquals(carrinho.getValorTotal(), visao.getValorTotal());
+		}
+	}
+
+	@Test
+	public void naoDeveAlterarVisaoJaPublicada() {
+		CarrinhoCompras carrinho = new CarrinhoCompras("5001-XPTO");
+		for (long codigo = 1; codigo <= 100; codigo++) {
+			carrinho.adicionarItem(new Produto(codigo, "Descricao_Produto"), BigDecimal.ONE, 1);
+		}
+		VisaoCarrinho visao = carrinho.getVisao();
+		List<String> itens = descreverVisao(visao);
+
+		carrinho.adicionarItem(new Produto(50L, "Descricao_Produto"), BigDecimal.TEN, 1);
+		carrinho.removerItem(0);
+		carrinho.getItens().iterator().next().setQuantidade(7);
+		// A inclusão de muitos itens reorganiza as posições do carrinho.
+		for (long codigo = 101; codigo <= 1000; codigo++) {
+			carrinho.adicionarItem(new Produto(codigo, "Descricao_Produto"), BigDecimal.ONE, 1);
+		}
+
+		Assert.assertEquals(itens, descreverVisao(visao));
+		Assert.assertEquals(new BigDecimal(100), visao.getValorTotal());
+		Assert.assertEquals(100, visao.getItens().size());
+	}
+
+	@Test
+	public void deveLerVisoesConsistentesDuranteAlteracoes() throws Exception {
+		final CarrinhoCompras carrinho = new CarrinhoCompras("5001-XPTO");
+		final AtomicBoolean executando = new AtomicBoolean(true);
+		final AtomicReference<Throwable> erro = new AtomicReference<Throwable>();
+
+		Thread leitor = new Thread(() -> {
+			try {
+				while (executando.get()) {
+					VisaoCarrinho visao = carrinho.getVisao();
+					BigDecimal soma = BigDecimal.ZERO;
+					int quantidade = 0;
+					for (VisaoItem item : visao.getItens()) {
+						soma = soma.add(item.getValorTotal());
+						quantidade++;
+					}
+					Assert.assertEquals(visao.getItens().size(), quantidade);
+					Assert.assertEquals(0, soma.compareTo(visao.getValorTotal()));
+				}
+			} catch (Throwable e) {
+				erro.set(e);
+			}
+		});
+		leitor.start();
+
+		Random random = new Random(8);
+		for (int i = 0; i < 50000; i++) {
+			if (random.nextInt(3) == 0) {
+				carrinho.removerItem(new Produto(1L + random.nextInt(500), "Descricao_Produto"));
+			} else {
+				carrinho.adicionarItem(new Produto(1L + random.nextInt(500), "Descricao_Produto"),
+						BigDecimal.valueOf(1 + random.nextInt(100)), 1);
+			}
+		}
+		executando.set(false);
+		leitor.join();
+
+		Assert.assertNull(erro.get());
+	}
+
+	private static List<String> descrever(CarrinhoCompras carrinho) {
+		List<String> itens = new ArrayList<String>();
+		for (Item item : carrinho.getItens()) {
+			itens.add(item.getProduto().getCodigo() + " " + item.getValorUnitario() + " " + item.getQuantidade() + " "
+					+ item.getValorTotal());
+		}
+		return itens;
+	}
+
+	private static List<String> descreverVisao(VisaoCarrinho visao) {
+		List<String> itens = new ArrayList<String>();
+		for (VisaoItem item : visao.getItens()) {
+			itens.add(item.getProduto().getCodigo() + " " + item.getValorUnitario() + " " + item.getQuantidade() + " "
+					+ item.getValorTotal());
+		}
+		return itens;
+	}
+}
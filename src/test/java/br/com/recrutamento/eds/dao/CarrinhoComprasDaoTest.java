@@ -1,5 +1,283 @@
 package br.com.recrutamento.eds.dao;
 
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import br.com.recrutamento.eds.CarrinhoCompras;
+import br.com.recrutamento.eds.CarrinhoComprasFactory;
+import br.com.recrutamento.eds.Item;
+import br.com.recrutamento.eds.Produto;
+
 public class CarrinhoComprasDaoTest {
 
+	private static final AtomicInteger BANCOS = new AtomicInteger();
+
+	private CarrinhoComprasDao dao;
+
+	@Before
+	public void criarDao() throws Exception {
+		// Intervalo longo para que as gravações ocorram apenas quando o teste solicitar.
+		dao = new CarrinhoComprasDao("jdbc:hsqldb:mem:carrinhos" + BANCOS.incrementAndGet(), "SA", "", 1, TimeUnit.HOURS, 100);
+	}
+
+	@After
+	public void encerrarDao() throws Exception {
+		dao.close();
+	}
+
+	@Test
+	public void deveGravarECarregarCarrinho() throws Exception {
+		CarrinhoCompras carrinho = new CarrinhoCompras("cliente");
+		carrinho.adicionarItem(new Produto(1L, "Caneta"), new BigDecimal("1.50"), 2);
+		carrinho.adicionarItem(new Produto(null, "Brinde"), new BigDecimal("0.001"), 1);
+		carrinho.adicionarItem(new Produto(3L, "Caderno"), new BigDecimal("12.3"), 3);
+
+		dao.salvar(carrinho);
+		Assert.assertNull(dao.carregar("cliente"));
+
+		dao.gravarPendentes();
+		CarrinhoCompras carregado = dao.carregar("cliente");
+
+		Assert.assertEquals(itens(carrinho), itens(carregado));
+		Assert.assertEquals(carrinho.getValorTotal(), carregado.getValorTotal());
+	}
+
+	@Test
+	public void deveGravarValoresUnitariosSemPerdas() throws Exception {
+		CarrinhoCompras carrinho = new CarrinhoCompras("cliente");
+		carrinho.adicionarItem(new Produto(1L, "Caneta"), new BigDecimal(33.30), 2);
+		carrinho.adicionarItem(new Produto(2L, "Lote"), new BigDecimal("1E+25"), 1);
+		carrinho.adicionarItem(new Produto(3L, "Brinde"), new BigDecimal("0.000000000000000000000000000001"), 3);
+
+		dao.salvar(carrinho);
+		dao.gravarPendentes();
+		CarrinhoCompras carregado = dao.carregar("cliente");
+
+		Assert.assertEquals(itens(carrinho), itens(carregado));
+		Assert.assertEquals(carrinho.getValorTotal(), carregado.getValorTotal());
+	}
+
+	@Test
+	public void deveDescartarApenasAOperacaoQueFalhar() throws Exception {
+		// A identificação excede as 100 posições da coluna, de modo que o carrinho nunca pode ser gravado.
+		char[] identificacao = new char[101];
+		Arrays.fill(identificacao, 'x');
+		CarrinhoCompras invalido = new CarrinhoCompras(new String(identificacao));
+		invalido.adicionarItem(new Produto(1L, "Caneta"), new BigDecimal("1.50"), 2);
+		CarrinhoCompras carrinho = new CarrinhoCompras("cliente");
+		carrinho.adicionarItem(new Produto(1L, "Caneta"), new BigDecimal("1.50"), 2);
+		dao.salvar(invalido);
+		dao.salvar(carrinho);
+		dao.remover("removido");
+
+		try {
+			dao.gravarPendentes();
+			Assert.fail();
+		} catch (SQLException e) {
+			Assert.assertTrue(e.getMessage().contains(invalido.getIdentificacaoCliente()));
+		}
+
+		Assert.assertEquals(0, dao.getQuantidadePendente());
+		Assert.assertEquals(new BigDecimal("3.00"), dao.carregar("cliente").getValorTotal());
+
+		carrinho.adicionarItem(new Produto(2L, "Lapis"), new BigDecimal("0.75"), 4);
+		dao.salvar(carrinho);
+		dao.gravarPendentes();
+		Assert.assertEquals(new BigDecimal("6.00"), dao.carregar("cliente").getValorTotal());
+	}
+
+	@Test
+	public void deveLancarAsFalhasDaGravacaoEmSegundoPlano() throws Exception {
+		char[] identificacao = new char[101];
+		Arrays.fill(identificacao, 'x');
+		CarrinhoCompras invalido = new CarrinhoCompras(new String(identificacao));
+		invalido.adicionarItem(new Produto(1L, "Caneta"), new BigDecimal("1.50"), 2);
+
+		try (CarrinhoComprasDao rapido = new CarrinhoComprasDao("jdbc:hsqldb:mem:carrinhos" + BANCOS.incrementAndGet(),
+				"SA", "", 10, TimeUnit.MILLISECONDS, 100)) {
+			rapido.salvar(invalido);
+			while (rapido.getQuantidadePendente() > 0) {
+				Thread.sleep(10);
+			}
+			// A thread de gravação pode ter retirado a operação sem concluir a gravação.
+			Thread.sleep(100);
+
+			try {
+				rapido.gravarPendentes();
+				Assert.fail();
+			} catch (SQLException e) {
+				Assert.assertTrue(e.getMessage().contains(invalido.getIdentificacaoCliente()));
+			}
+			// A falha é lançada uma única vez.
+			rapido.gravarPendentes();
+		}
+	}
+
+	@Test
+	public void deveGravarApenasAUltimaOperacaoDoCliente() throws Exception {
+		CarrinhoCompras carrinho = new CarrinhoCompras("cliente");
+		carrinho.adicionarItem(new Produto(1L, "Caneta"), new BigDecimal("1.50"), 2);
+		dao.salvar(carrinho);
+		carrinho.adicionarItem(new Produto(2L, "Lapis"), new BigDecimal("0.75"), 4);
+		dao.salvar(carrinho);
+
+		Assert.assertEquals(1, dao.getQuantidadePendente());
+		dao.gravarPendentes();
+		Assert.assertEquals(0, dao.getQuantidadePendente());
+		Assert.assertEquals(2, dao.carregar("cliente").getItens().size());
+
+		carrinho.removerItem(0);
+		dao.salvar(carrinho);
+		dao.remover("cliente");
+		dao.gravarPendentes();
+		Assert.assertNull(dao.carregar("cliente"));
+	}
+
+	@Test
+	public void deveGravarAlteracoesDosCarrinhosDaFactory() throws Exception {
+		CarrinhoComprasFactory factory = new CarrinhoComprasFactory(true);
+		factory.adicionarListener(dao);
+
+		factory.criar("a").adicionarItem(new Produto(1L, "Caneta"), new BigDecimal("1.50"), 2);
+		CarrinhoCompras b = factory.criar("b");
+		b.adicionarItem(new Produto(2L, "Lapis"), new BigDecimal("0.75"), 4);
+		b.adicionarItem(new Produto(2L, "Lapis"), new BigDecimal("0.75"), 1);
+		dao.gravarPendentes();
+
+		Assert.assertEquals(new BigDecimal("3.00"), dao.carregar("a").getValorTotal());
+		Assert.assertEquals(5, dao.carregar("b").getItens().iterator().next().getQuantidade());
+
+		factory.invalidar("a");
+		dao.gravarPendentes();
+		Assert.assertNull(dao.carregar("a"));
+		Assert.assertNotNull(dao.carregar("b"));
+	}
+
+	@Test
+	public void deveGravarPendentesAoEncerrar() throws Exception {
+		CarrinhoCompras carrinho = new CarrinhoCompras("cliente");
+		carrinho.adicionarItem(new Produto(1L, "Caneta"), new BigDecimal("1.50"), 2);
+		dao.salvar(carrinho);
+		dao.close();
+
+		Assert.assertEquals(new BigDecimal("3.00"), dao.carregar("cliente").getValorTotal());
+	}
+
+	@Test
+	public void deveGravarQuandoAtingirACapacidade() throws Exception {
+		// A thread de gravação é acordada ao atingir a capacidade e libera espaço para as threads que aguardam.
+		for (int i = 0; i < 1000; i++) {
+			CarrinhoCompras carrinho = new CarrinhoCompras("cliente" + i);
+			carrinho.adicionarItem(new Produto(i + 1L, "Produto " + i), BigDecimal.ONE, 1);
+			dao.salvar(carrinho);
+			Assert.assertTrue(dao.getQuantidadePendente() <= 100);
+		}
+		dao.gravarPendentes();
+
+		Assert.assertNotNull(dao.carregar("cliente0"));
+		Assert.assertNotNull(dao.carregar("cliente999"));
+	}
+
+	@Test
+	public void deveCarregarVariosCarrinhosEmLotes() throws Exception {
+		List<String> clientes = new ArrayList<String>();
+		for (int i = 0; i < 1300; i++) {
+			CarrinhoCompras carrinho = new CarrinhoCompras("cliente" + i);
+			for (int j = 0; j < i % 4; j++) {
+				carrinho.adicionarItem(new Produto(j + 1L, "Produto " + j), new BigDecimal("1.5"), i + 1);
+			}
+			dao.salvar(carrinho);
+			clientes.add("cliente" + i);
+		}
+		dao.gravarPendentes();
+		clientes.add("inexistente");
+
+		Set<String> carregados = new HashSet<String>();
+		int quantidade = dao.carregar(clientes, carrinho -> {
+			Assert.assertTrue(carregados.add(carrinho.getIdentificacaoCliente()));
+			int i = Integer.parseInt(carrinho.getIdentificacaoCliente().substring("cliente".length()));
+			Assert.assertEquals(i % 4, carrinho.getItens().size());
+			BigDecimal esperado = new BigDecimal("1.5").multiply(BigDecimal.valueOf((long) (i % 4) * (i + 1)));
+			Assert.assertEquals(0, esperado.compareTo(carrinho.getValorTotal()));
+		});
+
+		Assert.assertEquals(1300, quantidade);
+		Assert.assertEquals(1300, carregados.size());
+		Assert.assertFalse(carregados.contains("inexistente"));
+	}
+
+	@Test
+	public void deveCarregarCarrinhosPorCliente() throws Exception {
+		CarrinhoCompras carrinho = new CarrinhoCompras("a");
+		carrinho.adicionarItem(new Produto(null, "Brinde"), new BigDecimal("0.001"), 1);
+		carrinho.adicionarItem(new Produto(1L, "Caneta"), new BigDecimal("1.50"), 2);
+		dao.salvar(carrinho);
+		dao.salvar(new CarrinhoCompras("b"));
+		dao.gravarPendentes();
+
+		Map<String, CarrinhoCompras> carregados = dao.carregar(Arrays.asList("a", "b", "c", "a"));
+
+		Assert.assertEquals(2, carregados.size());
+		Assert.assertEquals(itens(carrinho), itens(carregados.get("a")));
+		Assert.assertTrue(carregados.get("b").getItens().isEmpty());
+		Assert.assertTrue(dao.carregar(new ArrayList<String>()).isEmpty());
+	}
+
+	@Test
+	public void deveCompartilharOsProdutosDoCatalogo() throws Exception {
+		Produto caneta = dao.getCatalogo().internar(new Produto(1L, "Caneta"));
+		for (String cliente : Arrays.asList("a", "b")) {
+			CarrinhoCompras carrinho = new CarrinhoCompras(cliente);
+			carrinho.adicionarItem(new Produto(1L, "Caneta"), new BigDecimal("1.50"), 2);
+			carrinho.adicionarItem(new Produto(2L, "Lapis"), new BigDecimal("0.75"), 1);
+			dao.salvar(carrinho);
+		}
+		CarrinhoCompras renomeado = new CarrinhoCompras("c");
+		renomeado.adicionarItem(new Produto(1L, "Caneta azul"), new BigDecimal("1.50"), 1);
+		dao.salvar(renomeado);
+		dao.gravarPendentes();
+
+		Map<String, CarrinhoCompras> carregados = dao.carregar(Arrays.asList("a", "b", "c"));
+
+		Assert.assertSame(caneta, produto(carregados.get("a"), 0));
+		Assert.assertSame(caneta, produto(carregados.get("b"), 0));
+		Assert.assertSame(produto(carregados.get("a"), 1), produto(carregados.get("b"), 1));
+		// A descrição gravada no item é mantida mesmo que difira da descrição do catálogo.
+		Assert.assertEquals("Caneta azul", produto(carregados.get("c"), 0).getDescricao());
+	}
+
+	@Test
+	public void deveLimitarOsParametrosDaPesquisa() {
+		Assert.assertEquals(1, CarrinhoComprasDao.parametrosPesquisa(1));
+		Assert.assertEquals(4, CarrinhoComprasDao.parametrosPesquisa(3));
+		Assert.assertEquals(4, CarrinhoComprasDao.parametrosPesquisa(4));
+		Assert.assertEquals(CarrinhoComprasDao.TAMANHO_LOTE_CARGA, CarrinhoComprasDao.parametrosPesquisa(100000));
+	}
+
+	private static Produto produto(CarrinhoCompras carrinho, int posicao) {
+		return new ArrayList<Item>(carrinho.getItens()).get(posicao).getProduto();
+	}
+
+	private static List<String> itens(CarrinhoCompras carrinho) {
+		List<String> itens = new ArrayList<String>();
+
+		for (Item item : carrinho.getItens()) {
+			itens.add(item.getProduto().getCodigo() + " " + item.getProduto().getDescricao() + " "
+					+ item.getValorUnitario() + " " + item.getQuantidade());
+		}
+		return itens;
+	}
 }
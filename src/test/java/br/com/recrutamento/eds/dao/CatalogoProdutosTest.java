@@ -0,0 +1,123 @@
+package br.com.recrutamento.eds.dao;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import br.com.recrutamento.eds.Produto;
+import br.com.recrutamento.eds.dao.util.CreateTableJDBC;
+
+public class CatalogoProdutosTest {
+
+	private static final AtomicInteger BANCOS = new AtomicInteger();
+
+	private String url;
+
+	@Before
+	public void criarProdutos() throws Exception {
+		url = "jdbc:hsqldb:mem:catalogo" + BANCOS.incrementAndGet();
+
+		try (Connection con = DriverManager.getConnection(url, "SA", "")) {
+			CreateTableJDBC.criarTabelas(con);
+			PreparedStatement inserir = con.prepareStatement("INSERT INTO produto (codigo, descricao) VALUES (?, ?)");
+			for (int codigo = 1; codigo <= 500; codigo++) {
+				inserir.setInt(1, codigo);
+				inserir.setString(2, "Produto " + codigo);
+				inserir.addBatch();
+			}
+			inserir.executeBatch();
+		}
+	}
+
+	@Test
+	public void deveRetornarAMesmaInstanciaPorCodigo() throws Exception {
+		CatalogoProdutos catalogo = new CatalogoProdutos(url, "SA", "", 1024 * 1024);
+
+		Produto produto = catalogo.obter(7L);
+		Assert.assertEquals("Produto 7", produto.getDescricao());
+		Assert.assertSame(produto, catalogo.obter(7L));
+		Assert.assertSame(produto, catalogo.internar(new Produto(7L, "Produto 7")));
+		Assert.assertSame(produto, catalogo.obter(Arrays.asList(7L)).get(7L));
+		Assert.assertNull(catalogo.obter(9999L));
+	}
+
+	@Test
+	public void deveCarregarVariosCodigosEmLotes() throws Exception {
+		CatalogoProdutos catalogo = new CatalogoProdutos(url, "SA", "", 1024 * 1024);
+		Produto produto10 = catalogo.obter(10L);
+
+		List<Long> codigos = new ArrayList<Long>();
+		for (long codigo = 350; codigo >= 1; codigo--) {
+			codigos.add(codigo);
+		}
+		codigos.add(9999L);
+		codigos.add(10L);
+		Map<Long, Produto> produtos = catalogo.obter(codigos);
+
+		Assert.assertEquals(350, produtos.size());
+		Assert.assertEquals(Long.valueOf(350), produtos.keySet().iterator().next());
+		Assert.assertSame(produto10, produtos.get(10L));
+		Assert.assertEquals("Produto 123", produtos.get(123L).getDescricao());
+		Assert.assertEquals(350, catalogo.getQuantidadeProdutos());
+	}
+
+	@Test
+	public void deveLimitarAMemoriaDoCatalogo() throws Exception {
+		Produto produtoSemCodigo = new Produto(null, "Brinde");
+		CatalogoProdutos catalogo = new CatalogoProdutos(url, "SA", "", 50 * 160);
+		Assert.assertSame(produtoSemCodigo, catalogo.internar(produtoSemCodigo));
+
+		Produto frequente = catalogo.obter(1L);
+		for (long codigo = 2; codigo <= 500; codigo++) {
+			catalogo.obter(codigo);
+			// O produto pesquisado a cada passagem do relógio é mantido.
+			Assert.assertSame(frequente, catalogo.obter(1L));
+		}
+
+		Assert.assertTrue(catalogo.getPeso() <= 50 * 160);
+		Assert.assertTrue(catalogo.getQuantidadeProdutos() < 500);
+		Assert.assertEquals("Produto 2", catalogo.obter(2L).getDescricao());
+	}
+
+	@Test
+	public void deveManterOsProdutosCarregadosAposEncerramento() throws Exception {
+		CatalogoProdutos catalogo = new CatalogoProdutos(url, "SA", "", 1024 * 1024);
+		for (long codigo = 1; codigo <= 10; codigo++) {
+			// As cargas seguidas reaproveitam a conexão e os comandos de pesquisa.
+			Assert.assertEquals("Produto " + codigo, catalogo.obter(codigo).getDescricao());
+		}
+		Produto produto = catalogo.obter(1L);
+		catalogo.close();
+
+		Assert.assertSame(produto, catalogo.obter(1L));
+		try {
+			catalogo.obter(11L);
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			// Os produtos ausentes não são mais carregados.
+		}
+	}
+
+	@Test
+	public void deveLimitarOsParametrosDaPesquisa() {
+		Assert.assertEquals(1, CatalogoProdutos.parametrosPesquisa(1));
+		Assert.assertEquals(4, CatalogoProdutos.parametrosPesquisa(3));
+		Assert.assertEquals(64, CatalogoProdutos.parametrosPesquisa(64));
+		Assert.assertEquals(CatalogoProdutos.TAMANHO_LOTE, CatalogoProdutos.parametrosPesquisa(65));
+		Assert.assertEquals(CatalogoProdutos.TAMANHO_LOTE, CatalogoProdutos.parametrosPesquisa(1000));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void naoDeveCriarCatalogoSemTamanho() {
+		new CatalogoProdutos(url, "SA", "", 0);
+	}
+}
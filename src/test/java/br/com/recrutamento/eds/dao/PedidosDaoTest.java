@@ -0,0 +1,233 @@
+package br.com.recrutamento.eds.dao;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import br.com.recrutamento.eds.CarrinhoCompras;
+import br.com.recrutamento.eds.CarrinhoComprasFactory;
+import br.com.recrutamento.eds.Item;
+import br.com.recrutamento.eds.Produto;
+import br.com.recrutamento.eds.dao.util.CreateTableJDBC;
+
+public class PedidosDaoTest {
+
+	private static final AtomicInteger BANCOS = new AtomicInteger();
+
+	private String url;
+	private CarrinhoComprasFactory factory;
+	private PedidosDao dao;
+
+	@Before
+	public void criarDao() throws Exception {
+		url = "jdbc:hsqldb:mem:pedidos" + BANCOS.incrementAndGet();
+		factory = new CarrinhoComprasFactory(true);
+		dao = new PedidosDao(factory, url, "SA", "", 100, 10);
+	}
+
+	@After
+	public void encerrarDao() throws Exception {
+		dao.close();
+	}
+
+	@Test
+	public void deveGravarOPedidoDoCarrinhoFinalizado() throws Exception {
+		CarrinhoCompras carrinho = factory.criar("cliente");
+		carrinho.adicionarItem(new Produto(1L, "Caneta"), new BigDecimal("1.50"), 2);
+		carrinho.adicionarItem(new Produto(null, "Brinde"), new BigDecimal("0.001"), 1);
+		List<String> itensFinalizados = itens(carrinho);
+
+		CompletableFuture<Long> pedido = dao.finalizarCompra("cliente");
+		carrinho.adicionarItem(new Produto(3L, "Caderno"), new BigDecimal("12.3"), 3);
+
+		Assert.assertEquals(Long.valueOf(1L), pedido.get(10, TimeUnit.SECONDS));
+		Assert.assertEquals(0, factory.getQuantidadeCarrinhos());
+		Assert.assertNull(dao.finalizarCompra("cliente"));
+
+		CarrinhoCompras gravado = dao.carregar(1L);
+		Assert.assertEquals("cliente", gravado.getIdentificacaoCliente());
+		Assert.assertEquals(itensFinalizados, itens(gravado));
+		Assert.assertEquals(new BigDecimal("3.001"), gravado.getValorTotal());
+		Assert.assertNull(dao.carregar(2L));
+	}
+
+	@Test
+	public void deveGravarOsPedidosEmLotesEAvisarAConclusao() throws Exception {
+		List<CompletableFuture<Long>> pedidos = new ArrayList<CompletableFuture<Long>>();
+		List<CompletableFuture<Void>> avisos = new ArrayList<CompletableFuture<Void>>();
+		AtomicInteger concluidos = new AtomicInteger();
+
+		for (int i = 0; i < 250; i++) {
+			factory.criar("cliente" + i).adicionarItem(new Produto(Long.valueOf(i + 1), "Produto"), BigDecimal.TEN, i % 3 + 1);
+		}
+		factory.criar("vazio");
+		for (int i = 0; i < 250; i++) {
+			CompletableFuture<Long> pedido = dao.finalizarCompra("cliente" + i);
+			avisos.add(pedido.thenAccept(numero -> concluidos.incrementAndGet()));
+			pedidos.add(pedido);
+		}
+		pedidos.add(dao.finalizarCompra("vazio"));
+
+		Set<Long> numeros = new HashSet<Long>();
+		for (CompletableFuture<Long> pedido : pedidos) {
+			numeros.add(pedido.get(10, TimeUnit.SECONDS));
+		}
+		CompletableFuture.allOf(avisos.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+		Assert.assertEquals(251, numeros.size());
+		Assert.assertEquals(250, concluidos.get());
+		Assert.assertEquals(0, dao.getQuantidadePendente());
+		Assert.assertEquals(new BigDecimal("30"), dao.carregar(pedidos.get(2).get()).getValorTotal());
+		Assert.assertTrue(dao.carregar(pedidos.get(250).get()).getItens().isEmpty());
+
+		dao.close();
+		dao = new PedidosDao(factory, url, "SA", "");
+		factory.criar("outro").adicionarItem(new Produto(1L, "Caneta"), BigDecimal.ONE, 1);
+		Assert.assertEquals(Long.valueOf(252L), dao.finalizarCompra("outro").get(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void deveConcluirComFalhaOPedidoNaoGravado() throws Exception {
+		StringBuilder descricao = new StringBuilder();
+		for (int i = 0; i < 300; i++) {
+			descricao.append('x');
+		}
+		factory.criar("invalido").adicionarItem(new Produto(1L, descricao.toString()), BigDecimal.ONE, 1);
+		factory.criar("valido").adicionarItem(new Produto(1L, "Caneta"), BigDecimal.ONE, 1);
+
+		try {
+			dao.finalizarCompra("invalido").get(10, TimeUnit.SECONDS);
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof SQLException);
+		}
+		long numero = dao.finalizarCompra("valido").get(10, TimeUnit.SECONDS);
+		Assert.assertNotNull(dao.carregar(numero));
+	}
+
+	@Test
+	public void deveFalharApenasOPedidoInvalidoDoLote() throws Exception {
+		StringBuilder descricao = new StringBuilder();
+		for (int i = 0; i < 300; i++) {
+			descricao.append('x');
+		}
+		List<CompletableFuture<Long>> pedidos = new ArrayList<CompletableFuture<Long>>();
+		for (int i = 0; i < 50; i++) {
+			String produto = i % 10 == 5 ? descricao.toString() : "Produto";
+			factory.criar("cliente" + i).adicionarItem(new Produto(1L, produto), BigDecimal.ONE, 1);
+		}
+		for (int i = 0; i < 50; i++) {
+			pedidos.add(dao.finalizarCompra("cliente" + i));
+		}
+
+		for (int i = 0; i < 50; i++) {
+			try {
+				long numero = pedidos.get(i).get(10, TimeUnit.SECONDS);
+				Assert.assertFalse(i % 10 == 5);
+				Assert.assertEquals("cliente" + i, dao.carregar(numero).getIdentificacaoCliente());
+			} catch (ExecutionException e) {
+				Assert.assertTrue(i % 10 == 5);
+				Assert.assertTrue(e.getCause() instanceof SQLException);
+			}
+		}
+		Assert.assertEquals(0, dao.getQuantidadePendente());
+	}
+
+	@Test
+	public void deveGravarOsValoresSemPerdas() throws Exception {
+		CarrinhoCompras carrinho = factory.criar("cliente");
+		carrinho.adicionarItem(new Produto(1L, "Caneta"), new BigDecimal(33.30), 2);
+		carrinho.adicionarItem(new Produto(2L, "Lote"), new BigDecimal("1E+25"), 1);
+		List<String> itensFinalizados = itens(carrinho);
+		BigDecimal valorTotal = carrinho.getValorTotal();
+
+		CarrinhoCompras gravado = dao.carregar(dao.finalizarCompra("cliente").get(10, TimeUnit.SECONDS));
+
+		Assert.assertEquals(itensFinalizados, itens(gravado));
+		Assert.assertEquals(valorTotal, gravado.getValorTotal());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void naoDeveFinalizarCompraAposEncerramento() throws Exception {
+		factory.criar("cliente");
+		dao.close();
+		try {
+			dao.finalizarCompra("cliente");
+		} finally {
+			Assert.assertEquals(1, factory.getQuantidadeCarrinhos());
+		}
+	}
+
+	@Test
+	public void deveRepetirAGravacaoAposFalhaDeConexao() throws Exception {
+		PedidosDao indisponivel = criarDaoIndisponivel();
+		try {
+			factory.criar("cliente").adicionarItem(new Produto(1L, "Caneta"), BigDecimal.ONE, 1);
+			CompletableFuture<Long> pedido = indisponivel.finalizarCompra("cliente");
+			Thread.sleep(300);
+			Assert.assertFalse(pedido.isDone());
+
+			try (Connection con = DriverManager.getConnection(url, "SA", "")) {
+				CreateTableJDBC.criarTabelas(con);
+			}
+			Assert.assertEquals(Long.valueOf(1L), pedido.get(10, TimeUnit.SECONDS));
+			Assert.assertNotNull(indisponivel.carregar(1L));
+		} finally {
+			indisponivel.close();
+		}
+	}
+
+	@Test
+	public void deveConcluirComFalhaOsPedidosNaoGravadosAoEncerrar() throws Exception {
+		PedidosDao indisponivel = criarDaoIndisponivel();
+		factory.criar("cliente").adicionarItem(new Produto(1L, "Caneta"), BigDecimal.ONE, 1);
+		CompletableFuture<Long> pedido = indisponivel.finalizarCompra("cliente");
+
+		Assert.assertFalse(indisponivel.encerrar(100, TimeUnit.MILLISECONDS));
+		try {
+			pedido.get(10, TimeUnit.SECONDS);
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		Assert.assertEquals(0, indisponivel.getQuantidadePendente());
+	}
+
+	/**
+	 * Cria um DAO cujo banco é encerrado após a criação das tabelas. Com ifexists, as novas conexões
+	 * falham com SQLState de falha de conexão até que o banco seja criado novamente.
+	 */
+	private PedidosDao criarDaoIndisponivel() throws SQLException {
+		url = "jdbc:hsqldb:mem:pedidos" + BANCOS.incrementAndGet();
+		try (Connection con = DriverManager.getConnection(url, "SA", "")) {
+			PedidosDao indisponivel = new PedidosDao(factory, url + ";ifexists=true", "SA", "", 100, 10);
+			try (Statement stmt = con.createStatement()) {
+				stmt.execute("SHUTDOWN");
+			}
+			return indisponivel;
+		}
+	}
+
+	private static List<String> itens(CarrinhoCompras carrinho) {
+		List<String> itens = new ArrayList<String>();
+		for (Item item : carrinho.getItens()) {
+			itens.add(item.getProduto().getCodigo() + " " + item.getProduto().getDescricao() + " " + item.getValorUnitario()
+					+ " x " + item.getQuantidade());
+		}
+		return itens;
+	}
+}